@@ -24,7 +24,8 @@ CREATE TABLE IF NOT EXISTS `im_agent` (
 
 -- 聊天记录表
 CREATE TABLE IF NOT EXISTS `im_message` (
-    `id` BIGINT NOT NULL AUTO_INCREMENT COMMENT '消息ID',
+    `id` BIGINT NOT NULL COMMENT '消息ID（应用生成的 Snowflake ID，按时间有序）',
+    `conversation_id` VARCHAR(64) NOT NULL DEFAULT '' COMMENT '会话ID 格式 用户ID_客服ID',
     `from_id` BIGINT NOT NULL COMMENT '发送者ID',
     `from_type` TINYINT NOT NULL COMMENT '发送者类型 1-用户 2-客服',
     `to_id` BIGINT NOT NULL COMMENT '接收者ID',
@@ -32,10 +33,17 @@ CREATE TABLE IF NOT EXISTS `im_message` (
     `msg_type` TINYINT DEFAULT 1 COMMENT '消息类型 1-文字 2-表情 3-图片',
     `create_time` DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '发送时间',
     PRIMARY KEY (`id`),
-    INDEX `idx_from_to` (`from_id`, `to_id`),
-    INDEX `idx_to_from` (`to_id`, `from_id`)
+    INDEX `idx_conversation_id` (`conversation_id`, `id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='聊天记录表';
 
+-- 存量库升级：im_message 增加 conversation_id 及 (conversation_id, id) 联合索引（新建库无需执行）
+-- ALTER TABLE `im_message` ADD COLUMN `conversation_id` VARCHAR(64) NOT NULL DEFAULT '' COMMENT '会话ID 格式 用户ID_客服ID' AFTER `id`;
+-- UPDATE `im_message` SET `conversation_id` = IF(`from_type` = 1, CONCAT(`from_id`, '_', `to_id`), CONCAT(`to_id`, '_', `from_id`));
+-- ALTER TABLE `im_message` ADD INDEX `idx_conversation_id` (`conversation_id`, `id`), DROP INDEX `idx_from_to`, DROP INDEX `idx_to_from`;
+
+-- 存量库升级：消息 ID 改由应用生成（新建库无需执行）
+-- ALTER TABLE `im_message` MODIFY COLUMN `id` BIGINT NOT NULL COMMENT '消息ID（应用生成的 Snowflake ID，按时间有序）';
+
 -- 初始化一些演示数据
 INSERT INTO `im_agent` (agent_name, work_status, max_links) VALUES ('在线客服-小美', 1, 10);
 INSERT INTO `im_agent` (agent_name, work_status, max_links) VALUES ('在线客服-阿强', 1, 5);
@@ -2,6 +2,7 @@ package com.webim;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * 客服聊天系统启动类
@@ -9,6 +10,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
  * @author Antigravity
  */
 @SpringBootApplication
+@EnableScheduling
 public class WebIMApplication {
     public static void main(String[] args) {
         SpringApplication.run(WebIMApplication.class, args);
@@ -0,0 +1,84 @@
+package com.webim.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MyBatis 语句耗时统计
+ * 按 Mapper 方法（如 ChatMapper.insertMessage、ChatMapper.selectHistoryPage）记录 im.db.latency，
+ * 成功与失败分开计时；每条语句的 Timer 首次执行时创建并缓存，之后只是一次 Map 查找
+ * 由 mybatis-spring-boot-starter 自动注册到 SqlSessionFactory
+ */
+@Component
+@Intercepts({
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class,
+                        BoundSql.class})})
+public class MybatisMetricsInterceptor implements Interceptor {
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, StatementTimers> timers = new ConcurrentHashMap<>();
+
+    public MybatisMetricsInterceptor(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        MappedStatement statement = (MappedStatement) invocation.getArgs()[0];
+        StatementTimers statementTimers = timers.get(statement.getId());
+        if (statementTimers == null) {
+            statementTimers = timers.computeIfAbsent(statement.getId(), this::register);
+        }
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            Object result = invocation.proceed();
+            success = true;
+            return result;
+        } finally {
+            (success ? statementTimers.success : statementTimers.error)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private StatementTimers register(String statementId) {
+        // com.webim.mapper.ChatMapper.insertMessage -> ChatMapper.insertMessage
+        int method = statementId.lastIndexOf('.');
+        String name = statementId.substring(statementId.lastIndexOf('.', method - 1) + 1);
+        return new StatementTimers(timer(name, "success"), timer(name, "error"));
+    }
+
+    private Timer timer(String statement, String outcome) {
+        return Timer.builder("im.db.latency").tag("statement", statement).tag("outcome", outcome)
+                .description("MyBatis 语句执行耗时").register(meterRegistry);
+    }
+
+    private static final class StatementTimers {
+        private final Timer success;
+        private final Timer error;
+
+        StatementTimers(Timer success, Timer error) {
+            this.success = success;
+            this.error = error;
+        }
+    }
+}
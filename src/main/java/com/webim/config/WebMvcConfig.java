@@ -1,19 +1,34 @@
 package com.webim.config;
 
+import com.webim.service.FileStorageService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.CacheControl;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Web 端配置
  */
 @Configuration
 public class WebMvcConfig implements WebMvcConfigurer {
 
+    @Value("${webim.file.dir:${user.dir}/uploads}")
+    private String fileDir;
+
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
-        // 映射上传目录到 HTTP 路径
-        String uploadPath = "file:" + System.getProperty("user.dir") + "/uploads/";
-        registry.addResourceHandler("/uploads/**").addResourceLocations(uploadPath);
+        // 映射上传目录到 HTTP 路径；文件名为内容哈希，内容不会变化，可长期缓存
+        // （Netty 端口的 /files 提供相同内容，并支持零拷贝与 Range，图片流量优先走那里）
+        String uploadPath = "file:" + Paths.get(fileDir).toAbsolutePath().normalize() + "/";
+        CacheControl cacheControl = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic();
+        registry.addResourceHandler(FileStorageService.URL_PREFIX + "**").addResourceLocations(uploadPath)
+                .setCacheControl(cacheControl);
+        // 旧版本上传的文件
+        registry.addResourceHandler("/uploads/**").addResourceLocations(uploadPath)
+                .setCacheControl(CacheControl.maxAge(7, TimeUnit.DAYS).cachePublic());
     }
 }
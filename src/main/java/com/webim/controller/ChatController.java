@@ -1,15 +1,26 @@
 package com.webim.controller;
 
+import com.webim.entity.HistoryPage;
 import com.webim.entity.Message;
-import com.webim.mapper.ChatMapper;
+import com.webim.netty.AdmissionController;
+import com.webim.netty.RateLimiter;
+import com.webim.netty.protocol.RoomFrame;
+import com.webim.service.FileStorageService;
+import com.webim.service.HistoryCacheService;
+import com.webim.service.MessageIdGenerator;
+import com.webim.service.RoomService;
+import com.webim.service.SessionTicketService;
+import com.webim.store.MessageStore;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
-import java.util.UUID;
+import java.util.Set;
 
 /**
  * 聊天相关 HTTP 接口
@@ -19,44 +30,143 @@ import java.util.UUID;
 @RequestMapping("/api/chat")
 public class ChatController {
 
-    private final ChatMapper chatMapper;
+    private static final int MAX_PAGE_SIZE = 100;
 
-    public ChatController(ChatMapper chatMapper) {
-        this.chatMapper = chatMapper;
+    private final MessageStore messageStore;
+    private final HistoryCacheService historyCacheService;
+    private final FileStorageService fileStorageService;
+    private final RoomService roomService;
+    private final MessageIdGenerator messageIdGenerator;
+    private final SessionTicketService sessionTicketService;
+    private final AdmissionController admissionController;
+    private final RateLimiter rateLimiter;
+
+    public ChatController(MessageStore messageStore, HistoryCacheService historyCacheService,
+                          FileStorageService fileStorageService, RoomService roomService,
+                          MessageIdGenerator messageIdGenerator, SessionTicketService sessionTicketService,
+                          AdmissionController admissionController, RateLimiter rateLimiter) {
+        this.messageStore = messageStore;
+        this.historyCacheService = historyCacheService;
+        this.fileStorageService = fileStorageService;
+        this.roomService = roomService;
+        this.messageIdGenerator = messageIdGenerator;
+        this.sessionTicketService = sessionTicketService;
+        this.admissionController = admissionController;
+        this.rateLimiter = rateLimiter;
     }
 
     /**
-     * 获取历史消息
+     * 获取历史消息（游标分页，最新的在前）
+     *
+     * @param userType 当前登录者类型 1-用户 2-客服，用于确定会话双方
+     * @param before   游标，传上一页返回的 nextCursor；不传则从最新一条开始
      */
     @GetMapping("/history")
-    public List<Message> getHistory(@RequestParam Long userId, @RequestParam Long targetId) {
-        return chatMapper.selectHistory(userId, targetId);
+    public HistoryPage getHistory(@RequestParam Long userId, @RequestParam Long targetId,
+                                  @RequestParam(defaultValue = "1") Integer userType,
+                                  @RequestParam(required = false) Long before,
+                                  @RequestParam(defaultValue = "20") int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        String conversationId = userType == 1
+                ? Message.conversationId(userId, targetId)
+                : Message.conversationId(targetId, userId);
+
+        // 多取一条用于判断是否还有更早的消息；首屏优先走会话缓存
+        List<Message> messages = before == null ? historyCacheService.recent(conversationId, pageSize + 1) : null;
+        if (messages == null) {
+            messages = messageStore.findHistory(conversationId, before, pageSize + 1);
+        }
+        HistoryPage page = new HistoryPage();
+        if (messages.size() > pageSize) {
+            messages = messages.subList(0, pageSize);
+            page.setNextCursor(messages.get(pageSize - 1).getId());
+        }
+        page.setMessages(messages);
+        return page;
     }
 
     /**
-     * 图片上传
+     * 图片上传（兼容旧客户端；新客户端直接流式上传到 Netty 端口的 /files）
+     * 与 /files 相同，需携带会话凭证，文件头须与扩展名所示的图片格式一致，并受节点准入与单账号上传限流约束
      */
     @PostMapping("/upload")
-    public String upload(@RequestParam("file") MultipartFile file) {
-        if (file.isEmpty()) {
+    public String upload(@RequestParam("file") MultipartFile file,
+                         @RequestHeader(value = "Authorization", required = false) String authorization) {
+        SessionTicketService.Ticket ticket = sessionTicketService.verifyHeader(authorization);
+        if (ticket == null || admissionController.admit() != null
+                || !rateLimiter.tryAcquireUpload(ticket.getUserType(), ticket.getId())) {
             return "error";
         }
-
-        String fileName = UUID.randomUUID().toString() + "_" + file.getOriginalFilename();
-        String filePath = System.getProperty("user.dir") + "/uploads/";
-        File dest = new File(filePath + fileName);
-
-        if (!dest.getParentFile().exists()) {
-            dest.getParentFile().mkdirs();
+        String extension = fileStorageService.extensionOf(file.getOriginalFilename());
+        if (file.isEmpty() || extension == null || file.getSize() > fileStorageService.getMaxSize()) {
+            return "error";
         }
 
-        try {
-            file.transferTo(dest);
+        try (InputStream in = file.getInputStream()) {
             // 这里返回相对路径，前端拼接完整 URL
-            return "/uploads/" + fileName;
+            return fileStorageService.store(in, extension);
+        } catch (FileStorageService.UnsupportedContentException e) {
+            return "error";
         } catch (IOException e) {
             log.error("上传文件失败", e);
             return "error";
         }
     }
+
+    /**
+     * 系统广播：向房间内所有在线成员推送一条消息，room 为 all 时即全员公告
+     * 仅班长可调用（会话凭证）；监听房间只读，不能通过此接口发送
+     */
+    @PostMapping("/broadcast")
+    public String broadcast(@RequestParam String room, @RequestParam String content,
+                            @RequestParam(defaultValue = "1") Integer msgType,
+                            @RequestHeader(value = "Authorization", required = false) String authorization) {
+        SessionTicketService.Ticket ticket = requireTicket(authorization);
+        if (!roomService.isSupervisor(ticket.getUserType(), ticket.getId())) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN);
+        }
+        if (!RoomService.isValidName(room) || RoomService.isMonitor(room)) {
+            return "error";
+        }
+        long id = messageIdGenerator.nextId();
+        RoomFrame frame = new RoomFrame();
+        frame.setRoom(room);
+        frame.setId(id);
+        frame.setContent(content);
+        frame.setMsgType(msgType);
+        frame.setTimestamp(MessageIdGenerator.timestampOf(id));
+        roomService.publish(room, frame);
+        return "ok";
+    }
+
+    /**
+     * 房间成员（"用户类型:用户ID"），内置房间不保存成员
+     * 需为该房间成员或班长；监听房间的成员仅班长可查看
+     */
+    @GetMapping("/rooms/{room}/members")
+    public Set<String> roomMembers(@PathVariable String room,
+                                   @RequestHeader(value = "Authorization", required = false) String authorization) {
+        SessionTicketService.Ticket ticket = requireTicket(authorization);
+        if (!RoomService.isValidName(room)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
+        }
+        Set<String> members = roomService.members(room);
+        boolean supervisor = roomService.isSupervisor(ticket.getUserType(), ticket.getId());
+        boolean member = !RoomService.isMonitor(room) && members.contains(ticket.getUserType() + ":" + ticket.getId());
+        if (!supervisor && !member) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN);
+        }
+        return members;
+    }
+
+    /**
+     * 校验会话凭证（WebSocket 认证后下发），无效时回复 401
+     */
+    private SessionTicketService.Ticket requireTicket(String authorization) {
+        SessionTicketService.Ticket ticket = sessionTicketService.verifyHeader(authorization);
+        if (ticket == null) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED);
+        }
+        return ticket;
+    }
 }
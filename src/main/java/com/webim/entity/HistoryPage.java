@@ -0,0 +1,17 @@
+package com.webim.entity;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import lombok.Data;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 历史消息分页结果
+ */
+@Data
+public class HistoryPage implements Serializable {
+    private List<Message> messages; // 按 id 从新到旧排列
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long nextCursor; // 下一页游标（传给 before 参数），没有更早的消息时为 null
+}
@@ -1,5 +1,7 @@
 package com.webim.entity;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import lombok.Data;
 import java.io.Serializable;
 import java.util.Date;
@@ -9,11 +11,20 @@ import java.util.Date;
  */
 @Data
 public class Message implements Serializable {
-    private Long id;
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long id; // Snowflake 消息 ID（MessageIdGenerator），超出 JavaScript 安全整数范围，HTTP 接口以字符串输出
+    private String conversationId; // 会话 ID，格式 "用户ID_客服ID"
     private Long fromId;
     private Integer fromType; // 1-用户 2-客服
     private Long toId;
     private String content;
     private Integer msgType; // 1-文字 2-表情 3-图片
     private Date createTime;
+
+    /**
+     * 计算用户与客服之间的会话 ID
+     */
+    public static String conversationId(Long userId, Long agentId) {
+        return userId + "_" + agentId;
+    }
 }
@@ -17,9 +17,21 @@ public interface ChatMapper {
         @Select("SELECT id, agent_name as agentName, work_status as workStatus, max_links as maxLinks, create_time as createTime FROM im_agent WHERE work_status = 1")
         List<Agent> selectOnlineAgents();
 
+        @Select("SELECT id, agent_name as agentName, work_status as workStatus, max_links as maxLinks, create_time as createTime FROM im_agent WHERE id = #{id}")
+        Agent selectAgentById(Long id);
+
         @Update("UPDATE im_agent SET work_status = #{status} WHERE id = #{id}")
         int updateAgentStatus(@Param("id") Long id, @Param("status") Integer status);
 
+        /**
+         * 批量更新客服状态，由 AgentService 按合并窗口定时调用
+         */
+        @Update({"<script>",
+                        "UPDATE im_agent SET work_status = #{status} WHERE id IN ",
+                        "<foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>",
+                        "</script>"})
+        int updateAgentStatuses(@Param("ids") List<Long> ids, @Param("status") Integer status);
+
         // --- 用户相关 ---
         @Insert("INSERT INTO im_user (nickname, avatar) VALUES (#{nickname}, #{avatar})")
         @Options(useGeneratedKeys = true, keyProperty = "id")
@@ -29,13 +41,43 @@ public interface ChatMapper {
         User selectUserById(Long id);
 
         // --- 消息记录 ---
-        @Insert("INSERT INTO im_message (from_id, from_type, to_id, content, msg_type) " +
-                        "VALUES (#{fromId}, #{fromType}, #{toId}, #{content}, #{msgType})")
+        // 消息 ID 由 MessageIdGenerator 预先分配，写入时显式指定
+        @Insert("INSERT INTO im_message (id, conversation_id, from_id, from_type, to_id, content, msg_type, create_time) " +
+                        "VALUES (#{id}, #{conversationId}, #{fromId}, #{fromType}, #{toId}, #{content}, #{msgType}, #{createTime})")
         int insertMessage(Message message);
 
-        @Select("SELECT id,from_id as fromId, from_type as fromType, to_id as toId, content, msg_type as msgType, create_time as createTime FROM im_message WHERE "
-                        +
-                        "(from_id = #{uid} AND to_id = #{targetId}) OR (from_id = #{targetId} AND to_id = #{uid}) " +
-                        "ORDER BY create_time ASC LIMIT 100")
-        List<Message> selectHistory(@Param("uid") Long uid, @Param("targetId") Long targetId);
+        /**
+         * 多行 INSERT 批量写入，由 MessageBatchWriter 调用
+         */
+        @Insert({"<script>",
+                        "INSERT INTO im_message (id, conversation_id, from_id, from_type, to_id, content, msg_type, create_time) VALUES ",
+                        "<foreach collection='list' item='m' separator=','>",
+                        "(#{m.id}, #{m.conversationId}, #{m.fromId}, #{m.fromType}, #{m.toId}, #{m.content}, #{m.msgType}, #{m.createTime})",
+                        "</foreach>",
+                        "</script>"})
+        int insertMessages(List<Message> messages);
+
+        /**
+         * 按会话游标分页查询历史消息（最新的在前），走 (conversation_id, id) 联合索引，
+         * 无论翻到多深都只扫描 limit 行
+         *
+         * @param before 游标，只返回 id 小于该值的消息；为 null 时从最新一条开始
+         */
+        @Select({"<script>",
+                        "SELECT id, conversation_id as conversationId, from_id as fromId, from_type as fromType, to_id as toId, ",
+                        "content, msg_type as msgType, create_time as createTime FROM im_message ",
+                        "WHERE conversation_id = #{conversationId} ",
+                        "<if test='before != null'>AND id &lt; #{before} </if>",
+                        "ORDER BY id DESC LIMIT #{limit}",
+                        "</script>"})
+        List<Message> selectHistoryPage(@Param("conversationId") String conversationId, @Param("before") Long before,
+                        @Param("limit") int limit);
+
+        @Select({"<script>",
+                        "SELECT id, conversation_id as conversationId, from_id as fromId, from_type as fromType, to_id as toId, ",
+                        "content, msg_type as msgType, create_time as createTime FROM im_message WHERE id IN ",
+                        "<foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>",
+                        " ORDER BY id",
+                        "</script>"})
+        List<Message> selectMessagesByIds(@Param("ids") List<Long> ids);
 }
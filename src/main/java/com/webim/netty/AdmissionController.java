@@ -0,0 +1,147 @@
+package com.webim.netty;
+
+import com.webim.service.MessageBatchWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 节点级准入控制：节点过载时拒绝新的 WebSocket 握手（HTTP 503），已建立的连接不受影响
+ * 1. EventLoop 延迟：每个 I/O 线程每 probe-interval-ms 执行一次探测任务，实际执行时间晚于计划时间的部分即为延迟，
+ *    取最近几次的指数平均，单次 GC / JIT 停顿不会让节点拒绝一整波握手；探测任务迟迟未执行（线程被阻塞）时，按已等待的时间计算
+ * 2. 消息落库队列深度
+ * 任一指标超过阈值即拒绝，被拒绝的次数记录为 im.admission.rejected{reason}
+ */
+@Slf4j
+@Component
+public class AdmissionController {
+
+    public static final String REASON_LAG = "lag";
+    public static final String REASON_PERSIST = "persist";
+
+    private final MessageBatchWriter messageBatchWriter;
+    private final boolean enabled;
+    private final long maxLagNanos;
+    private final int maxPersistQueue;
+    private final long probeIntervalNanos;
+    private final Counter lagRejected;
+    private final Counter persistRejected;
+    private volatile List<Probe> probes = new ArrayList<>();
+
+    public AdmissionController(MessageBatchWriter messageBatchWriter, MeterRegistry meterRegistry,
+                               @Value("${netty.websocket.admission.enabled:true}") boolean enabled,
+                               @Value("${netty.websocket.admission.max-loop-lag-ms:200}") long maxLagMs,
+                               @Value("${netty.websocket.admission.max-persist-queue:40000}") int maxPersistQueue,
+                               @Value("${netty.websocket.admission.probe-interval-ms:100}") long probeIntervalMs) {
+        this.messageBatchWriter = messageBatchWriter;
+        this.enabled = enabled;
+        this.maxLagNanos = TimeUnit.MILLISECONDS.toNanos(maxLagMs);
+        this.maxPersistQueue = maxPersistQueue;
+        this.probeIntervalNanos = TimeUnit.MILLISECONDS.toNanos(probeIntervalMs);
+        this.lagRejected = rejectedCounter(REASON_LAG, meterRegistry);
+        this.persistRejected = rejectedCounter(REASON_PERSIST, meterRegistry);
+        Gauge.builder("im.eventloop.lag", this, c -> c.maxLagNanos(System.nanoTime()) / 1e6)
+                .baseUnit("milliseconds")
+                .description("I/O 线程中最大的任务调度延迟").register(meterRegistry);
+    }
+
+    private static Counter rejectedCounter(String reason, MeterRegistry meterRegistry) {
+        return Counter.builder("im.admission.rejected").tag("reason", reason)
+                .description("节点过载时被拒绝的 WebSocket 握手数").register(meterRegistry);
+    }
+
+    /**
+     * 开始探测 I/O 线程的调度延迟（EventLoopGroup 创建后调用一次）
+     */
+    public void bind(EventLoopGroup group) {
+        List<Probe> started = new ArrayList<>();
+        for (EventExecutor executor : group) {
+            Probe probe = new Probe(executor);
+            probe.schedule();
+            started.add(probe);
+        }
+        probes = started;
+        log.info("节点准入控制：EventLoop 延迟上限 {}ms，落库队列上限 {}{}", maxLagNanos / 1_000_000, maxPersistQueue,
+                enabled ? "" : "（未启用，仅统计）");
+    }
+
+    /**
+     * 判断是否接受新的握手（及图片上传）
+     *
+     * @return 接受时为 null，否则为拒绝原因
+     */
+    public String admit() {
+        if (!enabled) {
+            return null;
+        }
+        if (maxLagNanos(System.nanoTime()) > maxLagNanos) {
+            lagRejected.increment();
+            return REASON_LAG;
+        }
+        if (messageBatchWriter.queueDepth() > maxPersistQueue) {
+            persistRejected.increment();
+            return REASON_PERSIST;
+        }
+        return null;
+    }
+
+    private long maxLagNanos(long now) {
+        long max = 0;
+        for (Probe probe : probes) {
+            max = Math.max(max, probe.lag(now));
+        }
+        return max;
+    }
+
+    /**
+     * 单个 I/O 线程的探测任务，在该线程上依次调度
+     */
+    private final class Probe implements Runnable {
+
+        private final EventExecutor executor;
+        private volatile long expectedAt;
+        /**
+         * 延迟的指数平均（每次探测权重 1/2）
+         */
+        private volatile long averageLag;
+
+        private Probe(EventExecutor executor) {
+            this.executor = executor;
+        }
+
+        private void schedule() {
+            expectedAt = System.nanoTime() + probeIntervalNanos;
+            try {
+                executor.schedule(this, probeIntervalNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // EventLoop 已关闭
+            }
+        }
+
+        @Override
+        public void run() {
+            long lag = Math.max(0, System.nanoTime() - expectedAt);
+            averageLag = (averageLag + lag) / 2;
+            if (!executor.isShuttingDown()) {
+                schedule();
+            }
+        }
+
+        /**
+         * 平均延迟；本次探测已超时未执行时取两者中较大的
+         */
+        private long lag(long now) {
+            return Math.max(averageLag, now - expectedAt);
+        }
+    }
+}
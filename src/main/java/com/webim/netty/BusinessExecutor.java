@@ -0,0 +1,172 @@
+package com.webim.netty;
+
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.RejectedExecutionHandlers;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 业务线程池
+ * 承载 MySQL / Redis 等阻塞调用，避免占用 Netty 的 I/O 线程（EventLoop）
+ * 每个连接固定绑定其中一个线程，保证同一连接上的业务操作按到达顺序执行
+ * 下线清理（释放客服负载、注销在线位置等）不能丢弃，也不能越过同一连接此前已排队的任务（否则可能先注销、后登记，留下陈旧的绑定）：
+ * 业务线程队列已满时，清理任务进入该线程的补交队列，由固定对应的清理线程在队列腾出空间后按顺序补交回同一个业务线程；
+ * 补交队列非空期间，提交到该业务线程的普通任务一律拒绝，不能插到清理任务前面
+ */
+@Slf4j
+@Component
+public class BusinessExecutor {
+
+    private static final long RESUBMIT_DELAY_MILLIS = 10;
+
+    private final EventExecutorGroup group;
+    private final EventExecutorGroup cleanupGroup;
+    /**
+     * 每个业务线程的补交队列（构造后只读）
+     */
+    private final Map<EventExecutor, Backlog> backlogs = new IdentityHashMap<>();
+
+    public BusinessExecutor(NettyMetrics nettyMetrics,
+                            @Value("${netty.websocket.business.threads:16}") int threads,
+                            @Value("${netty.websocket.business.queue-capacity:10000}") int queueCapacity,
+                            @Value("${netty.websocket.business.cleanup-threads:2}") int cleanupThreads) {
+        // 每个线程的待执行任务队列有界，队列满时直接拒绝，由调用方向客户端返回错误帧
+        this.group = new DefaultEventExecutorGroup(threads, new DefaultThreadFactory("im-biz"),
+                queueCapacity, RejectedExecutionHandlers.reject());
+        // 清理线程只负责把积压的清理任务补交回对应的业务线程，不执行业务任务
+        this.cleanupGroup = new DefaultEventExecutorGroup(cleanupThreads, new DefaultThreadFactory("im-cleanup"));
+        List<EventExecutor> cleanupExecutors = new ArrayList<>();
+        cleanupGroup.forEach(cleanupExecutors::add);
+        int index = 0;
+        for (EventExecutor executor : group) {
+            backlogs.put(executor, new Backlog(executor, cleanupExecutors.get(index++ % cleanupExecutors.size())));
+        }
+        nettyMetrics.bindExecutor("im-biz", group);
+        nettyMetrics.bindExecutor("im-cleanup", cleanupGroup);
+        log.info("业务线程池已创建，线程数: {}，单线程队列容量: {}，清理线程数: {}", threads, queueCapacity, cleanupThreads);
+    }
+
+    /**
+     * 为新连接选取一个业务线程
+     */
+    public EventExecutor next() {
+        return group.next();
+    }
+
+    /**
+     * 以普通 Executor 形式暴露，任务轮询分派到各业务线程（不保证顺序）
+     */
+    public Executor asExecutor() {
+        return group;
+    }
+
+    /**
+     * 向连接绑定的业务线程提交普通任务
+     *
+     * @throws RejectedExecutionException 线程队列已满，或该线程还有待补交的清理任务
+     */
+    public void execute(EventExecutor executor, Runnable task) {
+        if (backlogs.get(executor).pending) {
+            throw new RejectedExecutionException("业务线程有待补交的清理任务");
+        }
+        executor.execute(task);
+    }
+
+    /**
+     * 执行不可丢弃的任务：总是在连接绑定的业务线程上、排在该连接此前提交的任务之后执行
+     * 该线程队列已满时进入补交队列，稍后按提交顺序补交
+     */
+    public void executeReliably(EventExecutor executor, Runnable task) {
+        backlogs.get(executor).submit(task);
+    }
+
+    /**
+     * 关闭前等待已提交的任务执行完毕
+     */
+    @PreDestroy
+    public void shutdown() {
+        group.shutdownGracefully(0, 15, TimeUnit.SECONDS).syncUninterruptibly();
+        cleanupGroup.shutdownGracefully(0, 15, TimeUnit.SECONDS).syncUninterruptibly();
+        log.info("业务线程池已关闭");
+    }
+
+    /**
+     * 单个业务线程的补交队列
+     */
+    private final class Backlog {
+        private final EventExecutor executor;
+        private final EventExecutor resubmitter;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        /**
+         * 补交队列非空（在锁内修改，普通任务提交时不加锁读取）
+         */
+        private volatile boolean pending;
+
+        private Backlog(EventExecutor executor, EventExecutor resubmitter) {
+            this.executor = executor;
+            this.resubmitter = resubmitter;
+        }
+
+        synchronized void submit(Runnable task) {
+            if (!pending) {
+                try {
+                    executor.execute(task);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    if (isShuttingDown()) {
+                        // 进程退出中：节点排空时已整批保留会话，由其它节点的回收任务清理
+                        log.warn("业务线程池已关闭，清理任务未执行");
+                        return;
+                    }
+                }
+                log.warn("业务线程繁忙，清理任务进入补交队列");
+                pending = true;
+                scheduleResubmit();
+            }
+            tasks.add(task);
+        }
+
+        /**
+         * 按顺序把积压的任务补交回业务线程，队列仍满时稍后重试
+         */
+        synchronized void resubmit() {
+            while (!tasks.isEmpty()) {
+                try {
+                    executor.execute(tasks.peek());
+                } catch (RejectedExecutionException e) {
+                    if (isShuttingDown()) {
+                        log.warn("业务线程池已关闭，{} 个清理任务未执行", tasks.size());
+                        tasks.clear();
+                        break;
+                    }
+                    scheduleResubmit();
+                    return;
+                }
+                tasks.poll();
+            }
+            pending = false;
+        }
+
+        private void scheduleResubmit() {
+            resubmitter.schedule(this::resubmit, RESUBMIT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        private boolean isShuttingDown() {
+            return executor.isShuttingDown() || resubmitter.isShuttingDown();
+        }
+    }
+}
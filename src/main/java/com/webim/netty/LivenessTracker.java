@@ -0,0 +1,161 @@
+package com.webim.netty;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接保活检测：所有连接共用一个时间轮，不为每个连接单独调度空闲检测任务
+ * 1. 任何上行数据（业务帧、心跳、WebSocket Ping）只把一个粗粒度时钟值写入连接的活跃时间，不调度定时任务
+ * 2. 全部连接按哈希分散到 sweep-seconds 个槽中，共享的 HashedWheelTimer 每秒检查一个槽，
+ *    每个连接每 sweep-seconds 秒被检查一次，超过 timeout-seconds 无上行数据即关闭
+ * 3. 同一次检查中超时的连接按 EventLoop 分组，每个 EventLoop 只提交一个关闭任务
+ */
+@Slf4j
+@Component
+public class LivenessTracker {
+
+    private static final long TICK_MILLIS = 1000;
+
+    private final long timeoutMillis;
+    private final List<Set<Entry>> slots;
+    private final NettyMetrics nettyMetrics;
+    private final HashedWheelTimer timer = new HashedWheelTimer(new DefaultThreadFactory("im-liveness", true),
+            TICK_MILLIS, TimeUnit.MILLISECONDS, 64);
+    /**
+     * 粗粒度时钟，每个刻度更新一次；连接刷新活跃时间时只读它，不调用 System.currentTimeMillis()
+     */
+    private volatile long clock = System.currentTimeMillis();
+    private int cursor;
+
+    public LivenessTracker(NettyMetrics nettyMetrics,
+                           @Value("${netty.websocket.liveness.timeout-seconds:180}") int timeoutSeconds,
+                           @Value("${netty.websocket.liveness.sweep-seconds:10}") int sweepSeconds) {
+        this.nettyMetrics = nettyMetrics;
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        int slotCount = Math.max(1, (int) (TimeUnit.SECONDS.toMillis(sweepSeconds) / TICK_MILLIS));
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        timer.newTimeout(new Sweep(), TICK_MILLIS, TimeUnit.MILLISECONDS);
+        log.info("连接保活检测已启动，空闲超时: {} 秒，检查周期: {} 秒", timeoutMillis / 1000, slots.size());
+    }
+
+    @PreDestroy
+    public void stop() {
+        timer.stop();
+    }
+
+    /**
+     * 为新连接创建保活处理器（每个连接一个实例，放在 pipeline 最前面）
+     */
+    public ChannelInboundHandlerAdapter newHandler() {
+        return new Entry();
+    }
+
+    private Set<Entry> slotOf(Channel channel) {
+        return slots.get((channel.hashCode() & Integer.MAX_VALUE) % slots.size());
+    }
+
+    /**
+     * 每个刻度检查一个槽，并把该槽中超时的连接按 EventLoop 分批关闭
+     */
+    private final class Sweep implements TimerTask {
+
+        @Override
+        public void run(Timeout timeout) {
+            long now = System.currentTimeMillis();
+            clock = now;
+            Set<Entry> slot = slots.get(cursor);
+            cursor = (cursor + 1) % slots.size();
+            Map<EventLoop, List<Channel>> expired = null;
+            for (Entry entry : slot) {
+                if (now - entry.lastSeen > timeoutMillis) {
+                    slot.remove(entry);
+                    if (expired == null) {
+                        expired = new HashMap<>();
+                    }
+                    expired.computeIfAbsent(entry.channel.eventLoop(), k -> new ArrayList<>()).add(entry.channel);
+                }
+            }
+            if (expired != null) {
+                int count = 0;
+                for (Map.Entry<EventLoop, List<Channel>> batch : expired.entrySet()) {
+                    List<Channel> channels = batch.getValue();
+                    count += channels.size();
+                    try {
+                        batch.getKey().execute(() -> {
+                            for (Channel channel : channels) {
+                                channel.close();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        // EventLoop 已关闭，连接会随之关闭
+                    }
+                }
+                nettyMetrics.idleEvicted(count);
+                log.info("关闭 {} 个超过 {} 秒无上行数据的连接", count, timeoutMillis / 1000);
+            }
+            try {
+                timer.newTimeout(this, TICK_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (IllegalStateException e) {
+                // 时间轮已停止（应用关闭中）
+            }
+        }
+    }
+
+    /**
+     * 单个连接的活跃时间
+     */
+    private final class Entry extends ChannelInboundHandlerAdapter {
+
+        private Channel channel;
+        private volatile long lastSeen;
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            channel = ctx.channel();
+            lastSeen = clock;
+            slotOf(channel).add(this);
+        }
+
+        @Override
+        public void handlerRemoved(ChannelHandlerContext ctx) {
+            slotOf(channel).remove(this);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            // 时钟每秒才变化一次，同一秒内的后续读取不再写 volatile 字段
+            long now = clock;
+            if (lastSeen != now) {
+                lastSeen = now;
+            }
+            ctx.fireChannelRead(msg);
+        }
+    }
+}
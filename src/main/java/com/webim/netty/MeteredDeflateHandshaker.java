@@ -0,0 +1,165 @@
+package com.webim.netty;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionDecoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionEncoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilter;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilterProvider;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带监控的 permessage-deflate 扩展协商
+ * 1. 小于阈值的下行帧不压缩，省去小消息的压缩 CPU 开销（压缩收益也很小）
+ * 2. 在 Netty 压缩编码器两侧各放一个探针，统计压缩前后字节数、压缩比与压缩耗时
+ * 3. 上行帧解压后的大小不超过 maxAllocation，避免很小的压缩帧在到达分片聚合器之前就膨胀出巨大的缓冲（解压炸弹）
+ */
+public class MeteredDeflateHandshaker implements WebSocketServerExtensionHandshaker {
+
+    private final PerMessageDeflateServerExtensionHandshaker delegate;
+
+    private final Counter originalBytes;
+    private final Counter compressedBytes;
+    private final Counter skippedFrames;
+    private final DistributionSummary ratio;
+    private final Timer latency;
+
+    /**
+     * @param maxAllocation 单个上行帧解压后的最大字节数，超出时解码失败并关闭连接
+     */
+    public MeteredDeflateHandshaker(int compressionLevel, int threshold, int maxAllocation, MeterRegistry meterRegistry) {
+        this.originalBytes = Counter.builder("im.ws.compression.bytes").tag("stage", "original")
+                .description("压缩前的下行帧字节数").register(meterRegistry);
+        this.compressedBytes = Counter.builder("im.ws.compression.bytes").tag("stage", "compressed")
+                .description("压缩后的下行帧字节数").register(meterRegistry);
+        this.skippedFrames = Counter.builder("im.ws.compression.skipped")
+                .description("低于阈值未压缩的下行帧数").register(meterRegistry);
+        this.ratio = DistributionSummary.builder("im.ws.compression.ratio")
+                .description("单帧压缩后 / 压缩前字节比").register(meterRegistry);
+        this.latency = Timer.builder("im.ws.compression.latency")
+                .description("单帧压缩耗时").register(meterRegistry);
+
+        WebSocketExtensionFilter encoderFilter = frame -> {
+            if (frame.content().readableBytes() < threshold) {
+                skippedFrames.increment();
+                return true;
+            }
+            return false;
+        };
+        WebSocketExtensionFilterProvider filterProvider = new WebSocketExtensionFilterProvider() {
+            @Override
+            public WebSocketExtensionFilter encoderFilter() {
+                return encoderFilter;
+            }
+
+            @Override
+            public WebSocketExtensionFilter decoderFilter() {
+                return WebSocketExtensionFilter.NEVER_SKIP;
+            }
+        };
+        // 参数依次为：压缩级别、是否允许客户端限制服务端窗口、建议的客户端窗口、是否允许服务端不保留上下文、是否要求客户端不保留上下文、
+        // 帧过滤器、解压缓冲上限
+        this.delegate = new PerMessageDeflateServerExtensionHandshaker(compressionLevel, false,
+                PerMessageDeflateServerExtensionHandshaker.MAX_WINDOW_SIZE, false, false, filterProvider, maxAllocation);
+    }
+
+    @Override
+    public WebSocketServerExtension handshakeExtension(WebSocketExtensionData extensionData) {
+        WebSocketServerExtension extension = delegate.handshakeExtension(extensionData);
+        return extension == null ? null : new MeteredExtension(extension);
+    }
+
+    private final class MeteredExtension implements WebSocketServerExtension {
+        private final WebSocketServerExtension extension;
+
+        private MeteredExtension(WebSocketServerExtension extension) {
+            this.extension = extension;
+        }
+
+        @Override
+        public int rsv() {
+            return extension.rsv();
+        }
+
+        @Override
+        public WebSocketExtensionEncoder newExtensionEncoder() {
+            return new MeteredEncoder(extension.newExtensionEncoder());
+        }
+
+        @Override
+        public WebSocketExtensionDecoder newExtensionDecoder() {
+            return extension.newExtensionDecoder();
+        }
+
+        @Override
+        public WebSocketExtensionData newReponseData() {
+            return extension.newReponseData();
+        }
+    }
+
+    /**
+     * 压缩编码器的入口探针（每个连接一个实例，只在该连接的 EventLoop 上访问）
+     * 加入 Pipeline 时把真正的压缩编码器和出口探针依次插到自己前面（靠近 Head 一侧）
+     */
+    private final class MeteredEncoder extends WebSocketExtensionEncoder {
+        private final WebSocketExtensionEncoder encoder;
+        private WebSocketFrame pendingFrame;
+        private int pendingBytes;
+        private long pendingStart;
+
+        private MeteredEncoder(WebSocketExtensionEncoder encoder) {
+            this.encoder = encoder;
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            String encoderName = ctx.name() + "$deflate";
+            ctx.pipeline().addBefore(ctx.name(), encoderName, encoder);
+            ctx.pipeline().addBefore(encoderName, ctx.name() + "$metrics", new ChannelOutboundHandlerAdapter() {
+                @Override
+                public void write(ChannelHandlerContext probeCtx, Object msg, ChannelPromise promise) {
+                    // 压缩编码器原样放行的帧（低于阈值等）不计入统计
+                    if (pendingFrame != null && msg != pendingFrame && msg instanceof WebSocketFrame) {
+                        int compressed = ((WebSocketFrame) msg).content().readableBytes();
+                        latency.record(System.nanoTime() - pendingStart, TimeUnit.NANOSECONDS);
+                        originalBytes.increment(pendingBytes);
+                        compressedBytes.increment(compressed);
+                        if (pendingBytes > 0) {
+                            ratio.record((double) compressed / pendingBytes);
+                        }
+                    }
+                    pendingFrame = null;
+                    probeCtx.write(msg, promise);
+                }
+            });
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            if (msg instanceof WebSocketFrame) {
+                pendingFrame = (WebSocketFrame) msg;
+                pendingBytes = pendingFrame.content().readableBytes();
+                pendingStart = System.nanoTime();
+            }
+            ctx.write(msg, promise);
+        }
+
+        @Override
+        protected void encode(ChannelHandlerContext ctx, WebSocketFrame msg, List<Object> out) {
+            // 不会被调用：write 已直接放行
+            out.add(msg.retain());
+        }
+    }
+}
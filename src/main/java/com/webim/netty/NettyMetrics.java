@@ -0,0 +1,178 @@
+package com.webim.netty;
+
+import com.alibaba.fastjson2.annotation.JSONType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import io.netty.util.internal.PlatformDependent;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Netty 侧运行指标
+ * 1. 在线连接数（按用户 / 客服）、上下行帧数（按帧类型）、私聊消息端到端延迟
+ * 2. 各 EventLoop / 业务线程的待执行任务数，ByteBuf 分配器占用的内存
+ * 热路径上只做计数器自增：每种帧类型的计数器在首次出现时注册一次并按帧的 Class 缓存，
+ * 之后查找与计数都不拼接字符串、不加锁
+ */
+@Component
+public class NettyMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final AtomicInteger userConnections = new AtomicInteger();
+    private final AtomicInteger agentConnections = new AtomicInteger();
+    private final Counter heartbeatFrames;
+    private final Counter pongFrames;
+    private final Counter idleEvictions;
+    private final Timer localDelivery;
+    private final Timer remoteDelivery;
+    private final ClassValue<Counter> inboundFrames;
+    private final ClassValue<Counter> outboundFrames;
+
+    public NettyMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("im.connections", userConnections, AtomicInteger::get).tag("type", "user")
+                .description("本节点已认证的在线连接数").register(meterRegistry);
+        Gauge.builder("im.connections", agentConnections, AtomicInteger::get).tag("type", "agent")
+                .description("本节点已认证的在线连接数").register(meterRegistry);
+        this.inboundFrames = frameCounters("in");
+        this.outboundFrames = frameCounters("out");
+        this.heartbeatFrames = Counter.builder("im.ws.frames").tag("direction", "in").tag("type", "HEARTBEAT")
+                .description("收发的 WebSocket 业务帧数").register(meterRegistry);
+        this.pongFrames = Counter.builder("im.ws.frames").tag("direction", "out").tag("type", "PONG")
+                .description("收发的 WebSocket 业务帧数").register(meterRegistry);
+        this.idleEvictions = Counter.builder("im.connections.idle.evicted")
+                .description("因长时间无上行数据被关闭的连接数").register(meterRegistry);
+        this.localDelivery = e2eTimer("local");
+        this.remoteDelivery = e2eTimer("remote");
+    }
+
+    private ClassValue<Counter> frameCounters(String direction) {
+        return new ClassValue<Counter>() {
+            @Override
+            protected Counter computeValue(Class<?> type) {
+                JSONType annotation = type.getAnnotation(JSONType.class);
+                String name = annotation != null && !annotation.typeName().isEmpty()
+                        ? annotation.typeName() : type.getSimpleName();
+                return Counter.builder("im.ws.frames").tag("direction", direction).tag("type", name)
+                        .description("收发的 WebSocket 业务帧数").register(meterRegistry);
+            }
+        };
+    }
+
+    /**
+     * SEND 到写入接收方连接的耗时：local 为同节点（纳秒计时），remote 为经其它节点转发（按消息 ID 中的毫秒时间戳计算）
+     */
+    private Timer e2eTimer(String route) {
+        return Timer.builder("im.message.e2e.latency").tag("route", route)
+                .description("私聊消息从服务端收到 SEND 到交给接收方连接写出的耗时")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(50)))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(meterRegistry);
+    }
+
+    public void connectionOpened(int userType) {
+        (userType == 2 ? agentConnections : userConnections).incrementAndGet();
+    }
+
+    public void connectionClosed(int userType) {
+        (userType == 2 ? agentConnections : userConnections).decrementAndGet();
+    }
+
+    public void frameIn(Object frame) {
+        inboundFrames.get(frame.getClass()).increment();
+    }
+
+    public void frameOut(Object frame) {
+        outboundFrames.get(frame.getClass()).increment();
+    }
+
+    /**
+     * 一帧广播写给了 count 个连接
+     */
+    public void frameOut(Object frame, int count) {
+        if (count > 0) {
+            outboundFrames.get(frame.getClass()).increment(count);
+        }
+    }
+
+    /**
+     * 未经完整解码、按字节识别出的心跳帧
+     */
+    public void heartbeatIn() {
+        heartbeatFrames.increment();
+    }
+
+    public void pongOut() {
+        pongFrames.increment();
+    }
+
+    public void idleEvicted(int count) {
+        idleEvictions.increment(count);
+    }
+
+    /**
+     * @param startNanos 收到 SEND 时的 System.nanoTime()
+     */
+    public void recordLocalDelivery(long startNanos) {
+        localDelivery.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param sentAtMillis 消息在发送方节点被接收的时间（毫秒）
+     */
+    public void recordRemoteDelivery(long sentAtMillis) {
+        long elapsed = System.currentTimeMillis() - sentAtMillis;
+        if (elapsed >= 0) { // 节点间时钟偏差可能为负，丢弃
+            remoteDelivery.record(elapsed, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 按线程登记待执行任务数（EventLoop 或业务线程）
+     *
+     * @param name 线程组名称，作为 executor 标签
+     */
+    public void bindExecutor(String name, EventExecutorGroup group) {
+        int i = 0;
+        for (EventExecutor executor : group) {
+            if (executor instanceof SingleThreadEventExecutor) {
+                Gauge.builder("im.executor.pending.tasks", (SingleThreadEventExecutor) executor,
+                                SingleThreadEventExecutor::pendingTasks)
+                        .tag("executor", name).tag("thread", String.valueOf(i))
+                        .description("线程待执行的任务数").register(meterRegistry);
+            }
+            i++;
+        }
+    }
+
+    /**
+     * 登记 ByteBuf 分配器占用的堆内 / 直接内存，以及 Netty 自行统计的直接内存（未开启统计时不登记）
+     */
+    public void bindAllocator(ByteBufAllocator allocator) {
+        if (allocator instanceof ByteBufAllocatorMetricProvider) {
+            ByteBufAllocatorMetric metric = ((ByteBufAllocatorMetricProvider) allocator).metric();
+            Gauge.builder("im.netty.allocator.memory.used", metric, ByteBufAllocatorMetric::usedDirectMemory)
+                    .tag("area", "direct").baseUnit("bytes")
+                    .description("ByteBuf 分配器占用的内存").register(meterRegistry);
+            Gauge.builder("im.netty.allocator.memory.used", metric, ByteBufAllocatorMetric::usedHeapMemory)
+                    .tag("area", "heap").baseUnit("bytes")
+                    .description("ByteBuf 分配器占用的内存").register(meterRegistry);
+        }
+        if (PlatformDependent.usedDirectMemory() >= 0) {
+            Gauge.builder("im.netty.direct.memory.used", PlatformDependent::usedDirectMemory).baseUnit("bytes")
+                    .description("Netty 申请的直接内存总量（含非池化）").register(meterRegistry);
+        }
+    }
+}
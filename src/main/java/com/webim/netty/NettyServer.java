@@ -1,27 +1,55 @@
 package com.webim.netty;
 
+import com.webim.netty.handler.AdmissionHandler;
 import com.webim.netty.handler.ChatHandler;
+import com.webim.netty.handler.FileHttpHandler;
+import com.webim.netty.protocol.FrameCodec;
+import com.webim.service.FileStorageService;
+import com.webim.service.SessionTicketService;
+import com.webim.service.MessageBatchWriter;
+import com.webim.service.SessionDrainService;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolConfig;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
 import io.netty.handler.stream.ChunkedWriteHandler;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Netty WebSocket 服务器
  * 负责监听端口并管理 WebSocket 的连接生命周期
+ * Linux 下优先使用 epoll 原生传输（不可用时自动回退到 NIO），传输方式与 Socket / 内存分配参数均可在 application.yml 中调整
+ * 支持 permessage-deflate 压缩（小帧不压缩）与分片消息（Continuation 帧）
  */
 @Slf4j
 @Component
@@ -39,14 +67,138 @@ public class NettyServer {
     @Value("${netty.websocket.path:/ws}")
     private String path;
 
+    /**
+     * 传输方式：auto（Linux 下 epoll 可用时使用 epoll，否则 NIO）、epoll、nio
+     */
+    @Value("${netty.websocket.transport:auto}")
+    private String transport;
+
+    /**
+     * 接收连接的线程数；epoll + SO_REUSEPORT 时每个线程各绑定一个监听 Socket，由内核分摊新连接
+     */
+    @Value("${netty.websocket.boss-threads:1}")
+    private int bossThreads;
+
+    /**
+     * I/O 线程数，0 表示使用 Netty 默认值（CPU 核数 * 2）
+     */
+    @Value("${netty.websocket.worker-threads:0}")
+    private int workerThreads;
+
+    @Value("${netty.websocket.so-backlog:1024}")
+    private int soBacklog;
+
+    @Value("${netty.websocket.so-reuseport:true}")
+    private boolean soReuseport;
+
+    @Value("${netty.websocket.tcp-nodelay:true}")
+    private boolean tcpNodelay;
+
+    @Value("${netty.websocket.so-keepalive:false}")
+    private boolean soKeepalive;
+
+    /**
+     * 单连接发送缓冲的低 / 高水位（字节），超过高水位后 Channel 变为不可写
+     */
+    @Value("${netty.websocket.write-buffer-low-water-mark:32768}")
+    private int writeBufferLowWaterMark;
+
+    @Value("${netty.websocket.write-buffer-high-water-mark:65536}")
+    private int writeBufferHighWaterMark;
+
+    /**
+     * ByteBuf 分配器：pooled（池化，默认）或 unpooled
+     */
+    @Value("${netty.websocket.allocator:pooled}")
+    private String allocator;
+
+    /**
+     * 单个 WebSocket 帧的最大负载（字节），超出时以 1009 关闭连接
+     */
+    @Value("${netty.websocket.max-frame-payload:65536}")
+    private int maxFramePayload;
+
+    /**
+     * 分片消息（首帧 + Continuation 帧）聚合后的最大长度（字节）
+     */
+    @Value("${netty.websocket.max-message-size:1048576}")
+    private int maxMessageSize;
+
+    @Value("${netty.websocket.compression.enabled:true}")
+    private boolean compressionEnabled;
+
+    /**
+     * 压缩级别 0-9
+     */
+    @Value("${netty.websocket.compression.level:6}")
+    private int compressionLevel;
+
+    /**
+     * 小于该字节数的下行帧不压缩
+     */
+    @Value("${netty.websocket.compression.threshold:1024}")
+    private int compressionThreshold;
+
+    /**
+     * 排空：客户端重连延迟的上限（毫秒），各连接在 [0, 上限] 内随机取值，避免同时重连
+     */
+    @Value("${netty.websocket.drain.reconnect-max-delay-ms:10000}")
+    private long reconnectMaxDelayMs;
+
+    /**
+     * 排空：通知客户端重连的目标地址，为空时客户端重连原地址（由负载均衡分配到其它节点）
+     */
+    @Value("${netty.websocket.drain.reconnect-url:}")
+    private String reconnectUrl;
+
+    /**
+     * 排空：等待连接关闭、等待消息落库各自的最长时间（毫秒）
+     */
+    @Value("${netty.websocket.drain.timeout-ms:10000}")
+    private long drainTimeoutMs;
+
+    /**
+     * 节点过载拒绝握手时，503 响应中建议客户端的重试间隔（秒）
+     */
+    @Value("${netty.websocket.admission.retry-after-seconds:5}")
+    private int retryAfterSeconds;
+
     // Netty 核心线程池：bossGroup 用于接受新连接，workerGroup 用于处理已建立连接的 I/O 业务
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
 
+    /**
+     * 已绑定的监听 Channel（SO_REUSEPORT 时有多个）
+     */
+    private final List<Channel> serverChannels = new CopyOnWriteArrayList<>();
+
     private final ChatHandler chatHandler;
+    private final FileStorageService fileStorageService;
+    private final SessionTicketService sessionTicketService;
+    private final MeterRegistry meterRegistry;
+    private final NettyMetrics nettyMetrics;
+    private final LivenessTracker livenessTracker;
+    private final SessionDrainService sessionDrainService;
+    private final MessageBatchWriter messageBatchWriter;
+    private final AdmissionController admissionController;
+    private final RateLimiter rateLimiter;
+    private final AtomicBoolean stopped = new AtomicBoolean();
 
-    public NettyServer(ChatHandler chatHandler) {
+    public NettyServer(ChatHandler chatHandler, FileStorageService fileStorageService,
+                       SessionTicketService sessionTicketService, MeterRegistry meterRegistry,
+                       NettyMetrics nettyMetrics, LivenessTracker livenessTracker,
+                       SessionDrainService sessionDrainService, MessageBatchWriter messageBatchWriter,
+                       AdmissionController admissionController, RateLimiter rateLimiter) {
         this.chatHandler = chatHandler;
+        this.fileStorageService = fileStorageService;
+        this.sessionTicketService = sessionTicketService;
+        this.meterRegistry = meterRegistry;
+        this.nettyMetrics = nettyMetrics;
+        this.livenessTracker = livenessTracker;
+        this.sessionDrainService = sessionDrainService;
+        this.messageBatchWriter = messageBatchWriter;
+        this.admissionController = admissionController;
+        this.rateLimiter = rateLimiter;
     }
 
     /**
@@ -56,48 +208,148 @@ public class NettyServer {
     public void start() {
         // 在新线程中启动，以免阻塞 Spring Boot 的主引导过程
         new Thread(() -> {
-            bossGroup = new NioEventLoopGroup(1);
-            workerGroup = new NioEventLoopGroup();
+            boolean useEpoll = useEpoll();
+            Class<? extends ServerChannel> channelClass;
+            if (useEpoll) {
+                bossGroup = new EpollEventLoopGroup(bossThreads, new DefaultThreadFactory("im-boss"));
+                workerGroup = new EpollEventLoopGroup(workerThreads, new DefaultThreadFactory("im-worker"));
+                channelClass = EpollServerSocketChannel.class;
+            } else {
+                bossGroup = new NioEventLoopGroup(bossThreads, new DefaultThreadFactory("im-boss"));
+                workerGroup = new NioEventLoopGroup(workerThreads, new DefaultThreadFactory("im-worker"));
+                channelClass = NioServerSocketChannel.class;
+            }
+            ByteBufAllocator bufAllocator = "unpooled".equalsIgnoreCase(allocator)
+                    ? UnpooledByteBufAllocator.DEFAULT : PooledByteBufAllocator.DEFAULT;
+            nettyMetrics.bindExecutor("im-boss", bossGroup);
+            nettyMetrics.bindExecutor("im-worker", workerGroup);
+            nettyMetrics.bindAllocator(bufAllocator);
+            admissionController.bind(workerGroup);
+            AdmissionHandler admissionHandler = new AdmissionHandler(admissionController, retryAfterSeconds);
+            WebSocketServerProtocolConfig protocolConfig = WebSocketServerProtocolConfig.newBuilder()
+                    .websocketPath(path)
+                    .subprotocols(FrameCodec.SUBPROTOCOLS)
+                    .allowExtensions(compressionEnabled)
+                    .maxFramePayloadLength(maxFramePayload)
+                    .build();
+            // 协商结果只与请求头有关，所有连接共用一个（线程安全的）协商器；单帧解压后同样受 maxMessageSize 限制
+            MeteredDeflateHandshaker deflateHandshaker = compressionEnabled
+                    ? new MeteredDeflateHandshaker(compressionLevel, compressionThreshold, maxMessageSize, meterRegistry) : null;
             try {
                 ServerBootstrap b = new ServerBootstrap();
                 b.group(bossGroup, workerGroup)
-                        .channel(NioServerSocketChannel.class)
+                        .channel(channelClass)
+                        .option(ChannelOption.SO_BACKLOG, soBacklog)
+                        .option(ChannelOption.SO_REUSEADDR, true)
+                        .option(ChannelOption.ALLOCATOR, bufAllocator)
+                        .childOption(ChannelOption.TCP_NODELAY, tcpNodelay)
+                        .childOption(ChannelOption.SO_KEEPALIVE, soKeepalive)
+                        .childOption(ChannelOption.ALLOCATOR, bufAllocator)
+                        .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                                new WriteBufferWaterMark(writeBufferLowWaterMark, writeBufferHighWaterMark))
                         .childHandler(new ChannelInitializer<SocketChannel>() {
                             @Override
                             protected void initChannel(SocketChannel ch) {
-                                // 1. HttpServerCodec: 将请求/响应编码解码为 HTTP 报文
+                                // 1. 连接保活：收到任何数据都刷新活跃时间，长时间无数据的连接由 LivenessTracker 统一关闭
+                                ch.pipeline().addLast(livenessTracker.newHandler());
+                                // 2. HttpServerCodec: 将请求/响应编码解码为 HTTP 报文
                                 ch.pipeline().addLast(new HttpServerCodec());
-                                // 2. IdleStateHandler: 心跳检测处理器，180秒未收到客户端数据将触发 READER_IDLE 事件
-                                ch.pipeline().addLast(new io.netty.handler.timeout.IdleStateHandler(180, 0, 0));
                                 // 3. ChunkedWriteHandler: 方便向客户端发送大数据流（如大文件文件块）
                                 ch.pipeline().addLast(new ChunkedWriteHandler());
-                                // 4. HttpObjectAggregator: 将 HTTP 消息的多个部分（如 Header/Body）聚合成一个完整的请求
+                                // 4. FileHttpHandler: 图片上传 / 下载，请求体按块流式落盘，不经过下面的聚合器；下载走零拷贝
+                                //    上传不经过 AdmissionHandler，由其自行校验凭证、准入并按账号限流
+                                ch.pipeline().addLast(new FileHttpHandler(fileStorageService, sessionTicketService,
+                                        admissionController, rateLimiter, retryAfterSeconds));
+                                // 5. HttpObjectAggregator: 将 HTTP 消息的多个部分（如 Header/Body）聚合成一个完整的请求
                                 ch.pipeline().addLast(new HttpObjectAggregator(65536));
-                                // 5. WebSocketServerProtocolHandler: 核心处理器，处理 WebSocket 握手及 Ping/Pong/Close 帧
-                                ch.pipeline().addLast(new WebSocketServerProtocolHandler(path));
-                                // 6. ChatHandler: 自定义业务逻辑处理器，处理认证、转发等 IM 核心功能
+                                // 6. AdmissionHandler: 节点过载（EventLoop 延迟或落库积压超过阈值）时以 503 拒绝新的握手
+                                ch.pipeline().addLast(admissionHandler);
+                                // 7. WebSocketServerExtensionHandler: 协商 permessage-deflate 压缩，握手后替换为压缩编解码器
+                                if (deflateHandshaker != null) {
+                                    ch.pipeline().addLast(new WebSocketServerExtensionHandler(deflateHandshaker));
+                                }
+                                // 8. WebSocketServerProtocolHandler: 核心处理器，处理 WebSocket 握手及 Ping/Pong/Close 帧
+                                //    客户端可通过 Sec-WebSocket-Protocol 选择 JSON（默认）或二进制协议
+                                ch.pipeline().addLast(new WebSocketServerProtocolHandler(protocolConfig));
+                                // 9. WebSocketFrameAggregator: 将分片消息的各个 Continuation 帧零拷贝地组合为一个完整的帧
+                                ch.pipeline().addLast(new WebSocketFrameAggregator(maxMessageSize));
+                                // 10. ChatHandler: 自定义业务逻辑处理器，处理认证、转发等 IM 核心功能，上行帧按连接 / 账号限流
                                 ch.pipeline().addLast(chatHandler);
                             }
                         });
 
-                log.info("Netty WebSocket 服务器已准备就绪，正在监听端口: {}", port);
-                ChannelFuture f = b.bind(port).sync();
-                f.channel().closeFuture().sync();
+                // epoll 下开启 SO_REUSEPORT，多个监听 Socket 绑定同一端口，由内核在多个 accept 线程间分摊新连接
+                int bindCount = 1;
+                if (useEpoll && soReuseport) {
+                    b.option(EpollChannelOption.SO_REUSEPORT, true);
+                    bindCount = bossThreads;
+                }
+                for (int i = 0; i < bindCount; i++) {
+                    ChannelFuture f = b.bind(port).sync();
+                    serverChannels.add(f.channel());
+                }
+                log.info("Netty WebSocket 服务器已准备就绪，正在监听端口: {}，传输: {}，监听 Socket 数: {}",
+                        port, useEpoll ? "epoll" : "nio", bindCount);
+                for (Channel serverChannel : serverChannels) {
+                    serverChannel.closeFuture().sync();
+                }
             } catch (InterruptedException e) {
                 log.error("Netty 服务器在运行过程中发生中断异常", e);
                 Thread.currentThread().interrupt();
             } finally {
                 stop();
             }
-        }).start();
+        }, "netty-server").start();
+    }
+
+    /**
+     * 按配置选择传输方式，epoll 不可用时回退到 NIO
+     */
+    private boolean useEpoll() {
+        if ("nio".equalsIgnoreCase(transport)) {
+            return false;
+        }
+        if (Epoll.isAvailable()) {
+            return true;
+        }
+        if ("epoll".equalsIgnoreCase(transport)) {
+            log.warn("epoll 传输不可用，回退到 NIO", Epoll.unavailabilityCause());
+        }
+        return false;
     }
 
     /**
-     * Spring 容器关闭前执行清理，优雅关闭 Netty 线程池
+     * Spring 容器关闭前排空节点，再优雅关闭 Netty 线程池
+     * 1. 关闭监听 Socket，不再接收新连接
+     * 2. 等待已提交的消息落库，SENT 回执先于重连通知写出
+     * 3. 通知客户端在随机延迟后重连（可指定目标地址），写出积压的帧后关闭连接
+     * 4. 整批保留本节点的会话与客服绑定，由 SessionDrainService 在保留期后统一清理未重新上线的会话
      */
     @PreDestroy
     public void stop() {
+        // 监听 Socket 关闭后 netty-server 线程也会调用本方法
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
         log.info("正在优雅地停机 Netty 服务器...");
+        for (Channel serverChannel : serverChannels) {
+            serverChannel.close().syncUninterruptibly();
+        }
+        if (workerGroup != null) {
+            try {
+                if (!messageBatchWriter.awaitEmpty(drainTimeoutMs)) {
+                    log.warn("等待消息落库超时，剩余 {} 条由落库线程在退出前写入", messageBatchWriter.queueDepth());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<String> sessions = chatHandler.drain(reconnectMaxDelayMs, reconnectUrl, drainTimeoutMs);
+            try {
+                sessionDrainService.park(sessions);
+            } catch (Exception e) {
+                log.warn("保留排空会话失败，会话将在重连或超时后重新分配", e);
+            }
+        }
         if (bossGroup != null)
             bossGroup.shutdownGracefully();
         if (workerGroup != null)
@@ -0,0 +1,208 @@
+package com.webim.netty;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketCloseStatus;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+
+/**
+ * 下行帧写出器
+ * 所有发往客户端的帧都经由此处写出：
+ * 1. Channel 不可写（发送缓冲超过高水位）时帧进入该连接的有界待发队列，恢复可写后再依次写出
+ * 2. 待发队列已满的慢消费者按策略丢弃新帧（drop）或直接断开连接（close）；
+ *    未能写出的帧（含连接关闭时仍在待发队列中的帧）回调其丢弃通知，聊天消息据此记入离线收件箱
+ * 3. 同一 EventLoop 轮次内的多次写入只触发一次 flush 系统调用
+ */
+@Slf4j
+@Component
+public class OutboundWriter {
+
+    private static final AttributeKey<OutboundState> STATE_KEY = AttributeKey.valueOf("outboundState");
+
+    private final int maxPendingFrames;
+    private final boolean closeSlowConsumer;
+    private final Counter droppedCounter;
+    private final Counter evictedCounter;
+
+    public OutboundWriter(MeterRegistry meterRegistry,
+                          @Value("${netty.websocket.outbound.max-pending-frames:256}") int maxPendingFrames,
+                          @Value("${netty.websocket.outbound.overflow-policy:drop}") String overflowPolicy) {
+        this.maxPendingFrames = maxPendingFrames;
+        this.closeSlowConsumer = "close".equalsIgnoreCase(overflowPolicy);
+        this.droppedCounter = Counter.builder("im.outbound.dropped")
+                .description("慢消费者待发队列已满被丢弃的帧数").register(meterRegistry);
+        this.evictedCounter = Counter.builder("im.outbound.evicted")
+                .description("因消费过慢被断开的连接数").register(meterRegistry);
+    }
+
+    /**
+     * 写出一帧（任意线程可调用，实际写入在该连接的 EventLoop 上执行）
+     * 帧的所有权转交给本方法，丢弃时负责释放
+     */
+    public void write(Channel channel, WebSocketFrame frame) {
+        write(channel, frame, null);
+    }
+
+    /**
+     * 写出一帧，帧未能写出（连接已关闭、慢消费者被丢弃或断开）时在该连接的 EventLoop 上回调 onDropped
+     *
+     * @param onDropped 丢弃通知，为 null 则不通知
+     */
+    public void write(Channel channel, WebSocketFrame frame, Runnable onDropped) {
+        if (channel.eventLoop().inEventLoop()) {
+            doWrite(channel, frame, onDropped);
+        } else {
+            channel.eventLoop().execute(() -> doWrite(channel, frame, onDropped));
+        }
+    }
+
+    private void doWrite(Channel channel, WebSocketFrame frame, Runnable onDropped) {
+        if (!channel.isActive()) {
+            drop(frame, onDropped);
+            return;
+        }
+        OutboundState state = state(channel);
+        if (state.pending.isEmpty() && channel.isWritable()) {
+            channel.write(frame, channel.voidPromise());
+            scheduleFlush(channel, state);
+            return;
+        }
+        if (state.pending.size() < maxPendingFrames) {
+            state.pending.add(new PendingFrame(frame, onDropped));
+            return;
+        }
+        // 待发队列已满：慢消费者
+        drop(frame, onDropped);
+        if (closeSlowConsumer) {
+            evictedCounter.increment();
+            log.warn("连接 {} 消费过慢，待发队列已满，强制断开", channel.remoteAddress());
+            channel.close();
+        } else {
+            droppedCounter.increment();
+        }
+    }
+
+    /**
+     * 本轮 EventLoop 任务执行完后统一 flush 一次
+     */
+    private void scheduleFlush(Channel channel, OutboundState state) {
+        if (!state.flushScheduled) {
+            state.flushScheduled = true;
+            channel.eventLoop().execute(() -> {
+                state.flushScheduled = false;
+                channel.flush();
+            });
+        }
+    }
+
+    /**
+     * 写出积压的帧和最后一帧后发送 Close 帧并关闭连接（任意线程可调用）
+     * 用于节点排空：不再受发送缓冲水位限制，已排队的下行帧先于最后一帧写出
+     */
+    public void writeAndClose(Channel channel, WebSocketFrame frame) {
+        if (channel.eventLoop().inEventLoop()) {
+            doWriteAndClose(channel, frame);
+        } else {
+            channel.eventLoop().execute(() -> doWriteAndClose(channel, frame));
+        }
+    }
+
+    private void doWriteAndClose(Channel channel, WebSocketFrame frame) {
+        if (!channel.isActive()) {
+            ReferenceCountUtil.release(frame);
+            return;
+        }
+        OutboundState state = channel.attr(STATE_KEY).get();
+        if (state != null) {
+            PendingFrame pending;
+            while ((pending = state.pending.poll()) != null) {
+                channel.write(pending.frame, channel.voidPromise());
+            }
+        }
+        channel.write(frame, channel.voidPromise());
+        channel.writeAndFlush(new CloseWebSocketFrame(WebSocketCloseStatus.ENDPOINT_UNAVAILABLE))
+                .addListener(ChannelFutureListener.CLOSE);
+    }
+
+    /**
+     * Channel 恢复可写时调用（在 EventLoop 上），写出积压的帧直到再次不可写
+     */
+    public void onWritable(Channel channel) {
+        OutboundState state = channel.attr(STATE_KEY).get();
+        if (state == null) {
+            return;
+        }
+        boolean written = false;
+        while (channel.isWritable() && !state.pending.isEmpty()) {
+            channel.write(state.pending.poll().frame, channel.voidPromise());
+            written = true;
+        }
+        if (written) {
+            channel.flush();
+        }
+    }
+
+    /**
+     * 连接关闭时释放积压的帧并回调其丢弃通知（在 EventLoop 上调用）
+     */
+    public void release(Channel channel) {
+        OutboundState state = channel.attr(STATE_KEY).getAndSet(null);
+        if (state != null) {
+            PendingFrame pending;
+            while ((pending = state.pending.poll()) != null) {
+                drop(pending.frame, pending.onDropped);
+            }
+        }
+    }
+
+    private static void drop(WebSocketFrame frame, Runnable onDropped) {
+        ReferenceCountUtil.release(frame);
+        if (onDropped != null) {
+            try {
+                onDropped.run();
+            } catch (Exception e) {
+                log.warn("下行帧丢弃通知执行失败", e);
+            }
+        }
+    }
+
+    private static OutboundState state(Channel channel) {
+        OutboundState state = channel.attr(STATE_KEY).get();
+        if (state == null) {
+            state = new OutboundState();
+            channel.attr(STATE_KEY).set(state);
+        }
+        return state;
+    }
+
+    /**
+     * 单连接的写出状态，仅在该连接的 EventLoop 上访问
+     */
+    private static final class OutboundState {
+        private final ArrayDeque<PendingFrame> pending = new ArrayDeque<>();
+        private boolean flushScheduled;
+    }
+
+    /**
+     * 待发队列元素：帧及其丢弃通知
+     */
+    private static final class PendingFrame {
+        private final WebSocketFrame frame;
+        private final Runnable onDropped;
+
+        private PendingFrame(WebSocketFrame frame, Runnable onDropped) {
+            this.frame = frame;
+            this.onDropped = onDropped;
+        }
+    }
+}
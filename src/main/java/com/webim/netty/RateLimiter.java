@@ -0,0 +1,178 @@
+package com.webim.netty;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上行限流（令牌桶）
+ * 1. 单连接：除心跳外的全部上行业务帧
+ * 2. 单账号（键同 SessionRegistry，跨该账号在本节点的全部连接）：SEND、AUTH 与图片上传分别限流，
+ *    账号的令牌桶在一段时间无访问后自动淘汰
+ * 令牌桶只有一个 AtomicLong（下一个令牌的理论到达时间），取令牌为一次 CAS，不加锁；
+ * rate 配置为 0 时不限流，被拒绝的次数记录为 im.ratelimit.rejected{scope}
+ */
+@Slf4j
+@Component
+public class RateLimiter {
+
+    private static final AttributeKey<TokenBucket> CONNECTION_BUCKET_KEY = AttributeKey.valueOf("rateLimitBucket");
+
+    private final double connectionRate;
+    private final int connectionBurst;
+    private final double sendRate;
+    private final int sendBurst;
+    private final double authRate;
+    private final int authBurst;
+    private final double uploadRate;
+    private final int uploadBurst;
+    private final Cache<Long, TokenBucket> sendBuckets;
+    private final Cache<Long, TokenBucket> authBuckets;
+    private final Cache<Long, TokenBucket> uploadBuckets;
+    private final Counter connectionRejected;
+    private final Counter sendRejected;
+    private final Counter authRejected;
+    private final Counter uploadRejected;
+
+    public RateLimiter(MeterRegistry meterRegistry,
+                       @Value("${netty.websocket.rate-limit.connection.rate:20}") double connectionRate,
+                       @Value("${netty.websocket.rate-limit.connection.burst:40}") int connectionBurst,
+                       @Value("${netty.websocket.rate-limit.send.rate:10}") double sendRate,
+                       @Value("${netty.websocket.rate-limit.send.burst:20}") int sendBurst,
+                       @Value("${netty.websocket.rate-limit.auth.rate:0.2}") double authRate,
+                       @Value("${netty.websocket.rate-limit.auth.burst:5}") int authBurst,
+                       @Value("${netty.websocket.rate-limit.upload.rate:0.5}") double uploadRate,
+                       @Value("${netty.websocket.rate-limit.upload.burst:5}") int uploadBurst,
+                       @Value("${netty.websocket.rate-limit.account-cache-size:100000}") long accountCacheSize) {
+        this.connectionRate = connectionRate;
+        this.connectionBurst = connectionBurst;
+        this.sendRate = sendRate;
+        this.sendBurst = sendBurst;
+        this.authRate = authRate;
+        this.authBurst = authBurst;
+        this.uploadRate = uploadRate;
+        this.uploadBurst = uploadBurst;
+        this.sendBuckets = accountBuckets(sendRate, sendBurst, accountCacheSize);
+        this.authBuckets = accountBuckets(authRate, authBurst, accountCacheSize);
+        this.uploadBuckets = accountBuckets(uploadRate, uploadBurst, accountCacheSize);
+        this.connectionRejected = rejectedCounter("connection", meterRegistry);
+        this.sendRejected = rejectedCounter("send", meterRegistry);
+        this.authRejected = rejectedCounter("auth", meterRegistry);
+        this.uploadRejected = rejectedCounter("upload", meterRegistry);
+        log.info("上行限流：单连接 {}/s（突发 {}），单账号 SEND {}/s（突发 {}），单账号 AUTH {}/s（突发 {}），单账号上传 {}/s（突发 {}）",
+                connectionRate, connectionBurst, sendRate, sendBurst, authRate, authBurst, uploadRate, uploadBurst);
+    }
+
+    /**
+     * 账号令牌桶在桶重新装满后即可淘汰，淘汰后再次访问得到的新桶同样是满的，限流结果不变
+     */
+    private static Cache<Long, TokenBucket> accountBuckets(double rate, int burst, long maximumSize) {
+        long refillSeconds = rate > 0 ? Math.max(1, (long) Math.ceil(burst / rate)) : 1;
+        return Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(refillSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    private static Counter rejectedCounter(String scope, MeterRegistry meterRegistry) {
+        return Counter.builder("im.ratelimit.rejected").tag("scope", scope)
+                .description("超出限流被拒绝的上行帧数").register(meterRegistry);
+    }
+
+    /**
+     * 单连接的上行业务帧
+     */
+    public boolean tryAcquireFrame(Channel channel) {
+        if (connectionRate <= 0) {
+            return true;
+        }
+        TokenBucket bucket = channel.attr(CONNECTION_BUCKET_KEY).get();
+        if (bucket == null) {
+            bucket = new TokenBucket(connectionRate, connectionBurst);
+            channel.attr(CONNECTION_BUCKET_KEY).set(bucket);
+        }
+        if (bucket.tryAcquire()) {
+            return true;
+        }
+        connectionRejected.increment();
+        return false;
+    }
+
+    /**
+     * 单账号的 SEND
+     */
+    public boolean tryAcquireSend(Integer userType, Long id) {
+        if (sendRate <= 0 || acquire(sendBuckets, userType, id, sendRate, sendBurst)) {
+            return true;
+        }
+        sendRejected.increment();
+        return false;
+    }
+
+    /**
+     * 单账号的 AUTH（限制反复重连 / 重复认证）
+     */
+    public boolean tryAcquireAuth(Integer userType, Long id) {
+        if (authRate <= 0 || acquire(authBuckets, userType, id, authRate, authBurst)) {
+            return true;
+        }
+        authRejected.increment();
+        return false;
+    }
+
+    /**
+     * 单账号的图片上传（按会话凭证中的身份）
+     */
+    public boolean tryAcquireUpload(Integer userType, Long id) {
+        if (uploadRate <= 0 || acquire(uploadBuckets, userType, id, uploadRate, uploadBurst)) {
+            return true;
+        }
+        uploadRejected.increment();
+        return false;
+    }
+
+    private static boolean acquire(Cache<Long, TokenBucket> buckets, Integer userType, Long id,
+                                   double rate, int burst) {
+        return buckets.get(SessionRegistry.key(userType, id), k -> new TokenBucket(rate, burst)).tryAcquire();
+    }
+
+    /**
+     * 令牌桶：以“下一个令牌的理论到达时间”表示桶的状态（GCRA），
+     * 理论到达时间领先当前时间不超过 burst - 1 个令牌间隔时可以取令牌，取一个令牌即前移一个间隔
+     */
+    static final class TokenBucket {
+
+        private final long intervalNanos;
+        private final long toleranceNanos;
+        private final AtomicLong theoreticalArrival;
+
+        TokenBucket(double rate, int burst) {
+            this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+            this.theoreticalArrival = new AtomicLong(System.nanoTime());
+        }
+
+        boolean tryAcquire() {
+            long now = System.nanoTime();
+            for (; ; ) {
+                long current = theoreticalArrival.get();
+                long next = Math.max(current, now);
+                if (next - now > toleranceNanos) {
+                    return false;
+                }
+                if (theoreticalArrival.compareAndSet(current, next + intervalNanos)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
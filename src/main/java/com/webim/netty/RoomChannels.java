@@ -0,0 +1,201 @@
+package com.webim.netty;
+
+import com.webim.netty.protocol.FrameCodec;
+import com.webim.netty.protocol.ServerFrame;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.AttributeKey;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本节点的房间连接表与广播扇出
+ * 1. 房间成员连接按 (编解码器, EventLoop) 分组
+ * 2. 广播时每种编解码器只编码一次，得到的 ByteBuf 以引用计数共享；
+ *    每个 EventLoop 只提交一个任务，在该线程内依次写给其上的全部成员（各自一个 retainedDuplicate），
+ *    而不是每个连接各编码一次、各提交一次任务
+ */
+@Component
+public class RoomChannels {
+
+    /**
+     * 连接已加入的房间
+     */
+    private static final AttributeKey<Set<String>> ROOMS_KEY = AttributeKey.valueOf("rooms");
+
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final OutboundWriter outboundWriter;
+    private final NettyMetrics nettyMetrics;
+    private final DistributionSummary fanoutSize;
+    private final Timer fanoutLatency;
+
+    public RoomChannels(OutboundWriter outboundWriter, NettyMetrics nettyMetrics, MeterRegistry meterRegistry) {
+        this.outboundWriter = outboundWriter;
+        this.nettyMetrics = nettyMetrics;
+        this.fanoutSize = DistributionSummary.builder("im.room.fanout.size")
+                .description("单次房间广播的本节点接收连接数").register(meterRegistry);
+        this.fanoutLatency = Timer.builder("im.room.fanout.latency")
+                .description("单次房间广播的编码与任务提交耗时").register(meterRegistry);
+    }
+
+    /**
+     * 将连接加入房间（任意线程可调用，须在握手完成、编解码器确定之后）
+     */
+    public void bind(String room, Channel channel) {
+        if (!channel.isActive() || !roomsOf(channel).add(room)) {
+            return;
+        }
+        rooms.compute(room, (k, members) -> {
+            Room target = members == null ? new Room() : members;
+            target.add(channel);
+            return target;
+        });
+        // 加入期间连接已关闭：unbindAll 可能已经执行过，这里补一次清理
+        if (!channel.isActive()) {
+            unbind(room, channel);
+        }
+    }
+
+    /**
+     * 将连接移出房间
+     */
+    public void unbind(String room, Channel channel) {
+        roomsOf(channel).remove(room);
+        rooms.computeIfPresent(room, (k, members) -> members.remove(channel) ? null : members);
+    }
+
+    /**
+     * 连接关闭时移出所有房间
+     */
+    public void unbindAll(Channel channel) {
+        for (String room : roomsOf(channel)) {
+            unbind(room, channel);
+        }
+    }
+
+    public boolean isBound(String room, Channel channel) {
+        Set<String> joined = channel.attr(ROOMS_KEY).get();
+        return joined != null && joined.contains(room);
+    }
+
+    /**
+     * 本节点房间内的连接数
+     */
+    public int size(String room) {
+        Room members = rooms.get(room);
+        return members == null ? 0 : members.size;
+    }
+
+    /**
+     * 向本节点房间内的所有连接广播一帧
+     *
+     * @return 本节点接收的连接数
+     */
+    public int fanOut(String room, ServerFrame frame) {
+        Room members = rooms.get(room);
+        if (members == null) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        int recipients = 0;
+        for (Map.Entry<FrameCodec, Map<EventLoop, Set<Channel>>> group : members.channels.entrySet()) {
+            Map<EventLoop, Set<Channel>> byLoop = group.getValue();
+            ByteBufAllocator alloc = anyAllocator(byLoop);
+            if (alloc == null) {
+                continue;
+            }
+            WebSocketFrame encoded = group.getKey().encode(alloc, frame);
+            try {
+                for (Map.Entry<EventLoop, Set<Channel>> entry : byLoop.entrySet()) {
+                    Set<Channel> channels = entry.getValue();
+                    recipients += channels.size();
+                    encoded.retain();
+                    try {
+                        entry.getKey().execute(() -> {
+                            try {
+                                for (Channel channel : channels) {
+                                    outboundWriter.write(channel, encoded.retainedDuplicate());
+                                }
+                            } finally {
+                                encoded.release();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        encoded.release(); // EventLoop 已关闭
+                    }
+                }
+            } finally {
+                encoded.release();
+            }
+        }
+        fanoutLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        fanoutSize.record(recipients);
+        nettyMetrics.frameOut(frame, recipients);
+        return recipients;
+    }
+
+    private static ByteBufAllocator anyAllocator(Map<EventLoop, Set<Channel>> byLoop) {
+        for (Set<Channel> channels : byLoop.values()) {
+            Iterator<Channel> it = channels.iterator();
+            if (it.hasNext()) {
+                return it.next().alloc();
+            }
+        }
+        return null;
+    }
+
+    private static Set<String> roomsOf(Channel channel) {
+        Set<String> joined = channel.attr(ROOMS_KEY).get();
+        if (joined == null) {
+            Set<String> created = ConcurrentHashMap.newKeySet();
+            joined = channel.attr(ROOMS_KEY).setIfAbsent(created);
+            if (joined == null) {
+                joined = created;
+            }
+        }
+        return joined;
+    }
+
+    /**
+     * 一个房间在本节点的成员连接；增删都在 rooms.compute 内（按房间加锁）执行
+     */
+    private static final class Room {
+        private final Map<FrameCodec, Map<EventLoop, Set<Channel>>> channels = new ConcurrentHashMap<>();
+        private volatile int size;
+
+        void add(Channel channel) {
+            if (channels.computeIfAbsent(FrameCodec.of(channel), k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(channel.eventLoop(), k -> ConcurrentHashMap.newKeySet())
+                    .add(channel)) {
+                size++;
+            }
+        }
+
+        /**
+         * @return 房间已空
+         */
+        boolean remove(Channel channel) {
+            Map<EventLoop, Set<Channel>> byLoop = channels.getOrDefault(FrameCodec.of(channel), Collections.emptyMap());
+            Set<Channel> loopChannels = byLoop.get(channel.eventLoop());
+            if (loopChannels != null && loopChannels.remove(channel)) {
+                size--;
+                if (loopChannels.isEmpty()) {
+                    byLoop.remove(channel.eventLoop());
+                }
+            }
+            return size == 0;
+        }
+    }
+}
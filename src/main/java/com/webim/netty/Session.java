@@ -0,0 +1,50 @@
+package com.webim.netty;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import lombok.Getter;
+
+/**
+ * 已认证的连接：认证时创建一次并绑定到 Channel，此后各处理逻辑直接读取已解析的用户类型与 ID
+ */
+@Getter
+public final class Session {
+
+    public static final AttributeKey<Session> ATTRIBUTE = AttributeKey.valueOf("session");
+
+    /**
+     * 1-用户 2-客服
+     */
+    private final int userType;
+    private final long id;
+    /**
+     * SessionRegistry 中的键，见 {@link SessionRegistry#key(int, long)}
+     */
+    private final long key;
+    private final Channel channel;
+
+    public Session(int userType, long id, Channel channel) {
+        this.userType = userType;
+        this.id = id;
+        this.key = SessionRegistry.key(userType, id);
+        this.channel = channel;
+    }
+
+    /**
+     * 连接上的会话，未认证时为 null
+     */
+    public static Session of(Channel channel) {
+        return channel.attr(ATTRIBUTE).get();
+    }
+
+    public boolean isAgent() {
+        return userType == 2;
+    }
+
+    /**
+     * "用户类型:用户ID"，Redis 中的会话标识
+     */
+    public String name() {
+        return userType + ":" + id;
+    }
+}
@@ -0,0 +1,254 @@
+package com.webim.netty;
+
+import io.netty.util.NettyRuntime;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * 本节点的在线会话表
+ * 1. 键为 (用户ID << 2 | 用户类型) 组成的 long，查找时不拼接字符串、不装箱；
+ *    用户类型只能是 1 或 2、用户 ID 须在 (0, 2^61) 内，否则不同账号会得到相同的键，认证时即拒绝
+ * 2. 分成若干段（段数取不小于 I/O 线程数的 2 的幂），每段一张开链哈希表；链表节点不可变，写入时替换桶的链表头并以 volatile 发布，
+ *    查找不加锁、不分配对象；同一段的写入（认证、断开）加段锁，各段互不影响。
+ *    会话按键的哈希值而不是所在的 EventLoop 分段：查找方（如向对方投递消息）不知道对方连接属于哪个 EventLoop，
+ *    因此段锁仍可能被不同的 I/O 线程争用，只是段数足够多时冲突很少
+ * 3. 同一账号可在多个设备上同时在线（每个值是该账号的全部会话），超过 max-devices 时挤掉最早登录的设备
+ * 其它节点上的会话通过 PresenceService 查询所在节点，由 ClusterMessageBus 转发
+ */
+@Slf4j
+@Component
+public class SessionRegistry {
+
+    private static final int INITIAL_CAPACITY = 64;
+    /**
+     * 用户 ID 的上界（不含）：键的低 2 位留给用户类型
+     */
+    public static final long MAX_ID = 1L << 61;
+
+    private final Stripe[] stripes;
+    /**
+     * 段号取哈希值的高位，桶号取低位，两者互不相关
+     */
+    private final int stripeShift;
+    private final int maxDevices;
+
+    public SessionRegistry(@Value("${netty.websocket.worker-threads:0}") int workerThreads,
+                           @Value("${netty.websocket.session.max-devices:5}") int maxDevices) {
+        int loops = workerThreads > 0 ? workerThreads : NettyRuntime.availableProcessors() * 2;
+        int count = Integer.highestOneBit(Math.max(1, loops - 1) << 1);
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.stripeShift = 32 - Integer.numberOfTrailingZeros(count);
+        this.maxDevices = Math.max(1, maxDevices);
+        log.info("会话表已创建，分段数: {}，单账号最多在线设备数: {}", count, this.maxDevices);
+    }
+
+    /**
+     * 账号是否可以作为会话表的键：用户类型为 1（用户）或 2（客服），用户 ID 在 (0, 2^61) 内
+     */
+    public static boolean isValid(Integer userType, Long id) {
+        return userType != null && (userType == 1 || userType == 2) && id != null && id > 0 && id < MAX_ID;
+    }
+
+    /**
+     * 会话的键：低 2 位为用户类型，其余为用户 ID（调用方须先以 {@link #isValid} 校验）
+     */
+    public static long key(int userType, long id) {
+        return id << 2 | userType;
+    }
+
+    /**
+     * 登记会话
+     *
+     * @return 因超出设备数被挤下线的会话（已从表中移除，由调用方关闭连接），没有则为 null
+     * @throws IllegalArgumentException 账号不合法（见 {@link #isValid}）
+     */
+    public Session add(Session session) {
+        if (!isValid(session.getUserType(), session.getId())) {
+            throw new IllegalArgumentException("非法账号: " + session.getUserType() + ":" + session.getId());
+        }
+        return stripeOf(session.getKey()).add(session, maxDevices);
+    }
+
+    /**
+     * 移除会话（连接断开或被挤下线时调用，重复调用无副作用）
+     */
+    public void remove(Session session) {
+        stripeOf(session.getKey()).remove(session);
+    }
+
+    /**
+     * 账号在本节点的全部会话（按登录先后排列，调用方不得修改），不在线时为 null
+     */
+    public Session[] get(int userType, long id) {
+        if ((userType != 1 && userType != 2) || id <= 0 || id >= MAX_ID) {
+            return null;
+        }
+        long key = key(userType, id);
+        return stripeOf(key).get(key);
+    }
+
+    public boolean contains(int userType, long id) {
+        return get(userType, id) != null;
+    }
+
+    /**
+     * 遍历全部会话（弱一致：遍历期间的变更可能看得到也可能看不到）
+     */
+    public void forEach(Consumer<Session> action) {
+        for (Stripe stripe : stripes) {
+            stripe.forEach(action);
+        }
+    }
+
+    private Stripe stripeOf(long key) {
+        return stripes[(int) ((spread(key) & 0xFFFFFFFFL) >>> stripeShift)];
+    }
+
+    private static int spread(long key) {
+        int h = (int) (key ^ (key >>> 32));
+        return h * 0x9E3779B9;
+    }
+
+    /**
+     * 链表节点，创建后不再修改
+     */
+    private static final class Node {
+        private final long key;
+        private final Session[] sessions;
+        private final Node next;
+
+        private Node(long key, Session[] sessions, Node next) {
+            this.key = key;
+            this.sessions = sessions;
+            this.next = next;
+        }
+    }
+
+    /**
+     * 一段哈希表：读取只访问 volatile 的表引用与桶，写入在段锁内复制出新的链表头后发布
+     */
+    private static final class Stripe {
+
+        private volatile AtomicReferenceArray<Node> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+        /**
+         * 账号数（只在段锁内访问）
+         */
+        private int size;
+
+        Session[] get(long key) {
+            AtomicReferenceArray<Node> tab = table;
+            for (Node node = tab.get(spread(key) & (tab.length() - 1)); node != null; node = node.next) {
+                if (node.key == key) {
+                    return node.sessions;
+                }
+            }
+            return null;
+        }
+
+        synchronized Session add(Session session, int maxDevices) {
+            long key = session.getKey();
+            Session[] current = get(key);
+            Session evicted = null;
+            Session[] sessions;
+            if (current == null) {
+                sessions = new Session[]{session};
+                size++;
+            } else if (current.length < maxDevices) {
+                sessions = new Session[current.length + 1];
+                System.arraycopy(current, 0, sessions, 0, current.length);
+                sessions[current.length] = session;
+            } else {
+                evicted = current[0];
+                sessions = new Session[current.length];
+                System.arraycopy(current, 1, sessions, 0, current.length - 1);
+                sessions[current.length - 1] = session;
+            }
+            put(key, sessions);
+            if (size > table.length() * 3 / 4) {
+                resize();
+            }
+            return evicted;
+        }
+
+        synchronized void remove(Session session) {
+            long key = session.getKey();
+            Session[] current = get(key);
+            if (current == null) {
+                return;
+            }
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == session) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+            if (current.length == 1) {
+                put(key, null);
+                size--;
+                return;
+            }
+            Session[] sessions = new Session[current.length - 1];
+            System.arraycopy(current, 0, sessions, 0, index);
+            System.arraycopy(current, index + 1, sessions, index, current.length - index - 1);
+            put(key, sessions);
+        }
+
+        /**
+         * 以新的链表头替换桶：去掉 key 原有的节点（复制其前面的节点），sessions 不为 null 时在链表头插入新节点
+         */
+        private void put(long key, Session[] sessions) {
+            AtomicReferenceArray<Node> tab = table;
+            int index = spread(key) & (tab.length() - 1);
+            Node head = without(tab.get(index), key);
+            tab.set(index, sessions == null ? head : new Node(key, sessions, head));
+        }
+
+        private static Node without(Node node, long key) {
+            if (node == null) {
+                return null;
+            }
+            if (node.key == key) {
+                return node.next;
+            }
+            Node rest = without(node.next, key);
+            return rest == node.next ? node : new Node(node.key, node.sessions, rest);
+        }
+
+        /**
+         * 容量翻倍：在新表中重建全部节点后一次发布，正在读旧表的线程不受影响
+         */
+        private void resize() {
+            AtomicReferenceArray<Node> old = table;
+            AtomicReferenceArray<Node> tab = new AtomicReferenceArray<>(old.length() * 2);
+            for (int i = 0; i < old.length(); i++) {
+                for (Node node = old.get(i); node != null; node = node.next) {
+                    int index = spread(node.key) & (tab.length() - 1);
+                    tab.set(index, new Node(node.key, node.sessions, tab.get(index)));
+                }
+            }
+            table = tab;
+        }
+
+        void forEach(Consumer<Session> action) {
+            AtomicReferenceArray<Node> tab = table;
+            for (int i = 0; i < tab.length(); i++) {
+                for (Node node = tab.get(i); node != null; node = node.next) {
+                    for (Session session : node.sessions) {
+                        action.accept(session);
+                    }
+                }
+            }
+        }
+    }
+}
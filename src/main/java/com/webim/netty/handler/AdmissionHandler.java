@@ -0,0 +1,61 @@
+package com.webim.netty.handler;
+
+import com.webim.netty.AdmissionController;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * WebSocket 握手准入（位于 HttpObjectAggregator 之后、WebSocketServerProtocolHandler 之前）
+ * 节点过载时以 503 + Retry-After 拒绝升级请求并关闭连接；握手放行后从 pipeline 中移除
+ * 所有连接共用一个实例
+ */
+@Slf4j
+@ChannelHandler.Sharable
+public class AdmissionHandler extends ChannelInboundHandlerAdapter {
+
+    private final AdmissionController admissionController;
+    private final String retryAfterSeconds;
+
+    public AdmissionHandler(AdmissionController admissionController, int retryAfterSeconds) {
+        this.admissionController = admissionController;
+        this.retryAfterSeconds = String.valueOf(retryAfterSeconds);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof FullHttpRequest)
+                || !HttpHeaderValues.WEBSOCKET.contentEqualsIgnoreCase(((FullHttpRequest) msg).headers().get(HttpHeaderNames.UPGRADE))) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        FullHttpRequest request = (FullHttpRequest) msg;
+        String reason = admissionController.admit();
+        if (reason == null) {
+            ctx.pipeline().remove(this);
+            ctx.fireChannelRead(request);
+            return;
+        }
+        log.debug("节点过载（{}），拒绝来自 {} 的握手", reason, ctx.channel().remoteAddress());
+        FullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(),
+                HttpResponseStatus.SERVICE_UNAVAILABLE, Unpooled.copiedBuffer("服务繁忙，请稍后重试", StandardCharsets.UTF_8));
+        request.release();
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        response.headers().set(HttpHeaderNames.RETRY_AFTER, retryAfterSeconds);
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        HttpUtil.setContentLength(response, response.content().readableBytes());
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+}
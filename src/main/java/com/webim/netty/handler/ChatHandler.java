@@ -1,108 +1,312 @@
 package com.webim.netty.handler;
 
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONObject;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.webim.entity.Message;
-import com.webim.mapper.ChatMapper;
+import com.webim.netty.BusinessExecutor;
+import com.webim.netty.NettyMetrics;
+import com.webim.netty.OutboundWriter;
+import com.webim.netty.RateLimiter;
+import com.webim.netty.RoomChannels;
+import com.webim.netty.Session;
+import com.webim.netty.SessionRegistry;
+import com.webim.netty.protocol.AckFrame;
+import com.webim.netty.protocol.AuthFrame;
+import com.webim.netty.protocol.BinaryFrameCodec;
+import com.webim.netty.protocol.BroadcastFrame;
+import com.webim.netty.protocol.ClientFrame;
+import com.webim.netty.protocol.ErrorFrame;
+import com.webim.netty.protocol.FrameCodec;
+import com.webim.netty.protocol.HeartbeatFrame;
+import com.webim.netty.protocol.JoinFrame;
+import com.webim.netty.protocol.JsonFrameCodec;
+import com.webim.netty.protocol.LeaveFrame;
+import com.webim.netty.protocol.OfflineFrame;
+import com.webim.netty.protocol.ReceiveFrame;
+import com.webim.netty.protocol.ReconnectFrame;
+import com.webim.netty.protocol.RoomFrame;
+import com.webim.netty.protocol.SendFrame;
+import com.webim.netty.protocol.SentFrame;
+import com.webim.netty.protocol.ServerFrame;
+import com.webim.netty.protocol.SystemFrame;
+import com.webim.netty.protocol.TicketFrame;
 import com.webim.service.AgentService;
+import com.webim.service.ClusterMessageBus;
+import com.webim.service.InboxService;
+import com.webim.service.MessageBatchWriter;
+import com.webim.service.MessageIdGenerator;
+import com.webim.service.PresenceService;
+import com.webim.service.QueueNotifier;
+import com.webim.service.RoomService;
+import com.webim.service.SessionDrainService;
+import com.webim.service.SessionTicketService;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.channel.group.ChannelGroup;
-import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import io.netty.util.AttributeKey;
-import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.EventExecutor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.Map;
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * WebSocket 业务处理器
  * 负责处理客户端连接、身份认证、消息转发及心跳检测
+ * 文本帧按 JSON 解码、二进制帧按二进制协议解码，统一分发；下行帧按握手时协商的子协议编码
  */
 @Slf4j
 @Component
 @ChannelHandler.Sharable
-public class ChatHandler extends SimpleChannelInboundHandler<TextWebSocketFrame> {
+public class ChatHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
 
+    private final AgentService agentService;
+    private final MessageBatchWriter messageBatchWriter;
+    private final MessageIdGenerator messageIdGenerator;
+    private final BusinessExecutor businessExecutor;
+    private final OutboundWriter outboundWriter;
+    private final PresenceService presenceService;
+    private final SessionDrainService sessionDrainService;
+    private final ClusterMessageBus clusterMessageBus;
+    private final QueueNotifier queueNotifier;
+    private final InboxService inboxService;
+    private final RoomService roomService;
+    private final RoomChannels roomChannels;
+    private final NettyMetrics nettyMetrics;
+    private final RateLimiter rateLimiter;
+    private final SessionRegistry sessionRegistry;
+    private final SessionTicketService sessionTicketService;
+    private final int inboxBatchSize;
     /**
-     * 存储在线会话：Key 格式为 "用户类型:用户ID"，Value 为对应的 Netty Channel
+     * 客户端幂等键去重窗口："发送者类型:发送者ID:clientMsgId" -> 首次提交的消息落库结果
+     * 窗口内重发的 SEND 不再转发和保存，落库完成后同样回 SENT
      */
-    private static final Map<String, Channel> userChannels = new ConcurrentHashMap<>();
-
-    private final AgentService agentService;
-    private final ChatMapper chatMapper;
+    private final Cache<String, CompletableFuture<Message>> recentSends;
+    /**
+     * 节点是否正在排空
+     */
+    private volatile boolean draining;
 
     /**
-     * Channel 属性 Key，用于在 Channel 中绑定用户 ID 和类型
+     * 当前连接绑定的业务线程，阻塞的数据库 / Redis 操作均提交到该线程执行
      */
-    private static final AttributeKey<String> USER_ID_KEY = AttributeKey.valueOf("userId");
-    private static final AttributeKey<Integer> USER_TYPE_KEY = AttributeKey.valueOf("userType");
+    private static final AttributeKey<EventExecutor> BIZ_EXECUTOR_KEY = AttributeKey.valueOf("bizExecutor");
+    /**
+     * 是否正在同步离线消息：为 true 时客户端每 ACK 一批，服务端再推送下一批
+     */
+    private static final AttributeKey<Boolean> INBOX_SYNCING_KEY = AttributeKey.valueOf("inboxSyncing");
 
-    public ChatHandler(AgentService agentService, ChatMapper chatMapper) {
+    public ChatHandler(AgentService agentService, MessageBatchWriter messageBatchWriter,
+                       MessageIdGenerator messageIdGenerator,
+                       BusinessExecutor businessExecutor, OutboundWriter outboundWriter,
+                       PresenceService presenceService, SessionDrainService sessionDrainService,
+                       ClusterMessageBus clusterMessageBus, QueueNotifier queueNotifier,
+                       InboxService inboxService, RoomService roomService, RoomChannels roomChannels,
+                       NettyMetrics nettyMetrics, RateLimiter rateLimiter, SessionRegistry sessionRegistry,
+                       SessionTicketService sessionTicketService,
+                       @Value("${webim.inbox.batch-size:50}") int inboxBatchSize,
+                       @Value("${webim.message.dedup.window-seconds:60}") long dedupWindowSeconds,
+                       @Value("${webim.message.dedup.max-size:100000}") long dedupMaxSize) {
         this.agentService = agentService;
-        this.chatMapper = chatMapper;
+        this.messageBatchWriter = messageBatchWriter;
+        this.messageIdGenerator = messageIdGenerator;
+        this.businessExecutor = businessExecutor;
+        this.outboundWriter = outboundWriter;
+        this.presenceService = presenceService;
+        this.sessionDrainService = sessionDrainService;
+        this.clusterMessageBus = clusterMessageBus;
+        this.queueNotifier = queueNotifier;
+        this.inboxService = inboxService;
+        this.roomService = roomService;
+        this.roomChannels = roomChannels;
+        this.nettyMetrics = nettyMetrics;
+        this.rateLimiter = rateLimiter;
+        this.sessionRegistry = sessionRegistry;
+        this.sessionTicketService = sessionTicketService;
+        this.inboxBatchSize = inboxBatchSize;
+        this.recentSends = Caffeine.newBuilder()
+                .maximumSize(dedupMaxSize)
+                .expireAfterWrite(dedupWindowSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 注册本节点投递回调，接收其它节点转发过来的下行帧
+     */
+    @PostConstruct
+    public void init() {
+        clusterMessageBus.setLocalDelivery(this::deliverLocal);
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, TextWebSocketFrame frame) {
-        String text = frame.text();
-        log.debug("收到消息: {}", text);
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        ctx.channel().attr(BIZ_EXECUTOR_KEY).set(businessExecutor.next());
+    }
 
-        // 解析 JSON 消息
-        JSONObject json = JSON.parseObject(text);
-        String type = json.getString("type");
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) {
+        // 直接从帧的字节解码为具体的帧类型
+        FrameCodec decoder;
+        if (frame instanceof TextWebSocketFrame) {
+            decoder = JsonFrameCodec.INSTANCE;
+        } else if (frame instanceof BinaryWebSocketFrame) {
+            decoder = BinaryFrameCodec.INSTANCE;
+        } else {
+            log.debug("忽略不支持的帧: {}", frame.getClass().getSimpleName());
+            return;
+        }
+        // 心跳只比较字节，不进入解码器
+        if (decoder.isHeartbeat(frame.content())) {
+            nettyMetrics.heartbeatIn();
+            replyPong(ctx);
+            return;
+        }
+        ClientFrame message;
+        try {
+            message = decoder.decode(frame.content());
+        } catch (DecoderException e) {
+            // 畸形帧同样占用连接的限流令牌，超限后不再逐帧回错误提示
+            log.warn("无法解析的消息: {}", e.getMessage());
+            if (rateLimiter.tryAcquireFrame(ctx.channel())) {
+                send(ctx.channel(), new ErrorFrame("无法解析的消息"));
+            }
+            return;
+        }
+        nettyMetrics.frameIn(message);
+        if (!(message instanceof HeartbeatFrame) && !rateLimiter.tryAcquireFrame(ctx.channel())) {
+            // 单连接上行过快：SEND 回带 clientMsgId 的错误帧（客户端退避后重发该条消息），其它帧直接丢弃
+            if (message instanceof SendFrame) {
+                send(ctx.channel(), new ErrorFrame("发送过于频繁，请稍后重试", ((SendFrame) message).getClientMsgId()));
+            }
+            return;
+        }
 
         // 根据消息类型分发逻辑
-        switch (type) {
-            case "AUTH":
-                // 身份认证（建立连接后的第一步）
-                handleAuth(ctx, json);
-                break;
-            case "SEND":
-                // 发送即时消息（私聊转发）
-                handleSend(ctx, json);
-                break;
-            case "HEARTBEAT":
-                // 心跳检测响应
-                ctx.writeAndFlush(new TextWebSocketFrame("{\"type\":\"PONG\"}"));
-                break;
-            default:
-                log.warn("未知消息类型: {}", type);
+        if (message instanceof HeartbeatFrame) {
+            // 非标准格式的心跳（如带空白的 JSON）
+            replyPong(ctx);
+        } else if (message instanceof SendFrame) {
+            // 发送即时消息（私聊转发）
+            handleSend(ctx, (SendFrame) message);
+        } else if (message instanceof AckFrame) {
+            // 客户端确认已收到的消息
+            handleAck(ctx, (AckFrame) message);
+        } else if (message instanceof AuthFrame) {
+            // 身份认证（建立连接后的第一步）
+            handleAuth(ctx, (AuthFrame) message);
+        } else if (message instanceof BroadcastFrame) {
+            // 房间广播 / 公告
+            handleBroadcast(ctx, (BroadcastFrame) message);
+        } else if (message instanceof JoinFrame) {
+            handleJoin(ctx, ((JoinFrame) message).getRoom());
+        } else if (message instanceof LeaveFrame) {
+            handleLeave(ctx, ((LeaveFrame) message).getRoom());
         }
     }
 
+    /**
+     * 心跳响应；连接的活跃时间已由 LivenessTracker 在收到数据时刷新
+     */
+    private void replyPong(ChannelHandlerContext ctx) {
+        outboundWriter.write(ctx.channel(), FrameCodec.of(ctx.channel()).pong());
+        nettyMetrics.pongOut();
+    }
+
     /**
      * 处理身份认证逻辑
      */
-    private void handleAuth(ChannelHandlerContext ctx, JSONObject json) {
-        Long id = json.getLong("id");
-        Integer userType = json.getInteger("userType"); // 1-用户 2-客服
+    private void handleAuth(ChannelHandlerContext ctx, AuthFrame auth) {
+        Long id = auth.getId();
+        Integer userType = auth.getUserType(); // 1-用户 2-客服
+        if (!SessionRegistry.isValid(userType, id)) {
+            send(ctx.channel(), new ErrorFrame("认证信息无效"));
+            return;
+        }
+        if (!rateLimiter.tryAcquireAuth(userType, id)) {
+            send(ctx.channel(), new ErrorFrame("认证过于频繁，请稍后重新连接"));
+            return;
+        }
+
+        Channel channel = ctx.channel();
+        // 将会话绑定到 Channel，后续处理直接读取已解析的用户类型与 ID
+        Session previous = channel.attr(Session.ATTRIBUTE).getAndSet(new Session(userType, id, channel));
+        if (previous != null) {
+            // 同一连接重复认证
+            nettyMetrics.connectionClosed(previous.getUserType());
+            sessionRegistry.remove(previous);
+        }
+        nettyMetrics.connectionOpened(userType);
 
-        // 将用户信息绑定到当前 Channel 属性中，方便后续获取
-        ctx.channel().attr(USER_ID_KEY).set(id.toString());
-        ctx.channel().attr(USER_TYPE_KEY).set(userType);
+        // 登记到本节点的会话表；同一账号可多设备同时在线，超出设备数时挤掉最早登录的设备
+        Session evicted = sessionRegistry.add(Session.of(channel));
+        if (evicted != null) {
+            Channel evictedChannel = evicted.getChannel();
+            outboundWriter.writeAndClose(evictedChannel, FrameCodec.of(evictedChannel)
+                    .encode(evictedChannel.alloc(), new ErrorFrame("账号已在其它设备登录")));
+        }
 
-        // 将 Channel 放入全局在线映射表
-        userChannels.put(userType + ":" + id, ctx.channel());
+        // 下发会话凭证，客户端凭它调用图片上传等 HTTP 接口
+        SessionTicketService.Ticket ticket = sessionTicketService.issue(userType, id);
+        send(channel, new TicketFrame(ticket.getToken(), ticket.getExpiresAt()));
 
+        // 在集群注册表中登记会话所在节点，随后开始推送离线期间未送达的消息
+        runBusiness(channel, () -> {
+            presenceService.register(userType, id);
+            // 从排空节点迁移过来的会话，不再由回收任务释放
+            sessionDrainService.resume(userType, id);
+        }, null);
+        // 加入内置房间，并恢复此前加入的房间
+        roomChannels.bind(RoomService.ALL, channel);
         if (userType == 2) {
-            // 如果是客服上线，在 Redis 中标记客服在线
-            agentService.agentOnline(id);
-        } else {
-            // 如果是普通用户上线，由 AgentService 自动分配一名空闲客服
-            Long agentId = agentService.assignAgent(id);
-            if (agentId != null) {
-                // 通知用户分配结果
-                notifyUser(ctx.channel(), "SYSTEM", "为您分配了客服: " + agentId, agentId);
-            } else {
-                // 如果没有空闲客服发送提醒
-                notifyUser(ctx.channel(), "SYSTEM", "当前无空闲客服，请稍后再试", null);
+            roomChannels.bind(RoomService.AGENTS, channel);
+        }
+        runBusiness(channel, () -> {
+            for (String room : roomService.roomsOf(userType, id)) {
+                roomChannels.bind(room, channel);
             }
+        }, null);
+        channel.attr(INBOX_SYNCING_KEY).set(true);
+        runBusiness(channel, () -> pushInboxBatch(channel, userType, id), null);
+        if (userType == 2) {
+            // 如果是客服上线，在 Redis 中标记客服在线，并接入排队中的用户
+            runBusiness(channel, () -> {
+                for (Long userId : agentService.agentOnline(id)) {
+                    queueNotifier.assigned(userId, id);
+                }
+            }, "客服上线失败，请重新连接");
+        } else {
+            // 如果是普通用户上线，由 AgentService 自动分配一名空闲客服，客服均满员时进入排队
+            // 排队优先级由服务端按账号配置决定，不信任客户端
+            int priority = agentService.priorityOf(id);
+            runBusiness(channel, () -> {
+                AgentService.Assignment assignment = agentService.assignAgent(id, priority, presenceService.getNodeId());
+                if (assignment.getAgentId() != null) {
+                    // 通知用户分配结果
+                    send(channel, new SystemFrame("为您分配了客服: " + assignment.getAgentId(), assignment.getAgentId()));
+                } else {
+                    // 进入排队，推送当前排队位置
+                    queueNotifier.enqueue(id, assignment.getQueuePosition());
+                }
+            }, "客服分配失败，请重新连接");
         }
         log.info("认证成功: 类型={}, ID={}", userType == 1 ? "用户" : "客服", id);
     }
@@ -110,54 +314,359 @@ public class ChatHandler extends SimpleChannelInboundHandler<TextWebSocketFrame>
     /**
      * 处理消息发送逻辑
      */
-    private void handleSend(ChannelHandlerContext ctx, JSONObject json) {
-        // 从 Channel 属性中提取当前登录者的 ID 和类型
-        Long fromId = Long.parseLong(ctx.channel().attr(USER_ID_KEY).get());
-        Integer fromType = ctx.channel().attr(USER_TYPE_KEY).get();
-        Long toId = json.getLong("toId");
-        String content = json.getString("content");
-        Integer msgType = json.getInteger("msgType"); // 1-文字 2-图片..
+    private void handleSend(ChannelHandlerContext ctx, SendFrame send) {
+        long receivedAt = System.nanoTime();
+        // 从 Channel 上的会话中取出当前登录者的 ID 和类型
+        Session session = Session.of(ctx.channel());
+        if (session == null) {
+            return;
+        }
+        Long fromId = session.getId();
+        Integer fromType = session.getUserType();
+        if (!rateLimiter.tryAcquireSend(fromType, fromId)) {
+            send(ctx.channel(), new ErrorFrame("发送过于频繁，请稍后重试", send.getClientMsgId()));
+            return;
+        }
+        Long toId = send.getToId();
+        String content = send.getContent();
+        Integer msgType = send.getMsgType(); // 1-文字 2-图片..
+        Channel channel = ctx.channel();
 
-        // 1. 将聊天记录持久化到 MySQL 数据库
+        // 消息 ID 在接收时即分配，转发给对方的帧与落库记录使用同一个 ID
         Message message = new Message();
+        message.setId(messageIdGenerator.nextId());
+        message.setConversationId(fromType == 1
+                ? Message.conversationId(fromId, toId)
+                : Message.conversationId(toId, fromId));
         message.setFromId(fromId);
         message.setFromType(fromType);
         message.setToId(toId);
         message.setContent(content);
         message.setMsgType(msgType);
-        chatMapper.insertMessage(message);
+        message.setCreateTime(new Date(MessageIdGenerator.timestampOf(message.getId())));
 
-        // 2. 消息实时转发
+        // 去重：同一发送者的同一 clientMsgId 在窗口内只处理一次，重发只等待首次结果并回 SENT
+        String clientMsgId = send.getClientMsgId();
+        String dedupKey = null;
+        CompletableFuture<Message> persisted = new CompletableFuture<>();
+        if (clientMsgId != null) {
+            dedupKey = fromType + ":" + fromId + ":" + clientMsgId;
+            CompletableFuture<Message> first = recentSends.asMap().putIfAbsent(dedupKey, persisted);
+            if (first != null) {
+                log.debug("忽略重复发送的消息: {}", dedupKey);
+                first.thenAccept(saved -> send(channel, sentFrame(clientMsgId, saved)));
+                return;
+            }
+        }
+
+        // 1. 消息实时转发（在 I/O 线程完成，不等待落库）
         // 如果发送者是用户(1)，则接收方是客服(2)；反之亦然
         Integer targetType = (fromType == 1) ? 2 : 1;
-        Channel targetChannel = userChannels.get(targetType + ":" + toId);
-
-        // 构建返回给目标方的 JSON
-        JSONObject resp = new JSONObject();
-        resp.put("type", "RECEIVE");
-        resp.put("fromId", fromId);
-        resp.put("content", content);
-        resp.put("msgType", msgType);
-        resp.put("timestamp", System.currentTimeMillis());
-
-        if (targetChannel != null && targetChannel.isActive()) {
-            // 目标用户在线，直接通过 WebSocket 推送
-            targetChannel.writeAndFlush(new TextWebSocketFrame(resp.toJSONString()));
+
+        // 构建发给目标方的帧
+        ReceiveFrame receive = new ReceiveFrame();
+        receive.setId(message.getId());
+        receive.setFromId(fromId);
+        receive.setContent(content);
+        receive.setMsgType(msgType);
+        receive.setTimestamp(message.getCreateTime().getTime());
+
+        CompletableFuture<Boolean> delivered;
+        if (sendLocal(targetType, toId, receive)) {
+            // 目标用户在本节点在线，已直接通过 WebSocket 推送到其全部设备
+            nettyMetrics.recordLocalDelivery(receivedAt);
+            delivered = CompletableFuture.completedFuture(true);
         } else {
-            log.info("目标用户 {} 目前不在线，消息已落库，待用户上线后拉取历史记录", toId);
+            // 不在本节点，查询所在节点并跨节点转发
+            delivered = clusterMessageBus.route(targetType, toId, receive).exceptionally(e -> false);
         }
+
+        // 客服的会话有班长监听时抄送一份
+        Long agentId = fromType == 2 ? fromId : toId;
+        roomService.publishIfActive(RoomService.MONITOR_PREFIX + agentId, roomFrame(RoomService.MONITOR_PREFIX + agentId,
+                message.getId(), fromId, fromType, toId, content, msgType));
+
+        // 2. 交由批量落库管道异步写入，成功后回 SENT；队列已满或写库失败时向发送方返回错误帧，并允许客户端重发
+        String key = dedupKey;
+        messageBatchWriter.submit(message).whenComplete((saved, e) -> {
+            if (e != null) {
+                log.warn("消息落库失败: from={}, to={}", fromId, toId, e);
+                if (key != null) {
+                    recentSends.asMap().remove(key, persisted);
+                }
+                persisted.completeExceptionally(e);
+                send(channel, new ErrorFrame("消息保存失败: " + content));
+            } else {
+                persisted.complete(saved);
+                if (clientMsgId != null) {
+                    send(channel, sentFrame(clientMsgId, saved));
+                }
+            }
+        });
+
+        // 3. 目标不在线：落库后记入对方的离线收件箱，待其上线后推送；业务线程队列已满时也不能丢弃
+        persisted.thenAcceptBoth(delivered, (saved, routed) -> {
+            if (!routed) {
+                log.info("目标用户 {} 目前不在线，消息 {} 已记入离线收件箱", toId, saved.getId());
+                addToInbox(channel, targetType, toId, saved.getId());
+            }
+        });
     }
 
     /**
-     * 发送系统通知消息
+     * 记入离线收件箱（不可丢弃，在给定连接绑定的业务线程执行）
      */
-    private void notifyUser(Channel channel, String type, String content, Long agentId) {
-        JSONObject resp = new JSONObject();
-        resp.put("type", type);
-        resp.put("content", content);
-        if (agentId != null)
-            resp.put("agentId", agentId);
-        channel.writeAndFlush(new TextWebSocketFrame(resp.toJSONString()));
+    private void addToInbox(Channel channel, Integer userType, Long userId, Long messageId) {
+        businessExecutor.executeReliably(channel.attr(BIZ_EXECUTOR_KEY).get(), () -> {
+            try {
+                inboxService.add(userType, userId, messageId);
+            } catch (Exception e) {
+                log.error("消息 {} 记入 {}:{} 的离线收件箱失败", messageId, userType, userId, e);
+            }
+        });
+    }
+
+    /**
+     * 加入房间；监听房间（monitor:{客服ID}）仅班长可加入，内置房间无需加入
+     */
+    private void handleJoin(ChannelHandlerContext ctx, String room) {
+        Channel channel = ctx.channel();
+        Session session = Session.of(channel);
+        if (session == null || !RoomService.isValidName(room) || RoomService.isBuiltIn(room)
+                || (RoomService.isMonitor(room) && !roomService.isSupervisor(session.getUserType(), session.getId()))) {
+            send(channel, new ErrorFrame("无法加入房间: " + room));
+            return;
+        }
+        Integer userType = session.getUserType();
+        Long id = session.getId();
+        runBusiness(channel, () -> {
+            roomService.join(room, userType, id);
+            roomChannels.bind(room, channel);
+            send(channel, new SystemFrame("已加入房间: " + room, null));
+        }, "加入房间失败，请稍后重试");
+    }
+
+    private void handleLeave(ChannelHandlerContext ctx, String room) {
+        Channel channel = ctx.channel();
+        Session session = Session.of(channel);
+        if (session == null || !RoomService.isValidName(room) || RoomService.isBuiltIn(room)) {
+            return;
+        }
+        Integer userType = session.getUserType();
+        Long id = session.getId();
+        roomChannels.unbind(room, channel);
+        runCleanup(channel, () -> roomService.leave(room, userType, id));
+    }
+
+    /**
+     * 房间广播：自定义房间需已加入；内置房间（公告）仅客服可发；监听房间只读
+     */
+    private void handleBroadcast(ChannelHandlerContext ctx, BroadcastFrame broadcast) {
+        Channel channel = ctx.channel();
+        Session session = Session.of(channel);
+        String room = broadcast.getRoom();
+        boolean allowed = session != null && RoomService.isValidName(room) && !RoomService.isMonitor(room)
+                && (RoomService.isBuiltIn(room) ? session.isAgent() : roomChannels.isBound(room, channel));
+        if (!allowed) {
+            send(channel, new ErrorFrame("无权向房间发送消息: " + room));
+            return;
+        }
+        roomService.publish(room, roomFrame(room, messageIdGenerator.nextId(), session.getId(), session.getUserType(), null,
+                broadcast.getContent(), broadcast.getMsgType()));
+    }
+
+    private static RoomFrame roomFrame(String room, long id, Long fromId, Integer fromType, Long toId,
+                                       String content, Integer msgType) {
+        RoomFrame frame = new RoomFrame();
+        frame.setRoom(room);
+        frame.setId(id);
+        frame.setFromId(fromId);
+        frame.setFromType(fromType);
+        frame.setToId(toId);
+        frame.setContent(content);
+        frame.setMsgType(msgType);
+        frame.setTimestamp(MessageIdGenerator.timestampOf(id));
+        return frame;
+    }
+
+    private static SentFrame sentFrame(String clientMsgId, Message saved) {
+        SentFrame sent = new SentFrame();
+        sent.setClientMsgId(clientMsgId);
+        sent.setId(saved.getId());
+        sent.setTimestamp(saved.getCreateTime().getTime());
+        return sent;
+    }
+
+    /**
+     * 处理客户端 ACK：从离线收件箱移除已确认的消息；正在同步离线消息时继续推送下一批
+     */
+    private void handleAck(ChannelHandlerContext ctx, AckFrame ack) {
+        Session session = Session.of(ctx.channel());
+        if (session == null) {
+            return;
+        }
+        Integer userType = session.getUserType();
+        Long id = session.getId();
+        List<Long> ids = ack.getIds() == null ? Collections.emptyList() : ack.getIds();
+        Channel channel = ctx.channel();
+        runBusiness(channel, () -> {
+            inboxService.ack(userType, id, ids);
+            if (Boolean.TRUE.equals(channel.attr(INBOX_SYNCING_KEY).get())) {
+                pushInboxBatch(channel, userType, id);
+            }
+        }, null);
+    }
+
+    /**
+     * 推送一批离线消息（在业务线程执行）；收件箱为空时结束同步
+     * 每次只推送一批，客户端 ACK 后再推送下一批，避免积压过多时撑爆连接的发送缓冲
+     */
+    private void pushInboxBatch(Channel channel, Integer userType, Long userId) {
+        List<Message> messages = inboxService.peek(userType, userId, inboxBatchSize);
+        if (messages.isEmpty()) {
+            channel.attr(INBOX_SYNCING_KEY).set(false);
+            return;
+        }
+        List<ReceiveFrame> items = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            ReceiveFrame item = new ReceiveFrame();
+            item.setId(message.getId());
+            item.setFromId(message.getFromId());
+            item.setContent(message.getContent());
+            item.setMsgType(message.getMsgType());
+            item.setTimestamp(message.getCreateTime() == null ? null : message.getCreateTime().getTime());
+            items.add(item);
+        }
+        OfflineFrame frame = new OfflineFrame();
+        frame.setMessages(items);
+        frame.setMore(messages.size() == inboxBatchSize);
+        send(channel, frame);
+    }
+
+    /**
+     * 将下行帧写入本节点上的目标连接
+     *
+     * @return 目标在本节点在线并已写入时为 true
+     */
+    private boolean deliverLocal(Integer targetType, Long targetId, ServerFrame frame) {
+        if (!sendLocal(targetType, targetId, frame)) {
+            return false;
+        }
+        if (frame instanceof ReceiveFrame && ((ReceiveFrame) frame).getTimestamp() != null) {
+            nettyMetrics.recordRemoteDelivery(((ReceiveFrame) frame).getTimestamp());
+        }
+        return true;
+    }
+
+    /**
+     * 写给目标账号在本节点的全部设备
+     * 聊天消息在某个设备上未能写出（慢消费者被丢弃、连接随后关闭）时记入离线收件箱，下次上线时补推
+     *
+     * @return 至少写给了一个设备时为 true
+     */
+    private boolean sendLocal(int targetType, long targetId, ServerFrame frame) {
+        Session[] sessions = sessionRegistry.get(targetType, targetId);
+        if (sessions == null) {
+            return false;
+        }
+        Long messageId = frame instanceof ReceiveFrame ? ((ReceiveFrame) frame).getId() : null;
+        boolean sent = false;
+        for (Session target : sessions) {
+            Channel channel = target.getChannel();
+            if (channel.isActive()) {
+                Runnable onDropped = messageId == null ? null : () -> {
+                    log.info("消息 {} 未能写给 {}:{}，已记入离线收件箱", messageId, targetType, targetId);
+                    addToInbox(channel, targetType, targetId, messageId);
+                };
+                outboundWriter.write(channel, FrameCodec.of(channel).encode(channel.alloc(), frame), onDropped);
+                nettyMetrics.frameOut(frame);
+                sent = true;
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * 将阻塞任务提交到当前连接绑定的业务线程
+     * 任务执行失败或线程池已满时，向客户端返回 ERROR 帧
+     *
+     * @param errorTip 失败时提示给客户端的内容，为 null 则不提示
+     */
+    private void runBusiness(Channel channel, Runnable task, String errorTip) {
+        try {
+            businessExecutor.execute(channel.attr(BIZ_EXECUTOR_KEY).get(), () -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("业务任务执行失败", e);
+                    if (errorTip != null) {
+                        send(channel, new ErrorFrame(errorTip));
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("业务线程池繁忙，任务被拒绝");
+            if (errorTip != null) {
+                send(channel, new ErrorFrame("服务繁忙，请稍后重试"));
+            }
+        }
+    }
+
+    /**
+     * 执行不可丢弃的清理任务（离开房间、下线清理）：业务线程队列已满时稍后补交回同一业务线程，仍排在该连接此前的任务之后，
+     * 否则客服负载、绑定关系与在线位置会永久泄漏
+     */
+    private void runCleanup(Channel channel, Runnable task) {
+        businessExecutor.executeReliably(channel.attr(BIZ_EXECUTOR_KEY).get(), () -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("下线清理任务执行失败", e);
+            }
+        });
+    }
+
+    /**
+     * 编码并写出一个下行帧
+     */
+    private void send(Channel channel, ServerFrame frame) {
+        outboundWriter.write(channel, FrameCodec.of(channel).encode(channel.alloc(), frame));
+        nettyMetrics.frameOut(frame);
+    }
+
+    /**
+     * 节点排空：通知本节点全部已认证连接在随机延迟后重连，写出积压的帧后关闭连接，
+     * 此后断开的连接不再逐个执行下线清理（未认证的连接随 EventLoop 关闭）
+     *
+     * @param maxDelayMillis 客户端重连延迟的上限，各连接在 [0, maxDelayMillis] 内随机取值
+     * @param reconnectUrl   客户端重连地址，为空时使用原地址
+     * @param timeoutMillis  等待连接关闭的最长时间
+     * @return 本节点上的会话（"用户类型:用户ID"），由调用方整批保留
+     */
+    public List<String> drain(long maxDelayMillis, String reconnectUrl, long timeoutMillis) {
+        draining = true;
+        String url = reconnectUrl == null || reconnectUrl.isEmpty() ? null : reconnectUrl;
+        Set<String> sessions = new LinkedHashSet<>();
+        List<ChannelFuture> closeFutures = new ArrayList<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        sessionRegistry.forEach(session -> {
+            Channel channel = session.getChannel();
+            ReconnectFrame frame = new ReconnectFrame(random.nextLong(maxDelayMillis + 1), url);
+            outboundWriter.writeAndClose(channel, FrameCodec.of(channel).encode(channel.alloc(), frame));
+            nettyMetrics.frameOut(frame);
+            sessions.add(session.name());
+            closeFutures.add(channel.closeFuture());
+        });
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (ChannelFuture closeFuture : closeFutures) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !closeFuture.awaitUninterruptibly(remaining, TimeUnit.NANOSECONDS)) {
+                log.warn("等待连接关闭超时，剩余连接随 EventLoop 关闭");
+                break;
+            }
+        }
+        log.info("节点排空：已通知 {} 个连接重连", closeFutures.size());
+        return new ArrayList<>(sessions);
     }
 
     /**
@@ -165,34 +674,74 @@ public class ChatHandler extends SimpleChannelInboundHandler<TextWebSocketFrame>
      */
     @Override
     public void handlerRemoved(ChannelHandlerContext ctx) {
-        String userId = ctx.channel().attr(USER_ID_KEY).get();
-        Integer userType = ctx.channel().attr(USER_TYPE_KEY).get();
-        if (userId != null) {
-            // 从内存映射中移除 Channel
-            userChannels.remove(userType + ":" + userId);
-            if (userType == 2) {
-                // 客服下线清理 Redis 状态
-                agentService.agentOffline(Long.parseLong(userId));
-            } else {
-                // 用户离开释放占用的客服负载
-                agentService.releaseAgent(Long.parseLong(userId));
+        outboundWriter.release(ctx.channel());
+        roomChannels.unbindAll(ctx.channel());
+        Session session = Session.of(ctx.channel());
+        if (session == null) {
+            log.info("未认证的连接已断开");
+            return;
+        }
+        nettyMetrics.connectionClosed(session.getUserType());
+        sessionRegistry.remove(session);
+        Integer userType = session.getUserType();
+        Long id = session.getId();
+        // 账号在本节点的其它设备仍在线（或已被新设备挤下线）时，不执行下线清理
+        if (!sessionRegistry.contains(userType, id)) {
+            if (userType == 1) {
+                queueNotifier.remove(id);
             }
+            // 节点排空中：会话与客服绑定由 SessionDrainService 整批保留，不逐个清理
+            if (!draining) {
+                releaseSession(ctx.channel(), userType, id);
+            }
+        }
+        log.info("连接已断开: 类型={}, ID={}", session.isAgent() ? "客服" : "用户", id);
+    }
+
+    /**
+     * 会话下线：注销在线位置，客服下线或用户释放客服负载
+     */
+    private void releaseSession(Channel channel, Integer userType, Long id) {
+        runCleanup(channel, () -> {
+            if (!sessionRegistry.contains(userType, id)) {
+                presenceService.unregister(userType, id);
+            }
+        });
+        if (userType == 2) {
+            // 客服下线清理 Redis 状态
+            runCleanup(channel, () -> agentService.agentOffline(id));
+        } else {
+            // 用户离开释放占用的客服负载（或退出排队），空出的名额分配给排队队首用户；
+            // 用户已在其它节点重新上线并重新分配时，本节点迟到的释放不生效
+            runCleanup(channel, () -> {
+                AgentService.Assignment dispatched = agentService.releaseAgent(id, presenceService.getNodeId());
+                if (dispatched != null) {
+                    queueNotifier.assigned(dispatched.getUserId(), dispatched.getAgentId());
+                }
+            });
+        }
+    }
+
+    /**
+     * 发送缓冲回落到低水位以下，继续写出积压的帧
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (ctx.channel().isWritable()) {
+            outboundWriter.onWritable(ctx.channel());
         }
-        log.info("连接已断开: 类型={}, ID={}", userType == 1 ? "用户" : "客服", userId);
+        ctx.fireChannelWritabilityChanged();
     }
 
     /**
-     * 处理 Netty 用户自定义事件，如状态超时（IdleStateHandler 触发）
+     * 处理 Netty 用户自定义事件，如握手完成（空闲连接由 LivenessTracker 直接关闭，不经过事件）
      */
     @Override
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
-        if (evt instanceof io.netty.handler.timeout.IdleStateEvent) {
-            io.netty.handler.timeout.IdleStateEvent event = (io.netty.handler.timeout.IdleStateEvent) evt;
-            // 监听读超时（即 3 分钟未收到任何心跳或消息）
-            if (event.state() == io.netty.handler.timeout.IdleState.READER_IDLE) {
-                log.info("连接由于长时间(3分钟)未收到活跃反馈而触发空闲超时，系统强制关闭: {}", ctx.channel().attr(USER_ID_KEY).get());
-                ctx.close();
-            }
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            // 按协商出的子协议选定下行帧编码（浏览器端未声明子协议，使用 JSON）
+            String subprotocol = ((WebSocketServerProtocolHandler.HandshakeComplete) evt).selectedSubprotocol();
+            ctx.channel().attr(FrameCodec.ATTRIBUTE).set(FrameCodec.forSubprotocol(subprotocol));
         } else {
             super.userEventTriggered(ctx, evt);
         }
@@ -0,0 +1,375 @@
+package com.webim.netty.handler;
+
+import com.webim.netty.AdmissionController;
+import com.webim.netty.RateLimiter;
+import com.webim.service.FileStorageService;
+import com.webim.service.SessionTicketService;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.AsciiString;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * 聊天图片的上传 / 下载（位于 HttpObjectAggregator 之前，请求体不在内存中聚合）
+ * POST /files?name=原始文件名：请求体即文件内容，按块流式写入磁盘，返回访问路径；
+ *   需携带 Authorization: Bearer 会话凭证（WebSocket 认证后下发），文件头须与扩展名所示的图片格式一致；
+ *   位于 AdmissionHandler 之前，因此自行做准入判断（过载时 503）并按凭证中的账号限流（429）
+ * GET  /files/{哈希.扩展名}[?thumb=1]：以 FileRegion 零拷贝发送（epoll 下为 sendfile），支持 Range、ETag 与长期缓存；
+ *   响应带 nosniff，浏览器不会把文件内容嗅探成 HTML / 脚本执行
+ * 其它请求原样交给后续的 WebSocket 处理器
+ * 每个连接一个实例（保存上传进度），只在该连接的 EventLoop 上访问
+ */
+@Slf4j
+public class FileHttpHandler extends ChannelInboundHandlerAdapter {
+
+    private static final String PATH = "/files";
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    private static final AsciiString X_CONTENT_TYPE_OPTIONS = AsciiString.cached("x-content-type-options");
+    private static final AsciiString NOSNIFF = AsciiString.cached("nosniff");
+
+    private final FileStorageService fileStorageService;
+    private final SessionTicketService sessionTicketService;
+    private final AdmissionController admissionController;
+    private final RateLimiter rateLimiter;
+    private final String retryAfterSeconds;
+
+    /**
+     * 当前正在接收的上传；为 null 时不在上传中
+     */
+    private FileStorageService.Upload upload;
+    private boolean uploadKeepAlive;
+    /**
+     * 上传已失败（已回复错误），丢弃剩余的请求体
+     */
+    private boolean discarding;
+
+    public FileHttpHandler(FileStorageService fileStorageService, SessionTicketService sessionTicketService,
+                           AdmissionController admissionController, RateLimiter rateLimiter, int retryAfterSeconds) {
+        this.fileStorageService = fileStorageService;
+        this.sessionTicketService = sessionTicketService;
+        this.admissionController = admissionController;
+        this.rateLimiter = rateLimiter;
+        this.retryAfterSeconds = String.valueOf(retryAfterSeconds);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof HttpRequest) {
+            HttpRequest request = (HttpRequest) msg;
+            QueryStringDecoder decoder = new QueryStringDecoder(request.uri());
+            String path = decoder.path();
+            if (path.equals(PATH) || path.startsWith(PATH + "/")) {
+                try {
+                    handleRequest(ctx, request, decoder);
+                } finally {
+                    ReferenceCountUtil.release(msg);
+                }
+                return;
+            }
+        } else if (msg instanceof HttpContent && (upload != null || discarding)) {
+            try {
+                handleUploadContent(ctx, (HttpContent) msg);
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+            return;
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    private void handleRequest(ChannelHandlerContext ctx, HttpRequest request, QueryStringDecoder decoder) throws IOException {
+        HttpMethod method = request.method();
+        if (HttpMethod.OPTIONS.equals(method)) {
+            // 页面与文件服务不同端口，浏览器上传前会先发预检请求
+            FullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(), HttpResponseStatus.NO_CONTENT);
+            response.headers().set(HttpHeaderNames.ACCESS_CONTROL_ALLOW_METHODS, "GET, POST, OPTIONS");
+            response.headers().set(HttpHeaderNames.ACCESS_CONTROL_ALLOW_HEADERS, "Content-Type, Authorization");
+            response.headers().set(HttpHeaderNames.ACCESS_CONTROL_MAX_AGE, 86400);
+            sendAndDiscard(ctx, request, response, HttpUtil.isKeepAlive(request));
+        } else if (HttpMethod.POST.equals(method) && decoder.path().equals(PATH)) {
+            beginUpload(ctx, request, decoder);
+        } else if (HttpMethod.GET.equals(method) && decoder.path().length() > PATH.length() + 1) {
+            String name = decoder.path().substring(PATH.length() + 1);
+            boolean thumb = decoder.parameters().containsKey("thumb");
+            sendFile(ctx, request, name, thumb);
+        } else {
+            sendAndDiscard(ctx, request, error(request, HttpResponseStatus.METHOD_NOT_ALLOWED, "不支持的请求"),
+                    HttpUtil.isKeepAlive(request));
+        }
+    }
+
+    // ---------------- 上传 ----------------
+
+    private void beginUpload(ChannelHandlerContext ctx, HttpRequest request, QueryStringDecoder decoder) throws IOException {
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        // 以下拒绝均不接收请求体，回复后关闭连接
+        SessionTicketService.Ticket ticket = sessionTicketService.verifyHeader(request.headers().get(HttpHeaderNames.AUTHORIZATION));
+        if (ticket == null) {
+            send(ctx, error(request, HttpResponseStatus.UNAUTHORIZED, "未认证"), false);
+            return;
+        }
+        String reason = admissionController.admit();
+        if (reason != null) {
+            log.debug("节点过载（{}），拒绝来自 {} 的上传", reason, ctx.channel().remoteAddress());
+            FullHttpResponse response = error(request, HttpResponseStatus.SERVICE_UNAVAILABLE, "服务繁忙，请稍后重试");
+            response.headers().set(HttpHeaderNames.RETRY_AFTER, retryAfterSeconds);
+            send(ctx, response, false);
+            return;
+        }
+        if (!rateLimiter.tryAcquireUpload(ticket.getUserType(), ticket.getId())) {
+            FullHttpResponse response = error(request, HttpResponseStatus.TOO_MANY_REQUESTS, "上传过于频繁，请稍后重试");
+            response.headers().set(HttpHeaderNames.RETRY_AFTER, retryAfterSeconds);
+            send(ctx, response, false);
+            return;
+        }
+        String extension = fileStorageService.extensionOf(firstParam(decoder, "name"));
+        if (extension == null) {
+            sendAndDiscard(ctx, request, error(request, HttpResponseStatus.UNSUPPORTED_MEDIA_TYPE, "不支持的文件类型"), keepAlive);
+            return;
+        }
+        if (HttpUtil.getContentLength(request, -1L) > fileStorageService.getMaxSize()) {
+            // 按声明的长度提前拒绝，不接收请求体；客户端可能仍在发送，回复后关闭连接
+            send(ctx, error(request, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, "文件过大"), false);
+            return;
+        }
+        upload = fileStorageService.begin(extension);
+        uploadKeepAlive = keepAlive;
+        if (HttpUtil.is100ContinueExpected(request)) {
+            ctx.writeAndFlush(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE));
+        }
+        if (request instanceof HttpContent) {
+            handleUploadContent(ctx, (HttpContent) request);
+        }
+    }
+
+    private void handleUploadContent(ChannelHandlerContext ctx, HttpContent content) {
+        boolean last = content instanceof LastHttpContent;
+        if (discarding) {
+            if (last) {
+                discarding = false;
+            }
+            return;
+        }
+        try {
+            upload.write(content.content());
+            if (last) {
+                String url = upload.complete();
+                upload = null;
+                FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                        Unpooled.copiedBuffer(url, StandardCharsets.UTF_8));
+                response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+                send(ctx, response, uploadKeepAlive);
+            }
+        } catch (FileStorageService.FileTooLargeException e) {
+            abortUpload();
+            discarding = !last;
+            send(ctx, error(null, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, "文件过大"), false);
+        } catch (FileStorageService.UnsupportedContentException e) {
+            abortUpload();
+            send(ctx, error(null, HttpResponseStatus.UNSUPPORTED_MEDIA_TYPE, "不支持的文件类型"), uploadKeepAlive);
+        } catch (IOException e) {
+            log.error("保存上传文件失败", e);
+            abortUpload();
+            discarding = !last;
+            send(ctx, error(null, HttpResponseStatus.INTERNAL_SERVER_ERROR, "error"), uploadKeepAlive);
+        }
+    }
+
+    private void abortUpload() {
+        if (upload != null) {
+            upload.abort();
+            upload = null;
+        }
+    }
+
+    // ---------------- 下载 ----------------
+
+    private void sendFile(ChannelHandlerContext ctx, HttpRequest request, String name, boolean thumb) throws IOException {
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        File file = fileStorageService.resolve(name);
+        if (file == null) {
+            sendAndDiscard(ctx, request, error(request, HttpResponseStatus.NOT_FOUND, "文件不存在"), keepAlive);
+            return;
+        }
+        String etag = "\"" + name.substring(0, name.indexOf('.')) + "\"";
+        if (thumb) {
+            File thumbFile = fileStorageService.thumbnail(name);
+            if (thumbFile != null) {
+                file = thumbFile;
+                etag = "\"" + name.substring(0, name.indexOf('.')) + "-thumb\"";
+            } else {
+                // 缩略图尚未生成：本次返回原图，且不允许缓存，以便下次拿到缩略图
+                etag = null;
+            }
+        }
+        if (etag != null && etag.equals(request.headers().get(HttpHeaderNames.IF_NONE_MATCH))) {
+            FullHttpResponse notModified = new DefaultFullHttpResponse(request.protocolVersion(), HttpResponseStatus.NOT_MODIFIED);
+            notModified.headers().set(HttpHeaderNames.ETAG, etag);
+            notModified.headers().set(HttpHeaderNames.CACHE_CONTROL, CACHE_CONTROL);
+            sendAndDiscard(ctx, request, notModified, keepAlive);
+            return;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        long fileLength = raf.length();
+        long start = 0;
+        long end = fileLength - 1;
+        HttpResponseStatus status = HttpResponseStatus.OK;
+        String range = request.headers().get(HttpHeaderNames.RANGE);
+        // 只处理单段 Range，多段 Range 按规范可忽略，返回整个文件
+        if (range != null && range.startsWith("bytes=") && range.indexOf(',') < 0) {
+            long[] parsed = parseRange(range, fileLength);
+            if (parsed == null) {
+                raf.close();
+                FullHttpResponse response = error(request, HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE, "Range 不合法");
+                response.headers().set(HttpHeaderNames.CONTENT_RANGE, "bytes */" + fileLength);
+                sendAndDiscard(ctx, request, response, keepAlive);
+                return;
+            }
+            start = parsed[0];
+            end = parsed[1];
+            status = HttpResponseStatus.PARTIAL_CONTENT;
+        }
+        long length = end - start + 1;
+
+        HttpResponse response = new DefaultHttpResponse(request.protocolVersion(), status);
+        HttpUtil.setContentLength(response, length);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType(name));
+        response.headers().set(X_CONTENT_TYPE_OPTIONS, NOSNIFF);
+        response.headers().set(HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES);
+        response.headers().set(HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        if (etag != null) {
+            response.headers().set(HttpHeaderNames.ETAG, etag);
+            response.headers().set(HttpHeaderNames.CACHE_CONTROL, CACHE_CONTROL);
+        } else {
+            response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+        }
+        if (status == HttpResponseStatus.PARTIAL_CONTENT) {
+            response.headers().set(HttpHeaderNames.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileLength);
+        }
+        if (keepAlive) {
+            response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        }
+        ctx.write(response);
+        // 文件内容由内核直接从页缓存发往 Socket，不经过用户态缓冲；写完后 FileRegion 负责关闭文件
+        ctx.write(new DefaultFileRegion(raf.getChannel(), start, length));
+        ChannelFuture future = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        if (!keepAlive) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * 解析单段 Range（bytes=start-end / bytes=start- / bytes=-suffix）
+     *
+     * @return [start, end]，不可满足时返回 null
+     */
+    private static long[] parseRange(String header, long fileLength) {
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, fileLength - suffix);
+                end = fileLength - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? fileLength - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), fileLength - 1);
+            }
+            return start > end || start >= fileLength ? null : new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String contentType(String name) {
+        String ext = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+        switch (ext) {
+            case "jpg":
+            case "jpeg":
+                return "image/jpeg";
+            case "png":
+            case "gif":
+            case "webp":
+            case "bmp":
+                return "image/" + ext;
+            default:
+                return "application/octet-stream";
+        }
+    }
+
+    // ---------------- 通用 ----------------
+
+    private static String firstParam(QueryStringDecoder decoder, String name) {
+        return decoder.parameters().containsKey(name) ? decoder.parameters().get(name).get(0) : null;
+    }
+
+    private static FullHttpResponse error(HttpRequest request, HttpResponseStatus status, String message) {
+        FullHttpResponse response = new DefaultFullHttpResponse(
+                request == null ? HttpVersion.HTTP_1_1 : request.protocolVersion(), status,
+                Unpooled.copiedBuffer(message, StandardCharsets.UTF_8));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        return response;
+    }
+
+    /**
+     * 回复一个不需要请求体的请求；请求体（若有）随后到达时丢弃
+     */
+    private void sendAndDiscard(ChannelHandlerContext ctx, HttpRequest request, FullHttpResponse response, boolean keepAlive) {
+        discarding = !(request instanceof LastHttpContent);
+        send(ctx, response, keepAlive);
+    }
+
+    private static void send(ChannelHandlerContext ctx, FullHttpResponse response, boolean keepAlive) {
+        response.headers().set(HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        response.headers().set(X_CONTENT_TYPE_OPTIONS, NOSNIFF);
+        HttpUtil.setContentLength(response, response.content().readableBytes());
+        if (keepAlive) {
+            response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+            ctx.writeAndFlush(response);
+        } else {
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        // 上传中途断开：删除临时文件
+        abortUpload();
+        super.channelInactive(ctx);
+    }
+}
@@ -0,0 +1,17 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.annotation.JSONType;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * 消息确认帧
+ */
+@Getter
+@Setter
+@JSONType(typeName = "ACK")
+public class AckFrame extends ClientFrame {
+    private List<Long> ids;
+}
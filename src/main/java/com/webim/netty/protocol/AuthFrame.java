@@ -0,0 +1,16 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.annotation.JSONType;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 身份认证帧（建立连接后的第一帧）
+ */
+@Getter
+@Setter
+@JSONType(typeName = "AUTH")
+public class AuthFrame extends ClientFrame {
+    private Long id;
+    private Integer userType; // 1-用户 2-客服
+}
@@ -0,0 +1,284 @@
+package com.webim.netty.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.webim.netty.protocol.ProtoWire.WIRE_LENGTH_DELIMITED;
+import static com.webim.netty.protocol.ProtoWire.WIRE_VARINT;
+
+/**
+ * WebSocket 二进制帧编解码（子协议 webim.binary），面向弱网下的移动端
+ * 帧格式：1 字节帧类型 + 按 Protobuf 线格式编码的字段，字段定义见 resources/proto/webim.proto
+ * 空字段不占字节，未知字段解码时跳过，新旧版本可以互通
+ */
+public final class BinaryFrameCodec implements FrameCodec {
+
+    public static final String SUBPROTOCOL = "webim.binary";
+    public static final BinaryFrameCodec INSTANCE = new BinaryFrameCodec();
+
+    // 上行帧类型
+    static final int AUTH = 1;
+    static final int SEND = 2;
+    static final int ACK = 3;
+    static final int HEARTBEAT = 4;
+    static final int JOIN = 5;
+    static final int LEAVE = 6;
+    static final int BROADCAST = 7;
+
+    // 下行帧类型
+    static final int RECEIVE = 0x81;
+    static final int SYSTEM = 0x82;
+    static final int ERROR = 0x83;
+    static final int QUEUE = 0x84;
+    static final int OFFLINE = 0x85;
+    static final int PONG = 0x86;
+    static final int SENT = 0x87;
+    static final int ROOM = 0x88;
+    static final int RECONNECT = 0x89;
+    static final int TICKET = 0x8A;
+
+    private static final ByteBuf PONG_BUF = Unpooled.unreleasableBuffer(Unpooled.directBuffer(1)
+            .writeByte(PONG)
+            .asReadOnly());
+
+    private BinaryFrameCodec() {
+    }
+
+    @Override
+    public String subprotocol() {
+        return SUBPROTOCOL;
+    }
+
+    @Override
+    public ClientFrame decode(ByteBuf buf) {
+        ByteBuf in = buf.duplicate();
+        if (!in.isReadable()) {
+            throw new CorruptedFrameException("空帧");
+        }
+        int type = in.readUnsignedByte();
+        switch (type) {
+            case AUTH:
+                return decodeAuth(in);
+            case SEND:
+                return decodeSend(in);
+            case ACK:
+                return decodeAck(in);
+            case HEARTBEAT:
+                return new HeartbeatFrame();
+            case JOIN:
+                JoinFrame join = new JoinFrame();
+                join.setRoom(decodeRoom(in));
+                return join;
+            case LEAVE:
+                LeaveFrame leave = new LeaveFrame();
+                leave.setRoom(decodeRoom(in));
+                return leave;
+            case BROADCAST:
+                return decodeBroadcast(in);
+            default:
+                throw new CorruptedFrameException("未知帧类型: " + type);
+        }
+    }
+
+    @Override
+    public boolean isHeartbeat(ByteBuf buf) {
+        return buf.readableBytes() == 1 && buf.getUnsignedByte(buf.readerIndex()) == HEARTBEAT;
+    }
+
+    private static AuthFrame decodeAuth(ByteBuf in) {
+        AuthFrame frame = new AuthFrame();
+        while (in.isReadable()) {
+            int tag = (int) ProtoWire.readVarint(in);
+            switch (tag) {
+                case 1 << 3 | WIRE_VARINT:
+                    frame.setId(ProtoWire.readVarint(in));
+                    break;
+                case 2 << 3 | WIRE_VARINT:
+                    frame.setUserType((int) ProtoWire.readVarint(in));
+                    break;
+                default:
+                    ProtoWire.skipField(in, tag & 7);
+            }
+        }
+        return frame;
+    }
+
+    private static SendFrame decodeSend(ByteBuf in) {
+        SendFrame frame = new SendFrame();
+        while (in.isReadable()) {
+            int tag = (int) ProtoWire.readVarint(in);
+            switch (tag) {
+                case 1 << 3 | WIRE_VARINT:
+                    frame.setToId(ProtoWire.readVarint(in));
+                    break;
+                case 2 << 3 | WIRE_LENGTH_DELIMITED:
+                    frame.setContent(ProtoWire.readString(in));
+                    break;
+                case 3 << 3 | WIRE_VARINT:
+                    frame.setMsgType((int) ProtoWire.readVarint(in));
+                    break;
+                case 4 << 3 | WIRE_LENGTH_DELIMITED:
+                    frame.setClientMsgId(ProtoWire.readString(in));
+                    break;
+                default:
+                    ProtoWire.skipField(in, tag & 7);
+            }
+        }
+        return frame;
+    }
+
+    private static String decodeRoom(ByteBuf in) {
+        String room = null;
+        while (in.isReadable()) {
+            int tag = (int) ProtoWire.readVarint(in);
+            if (tag == (1 << 3 | WIRE_LENGTH_DELIMITED)) {
+                room = ProtoWire.readString(in);
+            } else {
+                ProtoWire.skipField(in, tag & 7);
+            }
+        }
+        return room;
+    }
+
+    private static BroadcastFrame decodeBroadcast(ByteBuf in) {
+        BroadcastFrame frame = new BroadcastFrame();
+        while (in.isReadable()) {
+            int tag = (int) ProtoWire.readVarint(in);
+            switch (tag) {
+                case 1 << 3 | WIRE_LENGTH_DELIMITED:
+                    frame.setRoom(ProtoWire.readString(in));
+                    break;
+                case 2 << 3 | WIRE_LENGTH_DELIMITED:
+                    frame.setContent(ProtoWire.readString(in));
+                    break;
+                case 3 << 3 | WIRE_VARINT:
+                    frame.setMsgType((int) ProtoWire.readVarint(in));
+                    break;
+                default:
+                    ProtoWire.skipField(in, tag & 7);
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * ids 为 repeated uint64，同时接受 packed 与逐个编码两种形式
+     */
+    private static AckFrame decodeAck(ByteBuf in) {
+        List<Long> ids = new ArrayList<>();
+        while (in.isReadable()) {
+            int tag = (int) ProtoWire.readVarint(in);
+            switch (tag) {
+                case 1 << 3 | WIRE_LENGTH_DELIMITED:
+                    int end = ProtoWire.readLength(in) + in.readerIndex();
+                    while (in.readerIndex() < end) {
+                        ids.add(ProtoWire.readVarint(in));
+                    }
+                    break;
+                case 1 << 3 | WIRE_VARINT:
+                    ids.add(ProtoWire.readVarint(in));
+                    break;
+                default:
+                    ProtoWire.skipField(in, tag & 7);
+            }
+        }
+        AckFrame frame = new AckFrame();
+        frame.setIds(ids);
+        return frame;
+    }
+
+    @Override
+    public BinaryWebSocketFrame encode(ByteBufAllocator alloc, ServerFrame frame) {
+        ByteBuf buf = alloc.buffer();
+        try {
+            if (frame instanceof ReceiveFrame) {
+                buf.writeByte(RECEIVE);
+                writeReceive(buf, (ReceiveFrame) frame);
+            } else if (frame instanceof NoticeFrame) {
+                NoticeFrame notice = (NoticeFrame) frame;
+                buf.writeByte(notice instanceof ErrorFrame ? ERROR : SYSTEM);
+                ProtoWire.writeStringField(buf, 1, notice.getContent());
+                ProtoWire.writeVarintField(buf, 2, notice.getAgentId());
+                if (notice instanceof ErrorFrame) {
+                    ProtoWire.writeStringField(buf, 3, ((ErrorFrame) notice).getClientMsgId());
+                }
+            } else if (frame instanceof QueueFrame) {
+                QueueFrame queue = (QueueFrame) frame;
+                buf.writeByte(QUEUE);
+                ProtoWire.writeVarintField(buf, 1, queue.getPosition());
+                ProtoWire.writeStringField(buf, 2, queue.getContent());
+            } else if (frame instanceof OfflineFrame) {
+                OfflineFrame offline = (OfflineFrame) frame;
+                buf.writeByte(OFFLINE);
+                if (offline.getMessages() != null) {
+                    for (ReceiveFrame message : offline.getMessages()) {
+                        ProtoWire.writeTag(buf, 1, WIRE_LENGTH_DELIMITED);
+                        ProtoWire.writeVarint(buf, receiveSize(message));
+                        writeReceive(buf, message);
+                    }
+                }
+                ProtoWire.writeBoolField(buf, 2, offline.isMore());
+            } else if (frame instanceof SentFrame) {
+                SentFrame sent = (SentFrame) frame;
+                buf.writeByte(SENT);
+                ProtoWire.writeStringField(buf, 1, sent.getClientMsgId());
+                ProtoWire.writeVarintField(buf, 2, sent.getId());
+                ProtoWire.writeVarintField(buf, 3, sent.getTimestamp());
+            } else if (frame instanceof RoomFrame) {
+                RoomFrame room = (RoomFrame) frame;
+                buf.writeByte(ROOM);
+                ProtoWire.writeStringField(buf, 1, room.getRoom());
+                ProtoWire.writeVarintField(buf, 2, room.getId());
+                ProtoWire.writeVarintField(buf, 3, room.getFromId());
+                ProtoWire.writeVarintField(buf, 4, room.getFromType());
+                ProtoWire.writeVarintField(buf, 5, room.getToId());
+                ProtoWire.writeStringField(buf, 6, room.getContent());
+                ProtoWire.writeVarintField(buf, 7, room.getMsgType());
+                ProtoWire.writeVarintField(buf, 8, room.getTimestamp());
+            } else if (frame instanceof ReconnectFrame) {
+                ReconnectFrame reconnect = (ReconnectFrame) frame;
+                buf.writeByte(RECONNECT);
+                ProtoWire.writeVarintField(buf, 1, reconnect.getDelayMs());
+                ProtoWire.writeStringField(buf, 2, reconnect.getUrl());
+            } else if (frame instanceof TicketFrame) {
+                TicketFrame ticket = (TicketFrame) frame;
+                buf.writeByte(TICKET);
+                ProtoWire.writeStringField(buf, 1, ticket.getTicket());
+                ProtoWire.writeVarintField(buf, 2, ticket.getExpiresAt());
+            } else {
+                throw new IllegalArgumentException("不支持的下行帧: " + frame.getType());
+            }
+            return new BinaryWebSocketFrame(buf);
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+    }
+
+    private static void writeReceive(ByteBuf buf, ReceiveFrame frame) {
+        ProtoWire.writeVarintField(buf, 1, frame.getId());
+        ProtoWire.writeVarintField(buf, 2, frame.getFromId());
+        ProtoWire.writeStringField(buf, 3, frame.getContent());
+        ProtoWire.writeVarintField(buf, 4, frame.getMsgType());
+        ProtoWire.writeVarintField(buf, 5, frame.getTimestamp());
+    }
+
+    private static int receiveSize(ReceiveFrame frame) {
+        return ProtoWire.varintFieldSize(1, frame.getId())
+                + ProtoWire.varintFieldSize(2, frame.getFromId())
+                + ProtoWire.stringFieldSize(3, frame.getContent())
+                + ProtoWire.varintFieldSize(4, frame.getMsgType())
+                + ProtoWire.varintFieldSize(5, frame.getTimestamp());
+    }
+
+    @Override
+    public BinaryWebSocketFrame pong() {
+        return new BinaryWebSocketFrame(PONG_BUF.duplicate());
+    }
+}
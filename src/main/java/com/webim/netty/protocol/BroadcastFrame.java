@@ -0,0 +1,17 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.annotation.JSONType;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 房间广播帧：向房间内所有在线成员发送一条消息
+ */
+@Getter
+@Setter
+@JSONType(typeName = "BROADCAST")
+public class BroadcastFrame extends ClientFrame {
+    private String room;
+    private String content;
+    private Integer msgType; // 1-文字 2-表情 3-图片
+}
@@ -0,0 +1,12 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.annotation.JSONType;
+
+/**
+ * 客户端上行帧基类
+ * 按 "type" 字段直接解码为具体的帧类型，无需先解析成通用的 JSONObject
+ */
+@JSONType(typeKey = "type", seeAlso = {AuthFrame.class, SendFrame.class, AckFrame.class, HeartbeatFrame.class,
+        JoinFrame.class, LeaveFrame.class, BroadcastFrame.class})
+public abstract class ClientFrame {
+}
@@ -0,0 +1,34 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.annotation.JSONType;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 错误提示帧，如消息保存失败、服务繁忙
+ * 因限流被拒绝的 SEND 带回其 clientMsgId，客户端据此退避后重发该条消息
+ */
+@Getter
+@Setter
+@JSONType(typeName = "ERROR")
+public class ErrorFrame extends NoticeFrame {
+
+    private String clientMsgId;
+
+    public ErrorFrame() {
+    }
+
+    public ErrorFrame(String content) {
+        setContent(content);
+    }
+
+    public ErrorFrame(String content, String clientMsgId) {
+        setContent(content);
+        this.clientMsgId = clientMsgId;
+    }
+
+    @Override
+    public String getType() {
+        return "ERROR";
+    }
+}
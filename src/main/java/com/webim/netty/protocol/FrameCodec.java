@@ -0,0 +1,67 @@
+package com.webim.netty.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.AttributeKey;
+
+/**
+ * WebSocket 帧编解码器
+ * 每个连接在握手时按 Sec-WebSocket-Protocol 子协议选定一种编解码器，未协商子协议时使用 JSON
+ */
+public interface FrameCodec {
+
+    /**
+     * 服务端支持的子协议，按优先顺序排列（逗号分隔，直接传给 WebSocketServerProtocolHandler）
+     */
+    String SUBPROTOCOLS = JsonFrameCodec.SUBPROTOCOL + "," + BinaryFrameCodec.SUBPROTOCOL;
+
+    /**
+     * Channel 属性：握手时协商出的编解码器
+     */
+    AttributeKey<FrameCodec> ATTRIBUTE = AttributeKey.valueOf("frameCodec");
+
+    /**
+     * 子协议名称
+     */
+    String subprotocol();
+
+    /**
+     * 解码客户端上行帧（不改变 buf 的读索引）
+     *
+     * @throws io.netty.handler.codec.CorruptedFrameException 格式错误或未知的帧类型
+     */
+    ClientFrame decode(ByteBuf buf);
+
+    /**
+     * 是否为心跳帧：只比较字节、不做完整解码，连接保活的主要流量因此不经过解析器（不改变 buf 的读索引）
+     * 返回 false 的帧仍可能被 decode 解码为 HeartbeatFrame（如带空白的 JSON）
+     */
+    boolean isHeartbeat(ByteBuf buf);
+
+    /**
+     * 编码服务端下行帧，返回的帧由调用方负责写出或释放
+     */
+    WebSocketFrame encode(ByteBufAllocator alloc, ServerFrame frame);
+
+    /**
+     * 心跳响应帧（共享缓冲，写出后无需也不会被真正释放）
+     */
+    WebSocketFrame pong();
+
+    /**
+     * 按握手协商出的子协议选择编解码器
+     */
+    static FrameCodec forSubprotocol(String subprotocol) {
+        return BinaryFrameCodec.SUBPROTOCOL.equals(subprotocol) ? BinaryFrameCodec.INSTANCE : JsonFrameCodec.INSTANCE;
+    }
+
+    /**
+     * 连接使用的编解码器，握手完成前（未设置时）为 JSON
+     */
+    static FrameCodec of(Channel channel) {
+        FrameCodec codec = channel.attr(ATTRIBUTE).get();
+        return codec == null ? JsonFrameCodec.INSTANCE : codec;
+    }
+}
@@ -0,0 +1,10 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.annotation.JSONType;
+
+/**
+ * 心跳帧
+ */
+@JSONType(typeName = "HEARTBEAT")
+public class HeartbeatFrame extends ClientFrame {
+}
@@ -0,0 +1,119 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONException;
+import com.alibaba.fastjson2.JSONWriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * WebSocket 文本帧的 JSON 编解码（子协议 webim.json，也是未协商子协议时的默认协议）
+ * 1. 解码直接读取帧的 ByteBuf 字节并按 "type" 还原为具体的 ClientFrame，不经过 String 与 JSONObject 中转
+ * 2. 编码把 UTF-8 字节直接写入连接分配器分配的（池化）ByteBuf
+ * 3. PONG 等固定内容的帧预先编码为共享的只读缓冲，每次只创建一个轻量的 duplicate
+ * 4. 浏览器端 JSON.stringify({type: "HEARTBEAT"}) 的心跳按字节直接比较识别
+ */
+public final class JsonFrameCodec implements FrameCodec {
+
+    public static final String SUBPROTOCOL = "webim.json";
+    public static final JsonFrameCodec INSTANCE = new JsonFrameCodec();
+
+    /**
+     * 堆外帧解码时使用的线程私有拷贝缓冲，超出该长度的帧单独分配
+     */
+    private static final int SCRATCH_SIZE = 8192;
+    private static final FastThreadLocal<byte[]> SCRATCH = new FastThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[SCRATCH_SIZE];
+        }
+    };
+
+    private static final ByteBuf HEARTBEAT = Unpooled.unreleasableBuffer(Unpooled.directBuffer()
+            .writeBytes("{\"type\":\"HEARTBEAT\"}".getBytes(StandardCharsets.UTF_8))
+            .asReadOnly());
+
+    private static final ByteBuf PONG = Unpooled.unreleasableBuffer(Unpooled.directBuffer()
+            .writeBytes("{\"type\":\"PONG\"}".getBytes(StandardCharsets.UTF_8))
+            .asReadOnly());
+
+    private JsonFrameCodec() {
+    }
+
+    @Override
+    public String subprotocol() {
+        return SUBPROTOCOL;
+    }
+
+    @Override
+    public ClientFrame decode(ByteBuf buf) {
+        int length = buf.readableBytes();
+        ClientFrame frame;
+        try {
+            if (buf.hasArray()) {
+                frame = JSON.parseObject(buf.array(), buf.arrayOffset() + buf.readerIndex(), length,
+                        StandardCharsets.UTF_8, ClientFrame.class);
+            } else {
+                byte[] bytes = length <= SCRATCH_SIZE ? SCRATCH.get() : new byte[length];
+                buf.getBytes(buf.readerIndex(), bytes, 0, length);
+                frame = JSON.parseObject(bytes, 0, length, StandardCharsets.UTF_8, ClientFrame.class);
+            }
+        } catch (JSONException e) {
+            throw new CorruptedFrameException(e.getMessage(), e);
+        }
+        // 缺少 "type"、未知的 "type" 或 JSON null
+        if (frame == null) {
+            throw new CorruptedFrameException("未知帧类型");
+        }
+        return frame;
+    }
+
+    @Override
+    public boolean isHeartbeat(ByteBuf buf) {
+        return ByteBufUtil.equals(HEARTBEAT, buf);
+    }
+
+    @Override
+    public TextWebSocketFrame encode(ByteBufAllocator alloc, ServerFrame frame) {
+        try (JSONWriter writer = JSONWriter.ofUTF8()) {
+            writer.writeAny(frame);
+            ByteBuf buf = alloc.buffer(writer.size());
+            try {
+                writer.flushTo(new ByteBufOutputStream(buf));
+            } catch (IOException | RuntimeException e) {
+                buf.release();
+                throw e instanceof IOException ? new UncheckedIOException((IOException) e) : (RuntimeException) e;
+            }
+            return new TextWebSocketFrame(buf);
+        }
+    }
+
+    @Override
+    public TextWebSocketFrame pong() {
+        return new TextWebSocketFrame(PONG.duplicate());
+    }
+
+    /**
+     * 下行帧转为 JSON 文本（跨节点转发用）
+     */
+    public static String toJson(ServerFrame frame) {
+        return JSON.toJSONString(frame);
+    }
+
+    /**
+     * 还原其它节点转发过来的下行帧
+     */
+    public static ServerFrame parseServerFrame(String json) {
+        return JSON.parseObject(json, ServerFrame.class);
+    }
+}
@@ -0,0 +1,15 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.annotation.JSONType;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 退出房间帧
+ */
+@Getter
+@Setter
+@JSONType(typeName = "LEAVE")
+public class LeaveFrame extends ClientFrame {
+    private String room;
+}
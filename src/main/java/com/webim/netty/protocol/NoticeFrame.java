@@ -0,0 +1,14 @@
+package com.webim.netty.protocol;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 通知类帧基类（系统通知、错误提示）
+ */
+@Getter
+@Setter
+public abstract class NoticeFrame extends ServerFrame {
+    private String content;
+    private Long agentId;
+}
@@ -0,0 +1,23 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.annotation.JSONType;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * 离线消息批次帧，客户端处理后需回 ACK
+ */
+@Getter
+@Setter
+@JSONType(typeName = "OFFLINE")
+public class OfflineFrame extends ServerFrame {
+    private List<ReceiveFrame> messages;
+    private boolean more; // 是否还有下一批
+
+    @Override
+    public String getType() {
+        return "OFFLINE";
+    }
+}
@@ -0,0 +1,145 @@
+package com.webim.netty.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Protobuf 线格式（wire format）的读写工具，直接在 ByteBuf 上操作
+ * 只实现协议用到的 varint 与 length-delimited 两种字段类型
+ */
+final class ProtoWire {
+
+    static final int WIRE_VARINT = 0;
+    static final int WIRE_FIXED64 = 1;
+    static final int WIRE_LENGTH_DELIMITED = 2;
+    static final int WIRE_FIXED32 = 5;
+
+    private ProtoWire() {
+    }
+
+    // ---------------- 写 ----------------
+
+    static void writeVarint(ByteBuf buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.writeByte((int) value);
+    }
+
+    static void writeTag(ByteBuf buf, int field, int wireType) {
+        writeVarint(buf, (field << 3) | wireType);
+    }
+
+    /**
+     * 写 varint 字段，值为 null 时按 protobuf 惯例省略
+     */
+    static void writeVarintField(ByteBuf buf, int field, Number value) {
+        if (value != null) {
+            writeTag(buf, field, WIRE_VARINT);
+            writeVarint(buf, value.longValue());
+        }
+    }
+
+    static void writeBoolField(ByteBuf buf, int field, boolean value) {
+        if (value) {
+            writeTag(buf, field, WIRE_VARINT);
+            buf.writeByte(1);
+        }
+    }
+
+    static void writeStringField(ByteBuf buf, int field, String value) {
+        if (value != null) {
+            writeTag(buf, field, WIRE_LENGTH_DELIMITED);
+            writeVarint(buf, ByteBufUtil.utf8Bytes(value));
+            ByteBufUtil.writeUtf8(buf, value);
+        }
+    }
+
+    // ---------------- 长度计算（用于嵌套消息的长度前缀） ----------------
+
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    static int varintFieldSize(int field, Number value) {
+        return value == null ? 0 : varintSize(field << 3) + varintSize(value.longValue());
+    }
+
+    static int stringFieldSize(int field, String value) {
+        if (value == null) {
+            return 0;
+        }
+        int length = ByteBufUtil.utf8Bytes(value);
+        return varintSize(field << 3) + varintSize(length) + length;
+    }
+
+    // ---------------- 读 ----------------
+
+    static long readVarint(ByteBuf buf) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buf.isReadable()) {
+                throw new CorruptedFrameException("varint 被截断");
+            }
+            byte b = buf.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new CorruptedFrameException("varint 超长");
+    }
+
+    static int readLength(ByteBuf buf) {
+        long length = readVarint(buf);
+        if (length < 0 || length > buf.readableBytes()) {
+            throw new CorruptedFrameException("长度字段越界: " + length);
+        }
+        return (int) length;
+    }
+
+    static String readString(ByteBuf buf) {
+        int length = readLength(buf);
+        String value = buf.toString(buf.readerIndex(), length, StandardCharsets.UTF_8);
+        buf.skipBytes(length);
+        return value;
+    }
+
+    /**
+     * 跳过不认识的字段，新版本客户端 / 服务端增加字段时保持兼容
+     */
+    static void skipField(ByteBuf buf, int wireType) {
+        switch (wireType) {
+            case WIRE_VARINT:
+                readVarint(buf);
+                break;
+            case WIRE_FIXED64:
+                skip(buf, 8);
+                break;
+            case WIRE_LENGTH_DELIMITED:
+                buf.skipBytes(readLength(buf));
+                break;
+            case WIRE_FIXED32:
+                skip(buf, 4);
+                break;
+            default:
+                throw new CorruptedFrameException("不支持的字段类型: " + wireType);
+        }
+    }
+
+    private static void skip(ByteBuf buf, int length) {
+        if (buf.readableBytes() < length) {
+            throw new CorruptedFrameException("字段被截断");
+        }
+        buf.skipBytes(length);
+    }
+}
@@ -0,0 +1,21 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.annotation.JSONType;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 排队位置帧
+ */
+@Getter
+@Setter
+@JSONType(typeName = "QUEUE")
+public class QueueFrame extends ServerFrame {
+    private Integer position; // 从 1 开始
+    private String content;
+
+    @Override
+    public String getType() {
+        return "QUEUE";
+    }
+}
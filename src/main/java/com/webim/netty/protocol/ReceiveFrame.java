@@ -0,0 +1,30 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.JSONWriter;
+import com.alibaba.fastjson2.annotation.JSONField;
+import com.alibaba.fastjson2.annotation.JSONType;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 收到消息帧
+ */
+@Getter
+@Setter
+@JSONType(typeName = "RECEIVE")
+public class ReceiveFrame extends ServerFrame {
+    /**
+     * 消息 ID，超出 JavaScript 安全整数范围，JSON 中以字符串输出
+     */
+    @JSONField(serializeFeatures = JSONWriter.Feature.WriteLongAsString)
+    private Long id;
+    private Long fromId;
+    private String content;
+    private Integer msgType;
+    private Long timestamp;
+
+    @Override
+    public String getType() {
+        return "RECEIVE";
+    }
+}
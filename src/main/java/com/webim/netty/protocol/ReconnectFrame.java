@@ -0,0 +1,30 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.annotation.JSONType;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 重连指令帧：节点排空（停机 / 滚动发布）时下发，服务端随后关闭连接
+ * 客户端等待 delayMs 后重连；各连接的 delayMs 带随机抖动，避免同一时刻集中重连
+ */
+@Getter
+@Setter
+@JSONType(typeName = "RECONNECT")
+public class ReconnectFrame extends ServerFrame {
+    private Long delayMs;
+    private String url; // 重连地址，为空时使用原地址
+
+    public ReconnectFrame() {
+    }
+
+    public ReconnectFrame(long delayMs, String url) {
+        this.delayMs = delayMs;
+        this.url = url;
+    }
+
+    @Override
+    public String getType() {
+        return "RECONNECT";
+    }
+}
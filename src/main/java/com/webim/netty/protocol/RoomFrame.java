@@ -0,0 +1,30 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.JSONWriter;
+import com.alibaba.fastjson2.annotation.JSONField;
+import com.alibaba.fastjson2.annotation.JSONType;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 房间消息帧：房间广播、公告，以及班长监听房间收到的会话消息副本（此时 toId 为接收方）
+ */
+@Getter
+@Setter
+@JSONType(typeName = "ROOM")
+public class RoomFrame extends ServerFrame {
+    private String room;
+    @JSONField(serializeFeatures = JSONWriter.Feature.WriteLongAsString)
+    private Long id;
+    private Long fromId;
+    private Integer fromType; // 1-用户 2-客服，为空表示系统
+    private Long toId;
+    private String content;
+    private Integer msgType;
+    private Long timestamp;
+
+    @Override
+    public String getType() {
+        return "ROOM";
+    }
+}
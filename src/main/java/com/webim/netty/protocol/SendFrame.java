@@ -0,0 +1,21 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.annotation.JSONType;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 发送消息帧
+ */
+@Getter
+@Setter
+@JSONType(typeName = "SEND")
+public class SendFrame extends ClientFrame {
+    private Long toId;
+    private String content;
+    private Integer msgType; // 1-文字 2-表情 3-图片
+    /**
+     * 客户端生成的消息唯一标识（幂等键），重发时保持不变；服务端在去重窗口内不会重复保存
+     */
+    private String clientMsgId;
+}
@@ -0,0 +1,25 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.JSONWriter;
+import com.alibaba.fastjson2.annotation.JSONField;
+import com.alibaba.fastjson2.annotation.JSONType;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 发送确认帧：消息已保存，客户端可停止重发
+ */
+@Getter
+@Setter
+@JSONType(typeName = "SENT")
+public class SentFrame extends ServerFrame {
+    private String clientMsgId;
+    @JSONField(serializeFeatures = JSONWriter.Feature.WriteLongAsString)
+    private Long id;
+    private Long timestamp;
+
+    @Override
+    public String getType() {
+        return "SENT";
+    }
+}
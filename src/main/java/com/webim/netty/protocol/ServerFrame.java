@@ -0,0 +1,15 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.annotation.JSONType;
+
+/**
+ * 服务端下行帧基类
+ * 跨节点转发时以 JSON 传输，对端按 "type" 字段还原为具体类型后再按目标连接的协议编码
+ */
+@JSONType(typeKey = "type", seeAlso = {ReceiveFrame.class, SystemFrame.class, ErrorFrame.class,
+        QueueFrame.class, OfflineFrame.class, SentFrame.class, RoomFrame.class, ReconnectFrame.class,
+        TicketFrame.class})
+public abstract class ServerFrame {
+
+    public abstract String getType();
+}
@@ -0,0 +1,23 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.annotation.JSONType;
+
+/**
+ * 系统通知帧，如客服分配结果
+ */
+@JSONType(typeName = "SYSTEM")
+public class SystemFrame extends NoticeFrame {
+
+    public SystemFrame() {
+    }
+
+    public SystemFrame(String content, Long agentId) {
+        setContent(content);
+        setAgentId(agentId);
+    }
+
+    @Override
+    public String getType() {
+        return "SYSTEM";
+    }
+}
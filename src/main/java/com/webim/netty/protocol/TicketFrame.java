@@ -0,0 +1,29 @@
+package com.webim.netty.protocol;
+
+import com.alibaba.fastjson2.annotation.JSONType;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 会话凭证帧：认证成功后下发，客户端调用 HTTP 接口（图片上传等）时放在 Authorization: Bearer 请求头中
+ */
+@Getter
+@Setter
+@JSONType(typeName = "TICKET")
+public class TicketFrame extends ServerFrame {
+    private String ticket;
+    private Long expiresAt; // 毫秒时间戳，过期后需重新连接认证
+
+    public TicketFrame() {
+    }
+
+    public TicketFrame(String ticket, long expiresAt) {
+        this.ticket = ticket;
+        this.expiresAt = expiresAt;
+    }
+
+    @Override
+    public String getType() {
+        return "TICKET";
+    }
+}
@@ -0,0 +1,65 @@
+package com.webim.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 客服负载与排队指标
+ * 负载与排队数据是集群全局的（保存在 Redis），由定时任务一次 Pipeline 批量读取后刷新到本地 Gauge，
+ * 抓取指标时不访问 Redis；已下线客服的 Gauge 在下次刷新时移除
+ */
+@Slf4j
+@Service
+public class AgentMetrics {
+
+    private final AgentService agentService;
+    private final MultiGauge loads;
+    private final MultiGauge maxLinks;
+    private final AtomicLong onlineAgents = new AtomicLong();
+    private final AtomicLong queueLength = new AtomicLong();
+
+    public AgentMetrics(AgentService agentService, MeterRegistry meterRegistry) {
+        this.agentService = agentService;
+        this.loads = MultiGauge.builder("im.agent.load")
+                .description("在线客服当前接待数").register(meterRegistry);
+        this.maxLinks = MultiGauge.builder("im.agent.max.links")
+                .description("在线客服最大接待数").register(meterRegistry);
+        Gauge.builder("im.agent.online", onlineAgents, AtomicLong::get)
+                .description("集群内在线客服数").register(meterRegistry);
+        Gauge.builder("im.agent.queue.length", queueLength, AtomicLong::get)
+                .description("集群内排队等待客服的用户数").register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${webim.metrics.agent-refresh-ms:10000}")
+    public void refresh() {
+        AgentService.LoadSnapshot snapshot;
+        try {
+            snapshot = agentService.loadSnapshot();
+        } catch (Exception e) {
+            log.warn("刷新客服负载指标失败", e);
+            return;
+        }
+        loads.register(rows(snapshot.getLoads()), true);
+        maxLinks.register(rows(snapshot.getMaxLinks()), true);
+        onlineAgents.set(snapshot.getLoads().size());
+        queueLength.set(snapshot.getQueueLength());
+    }
+
+    private static List<MultiGauge.Row<?>> rows(Map<Long, Integer> values) {
+        List<MultiGauge.Row<?>> rows = new ArrayList<>(values.size());
+        for (Map.Entry<Long, Integer> entry : values.entrySet()) {
+            rows.add(MultiGauge.Row.of(Tags.of("agent", entry.getKey().toString()), entry.getValue()));
+        }
+        return rows;
+    }
+}
@@ -1,15 +1,51 @@
 package com.webim.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.webim.entity.Agent;
 import com.webim.mapper.ChatMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * 客服调度与负载均衡服务
  * 利用 Redis 实现跨实例的客服状态同步与会话分配
+ * 分配、释放、上下线均由 Lua 脚本在 Redis 端原子执行，每次操作仅一次网络往返
+ * 脚本只访问 KEYS 中声明的键，且这些键带相同的 hash tag {agent}，Redis Cluster 下位于同一个 slot
+ * 在线客服的负载始终等于其已绑定的用户数（{agent}:bound），上线时据此重新计数，不会因下线期间的释放而漂移
+ * 用户的绑定记录最近一次分配所在的节点（{agent}:binding_owners），用户重连到其它节点后，原节点迟到的释放不生效
+ * 客服下线与 im_agent 状态同步按 status-flush-ms 合并：
+ * 1. 下线先记入待处理集合，窗口内重新上线即抵消（不移出调度池，保留当前负载），
+ *    其余的先以一次 Pipeline 检查是否已在其它节点重新登记会话位置，仍未上线的再以一次 Pipeline 执行下线脚本
+ * 2. 状态有变化的客服以 Redis 中的最终状态（是否在负载 ZSet 中）为准，按状态各一条 UPDATE 批量写入，
+ *    窗口内的多次上下线只写一次净变化
+ * 每类 Redis 操作的耗时记录为 im.redis.latency{op}
  */
 @Slf4j
 @Service
@@ -17,91 +53,395 @@ public class AgentService {
 
     private final StringRedisTemplate redisTemplate;
     private final ChatMapper chatMapper;
+    private final int defaultMaxLinks;
+    /**
+     * 享有排队优先级的用户（用户 ID -> 优先级），其余用户为 0
+     */
+    private final Map<Long, Integer> priorityUsers;
+
+    private final Timer onlineTimer;
+    private final Timer assignTimer;
+    private final Timer releaseTimer;
+    private final Timer queuePositionsTimer;
+    private final Timer loadSnapshotTimer;
+    private final Timer statusSyncTimer;
+    private final Counter flapCollapsedCounter;
+    private final DistributionSummary statusBatchSummary;
+
+    /**
+     * 客服最大接待数的本地缓存，客服频繁重连时不重复查询 im_agent
+     */
+    private final Cache<Long, Integer> maxLinksCache;
+    /**
+     * 已断开、等待移出调度池的客服
+     */
+    private final Set<Long> pendingOffline = ConcurrentHashMap.newKeySet();
+    /**
+     * 上下线后尚未同步到 im_agent 的客服
+     */
+    private final Set<Long> dirtyStatus = ConcurrentHashMap.newKeySet();
 
     // Redis 键名命名空间
-    private static final String ONLINE_AGENTS_KEY = "agent:online"; // 存储所有在线客服 ID 的集合 (Set)
-    private static final String AGENT_LOAD_KEY_PREFIX = "agent:load:"; // 客服负载计数器 (String/Counter)
-    private static final String USER_AGENT_MAP_KEY = "user:agent:"; // 用户与客服的绑定关系 (String)
+    private static final String AGENT_LOADS_KEY = "{agent}:loads"; // 在线客服及其负载 (ZSet，score 为当前接待数)
+    private static final String AGENT_MAX_LINKS_KEY = "{agent}:max_links"; // 客服最大接待数 (Hash)
+    private static final String BINDINGS_KEY = "{agent}:bindings"; // 用户与客服的绑定关系 (Hash，用户 ID -> 客服 ID)
+    private static final String BOUND_KEY = "{agent}:bound"; // 客服已绑定的用户数 (Hash，客服 ID -> 用户数)
+    private static final String WAIT_QUEUE_KEY = "{agent}:wait_queue"; // 排队用户 (ZSet，score 由优先级和到达序号组成)
+    private static final String WAIT_SEQ_KEY = "{agent}:wait_seq"; // 排队到达序号 (Counter)
+    private static final String OWNERS_KEY = "{agent}:binding_owners"; // 绑定的持有节点 (Hash，用户 ID -> 节点 ID)
+
+    /**
+     * 排队优先级上限：score = 到达序号 - 优先级 × 1e12，序号小于 1e12 时 score 不超过 2^53，在 double 中精确表示，
+     * 同一优先级内仍严格按到达顺序排队
+     */
+    static final int MAX_PRIORITY = 9;
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ASSIGN_SCRIPT = RedisScripts.load("assign_agent.lua", List.class);
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> RELEASE_SCRIPT = RedisScripts.load("release_agent.lua", List.class);
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ONLINE_SCRIPT = RedisScripts.load("agent_online.lua", List.class);
+    private static final RedisScript<Long> OFFLINE_SCRIPT = RedisScripts.load("agent_offline.lua", Long.class);
 
-    public AgentService(StringRedisTemplate redisTemplate, ChatMapper chatMapper) {
+    public AgentService(StringRedisTemplate redisTemplate, ChatMapper chatMapper, MeterRegistry meterRegistry,
+                        @Value("${webim.agent.default-max-links:5}") int defaultMaxLinks,
+                        @Value("${webim.agent.max-links-cache-seconds:60}") long maxLinksCacheSeconds,
+                        @Value("${webim.agent.priority-users:}") String priorityUsers) {
         this.redisTemplate = redisTemplate;
         this.chatMapper = chatMapper;
+        this.defaultMaxLinks = defaultMaxLinks;
+        this.priorityUsers = Arrays.stream(priorityUsers.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .map(s -> s.split(":"))
+                .collect(Collectors.toMap(kv -> Long.valueOf(kv[0].trim()),
+                        kv -> clampPriority(Integer.parseInt(kv[1].trim()))));
+        this.onlineTimer = redisTimer("agentOnline", meterRegistry);
+        this.assignTimer = redisTimer("assignAgent", meterRegistry);
+        this.releaseTimer = redisTimer("releaseAgent", meterRegistry);
+        this.queuePositionsTimer = redisTimer("queuePositions", meterRegistry);
+        this.loadSnapshotTimer = redisTimer("loadSnapshot", meterRegistry);
+        this.statusSyncTimer = redisTimer("agentStatusSync", meterRegistry);
+        this.flapCollapsedCounter = Counter.builder("im.agent.status.collapsed")
+                .description("合并窗口内被抵消的客服下线次数").register(meterRegistry);
+        this.statusBatchSummary = DistributionSummary.builder("im.agent.status.batch.size")
+                .description("每批同步到 im_agent 的客服数").register(meterRegistry);
+        this.maxLinksCache = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(maxLinksCacheSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    private static Timer redisTimer(String op, MeterRegistry meterRegistry) {
+        return Timer.builder("im.redis.latency").tag("op", op)
+                .description("客服调度的 Redis 调用耗时").register(meterRegistry);
     }
 
     /**
      * 客服上线
-     * 将客服 ID 加入在线集合，初始化负载计数器，并同步数据库状态
+     * 将客服加入负载 ZSet（负载按已绑定的用户数计），登记其最大接待数，数据库状态随下一批同步
+     * 客服有空余名额时，同时从排队队首分配等待中的用户
+     *
+     * @return 本次分配给该客服的排队用户 ID
      */
-    public void agentOnline(Long agentId) {
-        redisTemplate.opsForSet().add(ONLINE_AGENTS_KEY, agentId.toString());
-        redisTemplate.opsForValue().setIfAbsent(AGENT_LOAD_KEY_PREFIX + agentId, "0");
-        chatMapper.updateAgentStatus(agentId, 1);
-        log.info("客服 {} 已上线，并已注册到全局调度池", agentId);
+    public List<Long> agentOnline(Long agentId) {
+        if (pendingOffline.remove(agentId)) {
+            flapCollapsedCounter.increment();
+        }
+        int maxLinks = maxLinksCache.get(agentId, this::loadMaxLinks);
+        List<?> dispatched = onlineTimer.record(() -> redisTemplate.execute(ONLINE_SCRIPT,
+                Arrays.asList(AGENT_LOADS_KEY, AGENT_MAX_LINKS_KEY, WAIT_QUEUE_KEY, BINDINGS_KEY, BOUND_KEY),
+                agentId.toString(), String.valueOf(maxLinks)));
+        dirtyStatus.add(agentId);
+        log.info("客服 {} 已上线，并已注册到全局调度池，最大接待数: {}", agentId, maxLinks);
+
+        List<Long> userIds = new ArrayList<>();
+        if (dispatched != null) {
+            for (Object userId : dispatched) {
+                userIds.add(Long.parseLong(userId.toString()));
+            }
+        }
+        if (!userIds.isEmpty()) {
+            log.info("客服 {} 上线后接入排队用户: {}", agentId, userIds);
+        }
+        return userIds;
+    }
+
+    private Integer loadMaxLinks(Long agentId) {
+        Agent agent = chatMapper.selectAgentById(agentId);
+        return agent != null && agent.getMaxLinks() != null ? agent.getMaxLinks() : defaultMaxLinks;
     }
 
     /**
      * 客服下线
-     * 从在线集合移除，同步数据库状态
+     * 记入待处理集合，由 syncStatus 在下一批从负载 ZSet 移除并同步数据库状态
      */
     public void agentOffline(Long agentId) {
-        redisTemplate.opsForSet().remove(ONLINE_AGENTS_KEY, agentId.toString());
-        chatMapper.updateAgentStatus(agentId, 0);
-        log.info("客服 {} 已下线，停止接收新咨询", agentId);
+        pendingOffline.add(agentId);
+        dirtyStatus.add(agentId);
+        log.info("客服 {} 已断开，未重新上线将在下一批同步时停止接收新咨询", agentId);
+    }
+
+    /**
+     * 批量处理合并窗口内的客服上下线
+     * 1. 以一次 Pipeline 检查客服是否已在某个节点重新登记会话位置，仍未上线的再以一次 Pipeline 执行下线脚本
+     * 2. 以一次 Pipeline 读取状态变化的客服是否在负载 ZSet 中，按在线 / 离线各一条 UPDATE 写入 im_agent
+     * 失败的客服放回集合，下一批重试
+     */
+    @Scheduled(fixedDelayString = "${webim.agent.status-flush-ms:1000}")
+    @PreDestroy
+    public void syncStatus() {
+        List<Long> offline = takeAll(pendingOffline);
+        if (!offline.isEmpty()) {
+            try {
+                removeOffline(offline);
+            } catch (Exception e) {
+                pendingOffline.addAll(offline);
+                log.warn("批量处理 {} 位客服下线失败，稍后重试", offline.size(), e);
+            }
+        }
+
+        List<Long> changed = takeAll(dirtyStatus);
+        if (changed.isEmpty()) {
+            return;
+        }
+        try {
+            List<Object> scores = statusSyncTimer.record(() -> redisTemplate.executePipelined(
+                    (RedisCallback<Object>) connection -> {
+                        StringRedisConnection conn = (StringRedisConnection) connection;
+                        for (Long agentId : changed) {
+                            conn.zScore(AGENT_LOADS_KEY, agentId.toString());
+                        }
+                        return null;
+                    }));
+            List<Long> online = new ArrayList<>();
+            List<Long> gone = new ArrayList<>();
+            for (int i = 0; i < changed.size(); i++) {
+                if (scores.get(i) != null) {
+                    online.add(changed.get(i));
+                } else {
+                    gone.add(changed.get(i));
+                }
+            }
+            if (!online.isEmpty()) {
+                chatMapper.updateAgentStatuses(online, 1);
+            }
+            if (!gone.isEmpty()) {
+                chatMapper.updateAgentStatuses(gone, 0);
+            }
+            statusBatchSummary.record(changed.size());
+        } catch (Exception e) {
+            dirtyStatus.addAll(changed);
+            log.warn("批量同步 {} 位客服状态失败，稍后重试", changed.size(), e);
+        }
+    }
+
+    /**
+     * 会话位置键与调度键不在同一个 slot，先查会话位置，已在其它节点重新上线的客服不再移除
+     */
+    private void removeOffline(List<Long> candidates) {
+        List<Object> exists = statusSyncTimer.record(() -> redisTemplate.executePipelined(
+                (RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (Long agentId : candidates) {
+                        conn.exists(PresenceService.presenceKey(2, agentId));
+                    }
+                    return null;
+                }));
+        List<Long> offline = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (Boolean.TRUE.equals(exists.get(i))) {
+                flapCollapsedCounter.increment();
+            } else {
+                offline.add(candidates.get(i));
+            }
+        }
+        if (offline.isEmpty()) {
+            return;
+        }
+        String script = OFFLINE_SCRIPT.getScriptAsString();
+        statusSyncTimer.record(() -> redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long agentId : offline) {
+                conn.eval(script, ReturnType.INTEGER, 2, AGENT_LOADS_KEY, AGENT_MAX_LINKS_KEY, agentId.toString());
+            }
+            return null;
+        }));
+        log.info("客服 {} 已下线，停止接收新咨询", offline);
+    }
+
+    private static List<Long> takeAll(Set<Long> pending) {
+        List<Long> taken = new ArrayList<>();
+        for (Long agentId : pending) {
+            if (pending.remove(agentId)) {
+                taken.add(agentId);
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * 用户的排队优先级，由 webim.agent.priority-users 配置，未配置的用户为 0
+     */
+    public int priorityOf(Long userId) {
+        return priorityUsers.getOrDefault(userId, 0);
+    }
+
+    private static int clampPriority(int priority) {
+        return Math.max(0, Math.min(MAX_PRIORITY, priority));
     }
 
     /**
      * 为用户分配空闲客服（核心调度算法：最少连接数）
      * 1. 优先检查旧有的绑定关系（会话保持）
-     * 2. 若无绑定，则在所有在线客服中寻找当前负载（连接数）最小的一个
+     * 2. 若无绑定且无人排在前面，则按负载从低到高选取第一个未达到 max_links 的客服，绑定并增加其负载
+     * 3. 所有客服均已满员时，按 (优先级, 到达顺序) 进入排队队列
+     * 以上步骤在同一个 Lua 脚本中完成，多节点并发分配也不会超出客服的接待上限
+     *
+     * @param priority 排队优先级，数值越大越靠前，限定在 [0, MAX_PRIORITY]
      */
-    public Long assignAgent(Long userId) {
-        // 第一步：检查 Redis 中是否存有该用户的活跃会话记录，且对应的客服依然在线
-        String existingAgentId = redisTemplate.opsForValue().get(USER_AGENT_MAP_KEY + userId);
-        if (existingAgentId != null && redisTemplate.opsForSet().isMember(ONLINE_AGENTS_KEY, existingAgentId)) {
-            log.debug("用户 {} 恢复了与客服 {} 的会话保持", userId, existingAgentId);
-            return Long.parseLong(existingAgentId);
+    public Assignment assignAgent(Long userId, int priority) {
+        return assignAgent(userId, priority, "");
+    }
+
+    /**
+     * 为用户分配客服，并把绑定记在 owner 节点名下；此后只有该节点（或不检查持有节点的释放）能释放绑定
+     *
+     * @param owner 发起分配的节点 ID
+     */
+    public Assignment assignAgent(Long userId, int priority, String owner) {
+        List<?> result = assignTimer.record(() -> redisTemplate.execute(ASSIGN_SCRIPT,
+                Arrays.asList(BINDINGS_KEY, AGENT_LOADS_KEY, AGENT_MAX_LINKS_KEY,
+                        WAIT_QUEUE_KEY, WAIT_SEQ_KEY, BOUND_KEY, OWNERS_KEY),
+                String.valueOf(defaultMaxLinks), userId.toString(), String.valueOf(clampPriority(priority)), owner));
+        String value = result.get(1).toString();
+        if ("A".equals(result.get(0))) {
+            log.info("用户 {} 分配到客服 {}", userId, value);
+            return new Assignment(Long.parseLong(value), null);
         }
+        log.info("用户 {} 暂无空闲客服，进入排队，当前位置: {}", userId, value);
+        return new Assignment(null, Integer.parseInt(value));
+    }
+
+    /**
+     * 用户断开连接（退出/超时）时释放负载
+     * 原子地清除绑定关系（或移出排队队列），对应客服的负载按剩余的已绑定用户数重新计数（不会减到负数），
+     * 释放出的名额立即分配给排队队首的用户
+     *
+     * @return 因本次释放而分配到客服的排队用户，没有则为 null
+     */
+    public Assignment releaseAgent(Long userId) {
+        return releaseAgent(userId, "");
+    }
 
-        // 第二步：获取当前所有在线的客服 ID 集合
-        Set<String> onlineAgents = redisTemplate.opsForSet().members(ONLINE_AGENTS_KEY);
-        if (onlineAgents == null || onlineAgents.isEmpty()) {
-            log.warn("用户 {} 进线失败：当前无任何在线客服", userId);
+    /**
+     * 由 owner 节点发起的释放：绑定已记在其它节点名下（用户已在别处重新上线）时不做任何改动
+     *
+     * @param owner 发起释放的节点 ID，空串表示不检查持有节点
+     * @return 因本次释放而分配到客服的排队用户，没有则为 null
+     */
+    public Assignment releaseAgent(Long userId, String owner) {
+        List<?> result = releaseTimer.record(() -> redisTemplate.execute(RELEASE_SCRIPT,
+                Arrays.asList(BINDINGS_KEY, AGENT_LOADS_KEY, AGENT_MAX_LINKS_KEY, WAIT_QUEUE_KEY, BOUND_KEY, OWNERS_KEY),
+                String.valueOf(defaultMaxLinks), userId.toString(), owner));
+        String agentId = result.get(0).toString();
+        String dispatchedUser = result.get(1).toString();
+        if (agentId.isEmpty()) {
             return null;
         }
+        log.info("用户 {} 离线，已释放客服 {} 的负载", userId, agentId);
+        if (dispatchedUser.isEmpty()) {
+            return null;
+        }
+        log.info("排队用户 {} 接入客服 {}", dispatchedUser, agentId);
+        return new Assignment(Long.parseLong(agentId), null, Long.parseLong(dispatchedUser));
+    }
 
-        // 第三步：寻找负载最低（计数器值最小）的客服（简单轮询/最少连接算法）
-        String bestAgent = null;
-        int minLoad = Integer.MAX_VALUE;
-
-        for (String agentId : onlineAgents) {
-            String loadStr = redisTemplate.opsForValue().get(AGENT_LOAD_KEY_PREFIX + agentId);
-            int load = loadStr == null ? 0 : Integer.parseInt(loadStr);
-            if (load < minLoad) {
-                minLoad = load;
-                bestAgent = agentId;
+    /**
+     * 批量查询用户当前的排队位置（Pipeline，一次往返）
+     *
+     * @return 用户 ID -> 排队位置（从 1 开始）；已不在队列中的用户不会出现在结果里
+     */
+    public Map<Long, Integer> queuePositions(List<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<Object> ranks = queuePositionsTimer.record(() -> redisTemplate.executePipelined(
+                (RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (Long userId : userIds) {
+                        conn.zRank(WAIT_QUEUE_KEY, userId.toString());
+                    }
+                    return null;
+                }));
+        Map<Long, Integer> positions = new HashMap<>(userIds.size() * 2);
+        for (int i = 0; i < userIds.size(); i++) {
+            Object rank = ranks.get(i);
+            if (rank != null) {
+                positions.put(userIds.get(i), ((Long) rank).intValue() + 1);
             }
         }
+        return positions;
+    }
 
-        if (bestAgent != null) {
-            // 第四步：建立绑定关系，并增加目标客服的负载计数
-            redisTemplate.opsForValue().set(USER_AGENT_MAP_KEY + userId, bestAgent);
-            redisTemplate.opsForValue().increment(AGENT_LOAD_KEY_PREFIX + bestAgent);
-            log.info("用户 {} 成功分配客服 {}，当前客服负载: {}", userId, bestAgent, minLoad + 1);
+    /**
+     * 读取全部在线客服的当前负载、最大接待数与排队人数（Pipeline，一次往返），用于监控
+     */
+    @SuppressWarnings("unchecked")
+    public LoadSnapshot loadSnapshot() {
+        List<Object> replies = loadSnapshotTimer.record(() -> redisTemplate.executePipelined(
+                (RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    conn.zRangeWithScores(AGENT_LOADS_KEY, 0, -1);
+                    conn.hGetAll(AGENT_MAX_LINKS_KEY);
+                    conn.zCard(WAIT_QUEUE_KEY);
+                    return null;
+                }));
+        Set<ZSetOperations.TypedTuple<String>> loadTuples = (Set<ZSetOperations.TypedTuple<String>>) replies.get(0);
+        Map<String, String> maxLinks = (Map<String, String>) replies.get(1);
+        Map<Long, Integer> loads = new HashMap<>();
+        if (loadTuples != null) {
+            for (ZSetOperations.TypedTuple<String> tuple : loadTuples) {
+                loads.put(Long.parseLong(tuple.getValue()), tuple.getScore() == null ? 0 : tuple.getScore().intValue());
+            }
         }
+        Map<Long, Integer> capacities = new HashMap<>();
+        if (maxLinks != null) {
+            for (Map.Entry<String, String> entry : maxLinks.entrySet()) {
+                capacities.put(Long.parseLong(entry.getKey()), Integer.parseInt(entry.getValue()));
+            }
+        }
+        Long queueLength = (Long) replies.get(2);
+        return new LoadSnapshot(loads, capacities, queueLength == null ? 0 : queueLength);
+    }
 
-        return bestAgent != null ? Long.parseLong(bestAgent) : null;
+    /**
+     * 客服负载快照：客服 ID -> 当前接待数、客服 ID -> 最大接待数，以及排队人数
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class LoadSnapshot {
+        private final Map<Long, Integer> loads;
+        private final Map<Long, Integer> maxLinks;
+        private final long queueLength;
     }
 
     /**
-     * 用户断开连接（退出/超时）时释放负载
-     * 减小对应客服的连接计数，并清除绑定关系
-     */
-    public void releaseAgent(Long userId) {
-        String agentId = redisTemplate.opsForValue().get(USER_AGENT_MAP_KEY + userId);
-        if (agentId != null) {
-            redisTemplate.opsForValue().decrement(AGENT_LOAD_KEY_PREFIX + agentId);
-            redisTemplate.delete(USER_AGENT_MAP_KEY + userId);
-            log.info("用户 {} 离线，已释放客服 {} 的负载", userId, agentId);
+     * 分配结果：agentId 不为空表示已分配客服，否则 queuePosition 为排队位置
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Assignment {
+        private final Long agentId;
+        private final Integer queuePosition;
+        /**
+         * 被分配的用户；为 null 时即为发起分配的用户本人
+         */
+        private final Long userId;
+
+        public Assignment(Long agentId, Integer queuePosition) {
+            this(agentId, queuePosition, null);
         }
     }
 }
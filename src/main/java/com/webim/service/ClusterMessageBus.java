@@ -0,0 +1,153 @@
+package com.webim.service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.webim.netty.BusinessExecutor;
+import com.webim.netty.protocol.JsonFrameCodec;
+import com.webim.netty.protocol.ReceiveFrame;
+import com.webim.netty.protocol.ServerFrame;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 跨节点消息总线
+ * 目标会话不在本节点时，按 PresenceService 查得的所在节点，通过 Redis Pub/Sub 将下行帧投递过去
+ * 每个节点只订阅自己的频道 "im:node:{nodeId}"
+ * 帧以与连接协议无关的对象形式传递，由目标节点按目标连接的协议编码
+ * Pub/Sub 不保证送达：只有目标节点确实订阅了频道才算转发成功；
+ * 目标节点本地投递失败且无法再转发时，聊天消息由目标节点记入离线收件箱，不会因“已发布”而丢失
+ */
+@Slf4j
+@Service
+public class ClusterMessageBus {
+
+    private static final String NODE_CHANNEL_PREFIX = "im:node:";
+
+    /**
+     * 本节点的投递回调：尝试把帧写入本地连接，返回是否写入成功
+     */
+    public interface LocalDelivery {
+        boolean deliver(Integer targetType, Long targetId, ServerFrame frame);
+    }
+
+    private final StringRedisTemplate redisTemplate;
+    private final PresenceService presenceService;
+    private final InboxService inboxService;
+    private final Executor executor;
+    private volatile LocalDelivery localDelivery;
+
+    public ClusterMessageBus(StringRedisTemplate redisTemplate, PresenceService presenceService,
+                             InboxService inboxService, BusinessExecutor businessExecutor,
+                             RedisMessageListenerContainer listenerContainer) {
+        this.redisTemplate = redisTemplate;
+        this.presenceService = presenceService;
+        this.inboxService = inboxService;
+        this.executor = businessExecutor.asExecutor();
+        listenerContainer.addMessageListener((message, pattern) ->
+                        onRemoteFrame(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(NODE_CHANNEL_PREFIX + presenceService.getNodeId()));
+    }
+
+    /**
+     * 注册本节点的投递回调（由 ChatHandler 在启动时注册）
+     */
+    public void setLocalDelivery(LocalDelivery localDelivery) {
+        this.localDelivery = localDelivery;
+    }
+
+    /**
+     * 向任意节点上的会话发送下行帧：本节点在线则直接写入，否则跨节点转发
+     */
+    public void send(Integer targetType, Long targetId, ServerFrame frame) {
+        LocalDelivery delivery = localDelivery;
+        if (delivery != null && delivery.deliver(targetType, targetId, frame)) {
+            return;
+        }
+        route(targetType, targetId, frame);
+    }
+
+    /**
+     * 将下行帧路由到目标会话所在的其它节点
+     *
+     * 返回 true 后由目标节点负责该帧：本地投递或再转发失败时，聊天消息由目标节点记入离线收件箱
+     *
+     * @return 目标在其它存活节点在线且该节点已收到时为 true；目标离线或目标节点未订阅时为 false
+     */
+    public CompletableFuture<Boolean> route(Integer targetType, Long targetId, ServerFrame frame) {
+        return presenceService.locate(targetType, targetId).thenApplyAsync(node -> {
+            if (node == null || node.equals(presenceService.getNodeId())) {
+                return false;
+            }
+            return publish(node, targetType, targetId, frame, 0);
+        }, executor);
+    }
+
+    /**
+     * @return 目标节点的订阅数大于 0（消息已被其接收）时为 true
+     */
+    private boolean publish(String node, Integer targetType, Long targetId, ServerFrame frame, int hop) {
+        JSONObject envelope = new JSONObject();
+        envelope.put("targetType", targetType);
+        envelope.put("targetId", targetId);
+        envelope.put("hop", hop);
+        envelope.put("frame", JsonFrameCodec.toJson(frame));
+        byte[] channel = (NODE_CHANNEL_PREFIX + node).getBytes(StandardCharsets.UTF_8);
+        byte[] body = envelope.toJSONString().getBytes(StandardCharsets.UTF_8);
+        Long receivers = redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(channel, body));
+        return receivers != null && receivers > 0;
+    }
+
+    /**
+     * 收到其它节点转来的帧：写入本地连接；若会话已迁移（发送方缓存过期），重新查询后再转发一次
+     * 仍然失败时，本节点代替发送方把聊天消息记入离线收件箱
+     */
+    private void onRemoteFrame(String body) {
+        JSONObject envelope = JSON.parseObject(body);
+        Integer targetType = envelope.getInteger("targetType");
+        Long targetId = envelope.getLong("targetId");
+        ServerFrame frame = JsonFrameCodec.parseServerFrame(envelope.getString("frame"));
+        LocalDelivery delivery = localDelivery;
+        if (delivery != null && delivery.deliver(targetType, targetId, frame)) {
+            return;
+        }
+        int hop = envelope.getIntValue("hop");
+        Runnable retry = () -> {
+            if (hop == 0) {
+                String node = presenceService.locateNow(targetType, targetId);
+                if (node != null && !node.equals(presenceService.getNodeId())
+                        && publish(node, targetType, targetId, frame, 1)) {
+                    return;
+                }
+            }
+            undelivered(targetType, targetId, frame);
+        };
+        try {
+            executor.execute(retry);
+        } catch (RejectedExecutionException e) {
+            // 业务线程池已满：在订阅回调线程上直接执行，聊天消息不能因此丢失
+            retry.run();
+        }
+    }
+
+    /**
+     * 帧最终未能送达：聊天消息记入目标的离线收件箱，其余通知类帧（排队进度等）直接丢弃
+     */
+    private void undelivered(Integer targetType, Long targetId, ServerFrame frame) {
+        if (frame instanceof ReceiveFrame && ((ReceiveFrame) frame).getId() != null) {
+            Long messageId = ((ReceiveFrame) frame).getId();
+            log.info("跨节点投递失败，目标 {}:{} 已不在线，消息 {} 已记入离线收件箱", targetType, targetId, messageId);
+            inboxService.add(targetType, targetId, messageId);
+        } else {
+            log.info("跨节点投递失败，目标 {}:{} 已不在线", targetType, targetId);
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package com.webim.service;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 聊天图片存储
+ * 1. 上传内容边写入临时文件（NIO FileChannel）边计算 SHA-256，完成后以 "哈希.扩展名" 命名，相同图片只存一份
+ * 2. 文件名即内容哈希，内容不可变，下载时可直接作为强 ETag 并长期缓存
+ * 3. 缩略图在有界线程池中异步生成，线程池满时跳过，下次访问时再补生成；
+ *    解码前先读取图片头中的宽高，超过像素上限的图片不生成缩略图，其余按缩放比例降采样解码，不加载全分辨率像素
+ * 4. 上传完成时按文件头（magic bytes）校验内容确为扩展名所示的图片格式，不只信任客户端提供的文件名
+ */
+@Slf4j
+@Service
+public class FileStorageService {
+
+    /**
+     * 对外访问路径前缀
+     */
+    public static final String URL_PREFIX = "/files/";
+
+    private static final String THUMB_DIR = "thumbs";
+    private static final String TMP_DIR = "tmp";
+    private static final Pattern NAME_PATTERN = Pattern.compile("[0-9a-f]{64}\\.[a-z]{3,4}");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int HEAD_LENGTH = 12; // 识别图片格式所需的文件头字节数
+
+    private final Path root;
+    private final Path thumbRoot;
+    private final Path tmpRoot;
+    private final long maxSize;
+    private final Set<String> allowedExtensions;
+    private final int thumbnailSize;
+    private final long thumbnailMaxPixels;
+    private final ThreadPoolExecutor thumbnailExecutor;
+    /**
+     * 正在生成缩略图的文件，避免并发请求重复生成
+     */
+    private final Set<String> thumbnailsInProgress = ConcurrentHashMap.newKeySet();
+
+    public FileStorageService(@Value("${webim.file.dir:${user.dir}/uploads}") String dir,
+                              @Value("${webim.file.max-size-mb:10}") long maxSizeMb,
+                              @Value("${webim.file.allowed-extensions:png,jpg,jpeg,gif,webp,bmp}") String allowedExtensions,
+                              @Value("${webim.file.thumbnail.size:240}") int thumbnailSize,
+                              @Value("${webim.file.thumbnail.max-pixels:40000000}") long thumbnailMaxPixels,
+                              @Value("${webim.file.thumbnail.threads:2}") int thumbnailThreads,
+                              @Value("${webim.file.thumbnail.queue-capacity:200}") int thumbnailQueueCapacity) throws IOException {
+        this.root = Paths.get(dir).toAbsolutePath().normalize();
+        this.thumbRoot = root.resolve(THUMB_DIR);
+        this.tmpRoot = root.resolve(TMP_DIR);
+        Files.createDirectories(thumbRoot);
+        Files.createDirectories(tmpRoot);
+        this.maxSize = maxSizeMb * 1024 * 1024;
+        this.allowedExtensions = new HashSet<>(Arrays.asList(allowedExtensions.toLowerCase(Locale.ROOT).split(",")));
+        this.thumbnailSize = thumbnailSize;
+        this.thumbnailMaxPixels = thumbnailMaxPixels;
+        // 缩略图生成是 CPU 密集任务，线程数与队列均有界，满时直接丢弃
+        this.thumbnailExecutor = new ThreadPoolExecutor(thumbnailThreads, thumbnailThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(thumbnailQueueCapacity), new DefaultThreadFactory("im-thumb"),
+                new ThreadPoolExecutor.AbortPolicy());
+        log.info("图片存储目录: {}，单文件上限: {}MB", root, maxSizeMb);
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 按原始文件名取合法的扩展名
+     *
+     * @return 不支持的类型返回 null
+     */
+    public String extensionOf(String filename) {
+        if (filename == null) {
+            return null;
+        }
+        int dot = filename.lastIndexOf('.');
+        String ext = filename.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return allowedExtensions.contains(ext) ? ext : null;
+    }
+
+    /**
+     * 开始一次流式上传
+     */
+    public Upload begin(String extension) throws IOException {
+        return new Upload(extension);
+    }
+
+    /**
+     * 从输入流保存（供 Spring MVC 的上传接口使用）
+     *
+     * @return 访问路径
+     */
+    public String store(InputStream in, String extension) throws IOException {
+        Upload upload = begin(extension);
+        try {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                upload.write(ByteBuffer.wrap(buffer, 0, n));
+            }
+            return upload.complete();
+        } catch (IOException | RuntimeException e) {
+            upload.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * 按文件名查找已存储的文件，文件名不合法或不存在时返回 null
+     */
+    public File resolve(String name) {
+        if (!NAME_PATTERN.matcher(name).matches()) {
+            return null;
+        }
+        File file = root.resolve(name).toFile();
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * 查找缩略图；尚未生成时提交后台生成并返回 null（调用方先返回原图）
+     */
+    public File thumbnail(String name) {
+        File thumb = thumbRoot.resolve(name).toFile();
+        if (thumb.isFile()) {
+            return thumb;
+        }
+        scheduleThumbnail(name);
+        return null;
+    }
+
+    private void scheduleThumbnail(String name) {
+        if (!thumbnailsInProgress.add(name)) {
+            return;
+        }
+        try {
+            thumbnailExecutor.execute(() -> {
+                try {
+                    generateThumbnail(name);
+                } catch (Exception e) {
+                    log.warn("生成缩略图失败: {}", name, e);
+                } finally {
+                    thumbnailsInProgress.remove(name);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            thumbnailsInProgress.remove(name);
+            log.debug("缩略图线程池繁忙，跳过: {}", name);
+        }
+    }
+
+    void generateThumbnail(String name) throws IOException {
+        Path source = root.resolve(name);
+        Path target = thumbRoot.resolve(name);
+        if (Files.exists(target) || !Files.exists(source)) {
+            return;
+        }
+        BufferedImage image;
+        try (ImageInputStream input = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                return; // ImageIO 不支持的格式（如 webp），直接使用原图
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                // 宽高只读取图片头，声明超大尺寸的小文件在分配像素缓冲之前就被拦下
+                int sourceWidth = reader.getWidth(0);
+                int sourceHeight = reader.getHeight(0);
+                if ((long) sourceWidth * sourceHeight > thumbnailMaxPixels) {
+                    log.info("图片尺寸 {}x{} 超过缩略图像素上限，不生成缩略图: {}", sourceWidth, sourceHeight, name);
+                    return;
+                }
+                if (sourceWidth <= thumbnailSize && sourceHeight <= thumbnailSize) {
+                    // 原图已足够小，缩略图直接复用原图内容
+                    Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+                    return;
+                }
+                // 隔行隔列降采样解码，解码结果的最长边仍不小于缩略图尺寸
+                int step = Math.max(1, Math.max(sourceWidth, sourceHeight) / thumbnailSize);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        String format = name.substring(name.lastIndexOf('.') + 1);
+        double scale = Math.min((double) thumbnailSize / image.getWidth(), (double) thumbnailSize / image.getHeight());
+        int width = Math.max(1, (int) (image.getWidth() * scale));
+        int height = Math.max(1, (int) (image.getHeight() * scale));
+        boolean alpha = image.getColorModel().hasAlpha() && !"jpg".equals(format) && !"jpeg".equals(format);
+        BufferedImage scaled = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        // 先写临时文件再改名，避免下载到写了一半的缩略图
+        Path tmp = Files.createTempFile(tmpRoot, "thumb-", "." + format);
+        try {
+            if (!ImageIO.write(scaled, format, tmp.toFile())) {
+                return;
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        thumbnailExecutor.shutdownNow();
+    }
+
+    /**
+     * 一次流式上传：内容边写入临时文件边计算哈希，complete 后按哈希改名入库
+     * 非线程安全，由同一线程顺序调用
+     */
+    public final class Upload {
+        private final String extension;
+        private final Path tmp;
+        private final FileChannel channel;
+        private final MessageDigest digest;
+        private final byte[] head = new byte[HEAD_LENGTH];
+        private long size;
+
+        private Upload(String extension) throws IOException {
+            this.extension = extension;
+            this.tmp = Files.createTempFile(tmpRoot, "upload-", ".part");
+            this.channel = FileChannel.open(tmp, StandardOpenOption.WRITE);
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * 写入一段内容（不改变 buf 的读索引）
+         *
+         * @throws FileTooLargeException 累计大小超过上限
+         */
+        public void write(ByteBuf buf) throws IOException {
+            for (ByteBuffer buffer : buf.nioBuffers()) {
+                write(buffer);
+            }
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            size += buffer.remaining();
+            if (size > maxSize) {
+                throw new FileTooLargeException(maxSize);
+            }
+            digest.update(buffer.duplicate());
+            if (size - buffer.remaining() < HEAD_LENGTH) {
+                int offset = (int) (size - buffer.remaining());
+                buffer.duplicate().get(head, offset, Math.min(HEAD_LENGTH - offset, buffer.remaining()));
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        /**
+         * 完成上传；相同内容已存在时丢弃本次文件
+         *
+         * @return 访问路径
+         * @throws UnsupportedContentException 文件头与扩展名所示的图片格式不符（临时文件已删除）
+         */
+        public String complete() throws IOException {
+            channel.close();
+            String type = imageTypeOf(head, (int) Math.min(size, HEAD_LENGTH));
+            if (type == null || !type.equals(imageTypeOf(extension))) {
+                Files.deleteIfExists(tmp);
+                throw new UnsupportedContentException(extension);
+            }
+            String name = toHex(digest.digest()) + "." + extension;
+            Path target = root.resolve(name);
+            if (Files.exists(target)) {
+                Files.delete(tmp);
+                log.debug("图片已存在，复用: {}", name);
+            } else {
+                try {
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    // 并发上传了相同内容
+                    Files.deleteIfExists(tmp);
+                }
+                scheduleThumbnail(name);
+            }
+            return URL_PREFIX + name;
+        }
+
+        /**
+         * 放弃上传，删除临时文件
+         */
+        public void abort() {
+            try {
+                channel.close();
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                log.warn("删除上传临时文件失败: {}", tmp, e);
+            }
+        }
+    }
+
+    /**
+     * 上传内容超过大小上限
+     */
+    public static class FileTooLargeException extends IOException {
+        public FileTooLargeException(long maxSize) {
+            super("文件超过大小上限: " + maxSize + " 字节");
+        }
+    }
+
+    /**
+     * 上传内容与扩展名所示的图片格式不符
+     */
+    public static class UnsupportedContentException extends IOException {
+        public UnsupportedContentException(String extension) {
+            super("文件内容不是 " + extension + " 图片");
+        }
+    }
+
+    /**
+     * 按文件头识别图片格式
+     *
+     * @return png / jpeg / gif / webp / bmp，无法识别时返回 null
+     */
+    static String imageTypeOf(byte[] head, int length) {
+        if (startsWith(head, length, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return "png";
+        }
+        if (startsWith(head, length, 0, 0xFF, 0xD8, 0xFF)) {
+            return "jpeg";
+        }
+        if (startsWith(head, length, 0, 'G', 'I', 'F', '8') && length >= 6
+                && (head[4] == '7' || head[4] == '9') && head[5] == 'a') {
+            return "gif";
+        }
+        if (startsWith(head, length, 0, 'R', 'I', 'F', 'F') && startsWith(head, length, 8, 'W', 'E', 'B', 'P')) {
+            return "webp";
+        }
+        if (startsWith(head, length, 0, 'B', 'M')) {
+            return "bmp";
+        }
+        return null;
+    }
+
+    private static String imageTypeOf(String extension) {
+        return "jpg".equals(extension) ? "jpeg" : extension;
+    }
+
+    private static boolean startsWith(byte[] head, int length, int offset, int... expected) {
+        if (length < offset + expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if ((head[offset + i] & 0xFF) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
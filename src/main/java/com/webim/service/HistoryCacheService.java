@@ -0,0 +1,235 @@
+package com.webim.service;
+
+import com.alibaba.fastjson.JSON;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.webim.entity.Message;
+import com.webim.netty.BusinessExecutor;
+import com.webim.store.MessageStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 活跃会话最近消息缓存
+ * 两级缓存：进程内 Caffeine（W-TinyLFU 淘汰）+ Redis 定长 ZSet，每个会话缓存最新 capacity 条消息
+ * 消息落库成功后写穿到 Redis，并通过 Pub/Sub 通知所有节点淘汰本地副本
+ * 批量刷盘的完成顺序与消息 id 顺序不一致，Redis 中按 id 排序（member 以定长 id 开头，同分按字典序），保证分页严格按 id 降序
+ */
+@Slf4j
+@Service
+public class HistoryCacheService {
+
+    // Redis 键名命名空间
+    private static final String HISTORY_KEY_PREFIX = "im:history:recent:"; // 会话最近消息 (ZSet，score 均为 0，member 为补零 id + JSON)
+    private static final String VERSION_KEY_PREFIX = "im:history:ver:"; // 会话写入版本号 (Counter)
+    private static final String HISTORY_CHANGED_CHANNEL = "im:history:changed"; // 本地缓存失效通知 (Pub/Sub)
+
+    private static final int ID_WIDTH = 20; // Long.MAX_VALUE 的十进制位数
+
+    private static final RedisScript<Long> APPEND_SCRIPT = RedisScripts.load("history_append.lua", Long.class);
+    private static final RedisScript<Long> FILL_SCRIPT = RedisScripts.load("history_fill.lua", Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final MessageStore messageStore;
+    private final Executor executor;
+    private final int capacity;
+    private final long redisTtlSeconds;
+    private final Cache<String, List<Message>> localCache;
+
+    private final Counter redisHitCounter;
+    private final Counter redisMissCounter;
+
+    public HistoryCacheService(StringRedisTemplate redisTemplate, MessageStore messageStore,
+                               MessageBatchWriter messageBatchWriter, BusinessExecutor businessExecutor,
+                               RedisMessageListenerContainer listenerContainer, MeterRegistry meterRegistry,
+                               @Value("${webim.history.cache.capacity:50}") int capacity,
+                               @Value("${webim.history.cache.local-max-conversations:10000}") long localMaxConversations,
+                               @Value("${webim.history.cache.local-ttl-seconds:30}") long localTtlSeconds,
+                               @Value("${webim.history.cache.redis-ttl-seconds:86400}") long redisTtlSeconds) {
+        this.redisTemplate = redisTemplate;
+        this.messageStore = messageStore;
+        this.executor = businessExecutor.asExecutor();
+        this.capacity = capacity;
+        this.redisTtlSeconds = redisTtlSeconds;
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(localMaxConversations)
+                .expireAfterWrite(localTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "im.history.local");
+        this.redisHitCounter = Counter.builder("im.history.redis").tag("result", "hit").register(meterRegistry);
+        this.redisMissCounter = Counter.builder("im.history.redis").tag("result", "miss").register(meterRegistry);
+
+        // 落库成功后写穿缓存；放到业务线程执行，不占用刷盘线程
+        messageBatchWriter.addFlushListener(this::onFlushed);
+        // 任一节点追加消息后，各节点淘汰对应会话的本地副本
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            localCache.invalidateAll(Arrays.asList(body.split(",")));
+        }, new ChannelTopic(HISTORY_CHANGED_CHANNEL));
+    }
+
+    /**
+     * 读取会话最新的 limit 条消息（最新的在前），依次尝试本地缓存、Redis、消息存储（并回填缓存）
+     *
+     * @return 超出缓存容量时返回 null，由调用方直接查库
+     */
+    public List<Message> recent(String conversationId, int limit) {
+        if (limit > capacity) {
+            return null;
+        }
+        List<Message> cached = localCache.getIfPresent(conversationId);
+        if (cached == null) {
+            cached = loadFromRedis(conversationId);
+            if (cached == null) {
+                redisMissCounter.increment();
+                cached = loadFromDatabase(conversationId);
+            } else {
+                redisHitCounter.increment();
+                localCache.put(conversationId, cached);
+            }
+        }
+        return cached.size() > limit ? cached.subList(0, limit) : cached;
+    }
+
+    private List<Message> loadFromRedis(String conversationId) {
+        Set<String> values = redisTemplate.opsForZSet().reverseRange(HISTORY_KEY_PREFIX + conversationId, 0, capacity - 1);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        List<Message> messages = new ArrayList<>(values.size());
+        for (String value : values) {
+            messages.add(JSON.parseObject(value.substring(ID_WIDTH), Message.class));
+        }
+        return Collections.unmodifiableList(messages);
+    }
+
+    /**
+     * 缓存未命中：查库并回填；查库期间有新消息写入时放弃回填
+     */
+    private List<Message> loadFromDatabase(String conversationId) {
+        String version = redisTemplate.opsForValue().get(VERSION_KEY_PREFIX + conversationId);
+        List<Message> messages = Collections.unmodifiableList(
+                messageStore.findHistory(conversationId, null, capacity));
+        if (messages.isEmpty()) {
+            return messages;
+        }
+        String[] args = new String[messages.size() + 2];
+        args[0] = version == null ? "0" : version;
+        args[1] = String.valueOf(redisTtlSeconds);
+        for (int i = 0; i < messages.size(); i++) {
+            args[i + 2] = member(messages.get(i));
+        }
+        Long filled = redisTemplate.execute(FILL_SCRIPT,
+                Arrays.asList(HISTORY_KEY_PREFIX + conversationId, VERSION_KEY_PREFIX + conversationId), (Object[]) args);
+        if (filled != null && filled == 1) {
+            localCache.put(conversationId, messages);
+        }
+        return messages;
+    }
+
+    /**
+     * 落库成功回调（刷盘线程）：写穿交给业务线程；业务线程队列已满时不能丢弃，
+     * 否则缓存缺少这批消息直到过期，改为在当前线程直接淘汰相关会话缓存（一次 Pipeline 往返）
+     */
+    private void onFlushed(List<Message> messages) {
+        try {
+            executor.execute(() -> append(messages));
+        } catch (RejectedExecutionException e) {
+            Set<String> conversationIds = new LinkedHashSet<>();
+            for (Message message : messages) {
+                conversationIds.add(message.getConversationId());
+            }
+            log.warn("业务线程池繁忙，淘汰 {} 个会话的缓存代替写穿", conversationIds.size());
+            evict(conversationIds);
+        }
+    }
+
+    /**
+     * 将一批新落库的消息按会话追加到 Redis（Pipeline，一次往返），并广播本地缓存失效
+     */
+    private void append(List<Message> messages) {
+        Map<String, List<String>> byConversation = new LinkedHashMap<>();
+        for (Message message : messages) {
+            byConversation.computeIfAbsent(message.getConversationId(), k -> new ArrayList<>())
+                    .add(member(message));
+        }
+        String script = APPEND_SCRIPT.getScriptAsString();
+        String capacityArg = String.valueOf(capacity);
+        String ttlArg = String.valueOf(redisTtlSeconds);
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Map.Entry<String, List<String>> entry : byConversation.entrySet()) {
+                    List<String> keysAndArgs = new ArrayList<>(entry.getValue().size() + 4);
+                    keysAndArgs.add(HISTORY_KEY_PREFIX + entry.getKey());
+                    keysAndArgs.add(VERSION_KEY_PREFIX + entry.getKey());
+                    keysAndArgs.add(capacityArg);
+                    keysAndArgs.add(ttlArg);
+                    keysAndArgs.addAll(entry.getValue());
+                    conn.eval(script, ReturnType.INTEGER, 2, keysAndArgs.toArray(new String[0]));
+                }
+                conn.publish(HISTORY_CHANGED_CHANNEL, String.join(",", byConversation.keySet()));
+                return null;
+            });
+        } catch (Exception e) {
+            // 追加失败时删除缓存，下次读取重新回填，避免缓存缺失消息
+            log.warn("写穿会话缓存失败，淘汰相关会话缓存", e);
+            evict(byConversation.keySet());
+        }
+    }
+
+    /**
+     * 淘汰会话缓存：递增版本号（使查库中的回填作废）并删除 Redis 副本，再通知各节点淘汰本地副本
+     */
+    private void evict(Collection<String> conversationIds) {
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (String conversationId : conversationIds) {
+                    conn.incr(VERSION_KEY_PREFIX + conversationId);
+                    conn.expire(VERSION_KEY_PREFIX + conversationId, redisTtlSeconds);
+                    conn.del(HISTORY_KEY_PREFIX + conversationId);
+                }
+                conn.publish(HISTORY_CHANGED_CHANNEL, String.join(",", conversationIds));
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("淘汰会话缓存失败: {}", conversationIds, e);
+        }
+        localCache.invalidateAll(conversationIds);
+    }
+
+    /**
+     * ZSet member：20 位补零的消息 id + 消息 JSON，字典序即 id 顺序
+     */
+    private static String member(Message message) {
+        return String.format("%0" + ID_WIDTH + "d", message.getId()) + JSON.toJSONString(message);
+    }
+}
@@ -0,0 +1,109 @@
+package com.webim.service;
+
+import com.webim.entity.Message;
+import com.webim.store.MessageStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 离线收件箱
+ * 以接收方为单位记录尚未确认送达的消息 ID（Redis ZSet，member 为消息 ID，score 为其生成时间毫秒数），
+ * 接收方上线后按批次推送，客户端 ACK 后移除，重连只同步真正错过的消息
+ * 64 位消息 ID 超出 double 的 53 位精度，不能直接作 score；同一毫秒内的 ID 位数相同，同分按 member 字典序即 ID 顺序
+ */
+@Slf4j
+@Service
+public class InboxService {
+
+    private static final String INBOX_KEY_PREFIX = "im:inbox:"; // 离线收件箱 (ZSet)
+
+    private final StringRedisTemplate redisTemplate;
+    private final MessageStore messageStore;
+    private final int maxSize;
+    private final long ttlSeconds;
+    private final long pendingGraceMillis;
+
+    public InboxService(StringRedisTemplate redisTemplate, MessageStore messageStore,
+                        @Value("${webim.inbox.max-size:1000}") int maxSize,
+                        @Value("${webim.inbox.ttl-days:7}") long ttlDays,
+                        @Value("${webim.inbox.pending-grace-seconds:60}") long pendingGraceSeconds) {
+        this.redisTemplate = redisTemplate;
+        this.messageStore = messageStore;
+        this.maxSize = maxSize;
+        this.ttlSeconds = TimeUnit.DAYS.toSeconds(ttlDays);
+        this.pendingGraceMillis = TimeUnit.SECONDS.toMillis(pendingGraceSeconds);
+    }
+
+    /**
+     * 记录一条未送达的消息；收件箱超出上限时丢弃最早的记录（仍可通过历史记录查看）
+     */
+    public void add(Integer userType, Long userId, Long messageId) {
+        String key = inboxKey(userType, userId);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.zAdd(key, MessageIdGenerator.timestampOf(messageId), messageId.toString());
+            conn.zRemRange(key, 0, -maxSize - 1);
+            conn.expire(key, ttlSeconds);
+            return null;
+        });
+    }
+
+    /**
+     * 取出最早的一批未确认消息（不移除，等待客户端 ACK）
+     * 数据库中查不到的消息 ID 超过等待时间后从收件箱清除；
+     * 跨节点投递失败时接收方节点可能先于发送方落库记入收件箱，等待时间内的保留到下次推送
+     */
+    public List<Message> peek(Integer userType, Long userId, int limit) {
+        String key = inboxKey(userType, userId);
+        Set<String> members = redisTemplate.opsForZSet().range(key, 0, limit - 1);
+        if (members == null || members.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(members.size());
+        for (String member : members) {
+            ids.add(Long.parseLong(member));
+        }
+        List<Message> messages = messageStore.findByIds(ids);
+        if (messages.size() < ids.size()) {
+            Set<String> missing = new HashSet<>(members);
+            for (Message message : messages) {
+                missing.remove(message.getId().toString());
+            }
+            long deadline = System.currentTimeMillis() - pendingGraceMillis;
+            missing.removeIf(member -> MessageIdGenerator.timestampOf(Long.parseLong(member)) > deadline);
+            if (!missing.isEmpty()) {
+                redisTemplate.opsForZSet().remove(key, missing.toArray());
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * 客户端确认已收到的消息
+     */
+    public void ack(Integer userType, Long userId, List<Long> messageIds) {
+        if (messageIds.isEmpty()) {
+            return;
+        }
+        Object[] members = new Object[messageIds.size()];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = messageIds.get(i).toString();
+        }
+        redisTemplate.opsForZSet().remove(inboxKey(userType, userId), members);
+    }
+
+    private static String inboxKey(Integer userType, Long userId) {
+        return INBOX_KEY_PREFIX + userType + ":" + userId;
+    }
+}
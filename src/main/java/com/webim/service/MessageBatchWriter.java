@@ -0,0 +1,249 @@
+package com.webim.service;
+
+import com.webim.entity.Message;
+import com.webim.store.MessageStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 消息异步批量落库（Write-Behind）
+ * 消息先进入有界队列，由单独的刷盘线程按“条数 / 时间”阈值聚合后整批写入 MessageStore
+ * （MySQL 下为多行 INSERT），将逐条写入的网络往返与事务提交 / 刷盘开销摊薄到整批消息上
+ */
+@Slf4j
+@Service
+public class MessageBatchWriter {
+
+    private final MessageStore messageStore;
+    private final BlockingQueue<PendingMessage> queue;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final Thread flusher;
+    private volatile boolean running = true;
+    /**
+     * 已提交但尚未写库结束的消息数（包括刷盘线程正在写入的一批）
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final List<Consumer<List<Message>>> flushListeners = new CopyOnWriteArrayList<>();
+
+    // 监控指标
+    private final DistributionSummary batchSizeSummary;
+    private final Timer flushTimer;
+    private final Counter rejectedCounter;
+    private final Counter failedCounter;
+
+    public MessageBatchWriter(MessageStore messageStore, MeterRegistry meterRegistry,
+                              @Value("${netty.websocket.persist.queue-capacity:50000}") int queueCapacity,
+                              @Value("${netty.websocket.persist.batch-size:200}") int batchSize,
+                              @Value("${netty.websocket.persist.flush-interval-ms:20}") long flushIntervalMs) {
+        this.messageStore = messageStore;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+
+        Gauge.builder("im.persist.queue.depth", queue, BlockingQueue::size)
+                .description("待落库消息队列深度").register(meterRegistry);
+        this.batchSizeSummary = DistributionSummary.builder("im.persist.batch.size")
+                .description("每批写入的消息条数").register(meterRegistry);
+        this.flushTimer = Timer.builder("im.persist.flush.latency")
+                .description("单批写入耗时").register(meterRegistry);
+        this.rejectedCounter = Counter.builder("im.persist.rejected")
+                .description("队列已满被拒绝的消息数").register(meterRegistry);
+        this.failedCounter = Counter.builder("im.persist.failed")
+                .description("写库失败的消息数").register(meterRegistry);
+
+        this.flusher = new Thread(this::flushLoop, "im-persist-flusher");
+        this.flusher.start();
+        log.info("消息批量落库线程已启动，队列容量: {}，批大小: {}，刷盘间隔: {}ms", queueCapacity, batchSize, flushIntervalMs);
+    }
+
+    /**
+     * 提交一条待落库消息（非阻塞）
+     * 队列已满时立即以 RejectedExecutionException 失败，由调用方反馈给客户端，形成背压
+     *
+     * @return 落库完成（或失败）时结束的 Future
+     */
+    public CompletableFuture<Message> submit(Message message) {
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        if (!running) {
+            rejectedCounter.increment();
+            future.completeExceptionally(new RejectedExecutionException("消息落库线程已停止"));
+            return future;
+        }
+        inFlight.incrementAndGet();
+        PendingMessage pending = new PendingMessage(message, future);
+        if (!queue.offer(pending)) {
+            inFlight.decrementAndGet();
+            rejectedCounter.increment();
+            future.completeExceptionally(new RejectedExecutionException("消息落库队列已满"));
+        } else if (!running && queue.remove(pending)) {
+            // 入队前恰好开始停机，刷盘线程可能已看到空队列并退出：仍在队列中的消息由提交方自行失败
+            inFlight.decrementAndGet();
+            rejectedCounter.increment();
+            future.completeExceptionally(new RejectedExecutionException("消息落库线程已停止"));
+        }
+        return future;
+    }
+
+    /**
+     * 注册落库成功监听器，每批写入成功后以该批消息回调，运行在刷盘线程上
+     */
+    public void addFlushListener(Consumer<List<Message>> listener) {
+        flushListeners.add(listener);
+    }
+
+    /**
+     * 当前队列深度
+     */
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * 等待已提交的消息全部写库结束（节点排空时调用，不停止接收新消息）
+     *
+     * @return 超时前全部写库结束时为 true
+     */
+    public boolean awaitEmpty(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (inFlight.get() > 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * 刷盘主循环：攒够 batchSize 条或距本批第一条消息超过 flushInterval 即写库
+     */
+    private void flushLoop() {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                try {
+                    flush(batch);
+                } finally {
+                    inFlight.addAndGet(-batch.size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("消息批量落库线程发生未预期异常", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 写入一批消息；整批写入失败时退化为逐条写入，避免一条坏数据拖垮整批
+     */
+    private void flush(List<PendingMessage> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (PendingMessage pending : batch) {
+            messages.add(pending.message);
+        }
+        long start = System.nanoTime();
+        try {
+            messageStore.append(messages);
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            batchSizeSummary.record(batch.size());
+            for (PendingMessage pending : batch) {
+                pending.future.complete(pending.message);
+            }
+        } catch (Exception e) {
+            log.warn("批量写入 {} 条消息失败，改为逐条写入", batch.size(), e);
+            messages.clear();
+            for (PendingMessage pending : batch) {
+                try {
+                    messageStore.append(Collections.singletonList(pending.message));
+                    messages.add(pending.message);
+                    pending.future.complete(pending.message);
+                } catch (Exception ex) {
+                    failedCounter.increment();
+                    pending.future.completeExceptionally(ex);
+                }
+            }
+        }
+        if (!messages.isEmpty()) {
+            for (Consumer<List<Message>> listener : flushListeners) {
+                try {
+                    listener.accept(messages);
+                } catch (Exception e) {
+                    log.warn("落库成功监听器执行失败", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 停机时停止接收新消息，并等待队列中剩余消息全部落库
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        flusher.join(TimeUnit.SECONDS.toMillis(30));
+        // 等待超时或刷盘线程被中断时队列中仍有消息，逐条失败，不让调用方无限等待
+        List<PendingMessage> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for (PendingMessage pending : remaining) {
+            inFlight.decrementAndGet();
+            failedCounter.increment();
+            pending.future.completeExceptionally(new RejectedExecutionException("消息落库线程已停止"));
+        }
+        log.info("消息批量落库线程已退出，剩余未落库消息: {}", remaining.size());
+    }
+
+    /**
+     * 队列元素：消息及其落库结果回调
+     */
+    private static final class PendingMessage {
+        private final Message message;
+        private final CompletableFuture<Message> future;
+
+        private PendingMessage(Message message, CompletableFuture<Message> future) {
+            this.message = message;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.webim.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 消息 ID 生成器（Snowflake 结构，按时间大致有序的 64 位 ID）
+ * <pre>
+ * 1 位符号 | 41 位毫秒时间戳（自 2024-01-01 起，约 69 年） | 10 位节点号 | 12 位毫秒内序号
+ * </pre>
+ * 1. 无锁：时间戳与序号合并为一个 long，用 CAS 推进
+ * 2. 同一毫秒内序号用尽（4096 个）时借用下一毫秒，不自旋等待；时钟回拨时沿用上次的时间戳继续递增，
+ *    保证本节点生成的 ID 严格递增、永不重复
+ * 3. 节点号优先取配置；未配置时在 Redis 中抢占 im:id:worker:{n} 租约（带过期时间，定时续期）
+ */
+@Slf4j
+@Service
+public class MessageIdGenerator {
+
+    /**
+     * 2024-01-01 00:00:00 UTC
+     */
+    public static final long EPOCH = 1704067200000L;
+
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final int MAX_WORKER = (1 << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final String WORKER_KEY_PREFIX = "im:id:worker:";
+    private static final String WORKER_SEQ_KEY = "im:id:worker-seq";
+    private static final long LEASE_SECONDS = 60;
+
+    private final StringRedisTemplate redisTemplate;
+    private final String nodeId;
+    private final int workerId;
+    /**
+     * 是否通过 Redis 租约获得的节点号（需要续期和释放）
+     */
+    private final boolean leased;
+    /**
+     * 上一个 ID 的 (时间戳 << 12 | 序号)
+     */
+    private final AtomicLong state = new AtomicLong();
+
+    public MessageIdGenerator(StringRedisTemplate redisTemplate, PresenceService presenceService,
+                              @Value("${webim.message.id.worker-id:-1}") int workerId) {
+        this.redisTemplate = redisTemplate;
+        this.nodeId = presenceService.getNodeId();
+        if (workerId > MAX_WORKER) {
+            throw new IllegalArgumentException("webim.message.id.worker-id 超出范围 [0, " + MAX_WORKER + "]: " + workerId);
+        }
+        this.leased = workerId < 0;
+        this.workerId = leased ? acquireWorkerId() : workerId;
+        log.info("消息 ID 节点号: {}{}", this.workerId, leased ? "（Redis 租约）" : "");
+    }
+
+    /**
+     * 生成下一个消息 ID
+     */
+    public long nextId() {
+        long now = currentTimeMillis() - EPOCH;
+        while (true) {
+            long prev = state.get();
+            long next = (prev >>> SEQUENCE_BITS) < now ? now << SEQUENCE_BITS : prev + 1;
+            if (state.compareAndSet(prev, next)) {
+                return (next >>> SEQUENCE_BITS) << (WORKER_BITS + SEQUENCE_BITS)
+                        | (long) workerId << SEQUENCE_BITS
+                        | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    /**
+     * 当前时间（毫秒），测试中覆盖以模拟时钟回拨
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * 从 ID 中取出生成时间（毫秒）
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (WORKER_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    public int getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * 依次尝试 Redis 自增序号对应的节点号，抢占第一个空闲的租约
+     */
+    private int acquireWorkerId() {
+        for (int i = 0; i <= MAX_WORKER; i++) {
+            Long seq = redisTemplate.opsForValue().increment(WORKER_SEQ_KEY);
+            int candidate = (int) (seq % (MAX_WORKER + 1));
+            Boolean acquired = redisTemplate.opsForValue()
+                    .setIfAbsent(WORKER_KEY_PREFIX + candidate, nodeId, LEASE_SECONDS, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(acquired)) {
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("没有空闲的消息 ID 节点号，请检查 Redis 中的 " + WORKER_KEY_PREFIX + "* 或手动配置 webim.message.id.worker-id");
+    }
+
+    /**
+     * 续期节点号租约；租约已被其它节点占用说明本节点曾长时间失联，只能告警，由运维处理
+     */
+    @Scheduled(fixedDelay = LEASE_SECONDS * 1000 / 3)
+    public void renewLease() {
+        if (!leased) {
+            return;
+        }
+        try {
+            String key = WORKER_KEY_PREFIX + workerId;
+            Boolean acquired = redisTemplate.opsForValue().setIfAbsent(key, nodeId, LEASE_SECONDS, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(acquired)) {
+                log.warn("消息 ID 节点号 {} 的租约曾过期，已重新获得", workerId);
+            } else if (nodeId.equals(redisTemplate.opsForValue().get(key))) {
+                redisTemplate.expire(key, LEASE_SECONDS, TimeUnit.SECONDS);
+            } else {
+                log.error("消息 ID 节点号 {} 的租约已被其它节点占用，生成的 ID 可能重复", workerId);
+            }
+        } catch (Exception e) {
+            log.warn("续期消息 ID 节点号租约失败", e);
+        }
+    }
+
+    @PreDestroy
+    public void releaseLease() {
+        if (leased) {
+            try {
+                String key = WORKER_KEY_PREFIX + workerId;
+                if (nodeId.equals(redisTemplate.opsForValue().get(key))) {
+                    redisTemplate.delete(key);
+                }
+            } catch (Exception e) {
+                log.warn("释放消息 ID 节点号租约失败", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.webim.service;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.webim.netty.BusinessExecutor;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 集群在线状态注册表
+ * 在 Redis 中维护 "用户类型:用户ID" -> 所在节点 的映射，供跨节点消息路由使用
+ * 远程查询结果在本地缓存，并发的相同查询合并为一次 Redis 访问
+ * 登记 / 注销先记入本地待写表（同一会话只保留最后一次操作，短时间内的 上线→下线→上线 只写一次），
+ * 每 presence-flush-ms 以一次 Pipeline 写入 Redis，并以一条 Pub/Sub 消息通知其它节点
+ */
+@Slf4j
+@Service
+public class PresenceService {
+
+    // Redis 键名命名空间
+    private static final String PRESENCE_KEY_PREFIX = "im:presence:"; // 会话所在节点 (String)
+    private static final String NODES_KEY = "im:nodes"; // 存活节点心跳 (ZSet，score 为最近心跳时间)
+    private static final String PRESENCE_CHANGED_CHANNEL = "im:presence:changed"; // 会话迁移通知 (Pub/Sub，逗号分隔的会话列表)
+
+    /**
+     * 值与本节点一致时才删除，避免误删用户在其它节点上的新会话
+     */
+    private static final RedisScript<Long> UNREGISTER_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end return 0",
+            Long.class);
+
+    /**
+     * 缓存中表示“不在线”的占位值（Caffeine 不缓存 null）
+     */
+    private static final String OFFLINE = "";
+
+    private final StringRedisTemplate redisTemplate;
+    private final String nodeId;
+    private final long nodeTimeoutMillis;
+    private final AsyncLoadingCache<String, String> locationCache;
+    private volatile Set<String> aliveNodes = Collections.emptySet();
+    /**
+     * 待写入 Redis 的会话位置变更："用户类型:用户ID" -> true 登记 / false 注销
+     */
+    private final Map<String, Boolean> pendingWrites = new ConcurrentHashMap<>();
+    private final DistributionSummary flushSizeSummary;
+    private final Timer flushTimer;
+
+    public PresenceService(StringRedisTemplate redisTemplate, BusinessExecutor businessExecutor,
+                           RedisMessageListenerContainer listenerContainer, MeterRegistry meterRegistry,
+                           @Value("${netty.websocket.node-id:}") String nodeId,
+                           @Value("${netty.websocket.cluster.node-timeout-ms:15000}") long nodeTimeoutMillis,
+                           @Value("${netty.websocket.cluster.location-cache-size:100000}") long cacheSize,
+                           @Value("${netty.websocket.cluster.location-cache-ttl-ms:3000}") long cacheTtlMillis) {
+        this.redisTemplate = redisTemplate;
+        this.nodeId = nodeId.isEmpty() ? defaultNodeId() : nodeId;
+        this.nodeTimeoutMillis = nodeTimeoutMillis;
+        this.locationCache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTtlMillis, TimeUnit.MILLISECONDS)
+                .executor(businessExecutor.asExecutor())
+                .buildAsync(this::loadLocation);
+        this.flushSizeSummary = DistributionSummary.builder("im.presence.flush.size")
+                .description("每次批量写入的会话位置变更数").register(meterRegistry);
+        this.flushTimer = Timer.builder("im.redis.latency").tag("op", "presenceFlush")
+                .description("客服调度的 Redis 调用耗时").register(meterRegistry);
+
+        // 其它节点有会话上线时，使本地缓存中对应条目失效
+        listenerContainer.addMessageListener((message, pattern) ->
+                        locationCache.synchronous().invalidateAll(Arrays.asList(
+                                new String(message.getBody(), StandardCharsets.UTF_8).split(","))),
+                new ChannelTopic(PRESENCE_CHANGED_CHANNEL));
+        heartbeat();
+        log.info("集群节点 {} 已加入", this.nodeId);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 登记会话位于本节点（只记入待写表，随下一次批量写入生效）
+     */
+    public void register(Integer userType, Long id) {
+        pendingWrites.put(userType + ":" + id, Boolean.TRUE);
+    }
+
+    /**
+     * 注销本节点上的会话（只记入待写表，随下一次批量写入生效）
+     */
+    public void unregister(Integer userType, Long id) {
+        pendingWrites.put(userType + ":" + id, Boolean.FALSE);
+    }
+
+    /**
+     * 批量注销本节点上的会话（Pipeline，一次往返），用于节点排空
+     * 这些会话尚未写入的变更一并丢弃
+     *
+     * @param sessions "用户类型:用户ID"
+     */
+    public void unregisterAll(Collection<String> sessions) {
+        if (sessions.isEmpty()) {
+            return;
+        }
+        for (String session : sessions) {
+            pendingWrites.remove(session);
+        }
+        String script = UNREGISTER_SCRIPT.getScriptAsString();
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String session : sessions) {
+                conn.eval(script, ReturnType.INTEGER, 1, PRESENCE_KEY_PREFIX + session, nodeId);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 把待写表中的变更以一次 Pipeline 写入 Redis：登记为 SET，注销为“值仍为本节点才删除”，
+     * 本批登记的会话合并为一条 Pub/Sub 通知；写入失败的变更放回待写表（期间更新的操作优先）
+     */
+    @Scheduled(fixedDelayString = "${netty.websocket.cluster.presence-flush-ms:10}")
+    public void flush() {
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+        Map<String, Boolean> batch = new HashMap<>();
+        for (String session : pendingWrites.keySet()) {
+            Boolean online = pendingWrites.remove(session);
+            if (online != null) {
+                batch.put(session, online);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<String> registered = new ArrayList<>();
+        String script = UNREGISTER_SCRIPT.getScriptAsString();
+        try {
+            flushTimer.record(() -> redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Map.Entry<String, Boolean> entry : batch.entrySet()) {
+                    if (entry.getValue()) {
+                        conn.set(PRESENCE_KEY_PREFIX + entry.getKey(), nodeId);
+                        registered.add(entry.getKey());
+                    } else {
+                        conn.eval(script, ReturnType.INTEGER, 1, PRESENCE_KEY_PREFIX + entry.getKey(), nodeId);
+                    }
+                }
+                if (!registered.isEmpty()) {
+                    conn.publish(PRESENCE_CHANGED_CHANNEL, String.join(",", registered));
+                }
+                return null;
+            }));
+            flushSizeSummary.record(batch.size());
+        } catch (Exception e) {
+            batch.forEach(pendingWrites::putIfAbsent);
+            log.warn("批量写入 {} 个会话位置失败，稍后重试", batch.size(), e);
+        }
+    }
+
+    /**
+     * 会话位置的 Redis 键，供在同一批脚本中检查会话是否在线
+     */
+    static String presenceKey(Integer userType, Long id) {
+        return PRESENCE_KEY_PREFIX + userType + ":" + id;
+    }
+
+    /**
+     * 查询会话所在节点（优先命中本地缓存）
+     *
+     * @return 所在的存活节点 ID；不在线或所在节点已失联时为 null
+     */
+    public CompletableFuture<String> locate(Integer userType, Long id) {
+        return locationCache.get(userType + ":" + id).thenApply(this::aliveOrNull);
+    }
+
+    /**
+     * 绕过本地缓存直接查询 Redis（阻塞调用），用于缓存结果已过期的二次路由
+     */
+    public String locateNow(Integer userType, Long id) {
+        return aliveOrNull(loadLocation(userType + ":" + id));
+    }
+
+    private String loadLocation(String key) {
+        String node = redisTemplate.opsForValue().get(PRESENCE_KEY_PREFIX + key);
+        return node == null ? OFFLINE : node;
+    }
+
+    private String aliveOrNull(String node) {
+        return OFFLINE.equals(node) || !aliveNodes.contains(node) ? null : node;
+    }
+
+    /**
+     * 节点心跳：上报本节点存活，并刷新存活节点列表
+     */
+    @Scheduled(fixedDelayString = "${netty.websocket.cluster.heartbeat-ms:5000}")
+    public void heartbeat() {
+        try {
+            long now = System.currentTimeMillis();
+            redisTemplate.opsForZSet().add(NODES_KEY, nodeId, now);
+            Set<String> nodes = redisTemplate.opsForZSet().rangeByScore(NODES_KEY, now - nodeTimeoutMillis, Double.MAX_VALUE);
+            aliveNodes = nodes == null ? Collections.singleton(nodeId) : new HashSet<>(nodes);
+        } catch (Exception e) {
+            log.warn("节点心跳上报失败", e);
+        }
+    }
+
+    @PreDestroy
+    public void leave() {
+        flush();
+        redisTemplate.opsForZSet().remove(NODES_KEY, nodeId);
+        log.info("集群节点 {} 已退出", nodeId);
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "unknown";
+        }
+        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        return host + "-" + pid + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,89 @@
+package com.webim.service;
+
+import com.webim.netty.protocol.QueueFrame;
+import com.webim.netty.protocol.SystemFrame;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 排队位置推送
+ * 记录本节点上正在排队的用户，定期批量查询其排队位置并推送 QUEUE 帧
+ */
+@Slf4j
+@Service
+public class QueueNotifier {
+
+    private final AgentService agentService;
+    private final ClusterMessageBus clusterMessageBus;
+
+    /**
+     * 本节点正在排队的用户 ID
+     */
+    private final Set<Long> waitingUsers = ConcurrentHashMap.newKeySet();
+
+    public QueueNotifier(AgentService agentService, ClusterMessageBus clusterMessageBus) {
+        this.agentService = agentService;
+        this.clusterMessageBus = clusterMessageBus;
+    }
+
+    /**
+     * 用户进入排队，立即推送一次当前位置
+     */
+    public void enqueue(Long userId, int position) {
+        waitingUsers.add(userId);
+        clusterMessageBus.send(1, userId, queueFrame(position));
+    }
+
+    /**
+     * 排队用户已分配到客服（用户可能连接在其它节点），推送分配结果
+     */
+    public void assigned(Long userId, Long agentId) {
+        waitingUsers.remove(userId);
+        clusterMessageBus.send(1, userId, new SystemFrame("排队结束，为您分配了客服: " + agentId, agentId));
+    }
+
+    /**
+     * 用户已分配客服或已离开
+     */
+    public void remove(Long userId) {
+        waitingUsers.remove(userId);
+    }
+
+    /**
+     * 定期推送排队位置；已不在 Redis 队列中的用户（已被其它节点分配）从本地集合移除
+     */
+    @Scheduled(fixedDelayString = "${webim.agent.queue-notify-interval-ms:10000}")
+    public void notifyPositions() {
+        if (waitingUsers.isEmpty()) {
+            return;
+        }
+        List<Long> userIds = new ArrayList<>(waitingUsers);
+        try {
+            Map<Long, Integer> positions = agentService.queuePositions(userIds);
+            for (Long userId : userIds) {
+                Integer position = positions.get(userId);
+                if (position == null) {
+                    waitingUsers.remove(userId);
+                } else {
+                    clusterMessageBus.send(1, userId, queueFrame(position));
+                }
+            }
+        } catch (Exception e) {
+            log.warn("推送排队位置失败", e);
+        }
+    }
+
+    private static QueueFrame queueFrame(int position) {
+        QueueFrame frame = new QueueFrame();
+        frame.setPosition(position);
+        frame.setContent("当前客服繁忙，您前面还有 " + (position - 1) + " 人在排队");
+        return frame;
+    }
+}
@@ -0,0 +1,22 @@
+package com.webim.service;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+
+/**
+ * 加载 classpath:lua/ 下的 Redis Lua 脚本
+ */
+final class RedisScripts {
+
+    private RedisScripts() {
+    }
+
+    static <T> RedisScript<T> load(String name, Class<T> resultType) {
+        DefaultRedisScript<T> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/" + name)));
+        script.setResultType(resultType);
+        return script;
+    }
+}
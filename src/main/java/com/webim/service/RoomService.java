@@ -0,0 +1,184 @@
+package com.webim.service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.webim.netty.BusinessExecutor;
+import com.webim.netty.RoomChannels;
+import com.webim.netty.protocol.JsonFrameCodec;
+import com.webim.netty.protocol.ServerFrame;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 房间（群组）服务
+ * 1. 成员关系以会话身份（"用户类型:用户ID"）保存在 Redis，断线重连后自动恢复，与所在节点无关
+ * 2. 广播时先扇出给本节点的成员，再经 Redis Pub/Sub 频道 im:room 通知其它节点各自扇出
+ * 3. 内置房间无需加入：all 为全部在线会话（公告），agents 为全部在线客服
+ * 4. monitor:{客服ID} 为班长监听房间，该客服收发的每条消息都会抄送一份；
+ *    房间是否有成员在本地短时缓存（过期后一次 EXISTS），无人监听时不发布；
+ *    只有 webim.room.supervisors 中配置的班长（客服 ID）可以加入
+ */
+@Slf4j
+@Service
+public class RoomService {
+
+    public static final String ALL = "all";
+    public static final String AGENTS = "agents";
+    public static final String MONITOR_PREFIX = "monitor:";
+
+    // Redis 键名命名空间
+    private static final String ROOM_KEY_PREFIX = "im:room:"; // 房间成员 (Set: 用户类型:用户ID)
+    private static final String SESSION_ROOMS_KEY_PREFIX = "im:session-rooms:"; // 会话加入的房间 (Set)
+    private static final String ROOM_CHANNEL = "im:room"; // 房间消息广播 (Pub/Sub)
+
+    private static final Pattern ROOM_NAME = Pattern.compile("[A-Za-z0-9_:\\-]{1,64}");
+
+    private final StringRedisTemplate redisTemplate;
+    private final RoomChannels roomChannels;
+    private final String nodeId;
+    private final Executor executor;
+    private final Set<Long> supervisors;
+    /**
+     * 房间在集群内是否有成员（只用于监听房间的抄送判断）
+     */
+    private final AsyncLoadingCache<String, Boolean> activeCache;
+
+    public RoomService(StringRedisTemplate redisTemplate, RoomChannels roomChannels, PresenceService presenceService,
+                       BusinessExecutor businessExecutor, RedisMessageListenerContainer listenerContainer,
+                       @Value("${webim.room.active-cache-ttl-ms:3000}") long activeCacheTtlMillis,
+                       @Value("${webim.room.supervisors:}") String supervisors) {
+        this.redisTemplate = redisTemplate;
+        this.roomChannels = roomChannels;
+        this.nodeId = presenceService.getNodeId();
+        this.executor = businessExecutor.asExecutor();
+        this.supervisors = Arrays.stream(supervisors.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .map(Long::valueOf)
+                .collect(Collectors.toSet());
+        this.activeCache = Caffeine.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(activeCacheTtlMillis, TimeUnit.MILLISECONDS)
+                .executor(executor)
+                .buildAsync(room -> Boolean.TRUE.equals(redisTemplate.hasKey(ROOM_KEY_PREFIX + room)));
+        listenerContainer.addMessageListener((message, pattern) ->
+                        onRemoteFrame(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(ROOM_CHANNEL));
+    }
+
+    public static boolean isValidName(String room) {
+        return room != null && ROOM_NAME.matcher(room).matches();
+    }
+
+    public static boolean isBuiltIn(String room) {
+        return ALL.equals(room) || AGENTS.equals(room);
+    }
+
+    public static boolean isMonitor(String room) {
+        return room.startsWith(MONITOR_PREFIX);
+    }
+
+    /**
+     * 是否为班长（可加入监听房间、发送系统广播）
+     */
+    public boolean isSupervisor(Integer userType, Long id) {
+        return Integer.valueOf(2).equals(userType) && supervisors.contains(id);
+    }
+
+    /**
+     * 加入房间（阻塞调用，需在业务线程执行）
+     */
+    public void join(String room, Integer userType, Long id) {
+        String member = userType + ":" + id;
+        redisTemplate.opsForSet().add(ROOM_KEY_PREFIX + room, member);
+        redisTemplate.opsForSet().add(SESSION_ROOMS_KEY_PREFIX + member, room);
+        activeCache.synchronous().put(room, true);
+    }
+
+    /**
+     * 退出房间（阻塞调用，需在业务线程执行）
+     */
+    public void leave(String room, Integer userType, Long id) {
+        String member = userType + ":" + id;
+        redisTemplate.opsForSet().remove(ROOM_KEY_PREFIX + room, member);
+        redisTemplate.opsForSet().remove(SESSION_ROOMS_KEY_PREFIX + member, room);
+        activeCache.synchronous().invalidate(room);
+    }
+
+    /**
+     * 会话已加入的房间（阻塞调用，需在业务线程执行）
+     */
+    public Set<String> roomsOf(Integer userType, Long id) {
+        Set<String> rooms = redisTemplate.opsForSet().members(SESSION_ROOMS_KEY_PREFIX + userType + ":" + id);
+        return rooms == null ? Collections.emptySet() : rooms;
+    }
+
+    /**
+     * 房间成员（阻塞调用）
+     */
+    public Set<String> members(String room) {
+        Set<String> members = redisTemplate.opsForSet().members(ROOM_KEY_PREFIX + room);
+        return members == null ? Collections.emptySet() : members;
+    }
+
+    /**
+     * 向房间广播（任意线程可调用，不阻塞）：本节点直接扇出，其它节点经 Pub/Sub 扇出
+     *
+     * @return 本节点接收的连接数
+     */
+    public int publish(String room, ServerFrame frame) {
+        int local = roomChannels.fanOut(room, frame);
+        JSONObject envelope = new JSONObject();
+        envelope.put("origin", nodeId);
+        envelope.put("room", room);
+        envelope.put("frame", JsonFrameCodec.toJson(frame));
+        String body = envelope.toJSONString();
+        try {
+            executor.execute(() -> {
+                try {
+                    redisTemplate.convertAndSend(ROOM_CHANNEL, body);
+                } catch (Exception e) {
+                    log.warn("房间 {} 跨节点广播失败", room, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("业务线程池繁忙，房间 {} 的广播未发往其它节点", room);
+        }
+        return local;
+    }
+
+    /**
+     * 房间在集群内有成员时才广播（用于监听抄送，绝大多数客服无人监听）
+     */
+    public void publishIfActive(String room, ServerFrame frame) {
+        activeCache.get(room).thenAccept(active -> {
+            if (active) {
+                publish(room, frame);
+            }
+        });
+    }
+
+    private void onRemoteFrame(String body) {
+        JSONObject envelope = JSON.parseObject(body);
+        if (nodeId.equals(envelope.getString("origin"))) {
+            return; // 本节点发出的广播已直接扇出
+        }
+        roomChannels.fanOut(envelope.getString("room"), JsonFrameCodec.parseServerFrame(envelope.getString("frame")));
+    }
+}
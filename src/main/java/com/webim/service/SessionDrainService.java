@@ -0,0 +1,130 @@
+package com.webim.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 节点排空时的会话保留与延迟清理
+ * 1. 排空的节点不再对每个断开的连接执行下线清理，而是把全部会话一次写入 im:session:draining
+ *    （ZSet，score 为保留截止时间）；客服负载与用户的客服绑定（{agent}:bindings）原样保留，
+ *    用户重连到任意节点后直接回到原客服，无需重新分配
+ * 2. 会话重新认证时从集合中移除
+ * 3. 各节点定期取出已过保留期的会话，ZREM 成功的节点负责清理（多节点不会重复处理）；
+ *    仍未重新上线的会话按正常断开处理：客服下线，用户释放客服负载
+ */
+@Slf4j
+@Service
+public class SessionDrainService {
+
+    private static final String DRAINING_KEY = "im:session:draining"; // 排空保留中的会话 (ZSet，score 为保留截止时间)
+    private static final int REAP_BATCH_SIZE = 500;
+
+    private final StringRedisTemplate redisTemplate;
+    private final PresenceService presenceService;
+    private final AgentService agentService;
+    private final QueueNotifier queueNotifier;
+    private final long graceMillis;
+
+    public SessionDrainService(StringRedisTemplate redisTemplate, PresenceService presenceService,
+                               AgentService agentService, QueueNotifier queueNotifier,
+                               @Value("${webim.session.drain-grace-ms:60000}") long graceMillis) {
+        this.redisTemplate = redisTemplate;
+        this.presenceService = presenceService;
+        this.agentService = agentService;
+        this.queueNotifier = queueNotifier;
+        this.graceMillis = graceMillis;
+    }
+
+    /**
+     * 保留排空节点上的会话：一次 ZADD 登记全部会话，一次 Pipeline 注销其在线位置
+     *
+     * @param sessions "用户类型:用户ID"
+     */
+    public void park(Collection<String> sessions) {
+        if (sessions.isEmpty()) {
+            return;
+        }
+        double deadline = System.currentTimeMillis() + graceMillis;
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(sessions.size() * 2);
+        for (String session : sessions) {
+            tuples.add(new DefaultTypedTuple<>(session, deadline));
+        }
+        redisTemplate.opsForZSet().add(DRAINING_KEY, tuples);
+        presenceService.unregisterAll(sessions);
+        log.info("节点排空：保留 {} 个会话的客服绑定 {} 秒", sessions.size(), graceMillis / 1000);
+    }
+
+    /**
+     * 会话已重新认证（阻塞调用，需在业务线程执行）
+     */
+    public void resume(Integer userType, Long id) {
+        redisTemplate.opsForZSet().remove(DRAINING_KEY, userType + ":" + id);
+    }
+
+    /**
+     * 清理已过保留期且仍未重新上线的会话
+     */
+    @Scheduled(fixedDelayString = "${webim.session.reap-interval-ms:5000}")
+    public void reap() {
+        try {
+            Set<String> expired = redisTemplate.opsForZSet().rangeByScore(DRAINING_KEY, 0,
+                    System.currentTimeMillis(), 0, REAP_BATCH_SIZE);
+            if (expired == null || expired.isEmpty()) {
+                return;
+            }
+            List<String> candidates = new ArrayList<>(expired);
+            List<Object> removed = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (String session : candidates) {
+                    conn.zRem(DRAINING_KEY, session);
+                }
+                return null;
+            });
+            int released = 0;
+            for (int i = 0; i < candidates.size(); i++) {
+                if (Long.valueOf(1L).equals(removed.get(i)) && release(candidates.get(i))) {
+                    released++;
+                }
+            }
+            if (released > 0) {
+                log.info("排空保留期已过，清理 {} 个未重新上线的会话", released);
+            }
+        } catch (Exception e) {
+            log.warn("清理排空保留的会话失败", e);
+        }
+    }
+
+    /**
+     * @return 会话未在任何节点重新上线、已执行下线清理时为 true
+     */
+    private boolean release(String session) {
+        int separator = session.indexOf(':');
+        int userType = Integer.parseInt(session.substring(0, separator));
+        Long id = Long.parseLong(session.substring(separator + 1));
+        if (presenceService.locateNow(userType, id) != null) {
+            return false;
+        }
+        if (userType == 2) {
+            agentService.agentOffline(id);
+        } else {
+            AgentService.Assignment dispatched = agentService.releaseAgent(id);
+            if (dispatched != null) {
+                queueNotifier.assigned(dispatched.getUserId(), dispatched.getAgentId());
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+package com.webim.service;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话凭证：WebSocket 认证成功后下发，HTTP 接口（图片上传等）凭它确认调用者身份
+ * 格式 "用户类型:用户ID:过期时间戳.HMAC-SHA256 签名"（均为 Base64URL），校验只需一次 HMAC，不访问 Redis；
+ * 集群内各节点需配置相同的 webim.ticket.secret，未配置时使用进程内随机密钥（仅单节点可用）
+ */
+@Slf4j
+@Service
+public class SessionTicketService {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String BEARER = "Bearer ";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+
+    public SessionTicketService(@Value("${webim.ticket.secret:}") String secret,
+                                @Value("${webim.ticket.ttl-seconds:43200}") long ttlSeconds) {
+        byte[] keyBytes;
+        if (secret.isEmpty()) {
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+            log.warn("未配置 webim.ticket.secret，会话凭证使用进程内随机密钥，其它节点无法校验");
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+    }
+
+    /**
+     * 为已认证的会话签发凭证
+     */
+    public Ticket issue(Integer userType, Long id) {
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        String payload = ENCODER.encodeToString((userType + ":" + id + ":" + expiresAt).getBytes(StandardCharsets.UTF_8));
+        return new Ticket(userType, id, expiresAt, payload + "." + ENCODER.encodeToString(sign(payload)));
+    }
+
+    /**
+     * 校验 Authorization 请求头（"Bearer 凭证"）
+     *
+     * @return 凭证无效或已过期时返回 null
+     */
+    public Ticket verifyHeader(String authorization) {
+        if (authorization == null || !authorization.regionMatches(true, 0, BEARER, 0, BEARER.length())) {
+            return null;
+        }
+        return verify(authorization.substring(BEARER.length()).trim());
+    }
+
+    /**
+     * @return 凭证无效或已过期时返回 null
+     */
+    public Ticket verify(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        String payload = token.substring(0, dot);
+        try {
+            if (!MessageDigest.isEqual(sign(payload), DECODER.decode(token.substring(dot + 1)))) {
+                return null;
+            }
+            String[] parts = new String(DECODER.decode(payload), StandardCharsets.UTF_8).split(":");
+            if (parts.length != 3) {
+                return null;
+            }
+            long expiresAt = Long.parseLong(parts[2]);
+            if (expiresAt < System.currentTimeMillis()) {
+                return null;
+            }
+            return new Ticket(Integer.valueOf(parts[0]), Long.valueOf(parts[1]), expiresAt, token);
+        } catch (IllegalArgumentException e) {
+            // Base64 或数字格式错误
+            return null;
+        }
+    }
+
+    private byte[] sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 已校验的凭证
+     */
+    @Getter
+    public static final class Ticket {
+        private final Integer userType; // 1-用户 2-客服
+        private final Long id;
+        private final long expiresAt;
+        private final String token;
+
+        Ticket(Integer userType, Long id, long expiresAt, String token) {
+            this.userType = userType;
+            this.id = id;
+            this.expiresAt = expiresAt;
+            this.token = token;
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package com.webim.store;
+
+import com.webim.entity.Message;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地磁盘追加写日志消息存储（webim.store.type=log）
+ * 1. 消息顺序追加到内存映射的分段文件，写满后滚动到新分段，写入只是一次内存拷贝
+ * 2. 每条记录带同一会话上一条记录的地址，会话内按时间倒序翻页只需沿链回溯，不扫描其它会话的记录
+ * 3. 每个会话在内存中保留链头及每 index-interval 条一块的稀疏索引，按游标翻页时跳过整块 ID 都不小于游标的记录
+ * <p>
+ * 链的顺序是写入顺序，与 ID 顺序不一定一致（多节点生成 ID、批量写入失败后逐条重试都会使较早的消息较晚写入），
+ * 翻页时保留 ID 最大的 limit 条候选，直到索引给出的“链上更早记录的 ID 上界”小于候选中的最小 ID 才停止；
+ * 写入顺序与 ID 顺序一致时（通常情况）与直接沿链取 limit 条的读取量相同
+ * 4. 刷盘策略：always（每批写入后 force）、interval（定时 force）、never（交给操作系统）
+ * 5. 超过保留天数的分段整体删除；日志只追加不修改，压缩即回收过期分段及其索引
+ * <p>
+ * 日志只在本机，适用于单节点部署或按会话固定路由的集群；启动时扫描全部分段重建索引
+ * 记录地址为 (分段序号 << 32 | 分段内偏移)
+ * <p>
+ * 读写耗时记录为 im.store.log.latency（MySQL 后端的对应指标为 im.db.latency）
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "webim.store.type", havingValue = "log")
+public class LogMessageStore implements MessageStore {
+
+    private static final String SUFFIX = ".log";
+
+    enum FsyncPolicy {
+        ALWAYS, INTERVAL, NEVER
+    }
+
+    private final Path dir;
+    private final int segmentSize;
+    private final int indexInterval;
+    private final FsyncPolicy fsyncPolicy;
+    private final long retentionMillis;
+
+    private final ConcurrentSkipListMap<Integer, LogSegment> segments = new ConcurrentSkipListMap<>();
+    private final Map<String, ConversationIndex> conversations = new ConcurrentHashMap<>();
+    private volatile LogSegment active;
+    /**
+     * 自上次刷盘以来是否有新写入
+     */
+    private volatile boolean dirty;
+
+    private final Timer appendTimer;
+    private final Timer historyTimer;
+    private final Timer byIdsTimer;
+
+    public LogMessageStore(MeterRegistry meterRegistry,
+                           @Value("${webim.store.log.dir:${user.dir}/data/messages}") String dir,
+                           @Value("${webim.store.log.segment-size-mb:64}") int segmentSizeMb,
+                           @Value("${webim.store.log.index-interval:32}") int indexInterval,
+                           @Value("${webim.store.log.fsync:interval}") String fsyncPolicy,
+                           @Value("${webim.store.log.retention-days:30}") int retentionDays) throws IOException {
+        this.dir = Paths.get(dir).toAbsolutePath().normalize();
+        this.segmentSize = segmentSizeMb * 1024 * 1024;
+        this.indexInterval = Math.max(1, indexInterval);
+        this.fsyncPolicy = FsyncPolicy.valueOf(fsyncPolicy.toUpperCase(Locale.ROOT));
+        this.retentionMillis = TimeUnit.DAYS.toMillis(retentionDays);
+        Files.createDirectories(this.dir);
+        recover();
+        this.appendTimer = timer("append", meterRegistry);
+        this.historyTimer = timer("findHistory", meterRegistry);
+        this.byIdsTimer = timer("findByIds", meterRegistry);
+        Gauge.builder("im.store.log.segments", segments, Map::size)
+                .description("消息日志分段数").register(meterRegistry);
+        Gauge.builder("im.store.log.conversations", conversations, Map::size)
+                .description("消息日志中有索引的会话数").register(meterRegistry);
+    }
+
+    private static Timer timer(String op, MeterRegistry meterRegistry) {
+        return Timer.builder("im.store.log.latency").tag("op", op)
+                .description("消息日志读写耗时").register(meterRegistry);
+    }
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparing(Path::toString));
+        long start = System.currentTimeMillis();
+        long records = 0;
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            int index = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+            LogSegment segment = LogSegment.open(file, index, segmentSize, indexInterval);
+            long[] count = {0};
+            boolean truncated = segment.recover((record, position) -> {
+                indexRecord(record.message, address(index, position));
+                count[0]++;
+            });
+            if (truncated) {
+                log.warn("消息日志分段 {} 尾部存在未完整写入的记录，已截断", file);
+            }
+            segments.put(index, segment);
+            records += count[0];
+        }
+        active = segments.isEmpty() ? roll(0) : segments.lastEntry().getValue();
+        log.info("消息日志已加载: {}，分段 {} 个，消息 {} 条，会话 {} 个，耗时 {}ms，刷盘策略 {}",
+                dir, segments.size(), records, conversations.size(), System.currentTimeMillis() - start, fsyncPolicy);
+    }
+
+    @Override
+    public synchronized void append(List<Message> messages) {
+        long start = System.nanoTime();
+        try {
+            doAppend(messages);
+        } finally {
+            appendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void doAppend(List<Message> messages) {
+        // 先整批编码校验，保证失败时整批都未写入（调用方会逐条重试）
+        for (Message message : messages) {
+            if (message.getId() == null) {
+                throw new IllegalArgumentException("消息 ID 未分配: " + message.getConversationId());
+            }
+        }
+        // 批内按 ID 顺序写入，使会话链尽量与 ID 顺序一致
+        messages = new ArrayList<>(messages);
+        messages.sort(Comparator.comparing(Message::getId));
+        byte[][] conversationIds = new byte[messages.size()][];
+        byte[][] contents = new byte[messages.size()][];
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            conversationIds[i] = message.getConversationId().getBytes(StandardCharsets.UTF_8);
+            contents[i] = message.getContent() == null ? null : message.getContent().getBytes(StandardCharsets.UTF_8);
+            if (conversationIds[i].length > Short.MAX_VALUE
+                    || LogSegment.recordSize(conversationIds[i], contents[i]) > segmentSize) {
+                throw new IllegalArgumentException("消息过大，超过分段大小: " + message.getConversationId());
+            }
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            byte[] conversationId = conversationIds[i];
+            byte[] content = contents[i];
+            ConversationIndex index = conversations.get(message.getConversationId());
+            long prevAddress = index == null ? -1 : index.headAddress();
+            int position = active.append(message, prevAddress, conversationId, content);
+            if (position < 0) {
+                rollActive();
+                position = active.append(message, prevAddress, conversationId, content);
+            }
+            indexRecord(message, address(active.getIndex(), position));
+        }
+        dirty = true;
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            active.force();
+            dirty = false;
+        }
+    }
+
+    @Override
+    public List<Message> findHistory(String conversationId, Long before, int limit) {
+        return historyTimer.record(() -> doFindHistory(conversationId, before, limit));
+    }
+
+    private List<Message> doFindHistory(String conversationId, Long before, int limit) {
+        ConversationIndex index = conversations.get(conversationId);
+        if (index == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        // ID 最大的 limit 条候选，堆顶为其中最小的 ID
+        PriorityQueue<Message> page = new PriorityQueue<>(Math.min(limit, 256), Comparator.comparing(Message::getId));
+        long address = index.startAddress(before);
+        while (address >= 0) {
+            LogSegment segment = segments.get((int) (address >>> 32));
+            LogSegment.Record record = segment == null ? null : segment.read((int) address);
+            if (record == null) {
+                break; // 更早的记录所在分段已过期删除
+            }
+            long id = record.message.getId();
+            if (before == null || id < before) {
+                page.offer(record.message);
+                if (page.size() > limit) {
+                    page.poll();
+                }
+            }
+            if (page.size() == limit && index.olderBound(address, id) < page.peek().getId()) {
+                break; // 链上更早的记录都不会进入本页
+            }
+            address = record.prevAddress;
+        }
+        List<Message> result = new ArrayList<>(page);
+        result.sort(Comparator.comparing(Message::getId).reversed());
+        return result;
+    }
+
+    @Override
+    public List<Message> findByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return byIdsTimer.record(() -> doFindByIds(ids));
+    }
+
+    private List<Message> doFindByIds(List<Long> ids) {
+        List<Message> result = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            // 新消息更常被查询，从最新的分段往前找
+            for (LogSegment segment : segments.descendingMap().values()) {
+                int position = segment.find(id);
+                if (position >= 0) {
+                    LogSegment.Record record = segment.read(position);
+                    if (record != null) {
+                        result.add(record.message);
+                    }
+                    break;
+                }
+            }
+        }
+        result.sort(Comparator.comparing(Message::getId));
+        return result;
+    }
+
+    /**
+     * interval 策略下定时刷盘
+     */
+    @Scheduled(fixedDelayString = "${webim.store.log.fsync-interval-ms:1000}")
+    public void flush() {
+        if (fsyncPolicy == FsyncPolicy.INTERVAL && dirty) {
+            dirty = false;
+            active.force();
+        }
+    }
+
+    /**
+     * 删除超过保留期的分段（当前写入分段除外），并清理指向这些分段的会话索引
+     */
+    @Scheduled(fixedDelayString = "${webim.store.log.retention-check-ms:3600000}")
+    public void compact() {
+        if (retentionMillis <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        int removed = 0;
+        for (LogSegment segment : segments.values()) {
+            // 分段按时间顺序写入，遇到第一个未过期的分段即可停止
+            if (segment == active || segment.getLastCreateTime() >= cutoff) {
+                break;
+            }
+            segments.remove(segment.getIndex());
+            try {
+                segment.delete();
+            } catch (IOException e) {
+                log.warn("删除过期消息日志分段失败: {}", segment.getPath(), e);
+            }
+            removed++;
+        }
+        if (removed == 0) {
+            return;
+        }
+        int firstSegment = segments.firstKey();
+        Iterator<ConversationIndex> iterator = conversations.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().prune(firstSegment)) {
+                iterator.remove();
+            }
+        }
+        log.info("已删除过期消息日志分段 {} 个，剩余 {} 个，会话 {} 个", removed, segments.size(), conversations.size());
+    }
+
+    @PreDestroy
+    public void close() {
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+            active.force();
+        }
+    }
+
+    private void indexRecord(Message message, long address) {
+        conversations.computeIfAbsent(message.getConversationId(), k -> new ConversationIndex())
+                .add(message.getId(), address, indexInterval);
+    }
+
+    private void rollActive() {
+        LogSegment previous = active;
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+            previous.force();
+        }
+        try {
+            active = roll(previous.getIndex() + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("创建消息日志分段失败", e);
+        }
+        log.info("消息日志滚动到新分段: {}", active.getPath());
+    }
+
+    private LogSegment roll(int index) throws IOException {
+        Path file = dir.resolve(String.format("%010d%s", index, SUFFIX));
+        LogSegment segment = LogSegment.open(file, index, segmentSize, indexInterval);
+        segments.put(index, segment);
+        return segment;
+    }
+
+    private static long address(int segment, int position) {
+        return ((long) segment << 32) | position;
+    }
+
+    /**
+     * 单个会话的索引：链头地址 + 按写入顺序每 interval 条记录一块的稀疏块表
+     * 每块记录首尾地址、截至该块的最大 ID（前缀最大值）、从该块到链头的最小 ID（后缀最小值），
+     * 以及块内每条记录写入时是否都大于此前该会话的全部 ID（有序块）
+     */
+    private static final class ConversationIndex {
+        private long headAddress = -1;
+        private long[] firstAddresses = new long[4];
+        private long[] lastAddresses = new long[4];
+        private long[] runningMax = new long[4];
+        private long[] suffixMin = new long[4];
+        private boolean[] ordered = new boolean[4];
+        /**
+         * 已随过期分段清理的块中的最大 ID
+         */
+        private long prunedMax = Long.MIN_VALUE;
+        private int size;
+        private int count;
+
+        synchronized long headAddress() {
+            return headAddress;
+        }
+
+        synchronized void add(long id, long address, int interval) {
+            headAddress = address;
+            boolean inOrder = size == 0 || id > runningMax[size - 1];
+            if (count++ % interval == 0) {
+                if (size == firstAddresses.length) {
+                    int newLength = size * 2;
+                    firstAddresses = Arrays.copyOf(firstAddresses, newLength);
+                    lastAddresses = Arrays.copyOf(lastAddresses, newLength);
+                    runningMax = Arrays.copyOf(runningMax, newLength);
+                    suffixMin = Arrays.copyOf(suffixMin, newLength);
+                    ordered = Arrays.copyOf(ordered, newLength);
+                }
+                firstAddresses[size] = address;
+                runningMax[size] = size == 0 ? id : Math.max(runningMax[size - 1], id);
+                suffixMin[size] = id;
+                ordered[size] = true;
+                size++;
+            } else {
+                runningMax[size - 1] = Math.max(runningMax[size - 1], id);
+                suffixMin[size - 1] = Math.min(suffixMin[size - 1], id);
+            }
+            lastAddresses[size - 1] = address;
+            if (!inOrder) {
+                ordered[size - 1] = false;
+            }
+            // 较晚写入的较小 ID 拉低此前各块的后缀最小值；顺序写入时不进入循环
+            for (int i = size - 2; i >= 0 && suffixMin[i] > id; i--) {
+                suffixMin[i] = id;
+            }
+        }
+
+        /**
+         * 翻页起点：跳过末尾 ID 全都不小于游标的块，从其前一块的最后一条记录开始；没有可跳过的块时从链头开始
+         *
+         * @return 所有记录的 ID 都不小于游标时返回 -1
+         */
+        synchronized long startAddress(Long before) {
+            if (before == null) {
+                return headAddress;
+            }
+            // suffixMin 单调不减：找第一个整块及其后都不小于游标的块
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (suffixMin[mid] < before) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            if (low == size) {
+                return headAddress;
+            }
+            return low == 0 ? -1 : lastAddresses[low - 1];
+        }
+
+        /**
+         * 链上比 address 处记录（ID 为 id）更早写入的记录的 ID 上界
+         * 所在块有序时即 id - 1；否则为截至所在块的最大 ID，位于块首时为截至前一块的最大 ID
+         */
+        synchronized long olderBound(long address, long id) {
+            int low = 0;
+            int high = size - 1;
+            // 最后一个首地址不大于 address 的块
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (firstAddresses[mid] <= address) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            int block = high;
+            if (block < 0) {
+                return Long.MAX_VALUE; // 所在块的索引已随过期分段清理，无法判断
+            }
+            if (ordered[block]) {
+                return id - 1;
+            }
+            if (address == firstAddresses[block]) {
+                return block == 0 ? prunedMax : runningMax[block - 1];
+            }
+            return runningMax[block];
+        }
+
+        /**
+         * 删除首地址位于已删除分段的块
+         *
+         * @return 整个会话都已过期时返回 true
+         */
+        synchronized boolean prune(int firstSegment) {
+            if ((int) (headAddress >>> 32) < firstSegment) {
+                return true;
+            }
+            int from = 0;
+            while (from < size && (int) (firstAddresses[from] >>> 32) < firstSegment) {
+                from++;
+            }
+            if (from > 0) {
+                prunedMax = runningMax[from - 1];
+                int newLength = Math.max(size, from + 4);
+                firstAddresses = Arrays.copyOfRange(firstAddresses, from, newLength);
+                lastAddresses = Arrays.copyOfRange(lastAddresses, from, newLength);
+                runningMax = Arrays.copyOfRange(runningMax, from, newLength);
+                suffixMin = Arrays.copyOfRange(suffixMin, from, newLength);
+                ordered = Arrays.copyOfRange(ordered, from, newLength);
+                size -= from;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.webim.store;
+
+import com.webim.entity.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.zip.CRC32;
+
+/**
+ * 消息日志的一个分段文件
+ * 文件创建时按固定大小预分配并整体内存映射，记录顺序追加，未写入部分全为 0
+ * <p>
+ * 记录格式（大端）：
+ * <pre>
+ * int  length       负载长度，0 表示分段结束
+ * int  crc          负载的 CRC32
+ * ---- 负载 ----
+ * long id
+ * long prevAddress  同一会话上一条记录的地址，-1 表示没有
+ * long createTime   毫秒，-1 表示 null
+ * long fromId
+ * long toId
+ * byte fromType     -1 表示 null
+ * byte msgType      -1 表示 null
+ * short            会话 ID 的 UTF-8 长度 + 内容
+ * int              消息内容的 UTF-8 长度（-1 表示 null）+ 内容
+ * </pre>
+ * 单线程追加；读取可与追加并发，只读取 writePosition 之前已发布的记录
+ */
+final class LogSegment {
+
+    static final int HEADER_SIZE = 8;
+    private static final int FIXED_PAYLOAD = 8 * 5 + 1 + 1 + 2 + 4;
+
+    private final int index;
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int indexInterval;
+
+    private volatile int writePosition;
+    private volatile long minId = Long.MAX_VALUE;
+    private volatile long maxId = Long.MIN_VALUE;
+    private volatile long lastCreateTime;
+
+    /**
+     * 稀疏 ID 索引：每 indexInterval 条记录为一个块，记录块起始位置及块内 ID 范围
+     * blockRunningMax 为截至该块的最大 ID（单调不减），用于二分定位起始块
+     */
+    private int[] blockPositions = new int[64];
+    private long[] blockMinIds = new long[64];
+    private long[] blockMaxIds = new long[64];
+    private long[] blockRunningMax = new long[64];
+    private int blockCount;
+    private int recordsInBlock;
+
+    private LogSegment(int index, Path path, MappedByteBuffer buffer, int indexInterval) {
+        this.index = index;
+        this.path = path;
+        this.buffer = buffer;
+        this.capacity = buffer.capacity();
+        this.indexInterval = indexInterval;
+    }
+
+    /**
+     * 打开（不存在时创建）分段文件；已存在的文件沿用其原有大小
+     */
+    static LogSegment open(Path path, int index, int capacity, int indexInterval) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = channel.size() > 0 ? channel.size() : capacity;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new LogSegment(index, path, buffer, indexInterval);
+        }
+    }
+
+    /**
+     * 一条记录的编码后长度
+     */
+    static int recordSize(byte[] conversationId, byte[] content) {
+        return HEADER_SIZE + FIXED_PAYLOAD + conversationId.length + (content == null ? 0 : content.length);
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getLastCreateTime() {
+        return lastCreateTime;
+    }
+
+    /**
+     * 追加一条记录
+     *
+     * @return 记录起始位置；剩余空间不足时返回 -1
+     */
+    int append(Message message, long prevAddress, byte[] conversationId, byte[] content) {
+        int size = recordSize(conversationId, content);
+        int position = writePosition;
+        if (size > capacity - position) {
+            return -1;
+        }
+        ByteBuffer out = buffer.duplicate();
+        out.position(position + HEADER_SIZE);
+        out.putLong(message.getId());
+        out.putLong(prevAddress);
+        out.putLong(message.getCreateTime() == null ? -1 : message.getCreateTime().getTime());
+        out.putLong(message.getFromId() == null ? 0 : message.getFromId());
+        out.putLong(message.getToId() == null ? 0 : message.getToId());
+        out.put(message.getFromType() == null ? -1 : message.getFromType().byteValue());
+        out.put(message.getMsgType() == null ? -1 : message.getMsgType().byteValue());
+        out.putShort((short) conversationId.length);
+        out.put(conversationId);
+        if (content == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(content.length);
+            out.put(content);
+        }
+        int payloadLength = size - HEADER_SIZE;
+        // 先写负载和校验和，最后写长度：崩溃时要么长度为 0，要么校验和不匹配
+        out.putInt(position + 4, crc(position + HEADER_SIZE, payloadLength));
+        out.putInt(position, payloadLength);
+        onRecord(message.getId(), message.getCreateTime() == null ? 0 : message.getCreateTime().getTime(), position);
+        writePosition = position + size;
+        return position;
+    }
+
+    /**
+     * 读取指定位置的记录
+     *
+     * @return 位置超出已写入范围时返回 null
+     */
+    Record read(int position) {
+        if (position < 0 || position >= writePosition) {
+            return null;
+        }
+        return decode(buffer.duplicate(), position);
+    }
+
+    /**
+     * 按 ID 查找记录位置
+     *
+     * @return 不存在时返回 -1
+     */
+    int find(long id) {
+        if (id < minId || id > maxId) {
+            return -1;
+        }
+        int[] positions;
+        long[] mins;
+        long[] maxs;
+        int count;
+        int from;
+        synchronized (this) {
+            positions = blockPositions;
+            mins = blockMinIds;
+            maxs = blockMaxIds;
+            count = blockCount;
+            // 第一个累计最大 ID 不小于目标的块，之前的块一定不包含目标
+            int low = 0;
+            int high = count - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (blockRunningMax[mid] < id) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            from = low;
+        }
+        int end = writePosition;
+        ByteBuffer in = buffer.duplicate();
+        for (int i = from; i < count; i++) {
+            if (id < mins[i] || id > maxs[i]) {
+                continue;
+            }
+            int limit = i + 1 < count ? positions[i + 1] : end;
+            for (int position = positions[i]; position < limit; ) {
+                int length = in.getInt(position);
+                if (length <= 0) {
+                    break;
+                }
+                if (in.getLong(position + HEADER_SIZE) == id) {
+                    return position;
+                }
+                position += HEADER_SIZE + length;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 启动时顺序扫描已有记录，重建索引并确定写入位置
+     * 遇到长度越界或校验和不匹配的记录（上次写入未完成）时截断，之后的内容清零
+     *
+     * @return 是否发生截断
+     */
+    boolean recover(RecordVisitor visitor) {
+        ByteBuffer in = buffer.duplicate();
+        int position = 0;
+        boolean truncated = false;
+        while (capacity - position >= HEADER_SIZE) {
+            int length = in.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            if (length < FIXED_PAYLOAD || length > capacity - position - HEADER_SIZE
+                    || in.getInt(position + 4) != crc(position + HEADER_SIZE, length)) {
+                truncated = true;
+                break;
+            }
+            Record record = decode(in, position);
+            onRecord(record.message.getId(), record.message.getCreateTime() == null
+                    ? 0 : record.message.getCreateTime().getTime(), position);
+            writePosition = position + HEADER_SIZE + length;
+            visitor.visit(record, position);
+            position += HEADER_SIZE + length;
+        }
+        if (truncated) {
+            ByteBuffer zero = buffer.duplicate();
+            zero.position(position);
+            while (zero.hasRemaining()) {
+                zero.put((byte) 0);
+            }
+        }
+        return truncated;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void delete() throws IOException {
+        // 映射在 GC 回收 buffer 后释放；Linux 下删除已映射的文件不影响正在进行的读取
+        Files.deleteIfExists(path);
+    }
+
+    private void onRecord(long id, long createTime, int position) {
+        synchronized (this) {
+            if (recordsInBlock == 0) {
+                if (blockCount == blockPositions.length) {
+                    int newLength = blockCount * 2;
+                    blockPositions = Arrays.copyOf(blockPositions, newLength);
+                    blockMinIds = Arrays.copyOf(blockMinIds, newLength);
+                    blockMaxIds = Arrays.copyOf(blockMaxIds, newLength);
+                    blockRunningMax = Arrays.copyOf(blockRunningMax, newLength);
+                }
+                blockPositions[blockCount] = position;
+                blockMinIds[blockCount] = id;
+                blockMaxIds[blockCount] = id;
+                blockRunningMax[blockCount] = blockCount == 0 ? id : Math.max(blockRunningMax[blockCount - 1], id);
+                blockCount++;
+            } else {
+                int last = blockCount - 1;
+                blockMinIds[last] = Math.min(blockMinIds[last], id);
+                blockMaxIds[last] = Math.max(blockMaxIds[last], id);
+                blockRunningMax[last] = Math.max(blockRunningMax[last], id);
+            }
+            recordsInBlock = (recordsInBlock + 1) % indexInterval;
+        }
+        minId = Math.min(minId, id);
+        maxId = Math.max(maxId, id);
+        lastCreateTime = Math.max(lastCreateTime, createTime);
+    }
+
+    private int crc(int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset).limit(offset + length);
+        CRC32 crc = new CRC32();
+        crc.update(slice);
+        return (int) crc.getValue();
+    }
+
+    private static Record decode(ByteBuffer in, int position) {
+        in.limit(in.capacity()).position(position + HEADER_SIZE);
+        Message message = new Message();
+        message.setId(in.getLong());
+        long prevAddress = in.getLong();
+        long createTime = in.getLong();
+        message.setCreateTime(createTime < 0 ? null : new Date(createTime));
+        message.setFromId(in.getLong());
+        message.setToId(in.getLong());
+        byte fromType = in.get();
+        message.setFromType(fromType < 0 ? null : (int) fromType);
+        byte msgType = in.get();
+        message.setMsgType(msgType < 0 ? null : (int) msgType);
+        message.setConversationId(readString(in, in.getShort()));
+        message.setContent(readString(in, in.getInt()));
+        return new Record(message, prevAddress);
+    }
+
+    private static String readString(ByteBuffer in, int length) {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 解码后的记录
+     */
+    static final class Record {
+        final Message message;
+        final long prevAddress;
+
+        Record(Message message, long prevAddress) {
+            this.message = message;
+            this.prevAddress = prevAddress;
+        }
+    }
+
+    interface RecordVisitor {
+        void visit(Record record, int position);
+    }
+}
@@ -0,0 +1,31 @@
+package com.webim.store;
+
+import com.webim.entity.Message;
+
+import java.util.List;
+
+/**
+ * 消息存储
+ * 聊天记录的写入与查询都经由此接口，具体后端由 webim.store.type 选择：
+ * mysql（默认，im_message 表）或 log（本地磁盘上的追加写日志）
+ */
+public interface MessageStore {
+
+    /**
+     * 批量追加消息；消息 ID 须由调用方预先分配（MessageIdGenerator）
+     * 整批失败时抛出异常，由调用方决定是否逐条重试
+     */
+    void append(List<Message> messages);
+
+    /**
+     * 按会话游标分页查询历史消息（最新的在前）
+     *
+     * @param before 游标，只返回 id 小于该值的消息；为 null 时从最新一条开始
+     */
+    List<Message> findHistory(String conversationId, Long before, int limit);
+
+    /**
+     * 按 ID 批量查询消息（按 id 升序），不存在的 ID 直接忽略
+     */
+    List<Message> findByIds(List<Long> ids);
+}
@@ -0,0 +1,42 @@
+package com.webim.store;
+
+import com.webim.entity.Message;
+import com.webim.mapper.ChatMapper;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 基于 MySQL im_message 表的消息存储（默认）
+ */
+@Component
+@ConditionalOnProperty(name = "webim.store.type", havingValue = "mysql", matchIfMissing = true)
+public class MysqlMessageStore implements MessageStore {
+
+    private final ChatMapper chatMapper;
+
+    public MysqlMessageStore(ChatMapper chatMapper) {
+        this.chatMapper = chatMapper;
+    }
+
+    @Override
+    public void append(List<Message> messages) {
+        if (messages.size() == 1) {
+            chatMapper.insertMessage(messages.get(0));
+        } else if (!messages.isEmpty()) {
+            chatMapper.insertMessages(messages);
+        }
+    }
+
+    @Override
+    public List<Message> findHistory(String conversationId, Long before, int limit) {
+        return chatMapper.selectHistoryPage(conversationId, before, limit);
+    }
+
+    @Override
+    public List<Message> findByIds(List<Long> ids) {
+        return ids.isEmpty() ? Collections.emptyList() : chatMapper.selectMessagesByIds(ids);
+    }
+}
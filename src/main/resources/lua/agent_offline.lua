@@ -0,0 +1,11 @@
+-- 客服下线：从负载 ZSet 与最大接待数 Hash 中移除，停止接收新咨询
+-- 用户绑定与已绑定用户数保留：绑定的用户离开时照常扣减已绑定用户数，客服重新上线时负载据此重新计数；
+-- 这些用户在客服离线期间重新认证时改派其它客服，并从原客服的已绑定用户数中扣除
+-- 是否已在其它节点重新上线由调用方先行检查（会话位置键不在 {agent} slot 中）
+-- KEYS[1] 在线客服负载 ZSet {agent}:loads
+-- KEYS[2] 客服最大接待数 Hash {agent}:max_links
+-- ARGV[1] 客服 ID
+-- 返回 1 已移除，0 本就不在线
+local removed = redis.call('ZREM', KEYS[1], ARGV[1])
+redis.call('HDEL', KEYS[2], ARGV[1])
+return removed
@@ -0,0 +1,28 @@
+-- 客服上线：加入负载 ZSet，登记最大接待数，随后按空余名额从排队队首依次分配用户
+-- 负载按该客服当前已绑定的用户数重新计数，而不是从 0 开始：下线期间保留的绑定在用户离开时仍会扣减负载，
+-- 从 0 开始计数会被这些扣减拉低，导致实际接待数超出 max_links
+-- 所有键带相同的 hash tag {agent}，Redis Cluster 下位于同一个 slot
+-- KEYS[1] 在线客服负载 ZSet {agent}:loads
+-- KEYS[2] 客服最大接待数 Hash {agent}:max_links
+-- KEYS[3] 排队队列 ZSet {agent}:wait_queue
+-- KEYS[4] 用户与客服的绑定 Hash {agent}:bindings
+-- KEYS[5] 客服已绑定的用户数 Hash {agent}:bound
+-- ARGV[1] 客服 ID  ARGV[2] 最大接待数
+-- 返回分配给该客服的排队用户 ID 列表
+local load = tonumber(redis.call('HGET', KEYS[5], ARGV[1]) or '0')
+redis.call('ZADD', KEYS[1], load, ARGV[1])
+redis.call('HSET', KEYS[2], ARGV[1], ARGV[2])
+
+local maxLinks = tonumber(ARGV[2])
+local dispatched = {}
+while load < maxLinks do
+    local head = redis.call('ZPOPMIN', KEYS[3])
+    if #head == 0 then
+        break
+    end
+    redis.call('HSET', KEYS[4], head[1], ARGV[1])
+    load = redis.call('HINCRBY', KEYS[5], ARGV[1], 1)
+    redis.call('ZADD', KEYS[1], load, ARGV[1])
+    table.insert(dispatched, head[1])
+end
+return dispatched
@@ -0,0 +1,66 @@
+-- 最少连接数分配客服（原子执行：挑选 + 绑定 + 负载加一），无空闲客服时进入排队队列
+-- 所有键带相同的 hash tag {agent}，Redis Cluster 下位于同一个 slot
+-- KEYS[1] 用户与客服的绑定 Hash {agent}:bindings（field 为用户 ID，value 为客服 ID）
+-- KEYS[2] 在线客服负载 ZSet {agent}:loads（member 为客服 ID，score 为当前接待数）
+-- KEYS[3] 客服最大接待数 Hash {agent}:max_links
+-- KEYS[4] 排队队列 ZSet {agent}:wait_queue（member 为用户 ID，score 越小越靠前）
+-- KEYS[5] 排队序号计数器 {agent}:wait_seq
+-- KEYS[6] 客服已绑定的用户数 Hash {agent}:bound（在线客服的负载始终等于该值）
+-- KEYS[7] 绑定的持有节点 Hash {agent}:binding_owners（field 为用户 ID，value 为最近一次分配所在的节点 ID）
+-- ARGV[1] 未登记最大接待数时的默认值
+-- ARGV[2] 用户 ID
+-- ARGV[3] 排队优先级，数值越大越靠前，由服务端按配置决定并限定在 [0, 9]（score 保持在 double 可精确表示的范围内）
+-- ARGV[4] 发起分配的节点 ID，空串表示不记录（此后该用户的释放只有持有节点发起时才生效）
+-- 返回 {'A', 客服ID} 表示已分配，{'Q', 排队位置} 表示进入排队（位置从 1 开始）
+
+if ARGV[4] ~= '' then
+    redis.call('HSET', KEYS[7], ARGV[2], ARGV[4])
+end
+
+-- 会话保持：已有绑定且客服仍在线，直接复用
+local bound = redis.call('HGET', KEYS[1], ARGV[2])
+if bound then
+    if redis.call('ZSCORE', KEYS[2], bound) then
+        redis.call('ZREM', KEYS[4], ARGV[2])
+        return {'A', bound}
+    end
+    -- 原客服已下线：解除旧绑定，原客服的已绑定用户数随之减一
+    redis.call('HDEL', KEYS[1], ARGV[2])
+    if redis.call('HINCRBY', KEYS[6], bound, -1) <= 0 then
+        redis.call('HDEL', KEYS[6], bound)
+    end
+end
+
+-- 公平性：队列中有人排在前面时，新用户不能插队
+local rank = redis.call('ZRANK', KEYS[4], ARGV[2])
+if redis.call('ZCARD', KEYS[4]) == 0 or rank == 0 then
+    -- 按负载从低到高分段扫描，跳过已达到 max_links 的客服
+    local step = 16
+    local offset = 0
+    while true do
+        local page = redis.call('ZRANGE', KEYS[2], offset, offset + step - 1, 'WITHSCORES')
+        if #page == 0 then
+            break
+        end
+        for i = 1, #page, 2 do
+            local agent = page[i]
+            local load = tonumber(page[i + 1])
+            local maxLinks = tonumber(redis.call('HGET', KEYS[3], agent) or ARGV[1])
+            if load < maxLinks then
+                redis.call('HSET', KEYS[1], ARGV[2], agent)
+                redis.call('ZADD', KEYS[2], redis.call('HINCRBY', KEYS[6], agent, 1), agent)
+                redis.call('ZREM', KEYS[4], ARGV[2])
+                return {'A', agent}
+            end
+        end
+        offset = offset + step
+    end
+end
+
+-- 无可用客服：按 (优先级, 到达顺序) 进入排队
+if not rank then
+    local seq = redis.call('INCR', KEYS[5])
+    redis.call('ZADD', KEYS[4], seq - tonumber(ARGV[3]) * 1e12, ARGV[2])
+    rank = redis.call('ZRANK', KEYS[4], ARGV[2])
+end
+return {'Q', tostring(rank + 1)}
@@ -0,0 +1,16 @@
+-- 会话最近消息缓存：追加新落库的消息（write-through）
+-- 仅在缓存已存在时追加，避免产生缺少早期消息的残缺缓存；版本号总是递增，供回填时检测并发写入
+-- 批量刷盘的完成顺序不保证与 id 顺序一致，因此用 ZSet 按 member 字典序（定长 id 前缀）排序，而非按到达顺序入表
+-- KEYS[1] 最近消息 ZSet im:history:recent:{conversationId}（score 均为 0，member 为 20 位补零 id + 消息 JSON）
+-- KEYS[2] 会话版本号 im:history:ver:{conversationId}
+-- ARGV[1] 缓存容量  ARGV[2] 过期秒数  ARGV[3..] member（顺序任意）
+redis.call('INCR', KEYS[2])
+redis.call('EXPIRE', KEYS[2], ARGV[2])
+if redis.call('EXISTS', KEYS[1]) == 1 then
+    for i = 3, #ARGV do
+        redis.call('ZADD', KEYS[1], 0, ARGV[i])
+    end
+    redis.call('ZREMRANGEBYRANK', KEYS[1], 0, -tonumber(ARGV[1]) - 1)
+    redis.call('EXPIRE', KEYS[1], ARGV[2])
+end
+return 1
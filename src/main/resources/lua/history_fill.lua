@@ -0,0 +1,15 @@
+-- 会话最近消息缓存：用数据库查询结果回填
+-- 查询期间若有新消息落库（版本号变化），放弃回填，避免缓存缺失这条消息
+-- KEYS[1] 最近消息 ZSet im:history:recent:{conversationId}
+-- KEYS[2] 会话版本号 im:history:ver:{conversationId}
+-- ARGV[1] 查询数据库前读到的版本号  ARGV[2] 过期秒数  ARGV[3..] member（20 位补零 id + 消息 JSON）
+local ver = redis.call('GET', KEYS[2]) or '0'
+if ver ~= ARGV[1] then
+    return 0
+end
+redis.call('DEL', KEYS[1])
+for i = 3, #ARGV do
+    redis.call('ZADD', KEYS[1], 0, ARGV[i])
+end
+redis.call('EXPIRE', KEYS[1], ARGV[2])
+return 1
@@ -0,0 +1,50 @@
+-- 用户离开时释放客服负载（原子执行：解绑 + 按剩余绑定数重新计数，负载不会减到负数）
+-- 释放出空位后，立即把排队队首的用户分配给该客服
+-- 所有键带相同的 hash tag {agent}，Redis Cluster 下位于同一个 slot
+-- KEYS[1] 用户与客服的绑定 Hash {agent}:bindings
+-- KEYS[2] 在线客服负载 ZSet {agent}:loads
+-- KEYS[3] 客服最大接待数 Hash {agent}:max_links
+-- KEYS[4] 排队队列 ZSet {agent}:wait_queue
+-- KEYS[5] 客服已绑定的用户数 Hash {agent}:bound
+-- KEYS[6] 绑定的持有节点 Hash {agent}:binding_owners
+-- ARGV[1] 未登记最大接待数时的默认值
+-- ARGV[2] 用户 ID
+-- ARGV[3] 发起释放的节点 ID，空串表示不检查持有节点
+-- 返回 {被释放的客服ID, 被分配的排队用户ID}，不存在时为空串
+
+-- 用户已重连到其它节点并重新分配：原节点迟到的释放不生效
+local owner = redis.call('HGET', KEYS[6], ARGV[2])
+if ARGV[3] ~= '' and owner and owner ~= ARGV[3] then
+    return {'', ''}
+end
+redis.call('HDEL', KEYS[6], ARGV[2])
+
+-- 用户若仍在排队，直接出队
+redis.call('ZREM', KEYS[4], ARGV[2])
+
+local agent = redis.call('HGET', KEYS[1], ARGV[2])
+if not agent then
+    return {'', ''}
+end
+redis.call('HDEL', KEYS[1], ARGV[2])
+local load = redis.call('HINCRBY', KEYS[5], agent, -1)
+if load <= 0 then
+    redis.call('HDEL', KEYS[5], agent)
+    load = 0
+end
+if not redis.call('ZSCORE', KEYS[2], agent) then
+    -- 客服已下线：只扣减已绑定用户数，重新上线时负载据此计数
+    return {agent, ''}
+end
+redis.call('ZADD', KEYS[2], load, agent)
+
+local maxLinks = tonumber(redis.call('HGET', KEYS[3], agent) or ARGV[1])
+if load < maxLinks then
+    local head = redis.call('ZPOPMIN', KEYS[4])
+    if #head > 0 then
+        redis.call('HSET', KEYS[1], head[1], agent)
+        redis.call('ZADD', KEYS[2], redis.call('HINCRBY', KEYS[5], agent, 1), agent)
+        return {agent, head[1]}
+    end
+end
+return {agent, ''}
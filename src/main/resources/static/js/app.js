@@ -7,9 +7,20 @@ let currentUserId = null;   // 当前登录用户 ID
 let currentUserType = null; // 当前用户类型：1-普通用户 2-客服
 let currentTargetId = null; // 当前正在对话的目标 ID
 let heartbeatTimer = null;  // 心跳定时器句柄
+let queuing = false;        // 是否正在排队等待客服
+let historyCursor = null;   // 历史记录翻页游标（已加载的最早一条消息 id）
+let historyExhausted = false; // 是否已加载到最早的消息
+let historyLoading = false; // 是否正在加载历史记录
+const pendingSends = new Map(); // 已发出但未收到 SENT 确认的消息：clientMsgId -> SEND 帧，重连后原样重发
+const sendRetries = new Map();  // 因限流被拒绝的消息已重发次数：clientMsgId -> 次数，用于计算退避时间
+let reconnectAttempts = 0;  // 连续重连失败次数，用于计算退避时间
+let reconnectHint = null;   // 服务端排空时下发的重连指示 { delayMs, url }
+let sessionTicket = null;   // 会话凭证，认证成功后由服务端下发（TICKET），上传图片时携带
 
-const WS_URL = "ws://localhost:8888/ws"; // WebSocket 服务端地址
+const WS_URL = "ws://localhost:8888/ws"; // WebSocket 服务端地址（默认）
+let wsUrl = WS_URL;         // 当前连接地址，服务端排空时可能指定其它节点
 const HTTP_BASE_URL = "http://localhost:8080"; // HTTP 服务端地址
+const FILE_BASE_URL = "http://localhost:8888"; // 图片上传 / 下载地址（Netty 端口，流式上传、零拷贝下载）
 
 /**
  * 模拟登录逻辑
@@ -28,6 +39,11 @@ function loginAs(type) {
     document.getElementById('login-panel').classList.add('hidden');
     document.getElementById('chat-window').classList.remove('hidden');
 
+    // 滚动到顶部时加载更早的历史记录
+    document.getElementById('message-list').addEventListener('scroll', (e) => {
+        if (e.target.scrollTop === 0) loadMoreHistory();
+    });
+
     // 发起 WebSocket 连接
     initWebSocket();
 }
@@ -36,17 +52,20 @@ function loginAs(type) {
  * 初始化 WebSocket 连接并绑定事件
  */
 function initWebSocket() {
-    socket = new WebSocket(WS_URL);
+    socket = new WebSocket(wsUrl);
 
     // 连接成功回调
     socket.onopen = () => {
         setStatus("在线", true);
+        reconnectAttempts = 0;
         // 首先向服务端发送 AUTH 认证消息，告知身份
         socket.send(JSON.stringify({
             type: "AUTH",
             id: currentUserId,
             userType: currentUserType
         }));
+        // 断线前未确认的消息原样重发，服务端按 clientMsgId 去重，不会重复保存
+        pendingSends.forEach(msg => socket.send(JSON.stringify(msg)));
 
         // 启动心跳机制：每隔 30 秒发送一次报活消息，防止因连接空闲被后端踢下线
         // 1. 检查并清理旧的定时器，如果 heartbeatTimer 变量里存有旧的定时器 ID，就把它停掉
@@ -73,9 +92,19 @@ function initWebSocket() {
             clearInterval(heartbeatTimer);
             heartbeatTimer = null;
         }
-        // 执行自动重连策略：3秒后尝试再次建立连接
-        logInfo("连接断开，3秒后尝试自动重连...");
-        setTimeout(initWebSocket, 3000);
+        // 自动重连：服务端排空时按其下发的随机延迟与地址重连，其它情况按指数退避加随机抖动，避免所有客户端同时重连
+        let delay;
+        if (reconnectHint) {
+            delay = reconnectHint.delayMs || 0;
+            if (reconnectHint.url) wsUrl = reconnectHint.url;
+            reconnectHint = null;
+        } else {
+            const base = Math.min(30000, 1000 * Math.pow(2, reconnectAttempts));
+            delay = base / 2 + Math.random() * base / 2;
+            reconnectAttempts++;
+        }
+        logInfo(`连接断开，${Math.round(delay / 1000)}秒后尝试自动重连...`);
+        setTimeout(initWebSocket, delay);
     };
 
     // 报错处理
@@ -94,10 +123,13 @@ function handleMessage(data) {
             // 接收系统通知：如分配客服成功、无空闲客服等
             appendMessage("系统", data.content, "other", true);
             if (data.agentId) {
-                // 用户端根据系统分配的 agentId 定位对话目标
-                currentTargetId = data.agentId;
+                queuing = false;
                 document.getElementById('target-name').innerText = "客服: " + data.agentId;
-                loadHistory(); // 自动拉取与该客服的历史记录
+                // 用户端根据系统分配的 agentId 定位对话目标；断线重连回到同一客服时无需重新拉取，错过的消息由离线推送补齐
+                if (currentTargetId != data.agentId) {
+                    currentTargetId = data.agentId;
+                    loadHistory(); // 自动拉取与该客服的历史记录
+                }
             }
             break;
         case "RECEIVE":
@@ -110,6 +142,57 @@ function handleMessage(data) {
             }
             appendMessage(data.fromId, data.content, "other", false, data.msgType);
             break;
+        case "OFFLINE":
+            // 离线期间错过的消息（分批推送），渲染后回 ACK，服务端收到后推送下一批
+            data.messages.forEach(m => {
+                if (currentUserType === 2 && !currentTargetId) {
+                    currentTargetId = m.fromId;
+                    document.getElementById('target-name').innerText = "用户: " + m.fromId;
+                }
+                const time = m.timestamp ? new Date(m.timestamp).toLocaleString() : null;
+                appendMessage(m.fromId, m.content, "other", false, m.msgType, time);
+            });
+            socket.send(JSON.stringify({ type: "ACK", ids: data.messages.map(m => m.id) }));
+            break;
+        case "QUEUE":
+            // 客服均已满员，正在排队：首次提示写入消息区，后续仅刷新标题栏位置
+            if (!queuing) {
+                queuing = true;
+                appendMessage("系统", data.content, "other", true);
+            }
+            document.getElementById('target-name').innerText = "排队中: 第 " + data.position + " 位";
+            break;
+        case "ROOM":
+            // 房间消息：公告（无发送者）、群组广播，或班长监听到的会话副本
+            {
+                const from = data.fromId ? (data.fromType === 2 ? "客服 " : "用户 ") + data.fromId : "公告";
+                const to = data.toId ? ` → ${data.toId}` : "";
+                const content = data.msgType === 3 ? data.content : `[${data.room}] ${from}${to}: ${data.content}`;
+                appendMessage(from, content, "other", !data.fromId, data.msgType);
+            }
+            break;
+        case "SENT":
+            // 消息已保存，停止重发
+            pendingSends.delete(data.clientMsgId);
+            sendRetries.delete(data.clientMsgId);
+            break;
+        case "RECONNECT":
+            // 服务端节点排空：连接随后被关闭，按指定的延迟（与地址）重连，回到原客服的会话
+            reconnectHint = { delayMs: data.delayMs, url: data.url };
+            break;
+        case "TICKET":
+            // 会话凭证：调用图片上传等 HTTP 接口时放在 Authorization 头中
+            sessionTicket = data.ticket;
+            break;
+        case "ERROR":
+            if (data.clientMsgId && pendingSends.has(data.clientMsgId)) {
+                // 发送被限流：不打断会话，退避后重发该条消息（仍为同一 clientMsgId，服务端去重）
+                scheduleResend(data.clientMsgId);
+                break;
+            }
+            // 服务端处理失败（如消息保存失败、服务繁忙）
+            appendMessage("系统", data.content, "other", true);
+            break;
     }
 }
 
@@ -129,7 +212,7 @@ function sendMessage() {
     };
 
     // 通过 WebSocket 管道发送 JSON
-    socket.send(JSON.stringify(msg));
+    sendReliably(msg);
     // 将自己发送的内容追加到 UI 界面
     appendMessage("我", content, "mine", false, 1);
 
@@ -138,26 +221,53 @@ function sendMessage() {
     input.focus();
 }
 
+/**
+ * 发送 SEND 帧：附带客户端幂等键，收到 SENT 前记入待确认列表（断线重连后重发）
+ */
+function sendReliably(msg) {
+    msg.clientMsgId = Date.now().toString(36) + Math.random().toString(36).slice(2, 10);
+    pendingSends.set(msg.clientMsgId, msg);
+    if (socket.readyState === WebSocket.OPEN) {
+        socket.send(JSON.stringify(msg));
+    }
+}
+
+/**
+ * 限流后重发一条待确认的消息：指数退避加随机抖动，避免同一时刻的重发再次触发限流
+ */
+function scheduleResend(clientMsgId) {
+    const attempts = sendRetries.get(clientMsgId) || 0;
+    sendRetries.set(clientMsgId, attempts + 1);
+    const base = Math.min(10000, 500 * Math.pow(2, attempts));
+    setTimeout(() => {
+        const msg = pendingSends.get(clientMsgId);
+        if (msg && socket.readyState === WebSocket.OPEN) {
+            socket.send(JSON.stringify(msg));
+        }
+    }, base / 2 + Math.random() * base / 2);
+}
+
 /**
  * 图片上传及发送流程
  * @param {HTMLInputElement} input 文件选择框 DOM
  */
 async function uploadImage(input) {
     if (!input.files || !input.files[0]) return;
-
-    // 使用 FormData 封装文件流
-    const formData = new FormData();
-    formData.append("file", input.files[0]);
+    const file = input.files[0];
 
     try {
-        // 调用后端 HTTP 接口进行文件上传
-        const resp = await fetch("/api/chat/upload", {
+        // 请求体直接是文件内容，服务端边接收边写盘；相同图片只存一份
+        const resp = await fetch(`${FILE_BASE_URL}/files?name=${encodeURIComponent(file.name)}`, {
             method: "POST",
-            body: formData
+            headers: {
+                "Content-Type": file.type || "application/octet-stream",
+                "Authorization": `Bearer ${sessionTicket}`
+            },
+            body: file
         });
         const path = await resp.text();
 
-        if (path !== "error") {
+        if (resp.ok) {
             // 上传成功后得到服务器存储路径，通过 WebSocket 发送图片消息给对方
             const msg = {
                 type: "SEND",
@@ -165,9 +275,11 @@ async function uploadImage(input) {
                 content: path,
                 msgType: 3 // 3 代表富媒体-图片
             };
-            socket.send(JSON.stringify(msg));
+            sendReliably(msg);
             // 将图片在本地界面实时呈现
             appendMessage("我", path, "mine", false, 3);
+        } else {
+            console.error("图片上传失败:", path);
         }
     } catch (e) {
         console.error("图片上传失败:", e);
@@ -175,21 +287,44 @@ async function uploadImage(input) {
 }
 
 /**
- * 调用后端 API 拉取双方的最近 100 条历史聊天记录
+ * 调用后端 API 拉取双方最近一页历史聊天记录（重新进入会话时调用）
  */
 async function loadHistory() {
     if (!currentTargetId) return;
+    historyCursor = null;
+    historyExhausted = false;
+    document.getElementById('message-list').innerHTML = ""; // 先清空老旧试图，重新根据历史数据渲染
+    await loadMoreHistory();
+    const list = document.getElementById('message-list');
+    list.scrollTop = list.scrollHeight;
+}
+
+/**
+ * 按游标向前翻页，将更早的消息插入列表顶部
+ * 服务端按 id 从新到旧返回，nextCursor 为空表示没有更早的消息
+ */
+async function loadMoreHistory() {
+    if (!currentTargetId || historyLoading || historyExhausted) return;
+    historyLoading = true;
     try {
-        const resp = await fetch(`/api/chat/history?userId=${currentUserId}&targetId=${currentTargetId}`);
-        const history = await resp.json();
+        let url = `/api/chat/history?userId=${currentUserId}&targetId=${currentTargetId}&userType=${currentUserType}&limit=20`;
+        if (historyCursor) url += `&before=${historyCursor}`;
+        const resp = await fetch(url);
+        const page = await resp.json();
         const list = document.getElementById('message-list');
-        list.innerHTML = ""; // 先清空老旧试图，重新根据历史数据渲染
-        history.forEach(m => {
-            const side = m.fromId == currentUserId ? "mine" : "other";
-            appendMessage(m.fromId, m.content, side, false, m.msgType, m.createTime);
+        const oldHeight = list.scrollHeight;
+        page.messages.forEach(m => {
+            const side = m.fromId == currentUserId && m.fromType == currentUserType ? "mine" : "other";
+            list.insertBefore(createMessageElement(m.fromId, m.content, side, false, m.msgType, m.createTime), list.firstChild);
         });
+        // 保持当前可视位置不跳动
+        list.scrollTop += list.scrollHeight - oldHeight;
+        historyCursor = page.nextCursor;
+        historyExhausted = !page.nextCursor;
     } catch (e) {
         console.error("拉取历史记录失败:", e);
+    } finally {
+        historyLoading = false;
     }
 }
 
@@ -203,19 +338,29 @@ async function loadHistory() {
  */
 function appendMessage(sender, content, side, isSystem, msgType = 1, time = null) {
     const list = document.getElementById('message-list');
+    list.appendChild(createMessageElement(sender, content, side, isSystem, msgType, time));
+    // 自动平滑滚动到最新消息位置
+    list.scrollTo({ top: list.scrollHeight, behavior: 'smooth' });
+}
+
+/**
+ * 构建单条消息的 DOM 节点
+ */
+function createMessageElement(sender, content, side, isSystem, msgType = 1, time = null) {
     const msgDiv = document.createElement('div');
     msgDiv.className = `msg ${side} ${isSystem ? 'system' : ''}`;
 
     let innerHTML = "";
     if (msgType === 3) {
-        // 如果是图片，渲染为 img 标签，支持点击查看原图
+        // 如果是图片，先加载缩略图，点击查看原图
         // 修复 bug: 历史记录中的图片可能是相对路径，需要拼接完整 URL
-        console.log("content: ", content);
         let imgSrc = content;
-        /*if (content.startsWith('/uploads/')) {
-            imgSrc = HTTP_BASE_URL + content;
-        }*/
-        innerHTML = `<img src="${imgSrc}" alt="图片" onclick="window.open(this.src)">`;
+        let fullSrc = content;
+        if (content.startsWith('/files/')) {
+            fullSrc = FILE_BASE_URL + content;
+            imgSrc = fullSrc + "?thumb=1";
+        }
+        innerHTML = `<img src="${imgSrc}" alt="图片" onclick="window.open('${fullSrc}')">`;
     } else {
         // 如果是文本消息，进行基本的安全防御处理并显示
         innerHTML = `<div class="text">${content}</div>`;
@@ -224,10 +369,7 @@ function appendMessage(sender, content, side, isSystem, msgType = 1, time = null
     const date = time ? time : (new Date()).toLocaleString();
     innerHTML += `<span class="time">${date}</span>`;
     msgDiv.innerHTML = innerHTML;
-
-    list.appendChild(msgDiv);
-    // 自动平滑滚动到最新消息位置
-    list.scrollTo({ top: list.scrollHeight, behavior: 'smooth' });
+    return msgDiv;
 }
 
 /**
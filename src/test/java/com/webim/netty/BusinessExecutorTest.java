@@ -0,0 +1,107 @@
+package com.webim.netty;
+
+import com.webim.support.Eventually;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.util.concurrent.EventExecutor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 业务线程池：队列已满时清理任务不丢弃，并且仍排在同一业务线程此前提交的任务之后
+ */
+class BusinessExecutorTest {
+
+    private final BusinessExecutor businessExecutor =
+            new BusinessExecutor(new NettyMetrics(new SimpleMeterRegistry()), 1, 16, 1);
+
+    @AfterEach
+    void tearDown() {
+        businessExecutor.shutdown();
+    }
+
+    @Test
+    void cleanupRunsAfterQueuedTasksWhenQueueIsFull() throws Exception {
+        EventExecutor executor = businessExecutor.next();
+        List<String> executed = new CopyOnWriteArrayList<>();
+        List<String> threads = new CopyOnWriteArrayList<>();
+
+        // 占住唯一的业务线程并填满其队列
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        businessExecutor.execute(executor, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await();
+        List<String> queued = new ArrayList<>();
+        try {
+            for (int i = 0; ; i++) {
+                String name = "auth-" + i;
+                businessExecutor.execute(executor, () -> executed.add(name));
+                queued.add(name);
+            }
+        } catch (RejectedExecutionException expected) {
+            // 队列已满
+        }
+
+        CountDownLatch done = new CountDownLatch(2);
+        businessExecutor.executeReliably(executor, () -> {
+            executed.add("unregister");
+            threads.add(Thread.currentThread().getName());
+            done.countDown();
+        });
+        businessExecutor.executeReliably(executor, () -> {
+            executed.add("release");
+            threads.add(Thread.currentThread().getName());
+            done.countDown();
+        });
+        // 补交队列非空：普通任务不能插到清理任务前面
+        assertThrows(RejectedExecutionException.class, () -> businessExecutor.execute(executor, () -> executed.add("late")));
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        List<String> expected = new ArrayList<>(queued);
+        expected.add("unregister");
+        expected.add("release");
+        assertEquals(expected, executed);
+        assertTrue(threads.stream().allMatch(name -> name.startsWith("im-biz")), "清理任务仍在连接绑定的业务线程执行");
+
+        // 补交完成后恢复接收普通任务（最后一个清理任务可能先于补交线程清除标记执行完）
+        CountDownLatch accepted = new CountDownLatch(1);
+        Eventually.await("补交完成后接收普通任务", () -> {
+            try {
+                businessExecutor.execute(executor, accepted::countDown);
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        });
+        assertTrue(accepted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void cleanupRunsDirectlyWhenQueueHasRoom() throws Exception {
+        EventExecutor executor = businessExecutor.next();
+        CountDownLatch done = new CountDownLatch(1);
+
+        businessExecutor.executeReliably(executor, done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,71 @@
+package com.webim.netty;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * permessage-deflate：上行帧解压后的大小受 maxAllocation 限制
+ */
+class MeteredDeflateHandshakerTest {
+
+    private static final int MAX_ALLOCATION = 64 * 1024;
+
+    private final MeteredDeflateHandshaker handshaker =
+            new MeteredDeflateHandshaker(6, 1024, MAX_ALLOCATION, new SimpleMeterRegistry());
+
+    private EmbeddedChannel decoderChannel() {
+        WebSocketServerExtension extension = handshaker.handshakeExtension(
+                new WebSocketExtensionData("permessage-deflate", Collections.emptyMap()));
+        return new EmbeddedChannel(extension.newExtensionDecoder());
+    }
+
+    /**
+     * 按 RFC 7692 压缩一条消息：SYNC_FLUSH 后去掉末尾的 00 00 ff ff
+     */
+    private static WebSocketFrame compressedFrame(int size) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(new byte[size]);
+        byte[] buffer = new byte[size + 64];
+        int length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+        deflater.end();
+        return new BinaryWebSocketFrame(true, WebSocketExtension.RSV1,
+                Unpooled.wrappedBuffer(Arrays.copyOf(buffer, length - 4)));
+    }
+
+    @Test
+    void inflatesFrameWithinLimit() {
+        EmbeddedChannel channel = decoderChannel();
+
+        channel.writeInbound(compressedFrame(MAX_ALLOCATION / 2));
+
+        WebSocketFrame frame = channel.readInbound();
+        assertEquals(MAX_ALLOCATION / 2, frame.content().readableBytes());
+        frame.release();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void rejectsFrameInflatingBeyondLimit() {
+        EmbeddedChannel channel = decoderChannel();
+        // 压缩后仅数 KB，解压后 16 MB
+        WebSocketFrame bomb = compressedFrame(16 * 1024 * 1024);
+
+        assertThrows(DecompressionException.class, () -> channel.writeInbound(bomb));
+        channel.finishAndReleaseAll();
+    }
+}
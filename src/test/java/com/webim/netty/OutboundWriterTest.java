@@ -0,0 +1,58 @@
+package com.webim.netty;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 下行帧写出器：慢消费者被丢弃的帧以及连接关闭时仍积压的帧都会回调丢弃通知
+ */
+class OutboundWriterTest {
+
+    private final OutboundWriter writer = new OutboundWriter(new SimpleMeterRegistry(), 1, "drop");
+
+    @Test
+    void notifiesDroppedAndReleasedFrames() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        // 写入第一帧后即超过高水位，后续帧进入待发队列
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(1, 2));
+        List<String> dropped = new ArrayList<>();
+
+        writer.write(channel, new TextWebSocketFrame("a"), () -> dropped.add("a"));
+        assertFalse(channel.isWritable());
+        writer.write(channel, new TextWebSocketFrame("b"), () -> dropped.add("b"));
+        writer.write(channel, new TextWebSocketFrame("c"), () -> dropped.add("c"));
+        assertEquals(1, dropped.size(), "待发队列已满，新帧被丢弃");
+        assertEquals("c", dropped.get(0));
+
+        writer.release(channel);
+        assertEquals(2, dropped.size(), "连接关闭时积压的帧同样未送达");
+        assertEquals("b", dropped.get(1));
+
+        channel.runPendingTasks();
+        WebSocketFrame written = channel.readOutbound();
+        assertEquals("a", ((TextWebSocketFrame) written).text());
+        written.release();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void notifiesFramesWrittenToClosedChannel() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.close();
+        List<String> dropped = new ArrayList<>();
+
+        writer.write(channel, new TextWebSocketFrame("a"), () -> dropped.add("a"));
+
+        assertEquals(1, dropped.size());
+    }
+}
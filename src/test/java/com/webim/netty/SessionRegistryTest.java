@@ -0,0 +1,119 @@
+package com.webim.netty;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 本节点在线会话表：登记、挤下线与移除，以及非法账号的拦截
+ */
+class SessionRegistryTest {
+
+    private final SessionRegistry registry = new SessionRegistry(4, 2);
+
+    @Test
+    void registersReplacesAndUnregistersSameKey() {
+        Session first = new Session(1, 100L, null);
+        Session second = new Session(1, 100L, null);
+        Session third = new Session(1, 100L, null);
+
+        assertNull(registry.add(first));
+        assertNull(registry.add(second));
+        assertArrayEquals(new Session[]{first, second}, registry.get(1, 100L));
+
+        // 超出设备数：挤掉最早登录的设备
+        assertSame(first, registry.add(third));
+        assertArrayEquals(new Session[]{second, third}, registry.get(1, 100L));
+
+        // 已被挤下线的会话再移除无副作用
+        registry.remove(first);
+        registry.remove(second);
+        assertArrayEquals(new Session[]{third}, registry.get(1, 100L));
+        registry.remove(third);
+        assertNull(registry.get(1, 100L));
+        assertFalse(registry.contains(1, 100L));
+    }
+
+    @Test
+    void userAndAgentWithSameIdAreDistinct() {
+        Session user = new Session(1, 7L, null);
+        Session agent = new Session(2, 7L, null);
+        registry.add(user);
+        registry.add(agent);
+
+        assertArrayEquals(new Session[]{user}, registry.get(1, 7L));
+        assertArrayEquals(new Session[]{agent}, registry.get(2, 7L));
+        registry.remove(user);
+        assertNull(registry.get(1, 7L));
+        assertTrue(registry.contains(2, 7L));
+    }
+
+    @Test
+    void rejectsAccountsThatWouldAliasAnotherKey() {
+        registry.add(new Session(1, 11L, null));
+
+        // userType=5,id=10 与 userType=1,id=11 的键相同
+        assertEquals(SessionRegistry.key(1, 11L), SessionRegistry.key(5, 10L));
+        assertFalse(SessionRegistry.isValid(5, 10L));
+        assertNull(registry.get(5, 10L));
+        assertThrows(IllegalArgumentException.class, () -> registry.add(new Session(5, 10L, null)));
+
+        // 高位会被移出的 ID
+        long aliased = 11L | SessionRegistry.MAX_ID;
+        assertFalse(SessionRegistry.isValid(1, aliased));
+        assertNull(registry.get(1, aliased));
+        assertFalse(SessionRegistry.isValid(1, 0L));
+        assertFalse(SessionRegistry.isValid(1, -1L));
+        assertFalse(SessionRegistry.isValid(null, 1L));
+        assertFalse(SessionRegistry.isValid(1, null));
+        assertTrue(SessionRegistry.isValid(2, SessionRegistry.MAX_ID - 1));
+    }
+
+    @Test
+    void concurrentRegistrationSurvivesResize() throws Exception {
+        int threads = 4;
+        int perThread = 5000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long base = (long) t * perThread + 1;
+                futures.add(pool.submit(() -> {
+                    for (long id = base; id < base + perThread; id++) {
+                        Session session = new Session(1, id, null);
+                        registry.add(session);
+                        // 偶数 ID 登记后立即移除
+                        if (id % 2 == 0) {
+                            registry.remove(session);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (long id = 1; id <= (long) threads * perThread; id++) {
+            assertEquals(id % 2 == 1, registry.contains(1, id), "id=" + id);
+        }
+        int[] count = {0};
+        registry.forEach(session -> count[0]++);
+        assertEquals(threads * perThread / 2, count[0]);
+    }
+}
@@ -0,0 +1,111 @@
+package com.webim.netty.handler;
+
+import com.webim.netty.BusinessExecutor;
+import com.webim.netty.NettyMetrics;
+import com.webim.netty.OutboundWriter;
+import com.webim.netty.RateLimiter;
+import com.webim.netty.RoomChannels;
+import com.webim.netty.SessionRegistry;
+import com.webim.netty.protocol.BinaryFrameCodec;
+import com.webim.netty.protocol.FrameCodec;
+import com.webim.netty.protocol.JsonFrameCodec;
+import com.webim.service.AgentService;
+import com.webim.service.ClusterMessageBus;
+import com.webim.service.InboxService;
+import com.webim.service.MessageBatchWriter;
+import com.webim.service.MessageIdGenerator;
+import com.webim.service.PresenceService;
+import com.webim.service.QueueNotifier;
+import com.webim.service.RoomService;
+import com.webim.service.SessionDrainService;
+import com.webim.service.SessionTicketService;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 无法解析的上行帧按连接协议回错误提示，异常不传出 ChatHandler，连接保持
+ */
+class ChatHandlerTest {
+
+    private final OutboundWriter outboundWriter = mock(OutboundWriter.class);
+    private final RateLimiter rateLimiter = mock(RateLimiter.class);
+
+    private EmbeddedChannel channel;
+
+    @BeforeEach
+    void setUp() {
+        ChatHandler handler = new ChatHandler(mock(AgentService.class), mock(MessageBatchWriter.class),
+                mock(MessageIdGenerator.class), mock(BusinessExecutor.class), outboundWriter,
+                mock(PresenceService.class), mock(SessionDrainService.class), mock(ClusterMessageBus.class),
+                mock(QueueNotifier.class), mock(InboxService.class), mock(RoomService.class), mock(RoomChannels.class),
+                mock(NettyMetrics.class), rateLimiter, mock(SessionRegistry.class), mock(SessionTicketService.class),
+                50, 60, 1000);
+        channel = new EmbeddedChannel(handler);
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void malformedFramesAreAnsweredWithErrorFrames() {
+        when(rateLimiter.tryAcquireFrame(any())).thenReturn(true);
+
+        channel.writeInbound(new TextWebSocketFrame("{\"type\":\"UNKNOWN\"}"));
+        channel.writeInbound(new TextWebSocketFrame("{\"type\":\"AUTH\",\"id\":"));
+        channel.attr(FrameCodec.ATTRIBUTE).set(BinaryFrameCodec.INSTANCE);
+        // SEND 的 content 字段声明 100 字节，帧内只有 2 字节
+        channel.writeInbound(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[]{2, 0x12, 100, 'h', 'i'})));
+        // AUTH 的 id 字段 varint 被截断
+        channel.writeInbound(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[]{1, 0x08, (byte) 0x80})));
+        channel.writeInbound(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[]{0x7F})));
+
+        List<WebSocketFrame> replies = replies(5);
+        for (WebSocketFrame reply : replies.subList(0, 2)) {
+            String json = ((TextWebSocketFrame) reply).text();
+            assertEquals("ERROR", JsonFrameCodec.parseServerFrame(json).getType(), json);
+        }
+        for (WebSocketFrame reply : replies.subList(2, 5)) {
+            assertEquals(0x83, reply.content().getUnsignedByte(0), "二进制 ERROR 帧");
+        }
+        replies.forEach(WebSocketFrame::release);
+        assertTrue(channel.isActive(), "畸形帧不断开连接");
+        channel.checkException();
+    }
+
+    @Test
+    void malformedFramesBeyondRateLimitAreDropped() {
+        when(rateLimiter.tryAcquireFrame(any())).thenReturn(true, false);
+
+        channel.writeInbound(new TextWebSocketFrame("not json"));
+        channel.writeInbound(new TextWebSocketFrame("not json"));
+
+        replies(1).forEach(WebSocketFrame::release);
+        assertTrue(channel.isActive());
+    }
+
+    private List<WebSocketFrame> replies(int count) {
+        ArgumentCaptor<WebSocketFrame> frames = ArgumentCaptor.forClass(WebSocketFrame.class);
+        verify(outboundWriter, times(count)).write(any(Channel.class), frames.capture());
+        return frames.getAllValues();
+    }
+}
@@ -0,0 +1,417 @@
+package com.webim.netty.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static com.webim.netty.protocol.ProtoWire.WIRE_LENGTH_DELIMITED;
+import static com.webim.netty.protocol.ProtoWire.WIRE_VARINT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * JSON / 二进制帧编解码：各类帧的往返以及畸形输入
+ * 二进制下行帧按 Protobuf 线格式逐字段读回，与 resources/proto/webim.proto 的字段号对照
+ */
+class FrameCodecTest {
+
+    private static final ByteBufAllocator ALLOC = ByteBufAllocator.DEFAULT;
+
+    // ---------------- 上行帧 ----------------
+
+    @Test
+    void decodesJsonClientFrames() {
+        AuthFrame auth = (AuthFrame) decodeJson("{\"type\":\"AUTH\",\"id\":1001,\"userType\":2}");
+        assertEquals(Long.valueOf(1001), auth.getId());
+        assertEquals(Integer.valueOf(2), auth.getUserType());
+
+        SendFrame send = (SendFrame) decodeJson(
+                "{\"type\":\"SEND\",\"toId\":7,\"content\":\"你好\",\"msgType\":1,\"clientMsgId\":\"c-1\"}");
+        assertEquals(Long.valueOf(7), send.getToId());
+        assertEquals("你好", send.getContent());
+        assertEquals(Integer.valueOf(1), send.getMsgType());
+        assertEquals("c-1", send.getClientMsgId());
+
+        AckFrame ack = (AckFrame) decodeJson("{\"type\":\"ACK\",\"ids\":[\"9007199254740993\",2]}");
+        assertEquals(Arrays.asList(9007199254740993L, 2L), ack.getIds(), "超出 JavaScript 安全整数的 ID 以字符串回传");
+
+        assertEquals("r1", ((JoinFrame) decodeJson("{\"type\":\"JOIN\",\"room\":\"r1\"}")).getRoom());
+        assertEquals("r1", ((LeaveFrame) decodeJson("{\"type\":\"LEAVE\",\"room\":\"r1\"}")).getRoom());
+
+        BroadcastFrame broadcast = (BroadcastFrame) decodeJson(
+                "{\"type\":\"BROADCAST\",\"room\":\"r1\",\"content\":\"公告\",\"msgType\":1}");
+        assertEquals("r1", broadcast.getRoom());
+        assertEquals("公告", broadcast.getContent());
+        assertEquals(Integer.valueOf(1), broadcast.getMsgType());
+
+        // 带空白的心跳不走字节比较，由解码器识别
+        assertInstanceOf(HeartbeatFrame.class, decodeJson("{ \"type\": \"HEARTBEAT\" }"));
+        assertTrue(JsonFrameCodec.INSTANCE.isHeartbeat(utf8("{\"type\":\"HEARTBEAT\"}")));
+    }
+
+    @Test
+    void decodesBinaryClientFrames() {
+        AuthFrame auth = (AuthFrame) decodeBinary(BinaryFrameCodec.AUTH, buf -> {
+            ProtoWire.writeVarintField(buf, 1, 1001L);
+            ProtoWire.writeVarintField(buf, 2, 2);
+        });
+        assertEquals(Long.valueOf(1001), auth.getId());
+        assertEquals(Integer.valueOf(2), auth.getUserType());
+
+        SendFrame send = (SendFrame) decodeBinary(BinaryFrameCodec.SEND, buf -> {
+            ProtoWire.writeVarintField(buf, 1, 7L);
+            ProtoWire.writeStringField(buf, 2, "你好");
+            ProtoWire.writeVarintField(buf, 3, 1);
+            ProtoWire.writeStringField(buf, 4, "c-1");
+        });
+        assertEquals(Long.valueOf(7), send.getToId());
+        assertEquals("你好", send.getContent());
+        assertEquals(Integer.valueOf(1), send.getMsgType());
+        assertEquals("c-1", send.getClientMsgId());
+
+        // packed 与逐个编码混用
+        AckFrame ack = (AckFrame) decodeBinary(BinaryFrameCodec.ACK, buf -> {
+            ProtoWire.writeTag(buf, 1, WIRE_LENGTH_DELIMITED);
+            ProtoWire.writeVarint(buf, ProtoWire.varintSize(Long.MAX_VALUE) + ProtoWire.varintSize(2));
+            ProtoWire.writeVarint(buf, Long.MAX_VALUE);
+            ProtoWire.writeVarint(buf, 2);
+            ProtoWire.writeVarintField(buf, 1, 3L);
+        });
+        assertEquals(Arrays.asList(Long.MAX_VALUE, 2L, 3L), ack.getIds());
+
+        JoinFrame join = (JoinFrame) decodeBinary(BinaryFrameCodec.JOIN, buf -> ProtoWire.writeStringField(buf, 1, "r1"));
+        assertEquals("r1", join.getRoom());
+        LeaveFrame leave = (LeaveFrame) decodeBinary(BinaryFrameCodec.LEAVE, buf -> ProtoWire.writeStringField(buf, 1, "r1"));
+        assertEquals("r1", leave.getRoom());
+
+        BroadcastFrame broadcast = (BroadcastFrame) decodeBinary(BinaryFrameCodec.BROADCAST, buf -> {
+            ProtoWire.writeStringField(buf, 1, "r1");
+            ProtoWire.writeStringField(buf, 2, "公告");
+            ProtoWire.writeVarintField(buf, 3, 1);
+        });
+        assertEquals("r1", broadcast.getRoom());
+        assertEquals("公告", broadcast.getContent());
+        assertEquals(Integer.valueOf(1), broadcast.getMsgType());
+
+        assertInstanceOf(HeartbeatFrame.class, decodeBinary(BinaryFrameCodec.HEARTBEAT, buf -> {
+        }));
+        assertTrue(BinaryFrameCodec.INSTANCE.isHeartbeat(Unpooled.wrappedBuffer(new byte[]{BinaryFrameCodec.HEARTBEAT})));
+    }
+
+    @Test
+    void skipsUnknownBinaryFields() {
+        AuthFrame auth = (AuthFrame) decodeBinary(BinaryFrameCodec.AUTH, buf -> {
+            // 已删除的 priority 字段与新版本客户端增加的各类型字段
+            ProtoWire.writeVarintField(buf, 3, 9);
+            ProtoWire.writeTag(buf, 20, ProtoWire.WIRE_FIXED64);
+            buf.writeLong(1);
+            ProtoWire.writeTag(buf, 21, ProtoWire.WIRE_FIXED32);
+            buf.writeInt(1);
+            ProtoWire.writeStringField(buf, 22, "x");
+            ProtoWire.writeVarintField(buf, 1, 1001L);
+        });
+        assertEquals(Long.valueOf(1001), auth.getId());
+        assertNull(auth.getUserType());
+    }
+
+    // ---------------- 下行帧 ----------------
+
+    @Test
+    void serverFramesRoundTripThroughJson() {
+        for (ServerFrame frame : serverFrames()) {
+            WebSocketFrame encoded = JsonFrameCodec.INSTANCE.encode(ALLOC, frame);
+            try {
+                String json = ((TextWebSocketFrame) encoded).text();
+                ServerFrame parsed = JsonFrameCodec.parseServerFrame(json);
+                assertEquals(frame.getClass(), parsed.getClass(), json);
+                assertEquals(JsonFrameCodec.toJson(frame), JsonFrameCodec.toJson(parsed), json);
+            } finally {
+                encoded.release();
+            }
+        }
+        String receive = JsonFrameCodec.toJson(receive(Long.MAX_VALUE, "x"));
+        assertTrue(receive.contains("\"id\":\"" + Long.MAX_VALUE + "\""), "消息 ID 以字符串输出: " + receive);
+    }
+
+    @Test
+    void serverFramesRoundTripThroughBinary() {
+        Map<Integer, List<Object>> fields = encodeBinary(receive(Long.MAX_VALUE, "你好"), BinaryFrameCodec.RECEIVE);
+        assertReceive(fields, Long.MAX_VALUE, "你好");
+
+        fields = encodeBinary(new SystemFrame("已为您分配客服", 5L), BinaryFrameCodec.SYSTEM);
+        assertEquals("已为您分配客服", string(fields, 1));
+        assertEquals(5L, varint(fields, 2));
+
+        fields = encodeBinary(new ErrorFrame("发送过于频繁，请稍后重试", "c-1"), BinaryFrameCodec.ERROR);
+        assertEquals("发送过于频繁，请稍后重试", string(fields, 1));
+        assertFalse(fields.containsKey(2), "空字段不占字节");
+        assertEquals("c-1", string(fields, 3));
+
+        QueueFrame queue = new QueueFrame();
+        queue.setPosition(3);
+        queue.setContent("排队中");
+        fields = encodeBinary(queue, BinaryFrameCodec.QUEUE);
+        assertEquals(3L, varint(fields, 1));
+        assertEquals("排队中", string(fields, 2));
+
+        OfflineFrame offline = new OfflineFrame();
+        offline.setMessages(Arrays.asList(receive(1L, "a"), receive(2L, "")));
+        offline.setMore(true);
+        fields = encodeBinary(offline, BinaryFrameCodec.OFFLINE);
+        List<Object> messages = fields.get(1);
+        assertEquals(2, messages.size());
+        assertReceive(readFields(Unpooled.wrappedBuffer((byte[]) messages.get(0))), 1L, "a");
+        assertReceive(readFields(Unpooled.wrappedBuffer((byte[]) messages.get(1))), 2L, "");
+        assertEquals(1L, varint(fields, 2));
+
+        SentFrame sent = new SentFrame();
+        sent.setClientMsgId("c-1");
+        sent.setId(42L);
+        sent.setTimestamp(1700000000000L);
+        fields = encodeBinary(sent, BinaryFrameCodec.SENT);
+        assertEquals("c-1", string(fields, 1));
+        assertEquals(42L, varint(fields, 2));
+        assertEquals(1700000000000L, varint(fields, 3));
+
+        RoomFrame room = new RoomFrame();
+        room.setRoom("monitor:5");
+        room.setId(42L);
+        room.setFromId(100L);
+        room.setFromType(1);
+        room.setToId(5L);
+        room.setContent("抄送");
+        room.setMsgType(1);
+        room.setTimestamp(1700000000000L);
+        fields = encodeBinary(room, BinaryFrameCodec.ROOM);
+        assertEquals("monitor:5", string(fields, 1));
+        assertEquals(42L, varint(fields, 2));
+        assertEquals(100L, varint(fields, 3));
+        assertEquals(1L, varint(fields, 4));
+        assertEquals(5L, varint(fields, 5));
+        assertEquals("抄送", string(fields, 6));
+        assertEquals(1L, varint(fields, 7));
+        assertEquals(1700000000000L, varint(fields, 8));
+
+        ReconnectFrame reconnect = new ReconnectFrame();
+        reconnect.setDelayMs(3000L);
+        reconnect.setUrl("ws://b/ws");
+        fields = encodeBinary(reconnect, BinaryFrameCodec.RECONNECT);
+        assertEquals(3000L, varint(fields, 1));
+        assertEquals("ws://b/ws", string(fields, 2));
+
+        TicketFrame ticket = new TicketFrame();
+        ticket.setTicket("t.sig");
+        ticket.setExpiresAt(1700000000000L);
+        fields = encodeBinary(ticket, BinaryFrameCodec.TICKET);
+        assertEquals("t.sig", string(fields, 1));
+        assertEquals(1700000000000L, varint(fields, 2));
+
+        WebSocketFrame pong = BinaryFrameCodec.INSTANCE.pong();
+        assertEquals(1, pong.content().readableBytes());
+        assertEquals(BinaryFrameCodec.PONG, pong.content().getUnsignedByte(0));
+        pong.release();
+    }
+
+    // ---------------- 畸形输入 ----------------
+
+    @Test
+    void rejectsMalformedBinaryFrames() {
+        assertCorrupted(BinaryFrameCodec.INSTANCE, Unpooled.EMPTY_BUFFER);
+        assertCorrupted(BinaryFrameCodec.INSTANCE, Unpooled.wrappedBuffer(new byte[]{0x7F}));
+        // 字段值的 varint 只有延续位
+        assertCorrupted(BinaryFrameCodec.INSTANCE, binary(BinaryFrameCodec.AUTH, buf -> {
+            ProtoWire.writeTag(buf, 1, WIRE_VARINT);
+            buf.writeByte(0x80);
+        }));
+        // tag 被截断
+        assertCorrupted(BinaryFrameCodec.INSTANCE, binary(BinaryFrameCodec.SEND, buf -> buf.writeByte(0x80)));
+        // 超过 10 字节的 varint
+        assertCorrupted(BinaryFrameCodec.INSTANCE, binary(BinaryFrameCodec.ACK, buf -> {
+            ProtoWire.writeTag(buf, 1, WIRE_VARINT);
+            for (int i = 0; i < 10; i++) {
+                buf.writeByte(0xFF);
+            }
+            buf.writeByte(0);
+        }));
+        // 长度前缀超出帧剩余字节，以及按 uint64 解读为负数的长度
+        assertCorrupted(BinaryFrameCodec.INSTANCE, binary(BinaryFrameCodec.SEND, buf -> {
+            ProtoWire.writeTag(buf, 2, WIRE_LENGTH_DELIMITED);
+            ProtoWire.writeVarint(buf, 100);
+            buf.writeBytes(new byte[]{'h', 'i'});
+        }));
+        assertCorrupted(BinaryFrameCodec.INSTANCE, binary(BinaryFrameCodec.ACK, buf -> {
+            ProtoWire.writeTag(buf, 1, WIRE_LENGTH_DELIMITED);
+            ProtoWire.writeVarint(buf, -1L);
+        }));
+        assertCorrupted(BinaryFrameCodec.INSTANCE, binary(BinaryFrameCodec.JOIN, buf -> {
+            ProtoWire.writeTag(buf, 9, WIRE_LENGTH_DELIMITED);
+            ProtoWire.writeVarint(buf, Integer.MAX_VALUE + 1L);
+        }));
+        // 被截断的定长字段与不支持的字段类型
+        assertCorrupted(BinaryFrameCodec.INSTANCE, binary(BinaryFrameCodec.BROADCAST, buf -> {
+            ProtoWire.writeTag(buf, 9, ProtoWire.WIRE_FIXED64);
+            buf.writeInt(1);
+        }));
+        assertCorrupted(BinaryFrameCodec.INSTANCE, binary(BinaryFrameCodec.AUTH, buf -> ProtoWire.writeTag(buf, 9, 3)));
+    }
+
+    @Test
+    void rejectsMalformedJsonFrames() {
+        assertCorrupted(JsonFrameCodec.INSTANCE, utf8("{\"type\":\"UNKNOWN\",\"id\":1}"));
+        assertCorrupted(JsonFrameCodec.INSTANCE, utf8("{\"id\":1}"));
+        assertCorrupted(JsonFrameCodec.INSTANCE, utf8("{\"type\":\"AUTH\",\"id\":"));
+        assertCorrupted(JsonFrameCodec.INSTANCE, utf8("{\"type\":\"AUTH\",\"id\":\"abc\"}"));
+        assertCorrupted(JsonFrameCodec.INSTANCE, utf8("null"));
+        assertCorrupted(JsonFrameCodec.INSTANCE, utf8("[1,2]"));
+        assertCorrupted(JsonFrameCodec.INSTANCE, utf8(""));
+        assertCorrupted(JsonFrameCodec.INSTANCE, Unpooled.wrappedBuffer(new byte[]{(byte) 0xFF, (byte) 0xFE}));
+    }
+
+    // ---------------- 工具方法 ----------------
+
+    private static ClientFrame decodeJson(String json) {
+        ByteBuf buf = utf8(json);
+        try {
+            return JsonFrameCodec.INSTANCE.decode(buf);
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static ClientFrame decodeBinary(int type, Consumer<ByteBuf> body) {
+        ByteBuf buf = binary(type, body);
+        try {
+            ClientFrame frame = BinaryFrameCodec.INSTANCE.decode(buf);
+            assertEquals(0, buf.readerIndex(), "解码不移动帧的读指针");
+            return frame;
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static ByteBuf binary(int type, Consumer<ByteBuf> body) {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeByte(type);
+        body.accept(buf);
+        return buf;
+    }
+
+    private static ByteBuf utf8(String text) {
+        return Unpooled.copiedBuffer(text, StandardCharsets.UTF_8);
+    }
+
+    private static void assertCorrupted(FrameCodec codec, ByteBuf buf) {
+        try {
+            assertThrows(CorruptedFrameException.class, () -> codec.decode(buf), buf.toString(StandardCharsets.ISO_8859_1));
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static ReceiveFrame receive(Long id, String content) {
+        ReceiveFrame frame = new ReceiveFrame();
+        frame.setId(id);
+        frame.setFromId(100L);
+        frame.setContent(content);
+        frame.setMsgType(1);
+        frame.setTimestamp(1700000000000L);
+        return frame;
+    }
+
+    private static List<ServerFrame> serverFrames() {
+        QueueFrame queue = new QueueFrame();
+        queue.setPosition(3);
+        queue.setContent("排队中");
+        OfflineFrame offline = new OfflineFrame();
+        offline.setMessages(Arrays.asList(receive(1L, "a"), receive(Long.MAX_VALUE, "b")));
+        offline.setMore(true);
+        SentFrame sent = new SentFrame();
+        sent.setClientMsgId("c-1");
+        sent.setId(42L);
+        sent.setTimestamp(1700000000000L);
+        RoomFrame room = new RoomFrame();
+        room.setRoom("monitor:5");
+        room.setId(42L);
+        room.setFromId(100L);
+        room.setFromType(1);
+        room.setToId(5L);
+        room.setContent("抄送");
+        room.setMsgType(1);
+        room.setTimestamp(1700000000000L);
+        ReconnectFrame reconnect = new ReconnectFrame();
+        reconnect.setDelayMs(3000L);
+        reconnect.setUrl("ws://b/ws");
+        TicketFrame ticket = new TicketFrame();
+        ticket.setTicket("t.sig");
+        ticket.setExpiresAt(1700000000000L);
+        return Arrays.asList(receive(Long.MAX_VALUE, "你好"), new SystemFrame("已为您分配客服", 5L),
+                new ErrorFrame("发送过于频繁，请稍后重试", "c-1"), queue, offline, sent, room, reconnect, ticket);
+    }
+
+    /**
+     * 编码为二进制帧，校验帧类型后读出全部字段
+     */
+    private static Map<Integer, List<Object>> encodeBinary(ServerFrame frame, int expectedType) {
+        WebSocketFrame encoded = BinaryFrameCodec.INSTANCE.encode(ALLOC, frame);
+        try {
+            ByteBuf in = encoded.content().duplicate();
+            assertEquals(expectedType, in.readUnsignedByte(), frame.getType());
+            return readFields(in);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    /**
+     * 字段号 -> 依次出现的值（varint 为 Long，length-delimited 为 byte[]）
+     */
+    private static Map<Integer, List<Object>> readFields(ByteBuf in) {
+        Map<Integer, List<Object>> fields = new HashMap<>();
+        while (in.isReadable()) {
+            int tag = (int) ProtoWire.readVarint(in);
+            Object value;
+            if ((tag & 7) == WIRE_VARINT) {
+                value = ProtoWire.readVarint(in);
+            } else {
+                assertEquals(WIRE_LENGTH_DELIMITED, tag & 7);
+                byte[] bytes = new byte[ProtoWire.readLength(in)];
+                in.readBytes(bytes);
+                value = bytes;
+            }
+            fields.computeIfAbsent(tag >>> 3, k -> new ArrayList<>()).add(value);
+        }
+        return fields;
+    }
+
+    private static long varint(Map<Integer, List<Object>> fields, int field) {
+        return (Long) fields.get(field).get(0);
+    }
+
+    private static String string(Map<Integer, List<Object>> fields, int field) {
+        return new String((byte[]) fields.get(field).get(0), StandardCharsets.UTF_8);
+    }
+
+    private static void assertReceive(Map<Integer, List<Object>> fields, long id, String content) {
+        assertEquals(id, varint(fields, 1));
+        assertEquals(100L, varint(fields, 2));
+        assertEquals(content, string(fields, 3));
+        assertEquals(1L, varint(fields, 4));
+        assertEquals(1700000000000L, varint(fields, 5));
+    }
+}
@@ -0,0 +1,266 @@
+package com.webim.service;
+
+import com.webim.mapper.ChatMapper;
+import com.webim.support.EmbeddedRedis;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 客服分配 / 释放 / 上线的 Lua 脚本，在内嵌 Redis 上执行
+ */
+class AgentServiceTest {
+
+    private static final int MAX_LINKS = 2;
+
+    private static EmbeddedRedis redis;
+
+    private AgentService agentService;
+
+    @BeforeAll
+    static void startRedis() {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        redis.close();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.flushAll();
+        // im_agent 中查不到客服，最大接待数取默认值
+        agentService = new AgentService(redis.template(), mock(ChatMapper.class), new SimpleMeterRegistry(), MAX_LINKS, 60, "");
+    }
+
+    private Map<Long, Integer> loads() {
+        return agentService.loadSnapshot().getLoads();
+    }
+
+    @Test
+    void assignsLeastLoadedAgent() {
+        agentService.agentOnline(1L);
+        agentService.agentOnline(2L);
+
+        Long first = agentService.assignAgent(100L, 0).getAgentId();
+        Long second = agentService.assignAgent(101L, 0).getAgentId();
+
+        assertNotNull(first);
+        assertNotNull(second);
+        assertTrue(!first.equals(second), "第二个用户分配给负载更低的客服");
+        assertEquals(Integer.valueOf(1), loads().get(1L));
+        assertEquals(Integer.valueOf(1), loads().get(2L));
+    }
+
+    @Test
+    void reassignKeepsExistingBinding() {
+        agentService.agentOnline(1L);
+        agentService.agentOnline(2L);
+        Long agentId = agentService.assignAgent(100L, 0).getAgentId();
+
+        assertEquals(agentId, agentService.assignAgent(100L, 0).getAgentId());
+        assertEquals(1, loads().values().stream().mapToInt(Integer::intValue).sum(), "重复分配不增加负载");
+    }
+
+    @Test
+    void queuesUsersBeyondCapacityInPriorityOrder() {
+        agentService.agentOnline(1L);
+        agentService.assignAgent(100L, 0);
+        agentService.assignAgent(101L, 0);
+
+        AgentService.Assignment third = agentService.assignAgent(102L, 0);
+        AgentService.Assignment vip = agentService.assignAgent(103L, 1);
+
+        assertNull(third.getAgentId());
+        assertEquals(Integer.valueOf(1), vip.getQueuePosition(), "高优先级排在前面");
+        assertEquals(Integer.valueOf(2), agentService.queuePositions(Collections.singletonList(102L)).get(102L));
+        assertEquals(Integer.valueOf(MAX_LINKS), loads().get(1L));
+    }
+
+    @Test
+    void priorityIsConfiguredAndClamped() {
+        AgentService configured = new AgentService(redis.template(), mock(ChatMapper.class), new SimpleMeterRegistry(),
+                MAX_LINKS, 60, "103:2, 104:1000000");
+        assertEquals(2, configured.priorityOf(103L));
+        assertEquals(AgentService.MAX_PRIORITY, configured.priorityOf(104L));
+        assertEquals(0, configured.priorityOf(105L));
+
+        agentService.agentOnline(1L);
+        agentService.assignAgent(100L, 0);
+        agentService.assignAgent(101L, 0);
+        agentService.assignAgent(102L, AgentService.MAX_PRIORITY);
+        // 超出范围的优先级按上限处理：不能越过同优先级中先到的用户，负数按 0 处理
+        AgentService.Assignment huge = agentService.assignAgent(103L, 1000000);
+        AgentService.Assignment negative = agentService.assignAgent(104L, -1000000);
+        AgentService.Assignment plain = agentService.assignAgent(105L, 0);
+
+        assertEquals(Integer.valueOf(2), huge.getQueuePosition());
+        assertEquals(Integer.valueOf(3), negative.getQueuePosition());
+        assertEquals(Integer.valueOf(4), plain.getQueuePosition());
+    }
+
+    @Test
+    void releaseDispatchesQueueHead() {
+        agentService.agentOnline(1L);
+        agentService.assignAgent(100L, 0);
+        agentService.assignAgent(101L, 0);
+        agentService.assignAgent(102L, 0);
+
+        AgentService.Assignment dispatched = agentService.releaseAgent(100L);
+
+        assertNotNull(dispatched);
+        assertEquals(Long.valueOf(102L), dispatched.getUserId());
+        assertEquals(Long.valueOf(1L), dispatched.getAgentId());
+        assertEquals(Integer.valueOf(MAX_LINKS), loads().get(1L));
+        assertEquals(0, agentService.loadSnapshot().getQueueLength());
+        // 被分配的用户重新认证时复用绑定
+        assertEquals(Long.valueOf(1L), agentService.assignAgent(102L, 0).getAgentId());
+    }
+
+    @Test
+    void releaseNeverDrivesLoadNegative() {
+        agentService.agentOnline(1L);
+        agentService.assignAgent(100L, 0);
+
+        agentService.releaseAgent(100L);
+        agentService.releaseAgent(100L);
+        agentService.releaseAgent(999L);
+
+        assertEquals(Integer.valueOf(0), loads().get(1L));
+    }
+
+    @Test
+    void releaseLeavesQueue() {
+        agentService.agentOnline(1L);
+        agentService.assignAgent(100L, 0);
+        agentService.assignAgent(101L, 0);
+        agentService.assignAgent(102L, 0);
+
+        assertNull(agentService.releaseAgent(102L));
+        assertEquals(0, agentService.loadSnapshot().getQueueLength());
+    }
+
+    @Test
+    void agentOnlineDrainsQueue() {
+        agentService.assignAgent(100L, 0);
+        agentService.assignAgent(101L, 0);
+        agentService.assignAgent(102L, 0);
+
+        List<Long> dispatched = agentService.agentOnline(1L);
+
+        assertEquals(2, dispatched.size());
+        assertEquals(Integer.valueOf(MAX_LINKS), loads().get(1L));
+        assertEquals(1, agentService.loadSnapshot().getQueueLength());
+        assertEquals(Long.valueOf(1L), agentService.assignAgent(dispatched.get(0), 0).getAgentId());
+    }
+
+    @Test
+    void reconnectRecountsLoadFromBindings() {
+        agentService.agentOnline(1L);
+        agentService.assignAgent(100L, 0);
+        agentService.assignAgent(101L, 0);
+        agentService.agentOffline(1L);
+        agentService.syncStatus();
+        assertNull(loads().get(1L));
+
+        // 重新上线时负载按仍绑定的用户数计，而不是从 0 开始
+        agentService.agentOnline(1L);
+        assertEquals(Integer.valueOf(MAX_LINKS), loads().get(1L));
+        agentService.assignAgent(102L, 0);
+        assertEquals(1, agentService.loadSnapshot().getQueueLength(), "已满的客服不再接入新用户");
+
+        // 旧用户的释放使负载回落到准确值，并把名额交给排队用户
+        agentService.releaseAgent(100L);
+        agentService.releaseAgent(101L);
+        assertEquals(Integer.valueOf(1), loads().get(1L));
+        assertEquals(Long.valueOf(1L), agentService.assignAgent(102L, 0).getAgentId());
+    }
+
+    @Test
+    void releaseWhileAgentOfflineIsCountedOnReconnect() {
+        agentService.agentOnline(1L);
+        agentService.assignAgent(100L, 0);
+        agentService.assignAgent(101L, 0);
+        agentService.agentOffline(1L);
+        agentService.syncStatus();
+
+        agentService.releaseAgent(100L);
+        agentService.agentOnline(1L);
+
+        assertEquals(Integer.valueOf(1), loads().get(1L));
+    }
+
+    @Test
+    void staleReleaseFromPreviousNodeIsIgnored() {
+        agentService.agentOnline(1L);
+        agentService.assignAgent(100L, 0, "node-a");
+        // 用户重连到 B 并复用绑定，之后 A 才察觉旧连接断开
+        assertEquals(Long.valueOf(1L), agentService.assignAgent(100L, 0, "node-b").getAgentId());
+
+        assertNull(agentService.releaseAgent(100L, "node-a"));
+        assertEquals(Integer.valueOf(1), loads().get(1L), "B 上的会话仍占用客服");
+        assertEquals(Long.valueOf(1L), agentService.assignAgent(100L, 0, "node-b").getAgentId());
+
+        agentService.releaseAgent(100L, "node-b");
+        assertEquals(Integer.valueOf(0), loads().get(1L));
+    }
+
+    @Test
+    void staleReleaseKeepsReconnectedUserInQueue() {
+        agentService.agentOnline(1L);
+        agentService.assignAgent(100L, 0);
+        agentService.assignAgent(101L, 0);
+        agentService.assignAgent(102L, 0, "node-a");
+        agentService.assignAgent(102L, 0, "node-b");
+
+        agentService.releaseAgent(102L, "node-a");
+
+        assertEquals(1, agentService.loadSnapshot().getQueueLength());
+        assertEquals(Long.valueOf(102L), agentService.releaseAgent(100L).getUserId(), "排队的用户接入空出的名额");
+    }
+
+    @Test
+    void concurrentAssignmentNeverExceedsCapacity() throws Exception {
+        for (long agentId = 1; agentId <= 5; agentId++) {
+            agentService.agentOnline(agentId);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<AgentService.Assignment>> results = new ArrayList<>();
+        for (long userId = 100; userId < 140; userId++) {
+            long id = userId;
+            results.add(pool.submit(() -> agentService.assignAgent(id, 0)));
+        }
+        int assigned = 0;
+        for (Future<AgentService.Assignment> result : results) {
+            if (result.get().getAgentId() != null) {
+                assigned++;
+            }
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(5 * MAX_LINKS, assigned);
+        for (Integer load : loads().values()) {
+            assertEquals(Integer.valueOf(MAX_LINKS), load);
+        }
+        assertEquals(40 - 5 * MAX_LINKS, agentService.loadSnapshot().getQueueLength());
+    }
+}
@@ -0,0 +1,271 @@
+package com.webim.service;
+
+import com.webim.netty.BusinessExecutor;
+import com.webim.netty.NettyMetrics;
+import com.webim.netty.protocol.ReceiveFrame;
+import com.webim.netty.protocol.ServerFrame;
+import com.webim.store.MessageStore;
+import com.webim.support.EmbeddedRedis;
+import com.webim.support.Eventually;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 跨节点消息路由：同一个内嵌 Redis 上的多个模拟节点，各自订阅自己的频道
+ */
+class ClusterMessageBusTest {
+
+    private static EmbeddedRedis redis;
+
+    private final List<Node> nodes = new ArrayList<>();
+    private StringRedisTemplate template;
+
+    @BeforeAll
+    static void startRedis() {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        redis.close();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.flushAll();
+        template = redis.template();
+    }
+
+    @AfterEach
+    void tearDown() {
+        // 退订已结束用例的节点频道：同名节点在后续用例中重建，旧订阅会抢先收到并转发帧
+        for (Node node : nodes) {
+            node.containers.forEach(RedisMessageListenerContainer::stop);
+            node.executor.shutdown();
+        }
+    }
+
+    /**
+     * 一个模拟节点：本地在线的会话记在 online 中，投递到本地的帧记在 delivered 中
+     */
+    private final class Node {
+        final BusinessExecutor executor;
+        final PresenceService presence;
+        final ClusterMessageBus bus;
+        final Set<String> online = ConcurrentHashMap.newKeySet();
+        final List<ServerFrame> delivered = new CopyOnWriteArrayList<>();
+        final List<RedisMessageListenerContainer> containers = new ArrayList<>();
+
+        Node(String nodeId, long cacheTtlMillis) {
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            executor = new BusinessExecutor(new NettyMetrics(meterRegistry), 2, 100, 1);
+            presence = new PresenceService(template, executor, listenerContainer(), meterRegistry,
+                    nodeId, 15000, 1000, cacheTtlMillis);
+            InboxService inbox = new InboxService(template, mock(MessageStore.class), 1000, 7, 60);
+            bus = new ClusterMessageBus(template, presence, inbox, executor, listenerContainer());
+            bus.setLocalDelivery((targetType, targetId, frame) -> {
+                if (!online.contains(targetType + ":" + targetId)) {
+                    return false;
+                }
+                delivered.add(frame);
+                return true;
+            });
+            nodes.add(this);
+            Eventually.await(nodeId + " 订阅自己的频道", () -> redis.subscribers("im:node:" + nodeId) > 0);
+        }
+
+        private RedisMessageListenerContainer listenerContainer() {
+            RedisMessageListenerContainer container = redis.listenerContainer();
+            containers.add(container);
+            return container;
+        }
+
+        void connect(Integer userType, Long id) {
+            online.add(userType + ":" + id);
+            presence.register(userType, id);
+            presence.flush();
+        }
+
+        void disconnect(Integer userType, Long id) {
+            online.remove(userType + ":" + id);
+            presence.unregister(userType, id);
+            presence.flush();
+        }
+    }
+
+    private void heartbeatAll() {
+        for (Node node : nodes) {
+            node.presence.heartbeat();
+        }
+    }
+
+    private Set<String> inbox(Integer userType, Long id) {
+        return template.opsForZSet().range("im:inbox:" + userType + ":" + id, 0, -1);
+    }
+
+    private static ReceiveFrame receive(long id, String content) {
+        ReceiveFrame frame = new ReceiveFrame();
+        frame.setId(id);
+        frame.setFromId(9L);
+        frame.setContent(content);
+        frame.setMsgType(1);
+        frame.setTimestamp(System.currentTimeMillis());
+        return frame;
+    }
+
+    @Test
+    void routesFrameToOwningNode() throws Exception {
+        Node a = new Node("node-a", 60000);
+        Node b = new Node("node-b", 60000);
+        heartbeatAll();
+        b.connect(1, 100L);
+
+        assertTrue(a.bus.route(1, 100L, receive(1L, "hello")).get());
+
+        Eventually.await("B 收到转发的帧", () -> b.delivered.size() == 1);
+        ReceiveFrame frame = (ReceiveFrame) b.delivered.get(0);
+        assertEquals(Long.valueOf(1L), frame.getId());
+        assertEquals("hello", frame.getContent());
+        assertTrue(a.delivered.isEmpty());
+    }
+
+    @Test
+    void offlineTargetIsNotRouted() throws Exception {
+        Node a = new Node("node-a", 60000);
+        new Node("node-b", 60000);
+        heartbeatAll();
+
+        assertFalse(a.bus.route(1, 100L, receive(1L, "hello")).get());
+    }
+
+    @Test
+    void sendPrefersLocalSession() {
+        Node a = new Node("node-a", 60000);
+        Node b = new Node("node-b", 60000);
+        heartbeatAll();
+        a.connect(1, 100L);
+
+        a.bus.send(1, 100L, receive(1L, "local"));
+
+        assertEquals(1, a.delivered.size());
+        assertTrue(b.delivered.isEmpty());
+    }
+
+    @Test
+    void sessionOnFailedNodeIsTreatedAsOffline() throws Exception {
+        Node a = new Node("node-a", 60000);
+        Node b = new Node("node-b", 60000);
+        heartbeatAll();
+        b.connect(1, 100L);
+        assertTrue(a.bus.route(1, 100L, receive(1L, "before")).get());
+
+        // B 失联（心跳过期）：即使本地缓存仍指向 B，也不再向其转发
+        template.opsForZSet().add("im:nodes", "node-b", System.currentTimeMillis() - 60000);
+        a.presence.heartbeat();
+
+        assertFalse(a.bus.route(1, 100L, receive(2L, "after")).get());
+    }
+
+    @Test
+    void failsOverToNodeWhereSessionReconnected() throws Exception {
+        Node a = new Node("node-a", 60000);
+        Node b = new Node("node-b", 60000);
+        Node c = new Node("node-c", 60000);
+        heartbeatAll();
+        b.connect(1, 100L);
+        assertTrue(a.bus.route(1, 100L, receive(1L, "first")).get());
+        Eventually.await("B 收到第一条", () -> b.delivered.size() == 1);
+
+        // 会话从 B 迁移到 C，但 A 的位置缓存尚未失效（直接改写 Redis，不发上线通知）
+        b.online.remove("1:100");
+        c.online.add("1:100");
+        template.opsForValue().set("im:presence:1:100", "node-c");
+
+        assertTrue(a.bus.route(1, 100L, receive(2L, "second")).get());
+
+        // B 本地投递失败，重新查询位置后转发给 C
+        Eventually.await("C 收到二次转发的帧", () -> c.delivered.size() == 1);
+        assertEquals("second", ((ReceiveFrame) c.delivered.get(0)).getContent());
+        assertEquals(1, b.delivered.size());
+    }
+
+    @Test
+    void reconnectInvalidatesRemoteLocationCache() throws Exception {
+        Node a = new Node("node-a", 60000);
+        Node b = new Node("node-b", 60000);
+        Node c = new Node("node-c", 60000);
+        heartbeatAll();
+        b.connect(1, 100L);
+        assertTrue(a.bus.route(1, 100L, receive(1L, "first")).get());
+
+        b.disconnect(1, 100L);
+        c.connect(1, 100L);
+
+        Eventually.await("A 的位置缓存更新为 C", () -> "node-c".equals(a.presence.locate(1, 100L).join()));
+        assertTrue(a.bus.route(1, 100L, receive(2L, "second")).get());
+        Eventually.await("C 直接收到帧", () -> c.delivered.size() == 1);
+    }
+
+    @Test
+    void undeliverableFrameIsKeptInTargetInbox() throws Exception {
+        Node a = new Node("node-a", 60000);
+        Node b = new Node("node-b", 60000);
+        heartbeatAll();
+        b.connect(1, 100L);
+
+        // 会话在 A 发布之前从 B 断开，但登记仍指向 B（注销尚未刷入）
+        b.online.remove("1:100");
+        assertTrue(a.bus.route(1, 100L, receive(1L, "lost?")).get());
+
+        Eventually.await("B 把消息记入离线收件箱", () -> inbox(1, 100L).contains("1"));
+        assertTrue(b.delivered.isEmpty());
+    }
+
+    @Test
+    void failedSecondHopIsKeptInTargetInbox() throws Exception {
+        Node a = new Node("node-a", 60000);
+        Node b = new Node("node-b", 60000);
+        Node c = new Node("node-c", 60000);
+        heartbeatAll();
+        b.connect(1, 100L);
+        assertTrue(a.bus.route(1, 100L, receive(1L, "first")).get());
+        Eventually.await("B 收到第一条", () -> b.delivered.size() == 1);
+
+        // 登记迁移到 C，但会话在 C 上也已断开
+        b.online.remove("1:100");
+        template.opsForValue().set("im:presence:1:100", "node-c");
+        assertTrue(a.bus.route(1, 100L, receive(2L, "second")).get());
+
+        Eventually.await("C 把消息记入离线收件箱", () -> inbox(1, 100L).contains("2"));
+        assertTrue(c.delivered.isEmpty());
+    }
+
+    @Test
+    void nodeWithoutSubscriberIsNotRouted() throws Exception {
+        Node a = new Node("node-a", 60000);
+        heartbeatAll();
+        // node-z 心跳仍有效，但已不再订阅自己的频道
+        template.opsForZSet().add("im:nodes", "node-z", System.currentTimeMillis());
+        template.opsForValue().set("im:presence:1:100", "node-z");
+        a.presence.heartbeat();
+
+        assertFalse(a.bus.route(1, 100L, receive(1L, "hello")).get());
+    }
+}
@@ -0,0 +1,125 @@
+package com.webim.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 上传文件按文件头校验图片格式；缩略图按像素上限与降采样生成
+ */
+class FileStorageServiceTest {
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 0x0D};
+    private static final byte[] JPEG = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 0x10};
+
+    @TempDir
+    Path dir;
+
+    private FileStorageService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        service = new FileStorageService(dir.toString(), 1, "png,jpg,jpeg,gif,webp,bmp", 240, 1_000_000, 1, 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    private long storedFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    @Test
+    void imageMatchingExtensionIsStored() throws IOException {
+        String path = service.store(new ByteArrayInputStream(PNG), "png");
+
+        assertTrue(path.endsWith(".png"));
+        assertNotNull(service.resolve(path.substring(path.lastIndexOf('/') + 1)));
+        // jpg 与 jpeg 是同一种格式
+        assertTrue(service.store(new ByteArrayInputStream(JPEG), "jpeg").endsWith(".jpeg"));
+    }
+
+    @Test
+    void contentNotMatchingExtensionIsRejected() throws IOException {
+        byte[] html = "<html><script>alert(1)</script></html>".getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(FileStorageService.UnsupportedContentException.class,
+                () -> service.store(new ByteArrayInputStream(html), "png"));
+        assertThrows(FileStorageService.UnsupportedContentException.class,
+                () -> service.store(new ByteArrayInputStream(JPEG), "png"));
+        assertEquals(0, storedFiles(), "被拒绝的上传不留下文件");
+    }
+
+    @Test
+    void recognizesImageSignatures() {
+        assertEquals("png", FileStorageService.imageTypeOf(PNG, PNG.length));
+        assertEquals("jpeg", FileStorageService.imageTypeOf(JPEG, JPEG.length));
+        assertEquals("gif", FileStorageService.imageTypeOf("GIF89a".getBytes(StandardCharsets.US_ASCII), 6));
+        assertEquals("webp", FileStorageService.imageTypeOf("RIFF\0\0\0\0WEBP".getBytes(StandardCharsets.US_ASCII), 12));
+        assertEquals("bmp", FileStorageService.imageTypeOf("BM".getBytes(StandardCharsets.US_ASCII), 2));
+        assertEquals(null, FileStorageService.imageTypeOf(PNG, 4), "文件头不完整");
+    }
+
+    @Test
+    void thumbnailIsScaledDown() throws IOException {
+        ImageIO.write(new BufferedImage(1000, 500, BufferedImage.TYPE_INT_RGB), "png", dir.resolve("wide.png").toFile());
+
+        service.generateThumbnail("wide.png");
+
+        BufferedImage thumb = ImageIO.read(dir.resolve("thumbs").resolve("wide.png").toFile());
+        assertEquals(240, thumb.getWidth());
+        assertEquals(120, thumb.getHeight());
+    }
+
+    @Test
+    void oversizedImageIsNotDecoded() throws IOException {
+        // 文件只有几十字节，图片头声明 50000x50000
+        Files.write(dir.resolve("bomb.png"), pngHeader(50000, 50000));
+
+        service.generateThumbnail("bomb.png");
+
+        assertFalse(Files.exists(dir.resolve("thumbs").resolve("bomb.png")));
+    }
+
+    /**
+     * PNG 文件签名 + IHDR 块 + 空 IEND 块
+     */
+    private static byte[] pngHeader(int width, int height) {
+        ByteBuffer ihdr = ByteBuffer.allocate(17);
+        ihdr.put("IHDR".getBytes(StandardCharsets.US_ASCII)).putInt(width).putInt(height)
+                .put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0);
+        ByteBuffer png = ByteBuffer.allocate(8 + 4 + 17 + 4 + 12);
+        png.put(PNG, 0, 8).putInt(13).put(ihdr.array()).putInt(crc(ihdr.array()));
+        byte[] iend = "IEND".getBytes(StandardCharsets.US_ASCII);
+        png.putInt(0).put(iend).putInt(crc(iend));
+        return png.array();
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
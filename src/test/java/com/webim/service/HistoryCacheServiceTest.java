@@ -0,0 +1,173 @@
+package com.webim.service;
+
+import com.webim.entity.Message;
+import com.webim.netty.BusinessExecutor;
+import com.webim.netty.NettyMetrics;
+import com.webim.store.MessageStore;
+import com.webim.support.EmbeddedRedis;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 会话最近消息缓存：批量刷盘乱序完成时，缓存仍按 id 降序返回；业务线程池已满时淘汰缓存而非丢失消息
+ */
+class HistoryCacheServiceTest {
+
+    private static final String CONVERSATION = "100_1";
+    private static final int CAPACITY = 4;
+
+    private static EmbeddedRedis redis;
+
+    private BusinessExecutor executor;
+    private MessageStore messageStore;
+    private HistoryCacheService cacheService;
+    private Consumer<List<Message>> flushListener;
+
+    @BeforeAll
+    static void startRedis() {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        redis.close();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.flushAll();
+        // 单个业务线程：写穿任务与之后提交的任务按顺序执行
+        createCacheService(100);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void createCacheService(int queueCapacity) {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        executor = new BusinessExecutor(new NettyMetrics(meterRegistry), 1, queueCapacity, 1);
+        messageStore = mock(MessageStore.class);
+        MessageBatchWriter batchWriter = mock(MessageBatchWriter.class);
+        // 本地缓存 TTL 为 0：每次读取都走 Redis
+        cacheService = new HistoryCacheService(redis.template(), messageStore, batchWriter, executor,
+                redis.listenerContainer(), meterRegistry, CAPACITY, 100, 0, 60);
+        ArgumentCaptor<Consumer<List<Message>>> captor = ArgumentCaptor.forClass(Consumer.class);
+        verify(batchWriter).addFlushListener(captor.capture());
+        flushListener = captor.getValue();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    private static Message message(long id) {
+        Message message = new Message();
+        message.setId(id);
+        message.setConversationId(CONVERSATION);
+        message.setContent("m" + id);
+        return message;
+    }
+
+    /**
+     * 刷盘回调在业务线程执行，等它完成后再读取
+     */
+    private void flush(long... ids) throws Exception {
+        List<Message> messages = new ArrayList<>();
+        for (long id : ids) {
+            messages.add(message(id));
+        }
+        flushListener.accept(messages);
+        CompletableFuture.runAsync(() -> { }, executor.asExecutor()).get();
+    }
+
+    private List<Long> recentIds(int limit) {
+        List<Long> ids = new ArrayList<>();
+        for (Message message : cacheService.recent(CONVERSATION, limit)) {
+            ids.add(message.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    void outOfOrderFlushesAreReturnedInIdOrder() throws Exception {
+        when(messageStore.findHistory(any(), isNull(), anyInt())).thenReturn(Arrays.asList(message(8L), message(7L)));
+        assertEquals(Arrays.asList(8L, 7L), recentIds(CAPACITY));
+
+        // 两个批次乱序完成：10 先于 9 落库
+        flush(10L);
+        flush(9L);
+
+        assertEquals(Arrays.asList(10L, 9L, 8L, 7L), recentIds(CAPACITY));
+    }
+
+    @Test
+    void keepsNewestCapacityMessages() throws Exception {
+        when(messageStore.findHistory(any(), isNull(), anyInt())).thenReturn(Arrays.asList(message(8L), message(7L)));
+        recentIds(CAPACITY);
+
+        flush(12L, 10L);
+        flush(11L, 9L);
+
+        assertEquals(Arrays.asList(12L, 11L, 10L, 9L), recentIds(CAPACITY));
+        assertEquals(Arrays.asList(12L, 11L), recentIds(2));
+    }
+
+    @Test
+    void evictsCacheWhenExecutorIsSaturated() throws Exception {
+        executor.shutdown();
+        createCacheService(16);
+        when(messageStore.findHistory(any(), isNull(), anyInt())).thenReturn(Arrays.asList(message(8L), message(7L)));
+        assertEquals(Arrays.asList(8L, 7L), recentIds(CAPACITY));
+
+        // 占住唯一的业务线程并填满其队列
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.asExecutor().execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await();
+        try {
+            while (true) {
+                executor.asExecutor().execute(() -> { });
+            }
+        } catch (RejectedExecutionException expected) {
+            // 队列已满
+        }
+
+        try {
+            // 写穿任务被拒绝：缓存被淘汰，下次读取回源到存储
+            flushListener.accept(Collections.singletonList(message(9L)));
+            when(messageStore.findHistory(any(), isNull(), anyInt()))
+                    .thenReturn(Arrays.asList(message(9L), message(8L), message(7L)));
+            assertEquals(Arrays.asList(9L, 8L, 7L), recentIds(CAPACITY));
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.webim.service;
+
+import com.webim.entity.Message;
+import com.webim.store.MessageStore;
+import com.webim.support.EmbeddedRedis;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 离线收件箱：64 位消息 ID 的排序与尚未落库消息的保留
+ */
+class InboxServiceTest {
+
+    private static EmbeddedRedis redis;
+
+    private MessageStore messageStore;
+    private InboxService inboxService;
+    private MessageIdGenerator idGenerator;
+
+    @BeforeAll
+    static void startRedis() {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        redis.close();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.flushAll();
+        messageStore = mock(MessageStore.class);
+        inboxService = new InboxService(redis.template(), messageStore, 1000, 7, 60);
+        PresenceService presenceService = mock(PresenceService.class);
+        when(presenceService.getNodeId()).thenReturn("node-a");
+        idGenerator = new MessageIdGenerator(redis.template(), presenceService, 1);
+        // 按 ID 原样返回查到的消息
+        when(messageStore.findByIds(anyList())).thenAnswer(invocation -> {
+            List<Message> messages = new ArrayList<>();
+            for (Long id : invocation.<List<Long>>getArgument(0)) {
+                Message message = new Message();
+                message.setId(id);
+                messages.add(message);
+            }
+            return messages;
+        });
+    }
+
+    private static List<Long> ids(List<Message> messages) {
+        List<Long> ids = new ArrayList<>();
+        for (Message message : messages) {
+            ids.add(message.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * 相邻 ID 只差低位，若以 ID 本身作 double score 会丢失精度而乱序
+     */
+    @Test
+    void idsInSameMillisecondKeepTheirOrder() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            ids.add(idGenerator.nextId());
+        }
+        List<Long> shuffled = new ArrayList<>(ids);
+        Collections.shuffle(shuffled);
+        for (Long id : shuffled) {
+            inboxService.add(1, 100L, id);
+        }
+
+        assertEquals(ids, ids(inboxService.peek(1, 100L, 20)));
+        assertEquals(ids.subList(0, 5), ids(inboxService.peek(1, 100L, 5)));
+    }
+
+    @Test
+    void recentMissingIdIsKeptUntilPersisted() {
+        long id = idGenerator.nextId();
+        inboxService.add(1, 100L, id);
+        when(messageStore.findByIds(anyList())).thenReturn(Collections.emptyList());
+
+        assertTrue(inboxService.peek(1, 100L, 10).isEmpty());
+        assertEquals(Collections.singleton(Long.toString(id)),
+                redis.template().opsForZSet().range("im:inbox:1:100", 0, -1), "刚生成的 ID 可能尚未落库，保留");
+    }
+
+    @Test
+    void expiredMissingIdIsRemoved() {
+        long stale = 1L; // 生成时间为纪元起点，早已超过等待时间
+        long id = idGenerator.nextId();
+        inboxService.add(1, 100L, stale);
+        inboxService.add(1, 100L, id);
+        when(messageStore.findByIds(anyList())).thenReturn(Collections.emptyList());
+
+        inboxService.peek(1, 100L, 10);
+
+        assertEquals(Collections.singleton(Long.toString(id)),
+                redis.template().opsForZSet().range("im:inbox:1:100", 0, -1));
+    }
+}
@@ -0,0 +1,143 @@
+package com.webim.service;
+
+import com.webim.entity.Message;
+import com.webim.store.MessageStore;
+import com.webim.support.Eventually;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 消息批量落库：按批写入、整批失败时逐条重试、停机时不留下未结束的 Future
+ */
+class MessageBatchWriterTest {
+
+    /**
+     * 记录每次 append 的批次；内容为 "bad" 的消息写入失败，整批中含有它时整批失败
+     */
+    private final List<List<Long>> batches = new CopyOnWriteArrayList<>();
+    private final MessageStore store = new MessageStore() {
+        @Override
+        public void append(List<Message> messages) {
+            for (Message message : messages) {
+                if ("bad".equals(message.getContent())) {
+                    throw new IllegalStateException("写入失败");
+                }
+            }
+            List<Long> ids = new ArrayList<>();
+            messages.forEach(message -> ids.add(message.getId()));
+            batches.add(ids);
+        }
+
+        @Override
+        public List<Message> findHistory(String conversationId, Long before, int limit) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<Message> findByIds(List<Long> ids) {
+            return Collections.emptyList();
+        }
+    };
+    private final List<List<Message>> flushed = new CopyOnWriteArrayList<>();
+
+    private MessageBatchWriter writer;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        writer.shutdown();
+    }
+
+    private MessageBatchWriter createWriter(int batchSize, long flushIntervalMs) {
+        MessageBatchWriter writer = new MessageBatchWriter(store, new SimpleMeterRegistry(), 100, batchSize, flushIntervalMs);
+        writer.addFlushListener(flushed::add);
+        return writer;
+    }
+
+    private static Message message(long id, String content) {
+        Message message = new Message();
+        message.setId(id);
+        message.setContent(content);
+        return message;
+    }
+
+    @Test
+    void writesMessagesInBatches() throws Exception {
+        // 刷盘间隔足够长，批次只由条数决定
+        writer = createWriter(3, 1000);
+        List<CompletableFuture<Message>> futures = new ArrayList<>();
+        for (long id = 1; id <= 6; id++) {
+            futures.add(writer.submit(message(id, "m" + id)));
+        }
+
+        for (CompletableFuture<Message> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(Arrays.asList(Arrays.asList(1L, 2L, 3L), Arrays.asList(4L, 5L, 6L)), batches);
+        // 监听器在 Future 完成之后回调
+        Eventually.await("两批消息回调监听器", () -> flushed.size() == 2);
+        assertTrue(writer.awaitEmpty(1000));
+    }
+
+    @Test
+    void flushesPartialBatchAfterInterval() throws Exception {
+        writer = createWriter(100, 20);
+
+        writer.submit(message(1, "m1")).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Collections.singletonList(Collections.singletonList(1L)), batches);
+    }
+
+    @Test
+    void fallsBackToPerRowWritesWhenBatchFails() throws Exception {
+        writer = createWriter(3, 1000);
+
+        CompletableFuture<Message> first = writer.submit(message(1, "m1"));
+        CompletableFuture<Message> bad = writer.submit(message(2, "bad"));
+        CompletableFuture<Message> third = writer.submit(message(3, "m3"));
+
+        assertEquals(Long.valueOf(1), first.get(5, TimeUnit.SECONDS).getId());
+        assertEquals(Long.valueOf(3), third.get(5, TimeUnit.SECONDS).getId());
+        ExecutionException e = assertThrows(ExecutionException.class, () -> bad.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals(Arrays.asList(Collections.singletonList(1L), Collections.singletonList(3L)), batches);
+        // 监听器只收到写入成功的消息
+        Eventually.await("回调监听器", () -> flushed.size() == 1);
+        assertEquals(Arrays.asList(1L, 3L), Arrays.asList(flushed.get(0).get(0).getId(), flushed.get(0).get(1).getId()));
+    }
+
+    @Test
+    void shutdownFlushesQueuedMessagesAndRejectsLaterOnes() throws Exception {
+        writer = createWriter(100, 1000);
+        List<CompletableFuture<Message>> futures = new ArrayList<>();
+        for (long id = 1; id <= 5; id++) {
+            futures.add(writer.submit(message(id, "m" + id)));
+        }
+
+        writer.shutdown();
+
+        for (CompletableFuture<Message> future : futures) {
+            assertTrue(future.isDone() && !future.isCompletedExceptionally(), "停机前提交的消息全部落库");
+        }
+        CompletableFuture<Message> late = writer.submit(message(6, "m6"));
+        assertTrue(late.isDone(), "停机后提交的消息立即失败，不会无限等待");
+        ExecutionException e = assertThrows(ExecutionException.class, late::get);
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        assertTrue(writer.awaitEmpty(0));
+    }
+}
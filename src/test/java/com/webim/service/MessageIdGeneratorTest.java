@@ -0,0 +1,211 @@
+package com.webim.service;
+
+import com.webim.support.EmbeddedRedis;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 消息 ID：严格递增、序号用尽借用下一毫秒、时钟回拨、时间戳还原，以及 Redis 中的节点号租约
+ */
+class MessageIdGeneratorTest {
+
+    private static final long NOW = MessageIdGenerator.EPOCH + 1_000_000L;
+    private static final int WORKER = 7;
+
+    private static EmbeddedRedis redis;
+
+    private StringRedisTemplate template;
+
+    @BeforeAll
+    static void startRedis() {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        redis.close();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.flushAll();
+        template = redis.template();
+    }
+
+    private static PresenceService presence(String nodeId) {
+        PresenceService presenceService = mock(PresenceService.class);
+        when(presenceService.getNodeId()).thenReturn(nodeId);
+        return presenceService;
+    }
+
+    /**
+     * 时钟由测试控制的生成器
+     */
+    private MessageIdGenerator generator(AtomicLong clock) {
+        return new MessageIdGenerator(template, presence("node-a"), WORKER) {
+            @Override
+            long currentTimeMillis() {
+                return clock.get();
+            }
+        };
+    }
+
+    private static long sequenceOf(long id) {
+        return id & 0xFFF;
+    }
+
+    @Test
+    void strictlyIncreasingAcrossThreads() throws Exception {
+        MessageIdGenerator generator = new MessageIdGenerator(template, presence("node-a"), WORKER);
+        int threads = 8;
+        int perThread = 50_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<long[]>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    long[] ids = new long[perThread];
+                    for (int i = 0; i < perThread; i++) {
+                        ids[i] = generator.nextId();
+                    }
+                    return ids;
+                }));
+            }
+            Set<Long> all = new HashSet<>();
+            for (Future<long[]> future : futures) {
+                long[] ids = future.get(30, TimeUnit.SECONDS);
+                for (int i = 0; i < ids.length; i++) {
+                    assertTrue(i == 0 || ids[i] > ids[i - 1], "同一线程内严格递增");
+                    all.add(ids[i]);
+                }
+            }
+            assertEquals(threads * perThread, all.size(), "跨线程不重复");
+        } finally {
+            pool.shutdownNow();
+        }
+        // 之后生成的 ID 大于此前任何线程拿到的 ID
+        long last = generator.nextId();
+        for (Future<long[]> future : futures) {
+            long[] ids = future.get();
+            assertTrue(last > ids[ids.length - 1]);
+        }
+    }
+
+    @Test
+    void borrowsNextMillisecondWhenSequenceIsExhausted() {
+        AtomicLong clock = new AtomicLong(NOW);
+        MessageIdGenerator generator = generator(clock);
+
+        long previous = -1;
+        for (int i = 0; i < 4096; i++) {
+            long id = generator.nextId();
+            assertEquals(NOW, MessageIdGenerator.timestampOf(id));
+            assertEquals(i, sequenceOf(id));
+            assertTrue(id > previous);
+            previous = id;
+        }
+        // 第 4097 个：借用下一毫秒，不等待时钟
+        long borrowed = generator.nextId();
+        assertEquals(NOW + 1, MessageIdGenerator.timestampOf(borrowed));
+        assertEquals(0, sequenceOf(borrowed));
+        assertTrue(borrowed > previous);
+
+        // 时钟追上被借用的毫秒后，继续在其序号之后递增
+        clock.set(NOW + 1);
+        long next = generator.nextId();
+        assertEquals(NOW + 1, MessageIdGenerator.timestampOf(next));
+        assertEquals(1, sequenceOf(next));
+
+        clock.set(NOW + 2);
+        assertEquals(0, sequenceOf(generator.nextId()), "新的毫秒序号归零");
+    }
+
+    @Test
+    void clockMovingBackwardsKeepsIdsIncreasing() {
+        AtomicLong clock = new AtomicLong(NOW);
+        MessageIdGenerator generator = generator(clock);
+        long before = generator.nextId();
+
+        clock.set(NOW - 5_000);
+        long during = generator.nextId();
+        long after = generator.nextId();
+
+        assertTrue(during > before);
+        assertTrue(after > during);
+        assertEquals(NOW, MessageIdGenerator.timestampOf(during), "沿用回拨前的时间戳");
+
+        clock.set(NOW + 10);
+        long recovered = generator.nextId();
+        assertEquals(NOW + 10, MessageIdGenerator.timestampOf(recovered));
+        assertTrue(recovered > after);
+    }
+
+    @Test
+    void timestampAndWorkerRoundTrip() {
+        AtomicLong clock = new AtomicLong(NOW);
+        MessageIdGenerator generator = generator(clock);
+
+        for (long t : new long[]{MessageIdGenerator.EPOCH, NOW, System.currentTimeMillis()}) {
+            clock.set(t);
+            long id = generator.nextId();
+            assertEquals(t, MessageIdGenerator.timestampOf(id));
+            assertEquals(WORKER, (id >>> 12) & 0x3FF);
+            assertTrue(id >= 0);
+        }
+        assertEquals(WORKER, generator.getWorkerId());
+    }
+
+    @Test
+    void leasesDistinctWorkerIdsAndRenewsThem() {
+        MessageIdGenerator a = new MessageIdGenerator(template, presence("node-a"), -1);
+        MessageIdGenerator b = new MessageIdGenerator(template, presence("node-b"), -1);
+        String keyA = "im:id:worker:" + a.getWorkerId();
+        String keyB = "im:id:worker:" + b.getWorkerId();
+
+        assertNotEquals(a.getWorkerId(), b.getWorkerId());
+        assertEquals("node-a", template.opsForValue().get(keyA));
+        assertEquals("node-b", template.opsForValue().get(keyB));
+        assertTrue(template.getExpire(keyA, TimeUnit.SECONDS) > 0, "租约带过期时间");
+
+        // 续期：刷新过期时间
+        template.expire(keyA, 5, TimeUnit.SECONDS);
+        a.renewLease();
+        assertTrue(template.getExpire(keyA, TimeUnit.SECONDS) > 5);
+
+        // 租约已过期：续期时重新获得
+        template.delete(keyA);
+        a.renewLease();
+        assertEquals("node-a", template.opsForValue().get(keyA));
+
+        // 租约被其它节点占用：不抢回
+        template.opsForValue().set(keyA, "node-c");
+        a.renewLease();
+        assertEquals("node-c", template.opsForValue().get(keyA));
+
+        // 释放只删除自己持有的租约
+        a.releaseLease();
+        assertEquals("node-c", template.opsForValue().get(keyA));
+        b.releaseLease();
+        assertNull(template.opsForValue().get(keyB));
+    }
+}
@@ -0,0 +1,155 @@
+package com.webim.service;
+
+import com.webim.netty.BusinessExecutor;
+import com.webim.netty.NettyMetrics;
+import com.webim.support.EmbeddedRedis;
+import com.webim.support.Eventually;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 集群在线状态注册表：两个节点共用一个内嵌 Redis
+ */
+class PresenceServiceTest {
+
+    private static EmbeddedRedis redis;
+
+    private final List<BusinessExecutor> executors = new ArrayList<>();
+    private StringRedisTemplate template;
+
+    @BeforeAll
+    static void startRedis() {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        redis.close();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.flushAll();
+        template = redis.template();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executors.forEach(BusinessExecutor::shutdown);
+    }
+
+    private PresenceService node(String nodeId, long cacheTtlMillis) {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        BusinessExecutor executor = new BusinessExecutor(new NettyMetrics(meterRegistry), 2, 100, 1);
+        executors.add(executor);
+        return new PresenceService(template, executor, redis.listenerContainer(), meterRegistry,
+                nodeId, 15000, 1000, cacheTtlMillis);
+    }
+
+    private static void heartbeat(PresenceService... nodes) {
+        Arrays.stream(nodes).forEach(PresenceService::heartbeat);
+    }
+
+    @Test
+    void registeredSessionIsLocatedFromOtherNode() throws Exception {
+        PresenceService a = node("node-a", 60000);
+        PresenceService b = node("node-b", 60000);
+        heartbeat(a, b);
+
+        b.register(1, 100L);
+        assertNull(a.locateNow(1, 100L), "登记在下一次批量写入前不生效");
+        b.flush();
+
+        assertEquals("node-b", a.locate(1, 100L).get());
+        assertEquals("node-b", a.locateNow(1, 100L));
+    }
+
+    @Test
+    void registrationInvalidatesCachedOfflineResult() throws Exception {
+        PresenceService a = node("node-a", 60000);
+        PresenceService b = node("node-b", 60000);
+        heartbeat(a, b);
+
+        // 先把“不在线”缓存下来，之后的上线通知必须使其失效
+        assertNull(a.locate(1, 100L).get());
+        b.register(1, 100L);
+        b.flush();
+
+        Eventually.await("上线通知使缓存失效", () -> "node-b".equals(a.locate(1, 100L).join()));
+    }
+
+    @Test
+    void staleUnregisterKeepsSessionOnNewNode() {
+        PresenceService a = node("node-a", 0);
+        PresenceService b = node("node-b", 0);
+        heartbeat(a, b);
+
+        a.register(1, 100L);
+        a.flush();
+        // 会话迁移到 B 后，A 上旧连接的注销不能删掉 B 的登记
+        b.register(1, 100L);
+        b.flush();
+        a.unregister(1, 100L);
+        a.flush();
+
+        assertEquals("node-b", a.locateNow(1, 100L));
+    }
+
+    @Test
+    void registerThenUnregisterInOneWindowCollapses() {
+        PresenceService a = node("node-a", 0);
+        heartbeat(a);
+
+        a.register(1, 100L);
+        a.unregister(1, 100L);
+        a.register(1, 100L);
+        a.flush();
+
+        assertEquals("node-a", a.locateNow(1, 100L));
+    }
+
+    @Test
+    void sessionOnDeadNodeIsOffline() {
+        PresenceService a = node("node-a", 0);
+        PresenceService b = node("node-b", 0);
+        heartbeat(a, b);
+        b.register(1, 100L);
+        b.flush();
+        assertEquals("node-b", a.locateNow(1, 100L));
+
+        // B 停止心跳：在存活节点列表刷新后，其上的会话视为离线
+        template.opsForZSet().add("im:nodes", "node-b", System.currentTimeMillis() - 60000);
+        a.heartbeat();
+
+        assertNull(a.locateNow(1, 100L));
+    }
+
+    @Test
+    void unregisterAllRemovesOnlyOwnSessions() {
+        PresenceService a = node("node-a", 0);
+        PresenceService b = node("node-b", 0);
+        heartbeat(a, b);
+        a.register(1, 100L);
+        a.register(2, 200L);
+        a.flush();
+        b.register(2, 200L);
+        b.flush();
+
+        a.unregisterAll(Arrays.asList("1:100", "2:200"));
+
+        assertNull(a.locateNow(1, 100L));
+        assertEquals("node-b", a.locateNow(2, 200L));
+    }
+}
@@ -0,0 +1,48 @@
+package com.webim.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 会话凭证的签发与校验
+ */
+class SessionTicketServiceTest {
+
+    private final SessionTicketService service = new SessionTicketService("secret", 3600);
+
+    @Test
+    void issuedTicketIsVerified() {
+        SessionTicketService.Ticket issued = service.issue(2, 7L);
+
+        SessionTicketService.Ticket verified = service.verifyHeader("Bearer " + issued.getToken());
+
+        assertNotNull(verified);
+        assertEquals(Integer.valueOf(2), verified.getUserType());
+        assertEquals(Long.valueOf(7L), verified.getId());
+        // 其它节点使用相同密钥即可校验
+        assertNotNull(new SessionTicketService("secret", 3600).verify(issued.getToken()));
+    }
+
+    @Test
+    void tamperedOrForeignTicketIsRejected() {
+        String token = service.issue(1, 100L).getToken();
+        String forged = new SessionTicketService("secret", 3600).issue(1, 101L).getToken();
+        String tampered = forged.substring(0, forged.indexOf('.')) + token.substring(token.indexOf('.'));
+
+        assertNull(service.verify(tampered), "签名与内容不符");
+        assertNull(new SessionTicketService("other", 3600).verify(token), "密钥不同");
+        assertNull(service.verify("not-a-ticket"));
+        assertNull(service.verifyHeader(null));
+        assertNull(service.verifyHeader(token), "缺少 Bearer 前缀");
+    }
+
+    @Test
+    void expiredTicketIsRejected() {
+        SessionTicketService expiring = new SessionTicketService("secret", -1);
+
+        assertNull(expiring.verify(expiring.issue(1, 100L).getToken()));
+    }
+}
@@ -0,0 +1,82 @@
+package com.webim.store;
+
+import com.webim.entity.Message;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 追加写日志消息存储；稀疏索引每 4 条一块，使分页跨越多个块
+ */
+class LogMessageStoreTest extends MessageStoreContractTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<LogMessageStore> opened = new ArrayList<>();
+    private LogMessageStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = open();
+    }
+
+    @AfterEach
+    void tearDown() {
+        opened.forEach(LogMessageStore::close);
+    }
+
+    private LogMessageStore open() throws IOException {
+        LogMessageStore opened = new LogMessageStore(new SimpleMeterRegistry(), dir.toString(), 1, 4, "always", 30);
+        this.opened.add(opened);
+        return opened;
+    }
+
+    @Override
+    protected MessageStore store() {
+        return store;
+    }
+
+    @Override
+    protected MessageStore restart() throws IOException {
+        store.close();
+        store = open();
+        return store;
+    }
+
+    /**
+     * 写入后翻转最后一条记录的最后一个字节：长度已写入但负载与校验和不符，等同于写到一半时崩溃
+     */
+    @Override
+    protected void crashDuringAppend(List<Message> messages) throws IOException {
+        store.append(messages);
+        store.close();
+        Path last = null;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.log")) {
+            for (Path file : files) {
+                if (last == null || file.toString().compareTo(last.toString()) > 0) {
+                    last = file;
+                }
+            }
+        }
+        byte[] bytes = Files.readAllBytes(last);
+        int end = bytes.length - 1;
+        while (bytes[end] == 0) {
+            end--;
+        }
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) ~bytes[end]}), end);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.webim.store;
+
+import com.webim.entity.Message;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * MessageStore 的共同契约，每个实现各有一个子类提供存储实例
+ */
+abstract class MessageStoreContractTest {
+
+    protected static final String CONVERSATION = "100_1";
+    protected static final String OTHER_CONVERSATION = "101_1";
+
+    /**
+     * 当前使用的存储实例（每个测试方法一个新的空存储）
+     */
+    protected abstract MessageStore store();
+
+    /**
+     * 模拟进程重启：在同一份持久化数据上重新打开存储
+     */
+    protected abstract MessageStore restart() throws Exception;
+
+    /**
+     * 模拟写入最后一批时进程崩溃：这批消息写到一半，重启后不可见
+     */
+    protected abstract void crashDuringAppend(List<Message> messages) throws Exception;
+
+    protected static Message message(long id, String conversationId) {
+        Message message = new Message();
+        message.setId(id);
+        message.setConversationId(conversationId);
+        message.setFromId(100L);
+        message.setFromType(1);
+        message.setToId(1L);
+        message.setContent("消息 " + id);
+        message.setMsgType(1);
+        message.setCreateTime(new Date(1700000000000L + id));
+        return message;
+    }
+
+    private static List<Message> messages(String conversationId, long... ids) {
+        List<Message> messages = new ArrayList<>();
+        for (long id : ids) {
+            messages.add(message(id, conversationId));
+        }
+        return messages;
+    }
+
+    private static List<Long> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).collect(Collectors.toList());
+    }
+
+    /**
+     * 按游标逐页读完整个会话
+     */
+    private static List<Long> pageThrough(MessageStore store, String conversationId, int pageSize) {
+        List<Long> all = new ArrayList<>();
+        Long before = null;
+        while (true) {
+            List<Message> page = store.findHistory(conversationId, before, pageSize);
+            assertTrue(page.size() <= pageSize);
+            all.addAll(ids(page));
+            if (page.size() < pageSize) {
+                return all;
+            }
+            before = page.get(page.size() - 1).getId();
+        }
+    }
+
+    private static List<Long> descending(long from, long to) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = to; id >= from; id--) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    @Test
+    void appendedMessageIsReadBack() {
+        Message sent = message(1, CONVERSATION);
+        store().append(Collections.singletonList(sent));
+
+        List<Message> found = store().findByIds(Arrays.asList(1L, 999L));
+
+        assertEquals(1, found.size(), "不存在的 ID 被忽略");
+        Message message = found.get(0);
+        assertEquals(sent.getConversationId(), message.getConversationId());
+        assertEquals(sent.getFromId(), message.getFromId());
+        assertEquals(sent.getFromType(), message.getFromType());
+        assertEquals(sent.getToId(), message.getToId());
+        assertEquals(sent.getContent(), message.getContent());
+        assertEquals(sent.getMsgType(), message.getMsgType());
+        assertEquals(sent.getCreateTime().getTime(), message.getCreateTime().getTime());
+        assertEquals(Collections.singletonList(1L), ids(store().findHistory(CONVERSATION, null, 10)));
+    }
+
+    @Test
+    void batchAppendPagesWithCursors() {
+        for (long id = 1; id <= 60; id += 6) {
+            List<Message> batch = messages(CONVERSATION, id, id + 2, id + 4);
+            batch.addAll(messages(OTHER_CONVERSATION, id + 1, id + 3, id + 5));
+            store().append(batch);
+        }
+
+        List<Long> expected = new ArrayList<>();
+        for (long id = 59; id >= 1; id -= 2) {
+            expected.add(id);
+        }
+        assertEquals(expected, pageThrough(store(), CONVERSATION, 7));
+        assertEquals(expected.subList(0, 5), ids(store().findHistory(CONVERSATION, null, 5)));
+        assertEquals(Arrays.asList(19L, 17L), ids(store().findHistory(CONVERSATION, 20L, 2)), "游标不必是本会话的 ID");
+        assertTrue(store().findHistory(CONVERSATION, 1L, 10).isEmpty());
+        assertTrue(store().findHistory("999_1", null, 10).isEmpty());
+        assertEquals(Arrays.asList(2L, 3L, 4L), ids(store().findByIds(Arrays.asList(4L, 2L, 3L))), "按 id 升序返回");
+    }
+
+    @Test
+    void outOfOrderAppendsPageInIdOrder() {
+        // 写入顺序 7, 9, 8, 10：沿写入链回溯依次为 10, 8, 9, 7
+        store().append(messages(CONVERSATION, 7));
+        store().append(messages(CONVERSATION, 9));
+        store().append(messages(CONVERSATION, 8));
+        store().append(messages(CONVERSATION, 10));
+
+        assertEquals(Arrays.asList(10L, 9L), ids(store().findHistory(CONVERSATION, null, 2)));
+        assertEquals(Arrays.asList(8L, 7L), ids(store().findHistory(CONVERSATION, 9L, 2)));
+        assertEquals(Arrays.asList(10L, 9L, 8L, 7L), pageThrough(store(), CONVERSATION, 1));
+    }
+
+    @Test
+    void shuffledBatchesPageInIdOrder() {
+        List<Long> shuffled = descending(1, 300);
+        // 大体按时间顺序、局部乱序：每个 ID 最多提前或推迟几十条写入
+        Random random = new Random(42);
+        for (int i = 0; i < shuffled.size(); i++) {
+            Collections.swap(shuffled, i, Math.min(shuffled.size() - 1, i + random.nextInt(40)));
+        }
+        Collections.reverse(shuffled);
+        for (int i = 0; i < shuffled.size(); ) {
+            int size = 1 + random.nextInt(8);
+            List<Message> batch = new ArrayList<>();
+            for (int j = i; j < Math.min(shuffled.size(), i + size); j++) {
+                batch.add(message(shuffled.get(j), CONVERSATION));
+            }
+            store().append(batch);
+            i += size;
+        }
+
+        for (int pageSize : new int[]{1, 3, 20, 500}) {
+            assertEquals(descending(1, 300), pageThrough(store(), CONVERSATION, pageSize), "每页 " + pageSize + " 条");
+        }
+        List<Long> ascending = descending(1, 300);
+        Collections.reverse(ascending);
+        assertEquals(ascending, ids(store().findByIds(shuffled)));
+    }
+
+    @Test
+    void survivesRestart() throws Exception {
+        store().append(messages(CONVERSATION, 1, 2, 3));
+        store().append(messages(OTHER_CONVERSATION, 4));
+
+        MessageStore reopened = restart();
+        reopened.append(messages(CONVERSATION, 5));
+
+        assertEquals(Arrays.asList(5L, 3L, 2L, 1L), pageThrough(reopened, CONVERSATION, 2));
+        assertEquals(Collections.singletonList(4L), ids(reopened.findByIds(Collections.singletonList(4L))));
+    }
+
+    @Test
+    void recoversAfterTruncatedRecord() throws Exception {
+        store().append(messages(CONVERSATION, 1, 2, 3));
+        crashDuringAppend(messages(CONVERSATION, 4));
+
+        MessageStore reopened = restart();
+
+        assertEquals(Arrays.asList(3L, 2L, 1L), pageThrough(reopened, CONVERSATION, 2));
+        assertTrue(reopened.findByIds(Collections.singletonList(4L)).isEmpty());
+        // 客户端重发后正常写入
+        reopened.append(messages(CONVERSATION, 4, 5));
+        assertEquals(Arrays.asList(5L, 4L, 3L, 2L, 1L), pageThrough(reopened, CONVERSATION, 2));
+    }
+}
@@ -0,0 +1,80 @@
+package com.webim.store;
+
+import com.webim.entity.Message;
+import com.webim.mapper.ChatMapper;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * im_message 表消息存储，数据库为 H2（MySQL 兼容模式），表结构与 sql/init.sql 一致
+ */
+class MysqlMessageStoreTest extends MessageStoreContractTest {
+
+    private JdbcDataSource dataSource;
+    private SqlSessionFactory sessionFactory;
+    private MessageStore store;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE im_message (id BIGINT NOT NULL, conversation_id VARCHAR(64) NOT NULL DEFAULT '', "
+                    + "from_id BIGINT NOT NULL, from_type TINYINT NOT NULL, to_id BIGINT NOT NULL, content TEXT, "
+                    + "msg_type TINYINT DEFAULT 1, create_time DATETIME DEFAULT CURRENT_TIMESTAMP, PRIMARY KEY (id))");
+            statement.execute("CREATE INDEX idx_conversation_id ON im_message (conversation_id, id)");
+        }
+        Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+        configuration.addMapper(ChatMapper.class);
+        sessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+        store = open();
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+    }
+
+    private MessageStore open() {
+        // 每次调用在独立的自动提交会话中执行
+        return new MysqlMessageStore(SqlSessionManager.newInstance(sessionFactory).getMapper(ChatMapper.class));
+    }
+
+    @Override
+    protected MessageStore store() {
+        return store;
+    }
+
+    @Override
+    protected MessageStore restart() {
+        store = open();
+        return store;
+    }
+
+    /**
+     * 批量 INSERT 已执行但事务未提交
+     */
+    @Override
+    protected void crashDuringAppend(List<Message> messages) {
+        try (SqlSession session = sessionFactory.openSession(false)) {
+            session.getMapper(ChatMapper.class).insertMessages(messages);
+            session.rollback();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.webim.support;
+
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 测试用 Redis 替身：启动随 embedded-redis 打包的 redis-server 进程（不落盘），监听 127.0.0.1 的空闲端口
+ * 与线上一样执行 Lua 脚本和 Pub/Sub
+ */
+public final class EmbeddedRedis implements AutoCloseable {
+
+    private static final RedisScript<Long> SUBSCRIBERS_SCRIPT = new DefaultRedisScript<>(
+            "return redis.call('PUBSUB', 'NUMSUB', KEYS[1])[2]", Long.class);
+
+    private final RedisServer server;
+    private final LettuceConnectionFactory connectionFactory;
+    private final List<RedisMessageListenerContainer> containers = new ArrayList<>();
+
+    private EmbeddedRedis(RedisServer server, int port) {
+        this.server = server;
+        this.connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        connectionFactory.afterPropertiesSet();
+    }
+
+    public static EmbeddedRedis start() {
+        int port = freePort();
+        try {
+            RedisServer server = RedisServer.newRedisServer()
+                    .bind("127.0.0.1")
+                    .port(port)
+                    .setting("save \"\"")
+                    .setting("appendonly no")
+                    .build();
+            server.start();
+            return new EmbeddedRedis(server, port);
+        } catch (IOException e) {
+            throw new UncheckedIOException("启动内嵌 Redis 失败", e);
+        }
+    }
+
+    public StringRedisTemplate template() {
+        return new StringRedisTemplate(connectionFactory);
+    }
+
+    /**
+     * 已启动的 Pub/Sub 监听容器；每个模拟节点使用各自的容器，随本实例一起关闭
+     */
+    public synchronized RedisMessageListenerContainer listenerContainer() {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.afterPropertiesSet();
+        container.start();
+        containers.add(container);
+        return container;
+    }
+
+    /**
+     * 频道当前的订阅者数，用于等待监听容器完成订阅
+     */
+    public long subscribers(String channel) {
+        Long count = template().execute(SUBSCRIBERS_SCRIPT, Collections.singletonList(channel));
+        return count == null ? 0 : count;
+    }
+
+    public void flushAll() {
+        template().execute((RedisCallback<Object>) connection -> {
+            connection.flushAll();
+            return null;
+        });
+    }
+
+    @Override
+    public synchronized void close() throws Exception {
+        for (RedisMessageListenerContainer container : containers) {
+            container.destroy();
+        }
+        connectionFactory.destroy();
+        server.stop();
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
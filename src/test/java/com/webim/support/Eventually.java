@@ -0,0 +1,29 @@
+package com.webim.support;
+
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * 等待异步结果（Pub/Sub 通知、跨节点投递）在限定时间内成立
+ */
+public final class Eventually {
+
+    private Eventually() {
+    }
+
+    public static void await(String description, BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("等待超时: " + description);
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("等待被中断: " + description);
+            }
+        }
+    }
+}
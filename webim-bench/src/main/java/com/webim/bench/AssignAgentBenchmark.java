@@ -0,0 +1,102 @@
+package com.webim.bench;
+
+import com.webim.entity.Agent;
+import com.webim.mapper.ChatMapper;
+import com.webim.service.AgentService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 客服分配：AgentService.assignAgent + releaseAgent（各一次 Lua 往返），运行在内嵌 redis-server 上
+ * 每次调用分配一个新用户后立即释放，负载保持稳定；agents 控制负载 ZSet 的大小
+ * <pre>
+ * java -jar target/webim-bench.jar AssignAgentBenchmark -p agents=10,200 -t 8
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Threads(4)
+@Fork(1)
+public class AssignAgentBenchmark {
+
+    @Param({"10", "200"})
+    public int agents;
+
+    /**
+     * 每位客服已在接待的用户数（分配时需跳过已满员的客服）
+     */
+    @Param({"0", "3"})
+    public int preload;
+
+    private EmbeddedRedis redis;
+    private AgentService agentService;
+    private final AtomicLong nextUserId = new AtomicLong(10_000_000L);
+
+    @Setup(Level.Trial)
+    public void setup() {
+        redis = EmbeddedRedis.start(0);
+        StringRedisTemplate template = redis.template();
+        template.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushDb();
+            return null;
+        });
+        agentService = new AgentService(template, chatMapper(preload + 5), new SimpleMeterRegistry(), 5, 60, "");
+        for (long agentId = 1; agentId <= agents; agentId++) {
+            agentService.agentOnline(agentId);
+        }
+        for (int i = 0; i < agents * preload; i++) {
+            agentService.assignAgent(nextUserId.incrementAndGet(), 0);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        redis.close();
+    }
+
+    @Benchmark
+    public Long assignAndRelease() {
+        long userId = nextUserId.incrementAndGet();
+        AgentService.Assignment assignment = agentService.assignAgent(userId, 0);
+        agentService.releaseAgent(userId);
+        return assignment.getAgentId();
+    }
+
+    /**
+     * MySQL 替身：客服的最大接待数固定为 maxLinks，状态更新直接忽略
+     */
+    private static ChatMapper chatMapper(int maxLinks) {
+        return (ChatMapper) Proxy.newProxyInstance(ChatMapper.class.getClassLoader(), new Class<?>[]{ChatMapper.class},
+                (proxy, method, args) -> {
+                    if ("selectAgentById".equals(method.getName())) {
+                        Agent agent = new Agent();
+                        agent.setId((Long) args[0]);
+                        agent.setMaxLinks(maxLinks);
+                        return agent;
+                    }
+                    return method.getReturnType() == int.class ? 0 : null;
+                });
+    }
+}
@@ -0,0 +1,38 @@
+package com.webim.bench;
+
+import java.util.Arrays;
+
+/**
+ * 基准与压测共用的测试数据
+ */
+public final class BenchData {
+
+    private static final String SAMPLE = "您好，请问订单什么时候发货？Hello, when will my order ship? 0123456789 ";
+
+    private BenchData() {
+    }
+
+    /**
+     * 中英文混合的消息正文，长度为 length 个字符
+     */
+    public static String text(int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = SAMPLE.charAt(i % SAMPLE.length());
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 填充到 length 个字符（不足时补 '.'），用于在正文前缀携带时间戳等信息
+     */
+    public static String pad(String prefix, int length) {
+        if (prefix.length() >= length) {
+            return prefix;
+        }
+        char[] chars = new char[length];
+        prefix.getChars(0, prefix.length(), chars, 0);
+        Arrays.fill(chars, prefix.length(), length, '.');
+        return new String(chars);
+    }
+}
@@ -0,0 +1,280 @@
+package com.webim.bench;
+
+import com.alibaba.fastjson2.JSONWriter;
+import com.webim.netty.protocol.BinaryFrameCodec;
+import com.webim.netty.protocol.ErrorFrame;
+import com.webim.netty.protocol.JsonFrameCodec;
+import com.webim.netty.protocol.NoticeFrame;
+import com.webim.netty.protocol.QueueFrame;
+import com.webim.netty.protocol.ReceiveFrame;
+import com.webim.netty.protocol.SentFrame;
+import com.webim.netty.protocol.ServerFrame;
+import com.webim.netty.protocol.SystemFrame;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 客户端一侧的帧编解码（服务端只解码上行帧、只编码下行帧，压测客户端需要反过来）
+ * 二进制格式与 resources/proto/webim.proto 一致
+ */
+public final class ClientFrames {
+
+    // 与 BinaryFrameCodec 中的帧类型一致
+    private static final int AUTH = 1;
+    private static final int SEND = 2;
+    private static final int HEARTBEAT = 4;
+    private static final int RECEIVE = 0x81;
+    private static final int SYSTEM = 0x82;
+    private static final int ERROR = 0x83;
+    private static final int QUEUE = 0x84;
+    private static final int SENT = 0x87;
+    private static final String PONG_JSON = "{\"type\":\"PONG\"}";
+
+    /**
+     * 客户端使用的子协议
+     */
+    public enum Protocol {
+        JSON(JsonFrameCodec.SUBPROTOCOL),
+        BINARY(BinaryFrameCodec.SUBPROTOCOL);
+
+        private final String subprotocol;
+
+        Protocol(String subprotocol) {
+            this.subprotocol = subprotocol;
+        }
+
+        public String subprotocol() {
+            return subprotocol;
+        }
+    }
+
+    private ClientFrames() {
+    }
+
+    public static WebSocketFrame auth(Protocol protocol, ByteBufAllocator alloc, long id, int userType) {
+        if (protocol == Protocol.JSON) {
+            return json(alloc, "{\"type\":\"AUTH\",\"id\":" + id + ",\"userType\":" + userType + "}");
+        }
+        ByteBuf buf = alloc.buffer(16).writeByte(AUTH);
+        writeVarintField(buf, 1, id);
+        writeVarintField(buf, 2, userType);
+        return new BinaryWebSocketFrame(buf);
+    }
+
+    public static WebSocketFrame send(Protocol protocol, ByteBufAllocator alloc, long toId, String content,
+                                      String clientMsgId) {
+        if (protocol == Protocol.JSON) {
+            try (JSONWriter writer = JSONWriter.ofUTF8()) {
+                writer.startObject();
+                writer.writeName("type");
+                writer.writeColon();
+                writer.writeString("SEND");
+                writer.writeName("toId");
+                writer.writeColon();
+                writer.writeInt64(toId);
+                writer.writeName("content");
+                writer.writeColon();
+                writer.writeString(content);
+                writer.writeName("msgType");
+                writer.writeColon();
+                writer.writeInt32(1);
+                if (clientMsgId != null) {
+                    writer.writeName("clientMsgId");
+                    writer.writeColon();
+                    writer.writeString(clientMsgId);
+                }
+                writer.endObject();
+                byte[] bytes = writer.getBytes();
+                return new TextWebSocketFrame(alloc.buffer(bytes.length).writeBytes(bytes));
+            }
+        }
+        ByteBuf buf = alloc.buffer(32 + content.length() * 3).writeByte(SEND);
+        writeVarintField(buf, 1, toId);
+        writeStringField(buf, 2, content);
+        writeVarintField(buf, 3, 1);
+        if (clientMsgId != null) {
+            writeStringField(buf, 4, clientMsgId);
+        }
+        return new BinaryWebSocketFrame(buf);
+    }
+
+    public static WebSocketFrame heartbeat(Protocol protocol, ByteBufAllocator alloc) {
+        if (protocol == Protocol.JSON) {
+            return json(alloc, "{\"type\":\"HEARTBEAT\"}");
+        }
+        return new BinaryWebSocketFrame(alloc.buffer(1).writeByte(HEARTBEAT));
+    }
+
+    /**
+     * 解码下行帧；压测不关心的帧类型返回 null
+     */
+    public static ServerFrame decode(WebSocketFrame frame) {
+        ByteBuf in = frame.content();
+        if (frame instanceof TextWebSocketFrame) {
+            // 心跳应答不是 ServerFrame，按 ServerFrame 解析会抛出异常并断开连接
+            String json = in.toString(StandardCharsets.UTF_8);
+            return PONG_JSON.equals(json) ? null : JsonFrameCodec.parseServerFrame(json);
+        }
+        if (!(frame instanceof BinaryWebSocketFrame) || !in.isReadable()) {
+            return null;
+        }
+        in = in.duplicate();
+        int type = in.readUnsignedByte();
+        switch (type) {
+            case RECEIVE: {
+                ReceiveFrame receive = new ReceiveFrame();
+                while (in.isReadable()) {
+                    int tag = (int) readVarint(in);
+                    switch (tag >>> 3) {
+                        case 1:
+                            receive.setId(readVarint(in));
+                            break;
+                        case 2:
+                            receive.setFromId(readVarint(in));
+                            break;
+                        case 3:
+                            receive.setContent(readString(in));
+                            break;
+                        case 5:
+                            receive.setTimestamp(readVarint(in));
+                            break;
+                        default:
+                            skip(in, tag & 7);
+                    }
+                }
+                return receive;
+            }
+            case SYSTEM:
+            case ERROR: {
+                NoticeFrame notice = type == SYSTEM ? new SystemFrame() : new ErrorFrame(null);
+                while (in.isReadable()) {
+                    int tag = (int) readVarint(in);
+                    switch (tag >>> 3) {
+                        case 1:
+                            notice.setContent(readString(in));
+                            break;
+                        case 2:
+                            notice.setAgentId(readVarint(in));
+                            break;
+                        case 3:
+                            if (notice instanceof ErrorFrame) {
+                                ((ErrorFrame) notice).setClientMsgId(readString(in));
+                                break;
+                            }
+                            skip(in, tag & 7);
+                            break;
+                        default:
+                            skip(in, tag & 7);
+                    }
+                }
+                return notice;
+            }
+            case QUEUE: {
+                QueueFrame queue = new QueueFrame();
+                while (in.isReadable()) {
+                    int tag = (int) readVarint(in);
+                    if (tag >>> 3 == 1) {
+                        queue.setPosition((int) readVarint(in));
+                    } else {
+                        skip(in, tag & 7);
+                    }
+                }
+                return queue;
+            }
+            case SENT: {
+                SentFrame sent = new SentFrame();
+                while (in.isReadable()) {
+                    int tag = (int) readVarint(in);
+                    switch (tag >>> 3) {
+                        case 1:
+                            sent.setClientMsgId(readString(in));
+                            break;
+                        case 2:
+                            sent.setId(readVarint(in));
+                            break;
+                        case 3:
+                            sent.setTimestamp(readVarint(in));
+                            break;
+                        default:
+                            skip(in, tag & 7);
+                    }
+                }
+                return sent;
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static TextWebSocketFrame json(ByteBufAllocator alloc, String json) {
+        ByteBuf buf = alloc.buffer(json.length());
+        ByteBufUtil.writeUtf8(buf, json);
+        return new TextWebSocketFrame(buf);
+    }
+
+    // ---------------- Protobuf 线格式 ----------------
+
+    private static void writeVarint(ByteBuf buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.writeByte((int) value);
+    }
+
+    private static void writeVarintField(ByteBuf buf, int field, long value) {
+        writeVarint(buf, field << 3);
+        writeVarint(buf, value);
+    }
+
+    private static void writeStringField(ByteBuf buf, int field, String value) {
+        writeVarint(buf, field << 3 | 2);
+        writeVarint(buf, ByteBufUtil.utf8Bytes(value));
+        ByteBufUtil.writeUtf8(buf, value);
+    }
+
+    private static long readVarint(ByteBuf in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new CorruptedFrameException("varint 过长");
+    }
+
+    private static String readString(ByteBuf in) {
+        int length = (int) readVarint(in);
+        String value = in.toString(in.readerIndex(), length, StandardCharsets.UTF_8);
+        in.skipBytes(length);
+        return value;
+    }
+
+    private static void skip(ByteBuf in, int wireType) {
+        switch (wireType) {
+            case 0:
+                readVarint(in);
+                break;
+            case 1:
+                in.skipBytes(8);
+                break;
+            case 2:
+                in.skipBytes((int) readVarint(in));
+                break;
+            case 5:
+                in.skipBytes(4);
+                break;
+            default:
+                throw new CorruptedFrameException("未知的字段类型: " + wireType);
+        }
+    }
+}
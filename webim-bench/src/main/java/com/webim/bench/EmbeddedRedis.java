@@ -0,0 +1,80 @@
+package com.webim.bench;
+
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+
+/**
+ * 本机 Redis 替身：启动随 embedded-redis 打包的 redis-server 进程（不落盘），监听 127.0.0.1 的空闲端口
+ * 与线上一样执行 Lua 脚本和 Pub/Sub，只是去掉了网络与持久化开销
+ */
+public final class EmbeddedRedis implements AutoCloseable {
+
+    private final RedisServer server;
+    private final int port;
+    private LettuceConnectionFactory connectionFactory;
+
+    private EmbeddedRedis(RedisServer server, int port) {
+        this.server = server;
+        this.port = port;
+    }
+
+    /**
+     * @param port 0 表示任选空闲端口
+     */
+    public static EmbeddedRedis start(int port) {
+        int actualPort = port > 0 ? port : freePort();
+        try {
+            RedisServer server = RedisServer.newRedisServer()
+                    .bind("127.0.0.1")
+                    .port(actualPort)
+                    .setting("save \"\"")
+                    .setting("appendonly no")
+                    .build();
+            server.start();
+            return new EmbeddedRedis(server, actualPort);
+        } catch (IOException e) {
+            throw new UncheckedIOException("启动内嵌 Redis 失败", e);
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * 连接到本实例的 StringRedisTemplate（与服务端相同的 Lettuce 客户端）
+     */
+    public synchronized StringRedisTemplate template() {
+        if (connectionFactory == null) {
+            connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+            connectionFactory.afterPropertiesSet();
+        }
+        return new StringRedisTemplate(connectionFactory);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+        try {
+            server.stop();
+        } catch (IOException e) {
+            throw new UncheckedIOException("停止内嵌 Redis 失败", e);
+        }
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.webim.bench;
+
+import com.webim.netty.protocol.AckFrame;
+import com.webim.netty.protocol.AuthFrame;
+import com.webim.netty.protocol.BinaryFrameCodec;
+import com.webim.netty.protocol.ClientFrame;
+import com.webim.netty.protocol.FrameCodec;
+import com.webim.netty.protocol.HeartbeatFrame;
+import com.webim.netty.protocol.JsonFrameCodec;
+import com.webim.netty.protocol.ReceiveFrame;
+import com.webim.netty.protocol.SendFrame;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 帧编解码与分发：ChatHandler.channelRead0 在 I/O 线程上对每个上行帧做的事（心跳识别、解码 + 按类型分发），
+ * 以及每条私聊消息的下行 RECEIVE 编码
+ * <pre>
+ * java -jar target/webim-bench.jar FrameCodecBenchmark -p protocol=JSON,BINARY
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrameCodecBenchmark {
+
+    @Param({"JSON", "BINARY"})
+    public ClientFrames.Protocol protocol;
+
+    /**
+     * 消息正文长度（字符）
+     */
+    @Param({"64", "1024"})
+    public int contentLength;
+
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+    private FrameCodec codec;
+    private ByteBuf send;
+    private ByteBuf heartbeat;
+    private ReceiveFrame receive;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        codec = protocol == ClientFrames.Protocol.JSON ? JsonFrameCodec.INSTANCE : BinaryFrameCodec.INSTANCE;
+        String content = BenchData.text(contentLength);
+        send = ClientFrames.send(protocol, alloc, 10001L, content, "c-1700000000000-42").content();
+        heartbeat = ClientFrames.heartbeat(protocol, alloc).content();
+        receive = new ReceiveFrame();
+        receive.setId(123456789012345678L);
+        receive.setFromId(20001L);
+        receive.setContent(content);
+        receive.setMsgType(1);
+        receive.setTimestamp(System.currentTimeMillis());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        send.release();
+        heartbeat.release();
+    }
+
+    @Benchmark
+    public int decodeSend() {
+        if (codec.isHeartbeat(send)) {
+            return 1;
+        }
+        return dispatch(codec.decode(send));
+    }
+
+    /**
+     * 心跳完整解码后再分发（非标准格式心跳的路径）
+     */
+    @Benchmark
+    public int decodeHeartbeat() {
+        return dispatch(codec.decode(heartbeat));
+    }
+
+    /**
+     * ChatHandler 实际走的心跳路径：解码前按字节识别
+     */
+    @Benchmark
+    public int heartbeat() {
+        return codec.isHeartbeat(heartbeat) ? 1 : dispatch(codec.decode(heartbeat));
+    }
+
+    @Benchmark
+    public int encodeReceive() {
+        WebSocketFrame frame = codec.encode(alloc, receive);
+        int size = frame.content().readableBytes();
+        frame.release();
+        return size;
+    }
+
+    /**
+     * 与 ChatHandler.channelRead0 相同的 instanceof 分发顺序
+     */
+    private static int dispatch(ClientFrame frame) {
+        if (frame instanceof HeartbeatFrame) {
+            return 1;
+        } else if (frame instanceof SendFrame) {
+            return ((SendFrame) frame).getContent().length();
+        } else if (frame instanceof AckFrame) {
+            return 3;
+        } else if (frame instanceof AuthFrame) {
+            return 4;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,133 @@
+package com.webim.bench;
+
+import com.webim.netty.NettyMetrics;
+import com.webim.netty.OutboundWriter;
+import com.webim.netty.RoomChannels;
+import com.webim.netty.protocol.BinaryFrameCodec;
+import com.webim.netty.protocol.FrameCodec;
+import com.webim.netty.protocol.JsonFrameCodec;
+import com.webim.netty.protocol.RoomFrame;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 房间广播扇出：RoomChannels.fanOut 向 members 个连接广播一帧，直到全部对端收到为止
+ * 连接为进程内的 LocalChannel，分布在 loops 个 EventLoop 上，binaryPercent 控制使用二进制协议的连接比例
+ * 衡量的是编码次数、跨线程任务数与逐连接写出的总开销，不含真实 Socket 的系统调用
+ * <pre>
+ * java -jar target/webim-bench.jar RoomFanOutBenchmark -p members=10000
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RoomFanOutBenchmark {
+
+    private static final String ROOM = "bench";
+
+    @Param({"1000", "10000"})
+    public int members;
+
+    @Param({"4"})
+    public int loops;
+
+    @Param({"0", "50"})
+    public int binaryPercent;
+
+    private EventLoopGroup group;
+    private final List<Channel> channels = new ArrayList<>();
+    private final AtomicLong received = new AtomicLong();
+    private RoomChannels roomChannels;
+    private RoomFrame frame;
+    private long expected;
+
+    @Setup(Level.Trial)
+    public void setup() throws InterruptedException {
+        group = new DefaultEventLoopGroup(loops);
+        LocalAddress address = new LocalAddress("room-fanout-bench");
+        // 对端只计数并释放收到的帧（客户端一侧不会收到数据，共用同一个 Handler）
+        ChannelInboundHandlerAdapter sink = new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                ReferenceCountUtil.release(msg);
+                received.incrementAndGet();
+            }
+
+            @Override
+            public boolean isSharable() {
+                return true;
+            }
+        };
+        channels.add(new ServerBootstrap().group(group).channel(LocalServerChannel.class)
+                .childHandler(sink).bind(address).sync().channel());
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        OutboundWriter outboundWriter = new OutboundWriter(registry, 256, "drop");
+        roomChannels = new RoomChannels(outboundWriter, new NettyMetrics(registry), registry);
+        Bootstrap bootstrap = new Bootstrap().group(group).channel(LocalChannel.class)
+                .handler(sink);
+        for (int i = 0; i < members; i++) {
+            Channel channel = bootstrap.connect(address).sync().channel();
+            FrameCodec codec = i % 100 < binaryPercent ? BinaryFrameCodec.INSTANCE : JsonFrameCodec.INSTANCE;
+            channel.attr(FrameCodec.ATTRIBUTE).set(codec);
+            roomChannels.bind(ROOM, channel);
+            channels.add(channel);
+        }
+        frame = new RoomFrame();
+        frame.setRoom(ROOM);
+        frame.setId(123456789012345678L);
+        frame.setFromId(1L);
+        frame.setFromType(2);
+        frame.setContent(BenchData.text(120));
+        frame.setMsgType(1);
+        frame.setTimestamp(System.currentTimeMillis());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Channel channel : channels) {
+            channel.close();
+        }
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    @Benchmark
+    public int fanOut() {
+        int recipients = roomChannels.fanOut(ROOM, frame);
+        expected += recipients;
+        while (received.get() < expected) {
+            Thread.yield();
+        }
+        return recipients;
+    }
+}
@@ -0,0 +1,99 @@
+package com.webim.bench;
+
+import com.webim.netty.Session;
+import com.webim.netty.SessionRegistry;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在线会话查找：每条私聊消息、每次跨节点投递都要按 (用户类型, 用户ID) 找到目标连接
+ * 1. lookup*：原先的结构——ConcurrentHashMap，键为 "用户类型:用户ID" 字符串，每次查找先拼接键
+ * 2. registry*：SessionRegistry，long 键、分段开链表，查找不分配对象
+ * 加上 -prof gc 对比每次查找的分配量（gc.alloc.rate.norm）
+ * <pre>
+ * java -jar target/webim-bench.jar SessionLookupBenchmark -p sessions=500000 -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class SessionLookupBenchmark {
+
+    @Param({"10000", "500000"})
+    public int sessions;
+
+    private final Map<String, Channel> userChannels = new ConcurrentHashMap<>();
+    private final SessionRegistry registry = new SessionRegistry(0, 5);
+    private long[] ids;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // 查找开销与值无关，所有会话共用一个 Channel
+        Channel channel = new EmbeddedChannel();
+        ids = new long[sessions];
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < sessions; i++) {
+            ids[i] = 1_000_000L + random.nextInt(100_000_000);
+            userChannels.put((i % 2 + 1) + ":" + ids[i], channel);
+            registry.add(new Session(i % 2 + 1, ids[i], channel));
+        }
+    }
+
+    /**
+     * 每个线程独立的访问序列
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final SplittableRandom random = new SplittableRandom();
+
+        int next(int bound) {
+            return random.nextInt(bound);
+        }
+    }
+
+    @Benchmark
+    public Channel lookupHit(Cursor cursor) {
+        int i = cursor.next(sessions);
+        return userChannels.get((i % 2 + 1) + ":" + ids[i]);
+    }
+
+    @Benchmark
+    public Channel lookupMiss(Cursor cursor) {
+        int i = cursor.next(sessions);
+        return userChannels.get((i % 2 + 1) + ":" + (ids[i] + 100_000_000L));
+    }
+
+    @Benchmark
+    public Session[] registryHit(Cursor cursor) {
+        int i = cursor.next(sessions);
+        return registry.get(i % 2 + 1, ids[i]);
+    }
+
+    @Benchmark
+    public Session[] registryMiss(Cursor cursor) {
+        int i = cursor.next(sessions);
+        return registry.get(i % 2 + 1, ids[i] + 100_000_000L);
+    }
+}
@@ -0,0 +1,41 @@
+package com.webim.bench.load;
+
+import com.webim.WebIMApplication;
+import com.webim.bench.EmbeddedRedis;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * 压测用服务端：以 bench 配置（application-bench.yml）启动完整的 webim-server，
+ * MySQL 由 H2 内存库代替，Redis 由内嵌 redis-server 代替，单机即可运行
+ * <pre>
+ * java -cp target/webim-bench.jar com.webim.bench.load.BenchServer [--netty.websocket.port=8888] [--webim.store.type=log]
+ * </pre>
+ * 启动参数按 Spring Boot 的 --key=value 形式覆盖配置；-Dbench.redis.port 指定内嵌 Redis 端口（默认任选空闲端口）
+ */
+public final class BenchServer {
+
+    private BenchServer() {
+    }
+
+    public static void main(String[] args) {
+        EmbeddedRedis redis = EmbeddedRedis.start(Integer.getInteger("bench.redis.port", 0));
+        // 系统属性优先于 application.yml
+        System.setProperty("spring.redis.host", "127.0.0.1");
+        System.setProperty("spring.redis.port", String.valueOf(redis.getPort()));
+        SpringApplication application = new SpringApplication(WebIMApplication.class);
+        application.setAdditionalProfiles("bench");
+        ConfigurableApplicationContext context;
+        try {
+            context = application.run(args);
+        } catch (RuntimeException e) {
+            redis.close();
+            throw e;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            context.close();
+            redis.close();
+        }, "bench-server-shutdown"));
+        System.out.println("压测服务端已启动，内嵌 Redis 端口: " + redis.getPort());
+    }
+}
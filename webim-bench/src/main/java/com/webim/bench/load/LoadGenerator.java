@@ -0,0 +1,425 @@
+package com.webim.bench.load;
+
+import com.webim.bench.BenchData;
+import com.webim.bench.ClientFrames;
+import com.webim.netty.protocol.ErrorFrame;
+import com.webim.netty.protocol.QueueFrame;
+import com.webim.netty.protocol.ReceiveFrame;
+import com.webim.netty.protocol.SentFrame;
+import com.webim.netty.protocol.ServerFrame;
+import com.webim.netty.protocol.SystemFrame;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * WebSocket 压测客户端：建立 agents 个客服连接与 users 个用户连接，认证并等待客服分配后，
+ * 由用户以 rate 条/秒的固定速率向各自的客服发送消息，按秒输出吞吐与延迟，结束时输出总体百分位
+ * <pre>
+ * java -cp target/webim-bench.jar com.webim.bench.load.LoadGenerator --users=5000 --agents=50 --rate=20000 --duration=60
+ * </pre>
+ * --idle=N 在开始发送前另外建立 N 个只认证、只发心跳的用户连接，用于测量大量空闲连接下的建连速率、内存占用与消息延迟
+ * 延迟从消息的计划发送时刻起算（而不是实际写出时刻），发送线程落后于计划时排队等待的时间也计入延迟，避免协调遗漏（coordinated omission）：
+ * 1. 投递延迟：客服收到 RECEIVE 的时刻 - 计划发送时刻，计划时刻写在消息正文的前缀中
+ * 2. 确认延迟：用户收到 SENT（已落库）的时刻 - 计划发送时刻，计划时刻写在 clientMsgId 中
+ * 压测客户端与服务端应运行在同一台机器上，或至少保证客户端机器不是瓶颈
+ */
+public final class LoadGenerator {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final long HEARTBEAT_SECONDS = 30;
+
+    private final Options options;
+    private final EventLoopGroup group;
+    private final Bootstrap bootstrap;
+
+    private final Recorder deliveryRecorder = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+    private final Recorder ackRecorder = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong acked = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+
+    private LoadGenerator(Options options) {
+        this.options = options;
+        this.group = new NioEventLoopGroup(options.threads);
+        this.bootstrap = new Bootstrap().group(group).channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10_000);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        LoadGenerator generator = new LoadGenerator(options);
+        try {
+            generator.run();
+        } finally {
+            generator.group.shutdownGracefully(0, 2, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+    }
+
+    private void run() throws Exception {
+        System.out.printf("目标 %s，协议 %s，客服 %d，用户 %d，速率 %d 条/秒，正文 %d 字符，预热 %d 秒，压测 %d 秒%n",
+                options.url, options.protocol, options.agents, options.users, options.rate, options.size,
+                options.warmup, options.duration);
+
+        List<Client> agents = connect(2, options.idBase, options.agents);
+        List<Client> users = connect(1, options.idBase, options.users);
+        List<Client> senders = new ArrayList<>(users.size());
+        for (Client user : users) {
+            Long agentId = awaitQuietly(user.assigned, 30);
+            if (agentId != null) {
+                user.agentId = agentId;
+                senders.add(user);
+            }
+        }
+        System.out.printf("连接完成：客服 %d，用户 %d，已分配客服 %d，排队 %d%n",
+                agents.size(), users.size(), senders.size(), queued.get());
+        if (options.idle > 0) {
+            long connectStart = System.nanoTime();
+            List<Client> idle = connect(1, options.idBase + options.users, options.idle);
+            double connectSeconds = (System.nanoTime() - connectStart) / 1e9;
+            System.out.printf("空闲连接 %d 个，耗时 %.1f 秒（%.0f 个/秒）%n", idle.size(), connectSeconds,
+                    idle.size() / connectSeconds);
+            users.addAll(idle);
+        }
+        if (senders.isEmpty()) {
+            System.out.println("没有已分配客服的用户，请增加客服数量或调大 webim.agent.default-max-links");
+            closeAll(agents, users);
+            return;
+        }
+
+        Sender sender = new Sender(senders);
+        sender.start();
+        Histogram deliveryTotal = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        Histogram ackTotal = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        Histogram deliveryInterval = null;
+        Histogram ackInterval = null;
+        long measureStart = System.nanoTime();
+        long measureSent = 0;
+        long measureDelivered = 0;
+        long measureAcked = 0;
+        long lastSent = 0;
+        long lastDelivered = 0;
+        long lastAcked = 0;
+        System.out.println("  秒   发送/s   投递/s   确认/s   投递p50(ms)  投递p99(ms)  确认p99(ms)");
+        for (int second = 1; second <= options.warmup + options.duration; second++) {
+            Thread.sleep(1000);
+            deliveryInterval = deliveryRecorder.getIntervalHistogram(deliveryInterval);
+            ackInterval = ackRecorder.getIntervalHistogram(ackInterval);
+            long nowSent = sent.get();
+            long nowDelivered = delivered.get();
+            long nowAcked = acked.get();
+            boolean warming = second <= options.warmup;
+            System.out.printf("%4d%s %8d %8d %8d %12.2f %12.2f %12.2f%n", second, warming ? "*" : " ",
+                    nowSent - lastSent, nowDelivered - lastDelivered, nowAcked - lastAcked,
+                    millis(deliveryInterval, 50), millis(deliveryInterval, 99), millis(ackInterval, 99));
+            lastSent = nowSent;
+            lastDelivered = nowDelivered;
+            lastAcked = nowAcked;
+            if (second == options.warmup) {
+                measureStart = System.nanoTime();
+                measureSent = nowSent;
+                measureDelivered = nowDelivered;
+                measureAcked = nowAcked;
+            } else if (!warming) {
+                deliveryTotal.add(deliveryInterval);
+                ackTotal.add(ackInterval);
+            }
+        }
+        double seconds = (System.nanoTime() - measureStart) / 1e9;
+        sender.interrupt();
+        sender.join();
+
+        System.out.println("----------------------------------------------------------------");
+        System.out.printf("压测 %.1f 秒（不含预热，* 为预热）：发送 %d，投递 %d，确认 %d，错误 %d%n", seconds,
+                lastSent - measureSent, lastDelivered - measureDelivered, lastAcked - measureAcked, errors.get());
+        System.out.printf("吞吐：发送 %.0f 条/秒，投递 %.0f 条/秒，确认 %.0f 条/秒%n",
+                (lastSent - measureSent) / seconds, (lastDelivered - measureDelivered) / seconds,
+                (lastAcked - measureAcked) / seconds);
+        if (sender.behindNanos > TimeUnit.MILLISECONDS.toNanos(100)) {
+            System.out.printf("注意：发送线程最多落后计划 %.1f ms，客户端自身可能已成为瓶颈%n", sender.behindNanos / 1e6);
+        }
+        printPercentiles("投递延迟", deliveryTotal);
+        printPercentiles("确认延迟", ackTotal);
+        // 等待已发出的消息投递、确认完毕再断开，避免服务端向已关闭的连接写出
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((delivered.get() < sent.get() || acked.get() < sent.get()) && System.nanoTime() < drainDeadline) {
+            Thread.sleep(100);
+        }
+        closeAll(agents, users);
+    }
+
+    /**
+     * 建立 count 个连接并认证，同时进行中的握手数受 options.concurrency 限制
+     */
+    private List<Client> connect(int userType, long idBase, int count) throws InterruptedException {
+        URI uri = URI.create(options.url);
+        Semaphore handshakes = new Semaphore(options.concurrency);
+        List<Client> clients = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            handshakes.acquire();
+            Client client = new Client(idBase + i, userType);
+            client.connect(uri).whenComplete((ok, e) -> handshakes.release());
+            clients.add(client);
+        }
+        handshakes.acquire(options.concurrency);
+        List<Client> connected = new ArrayList<>(count);
+        for (Client client : clients) {
+            if (client.handshake.isDone() && !client.handshake.isCompletedExceptionally()) {
+                connected.add(client);
+            }
+        }
+        if (connected.size() < count) {
+            System.out.printf("%s连接失败 %d 个%n", userType == 1 ? "用户" : "客服", count - connected.size());
+        }
+        return connected;
+    }
+
+    private static void closeAll(List<Client> agents, List<Client> users) {
+        for (Client client : users) {
+            client.channel.close();
+        }
+        for (Client client : agents) {
+            client.channel.close();
+        }
+    }
+
+    private static Long awaitQuietly(CompletableFuture<Long> future, long seconds) {
+        try {
+            return future.get(seconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static void printPercentiles(String name, Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            System.out.println(name + "：无样本");
+            return;
+        }
+        System.out.printf("%s(ms)：p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  p99.99 %.2f  max %.2f  样本 %d%n", name,
+                millis(histogram, 50), millis(histogram, 90), millis(histogram, 99), millis(histogram, 99.9),
+                millis(histogram, 99.99), histogram.getMaxValue() / 1000.0, histogram.getTotalCount());
+    }
+
+    /**
+     * 固定速率的发送线程：第 n 条消息的计划时刻为 start + n * interval，落后于计划时不休眠、连续补发
+     */
+    private final class Sender extends Thread {
+
+        private final List<Client> senders;
+        private volatile long behindNanos;
+
+        Sender(List<Client> senders) {
+            super("load-sender");
+            this.senders = senders;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long interval = TimeUnit.SECONDS.toNanos(1) / options.rate;
+            long start = System.nanoTime();
+            for (long seq = 0; !isInterrupted(); seq++) {
+                long intended = start + seq * interval;
+                long now = System.nanoTime();
+                if (intended > now) {
+                    LockSupport.parkNanos(intended - now);
+                } else if (now - intended > behindNanos) {
+                    behindNanos = now - intended;
+                }
+                Client user = senders.get((int) (seq % senders.size()));
+                if (!user.channel.isActive()) {
+                    continue;
+                }
+                String content = BenchData.pad("t" + intended + "|", options.size);
+                user.channel.writeAndFlush(ClientFrames.send(options.protocol, user.channel.alloc(),
+                        user.agentId, content, seq + "-" + intended), user.channel.voidPromise());
+                sent.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 单个压测连接：握手完成后发送 AUTH，之后定时发送心跳；客服统计投递延迟，用户统计确认延迟
+     */
+    private final class Client extends SimpleChannelInboundHandler<WebSocketFrame> {
+
+        private final long id;
+        private final int userType;
+        private final CompletableFuture<Void> handshake = new CompletableFuture<>();
+        private final CompletableFuture<Long> assigned = new CompletableFuture<>();
+        private volatile Channel channel;
+        private volatile Long agentId;
+
+        Client(long id, int userType) {
+            this.id = id;
+            this.userType = userType;
+        }
+
+        CompletableFuture<Void> connect(URI uri) {
+            WebSocketClientProtocolHandler protocolHandler = new WebSocketClientProtocolHandler(
+                    WebSocketClientHandshakerFactory.newHandshaker(uri, WebSocketVersion.V13,
+                            options.protocol.subprotocol(), false, new DefaultHttpHeaders(), 65536));
+            bootstrap.clone().handler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ch.pipeline().addLast(new HttpClientCodec(), new HttpObjectAggregator(65536), protocolHandler,
+                            Client.this);
+                }
+            }).connect(uri.getHost(), uri.getPort()).addListener(future -> {
+                if (!future.isSuccess()) {
+                    handshake.completeExceptionally(future.cause());
+                }
+            });
+            return handshake;
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+                channel = ctx.channel();
+                ctx.writeAndFlush(ClientFrames.auth(options.protocol, ctx.alloc(), id, userType));
+                ctx.executor().scheduleAtFixedRate(() -> ctx.writeAndFlush(
+                                ClientFrames.heartbeat(options.protocol, ctx.alloc()), ctx.voidPromise()),
+                        HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+                handshake.complete(null);
+            } else if (evt == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_TIMEOUT) {
+                handshake.completeExceptionally(new IllegalStateException("握手超时"));
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame msg) {
+            ServerFrame frame = ClientFrames.decode(msg);
+            long now = System.nanoTime();
+            if (frame instanceof ReceiveFrame) {
+                // 正文前缀 "t<计划时刻>|"
+                String content = ((ReceiveFrame) frame).getContent();
+                int end = content.indexOf('|');
+                if (content.startsWith("t") && end > 0) {
+                    deliveryRecorder.recordValue(micros(now - Long.parseLong(content.substring(1, end))));
+                    delivered.incrementAndGet();
+                }
+            } else if (frame instanceof SentFrame) {
+                // clientMsgId 为 "<序号>-<计划时刻>"
+                String clientMsgId = ((SentFrame) frame).getClientMsgId();
+                int dash = clientMsgId == null ? -1 : clientMsgId.indexOf('-');
+                if (dash > 0) {
+                    ackRecorder.recordValue(micros(now - Long.parseLong(clientMsgId.substring(dash + 1))));
+                    acked.incrementAndGet();
+                }
+            } else if (frame instanceof SystemFrame) {
+                Long assignedAgent = ((SystemFrame) frame).getAgentId();
+                if (assignedAgent != null) {
+                    assigned.complete(assignedAgent);
+                }
+            } else if (frame instanceof QueueFrame) {
+                if (!assigned.isDone()) {
+                    queued.incrementAndGet();
+                }
+            } else if (frame instanceof ErrorFrame) {
+                errors.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            handshake.completeExceptionally(new IllegalStateException("连接已关闭"));
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            handshake.completeExceptionally(cause);
+            ctx.close();
+        }
+    }
+
+    private static long micros(long nanos) {
+        return Math.min(Math.max(nanos / 1000, 0), HIGHEST_TRACKABLE_MICROS);
+    }
+
+    /**
+     * 命令行参数，格式 --key=value
+     */
+    private static final class Options {
+        String url = "ws://127.0.0.1:8888/ws";
+        int agents = 10;
+        int users = 1000;
+        int rate = 5000;
+        int size = 64;
+        int warmup = 10;
+        int duration = 30;
+        int idle = 0;
+        int concurrency = 200;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long idBase = 1_000_000L;
+        ClientFrames.Protocol protocol = ClientFrames.Protocol.JSON;
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new HashMap<>();
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (!arg.startsWith("--") || eq < 0) {
+                    throw new IllegalArgumentException("参数格式应为 --key=value: " + arg);
+                }
+                values.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+            Options options = new Options();
+            options.url = values.getOrDefault("url", options.url);
+            options.agents = intValue(values, "agents", options.agents);
+            options.users = intValue(values, "users", options.users);
+            options.rate = Math.max(1, intValue(values, "rate", options.rate));
+            options.size = intValue(values, "size", options.size);
+            options.warmup = intValue(values, "warmup", options.warmup);
+            options.duration = intValue(values, "duration", options.duration);
+            options.idle = intValue(values, "idle", options.idle);
+            options.concurrency = Math.max(1, intValue(values, "concurrency", options.concurrency));
+            options.threads = intValue(values, "threads", options.threads);
+            options.idBase = Long.parseLong(values.getOrDefault("id-base", String.valueOf(options.idBase)));
+            options.protocol = ClientFrames.Protocol.valueOf(
+                    values.getOrDefault("protocol", options.protocol.name()).toUpperCase());
+            return options;
+        }
+
+        private static int intValue(Map<String, String> values, String key, int defaultValue) {
+            String value = values.get(key);
+            return value == null ? defaultValue : Integer.parseInt(value);
+        }
+    }
+}
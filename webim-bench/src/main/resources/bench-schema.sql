@@ -0,0 +1,31 @@
+-- 与 sql/init.sql 相同的表结构（H2 MySQL 兼容模式）
+CREATE TABLE IF NOT EXISTS im_user (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    nickname VARCHAR(64) NOT NULL,
+    avatar VARCHAR(255) DEFAULT NULL,
+    create_time DATETIME DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS im_agent (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    agent_name VARCHAR(64) NOT NULL,
+    work_status TINYINT DEFAULT 0,
+    max_links INT DEFAULT 5,
+    create_time DATETIME DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS im_message (
+    id BIGINT NOT NULL,
+    conversation_id VARCHAR(64) NOT NULL DEFAULT '',
+    from_id BIGINT NOT NULL,
+    from_type TINYINT NOT NULL,
+    to_id BIGINT NOT NULL,
+    content TEXT,
+    msg_type TINYINT DEFAULT 1,
+    create_time DATETIME DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_conversation_id ON im_message (conversation_id, id);